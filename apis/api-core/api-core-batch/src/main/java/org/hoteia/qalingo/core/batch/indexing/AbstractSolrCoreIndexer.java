@@ -0,0 +1,71 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.batch.indexing;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+/**
+ * What the reindex job needs to rebuild one Solr core : the id range and the keyset pages
+ * of the indexed entity, its bulk load with a flat fetch plan, and the Solr documents built
+ * from a loaded page. The loads run in the chunk transaction, so the associations left out
+ * of the fetch plan are still reachable while the documents are built.
+ */
+public abstract class AbstractSolrCoreIndexer<T> {
+
+    @PersistenceContext
+    protected EntityManager em;
+
+    /**
+     * @return the name of the Solr core, as in ${solr.server.url}/coreName
+     */
+    public abstract String getCoreName();
+
+    /**
+     * @return the JPA entity name used by the id queries
+     */
+    protected abstract String getEntityName();
+
+    public abstract Long getId(T entity);
+
+    /**
+     * @return the entities of these ids, ordered by id; the deleted ones are missing
+     */
+    public abstract List<T> loadByIds(List<Long> ids);
+
+    /**
+     * @return the Solr beans of a page of entities
+     */
+    public abstract List<?> buildDocuments(List<T> entities);
+
+    /**
+     * @return the lowest and the highest id, both null when the table is empty
+     */
+    public Long[] getIdRange() {
+        Object[] range = (Object[]) em.createQuery("SELECT MIN(e.id), MAX(e.id) FROM " + getEntityName() + " e").getSingleResult();
+        return new Long[] { (Long) range[0], (Long) range[1] };
+    }
+
+    /**
+     * Keyset page : the ids after afterId, up to maxId, in id order. The cost of a page does not
+     * depend on its position, unlike an offset.
+     */
+    public List<Long> findIds(final Long afterId, final Long maxId, final int maxResults) {
+        TypedQuery<Long> query = em.createQuery("SELECT e.id FROM " + getEntityName() + " e WHERE e.id > :afterId AND e.id <= :maxId ORDER BY e.id", Long.class);
+        query.setParameter("afterId", afterId);
+        query.setParameter("maxId", maxId);
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.batch.indexing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hoteia.qalingo.core.domain.CatalogCategoryMaster;
+import org.hoteia.qalingo.core.fetchplan.FetchPlan;
+import org.hoteia.qalingo.core.fetchplan.SpecificFetchMode;
+import org.hoteia.qalingo.core.service.CatalogCategoryService;
+import org.hoteia.qalingo.core.solr.bean.CatalogCategorySolr;
+import org.hoteia.qalingo.core.solr.service.CatalogCategorySolrService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+@Component(value = "catalogCategorySolrCoreIndexer")
+public class CatalogCategorySolrCoreIndexer extends AbstractSolrCoreIndexer<CatalogCategoryMaster> {
+
+    @Autowired
+    protected CatalogCategoryService catalogCategoryService;
+
+    @Autowired
+    protected CatalogCategorySolrService catalogCategorySolrService;
+
+    @Override
+    public String getCoreName() {
+        return "catalog-category";
+    }
+
+    @Override
+    protected String getEntityName() {
+        return "CatalogCategoryMaster";
+    }
+
+    @Override
+    public Long getId(CatalogCategoryMaster catalogCategory) {
+        return catalogCategory.getId();
+    }
+
+    @Override
+    public List<CatalogCategoryMaster> loadByIds(List<Long> ids) {
+        return catalogCategoryService.findMasterCategoriesByIds(ids, new FetchPlan(new ArrayList<SpecificFetchMode>()));
+    }
+
+    @Override
+    public List<?> buildDocuments(List<CatalogCategoryMaster> catalogCategories) {
+        List<CatalogCategorySolr> catalogCategorySolrs = new ArrayList<CatalogCategorySolr>();
+        for (CatalogCategoryMaster catalogCategory : catalogCategories) {
+            catalogCategorySolrs.add(catalogCategorySolrService.buildCatalogCategorySolr(catalogCategory, null));
+        }
+        return catalogCategorySolrs;
+    }
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.batch.indexing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+
+/**
+ * Splits the ids of the indexed entity in gridSize contiguous ranges, one partition each.
+ * The ranges are kept in the partition execution contexts, so a restart reindexes the same ranges.
+ */
+public class IdRangePartitioner implements Partitioner {
+
+    public static final String MIN_ID_KEY = "minId";
+    public static final String MAX_ID_KEY = "maxId";
+
+    private AbstractSolrCoreIndexer<?> coreIndexer;
+
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        Map<String, ExecutionContext> partitions = new LinkedHashMap<String, ExecutionContext>();
+        Long[] idRange = coreIndexer.getIdRange();
+        if (idRange[0] == null || idRange[1] == null) {
+            // EMPTY TABLE : ONE PARTITION WHICH READS NOTHING
+            partitions.put(getPartitionName(0), buildContext(1, 0));
+            return partitions;
+        }
+        long minId = idRange[0];
+        long maxId = idRange[1];
+        long rangeSize = (maxId - minId) / Math.max(gridSize, 1) + 1;
+        int partition = 0;
+        for (long startId = minId; startId <= maxId; startId += rangeSize) {
+            partitions.put(getPartitionName(partition++), buildContext(startId, Math.min(startId + rangeSize - 1, maxId)));
+        }
+        return partitions;
+    }
+
+    protected String getPartitionName(int partition) {
+        return coreIndexer.getCoreName() + "-partition" + partition;
+    }
+
+    private ExecutionContext buildContext(long minId, long maxId) {
+        ExecutionContext context = new ExecutionContext();
+        context.putLong(MIN_ID_KEY, minId);
+        context.putLong(MAX_ID_KEY, maxId);
+        return context;
+    }
+
+    public void setCoreIndexer(AbstractSolrCoreIndexer<?> coreIndexer) {
+        this.coreIndexer = coreIndexer;
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.batch.indexing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.hoteia.qalingo.core.domain.CatalogCategoryVirtual;
+import org.hoteia.qalingo.core.domain.CatalogCategoryVirtual_;
+import org.hoteia.qalingo.core.domain.ProductMarketing;
+import org.hoteia.qalingo.core.domain.ProductMarketing_;
+import org.hoteia.qalingo.core.domain.ProductSku;
+import org.hoteia.qalingo.core.fetchplan.FetchPlan;
+import org.hoteia.qalingo.core.fetchplan.SpecificFetchMode;
+import org.hoteia.qalingo.core.service.CatalogCategoryService;
+import org.hoteia.qalingo.core.service.ProductService;
+import org.hoteia.qalingo.core.solr.bean.ProductMarketingSolr;
+import org.hoteia.qalingo.core.solr.service.ProductMarketingSolrService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+@Component(value = "productMarketingSolrCoreIndexer")
+public class ProductMarketingSolrCoreIndexer extends AbstractSolrCoreIndexer<ProductMarketing> {
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected CatalogCategoryService catalogCategoryService;
+
+    @Autowired
+    protected ProductMarketingSolrService productMarketingSolrService;
+
+    @Override
+    public String getCoreName() {
+        return "product-marketing";
+    }
+
+    @Override
+    protected String getEntityName() {
+        return "ProductMarketing";
+    }
+
+    @Override
+    public Long getId(ProductMarketing productMarketing) {
+        return productMarketing.getId();
+    }
+
+    @Override
+    public List<ProductMarketing> loadByIds(List<Long> ids) {
+        List<SpecificFetchMode> fetchModes = new ArrayList<SpecificFetchMode>();
+        fetchModes.add(new SpecificFetchMode(ProductMarketing_.productSkus.getName()));
+        return productService.findProductMarketingsByIds(ids, new FetchPlan(fetchModes));
+    }
+
+    @Override
+    public List<?> buildDocuments(List<ProductMarketing> productMarketings) {
+        List<Long> productSkuIds = new ArrayList<Long>();
+        for (ProductMarketing productMarketing : productMarketings) {
+            ProductSku productSku = productMarketing.getDefaultProductSku();
+            if (productSku != null) {
+                productSkuIds.add(productSku.getId());
+            }
+        }
+        List<SpecificFetchMode> categoryFetchModes = new ArrayList<SpecificFetchMode>();
+        categoryFetchModes.add(new SpecificFetchMode(CatalogCategoryVirtual_.catalog.getName()));
+        Map<Long, List<CatalogCategoryVirtual>> catalogCategories = catalogCategoryService.findVirtualCategoriesByProductSkuIds(productSkuIds, new FetchPlan(categoryFetchModes));
+
+        List<ProductMarketingSolr> productMarketingSolrs = new ArrayList<ProductMarketingSolr>();
+        for (ProductMarketing productMarketing : productMarketings) {
+            ProductSku productSku = productMarketing.getDefaultProductSku();
+            if (productSku != null) {
+                productMarketingSolrs.add(productMarketingSolrService.buildProductMarketingSolr(productMarketing, catalogCategories.get(productSku.getId()), null, null));
+            }
+        }
+        return productMarketingSolrs;
+    }
+
+}
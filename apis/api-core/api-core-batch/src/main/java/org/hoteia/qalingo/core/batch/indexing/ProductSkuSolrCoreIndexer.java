@@ -0,0 +1,80 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.batch.indexing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.hoteia.qalingo.core.domain.CatalogCategoryVirtual;
+import org.hoteia.qalingo.core.domain.CatalogCategoryVirtual_;
+import org.hoteia.qalingo.core.domain.ProductSku;
+import org.hoteia.qalingo.core.domain.ProductSku_;
+import org.hoteia.qalingo.core.fetchplan.FetchPlan;
+import org.hoteia.qalingo.core.fetchplan.SpecificFetchMode;
+import org.hoteia.qalingo.core.service.CatalogCategoryService;
+import org.hoteia.qalingo.core.service.ProductService;
+import org.hoteia.qalingo.core.solr.bean.ProductSkuSolr;
+import org.hoteia.qalingo.core.solr.service.ProductSkuSolrService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+@Component(value = "productSkuSolrCoreIndexer")
+public class ProductSkuSolrCoreIndexer extends AbstractSolrCoreIndexer<ProductSku> {
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected CatalogCategoryService catalogCategoryService;
+
+    @Autowired
+    protected ProductSkuSolrService productSkuSolrService;
+
+    @Override
+    public String getCoreName() {
+        return "product-sku";
+    }
+
+    @Override
+    protected String getEntityName() {
+        return "ProductSku";
+    }
+
+    @Override
+    public Long getId(ProductSku productSku) {
+        return productSku.getId();
+    }
+
+    @Override
+    public List<ProductSku> loadByIds(List<Long> ids) {
+        List<SpecificFetchMode> fetchModes = new ArrayList<SpecificFetchMode>();
+        fetchModes.add(new SpecificFetchMode(ProductSku_.productMarketing.getName()));
+        return productService.findProductSkusByIds(ids, new FetchPlan(fetchModes));
+    }
+
+    @Override
+    public List<?> buildDocuments(List<ProductSku> productSkus) {
+        List<Long> productSkuIds = new ArrayList<Long>();
+        for (ProductSku productSku : productSkus) {
+            productSkuIds.add(productSku.getId());
+        }
+        List<SpecificFetchMode> categoryFetchModes = new ArrayList<SpecificFetchMode>();
+        categoryFetchModes.add(new SpecificFetchMode(CatalogCategoryVirtual_.catalog.getName()));
+        Map<Long, List<CatalogCategoryVirtual>> catalogCategories = catalogCategoryService.findVirtualCategoriesByProductSkuIds(productSkuIds, new FetchPlan(categoryFetchModes));
+
+        List<ProductSkuSolr> productSkuSolrs = new ArrayList<ProductSkuSolr>();
+        for (ProductSku productSku : productSkus) {
+            productSkuSolrs.add(productSkuSolrService.buildProductSkuSolr(productSku, catalogCategories.get(productSku.getId()), null, null));
+        }
+        return productSkuSolrs;
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.batch.indexing;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.request.CoreAdminRequest;
+import org.apache.solr.common.params.CoreAdminParams.CoreAdminAction;
+import org.apache.solr.common.util.NamedList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Core admin calls of the reindex job. In rebuild mode the documents go to a "-rebuild" core
+ * created next to the live one, with the same configuration and its own data directory; the
+ * live core keeps serving the searches until the two cores are swapped at the end of the job.
+ * With persistent="true" in solr.xml, Solr saves the swap.
+ */
+public class SolrCoreAdmin {
+
+    public static final String REBUILD_CORE_SUFFIX = "-rebuild";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private String solrServerUrl;
+
+    private final ConcurrentMap<String, SolrServer> solrServers = new ConcurrentHashMap<String, SolrServer>();
+
+    public String getRebuildCoreName(final String coreName) {
+        return coreName + REBUILD_CORE_SUFFIX;
+    }
+
+    public SolrServer getSolrServer(final String coreName) {
+        SolrServer solrServer = solrServers.get(coreName);
+        if (solrServer == null) {
+            solrServer = new HttpSolrServer(coreName.length() == 0 ? solrServerUrl : solrServerUrl + "/" + coreName);
+            SolrServer existingSolrServer = solrServers.putIfAbsent(coreName, solrServer);
+            if (existingSolrServer != null) {
+                solrServer = existingSolrServer;
+            }
+        }
+        return solrServer;
+    }
+
+    /**
+     * @return the server of the core container, for the core admin requests.
+     */
+    protected SolrServer getAdminSolrServer() {
+        return getSolrServer("");
+    }
+
+    /**
+     * Creates an empty rebuild core, after dropping the one a former abandoned job left.
+     */
+    public void createRebuildCore(final String coreName) throws SolrServerException, IOException {
+        SolrServer adminSolrServer = getAdminSolrServer();
+        String rebuildCoreName = getRebuildCoreName(coreName);
+        String instanceDir = getInstanceDir(coreName);
+        if (instanceDir == null) {
+            throw new IllegalStateException("Unknown Solr core: " + coreName);
+        }
+        if (getInstanceDir(rebuildCoreName) != null) {
+            CoreAdminRequest.unloadCore(rebuildCoreName, true, adminSolrServer);
+        }
+        CoreAdminRequest.Create create = new CoreAdminRequest.Create();
+        create.setCoreName(rebuildCoreName);
+        create.setInstanceDir(instanceDir);
+        create.setDataDir("data-" + System.currentTimeMillis());
+        create.process(adminSolrServer);
+        logger.info("Solr core " + rebuildCoreName + " created in " + instanceDir);
+    }
+
+    /**
+     * Commits the rebuild core, swaps it with the live core and drops the former live core.
+     * Nothing is done when the rebuild core is already gone, so a restarted job does not swap twice.
+     */
+    public void swapRebuildCore(final String coreName) throws SolrServerException, IOException {
+        SolrServer adminSolrServer = getAdminSolrServer();
+        String rebuildCoreName = getRebuildCoreName(coreName);
+        if (getInstanceDir(rebuildCoreName) == null) {
+            logger.info("Solr core " + rebuildCoreName + " not found, already swapped");
+            return;
+        }
+        getSolrServer(rebuildCoreName).commit();
+
+        CoreAdminRequest swap = new CoreAdminRequest();
+        swap.setAction(CoreAdminAction.SWAP);
+        swap.setCoreName(coreName);
+        swap.setOtherCoreName(rebuildCoreName);
+        swap.process(adminSolrServer);
+
+        // AFTER THE SWAP, THE REBUILD NAME POINTS TO THE FORMER LIVE CORE
+        CoreAdminRequest.unloadCore(rebuildCoreName, true, adminSolrServer);
+        logger.info("Solr core " + coreName + " swapped with " + rebuildCoreName);
+    }
+
+    public void commit(final String coreName) throws SolrServerException, IOException {
+        getSolrServer(coreName).commit();
+    }
+
+    protected String getInstanceDir(final String coreName) throws SolrServerException, IOException {
+        NamedList<Object> coreStatus = CoreAdminRequest.getStatus(coreName, getAdminSolrServer()).getCoreStatus(coreName);
+        if (coreStatus == null) {
+            return null;
+        }
+        return (String) coreStatus.get("instanceDir");
+    }
+
+    public void setSolrServerUrl(String solrServerUrl) {
+        this.solrServerUrl = solrServerUrl;
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.batch.indexing;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+
+/**
+ * Reads the entities of one id range by keyset pages : the ids of a page come from
+ * id &gt; last id, then the page is loaded with one IN query. The last id handed to the writer
+ * is saved in the step execution context, a restarted partition carries on after it.
+ */
+public class SolrCoreItemReader<T> implements ItemStreamReader<T> {
+
+    public static final String LAST_ID_KEY = "solr.reindex.last.id";
+
+    private AbstractSolrCoreIndexer<T> coreIndexer;
+
+    private long minId;
+    private long maxId;
+    private int pageSize = 500;
+
+    private final LinkedList<T> page = new LinkedList<T>();
+    private long lastReadId;
+    private long lastLoadedId;
+    private boolean exhausted;
+
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        if (executionContext.containsKey(LAST_ID_KEY)) {
+            lastReadId = executionContext.getLong(LAST_ID_KEY);
+        } else {
+            lastReadId = minId - 1;
+        }
+        lastLoadedId = lastReadId;
+        page.clear();
+        exhausted = false;
+    }
+
+    public T read() {
+        while (page.isEmpty() && !exhausted) {
+            List<Long> ids = coreIndexer.findIds(lastLoadedId, maxId, pageSize);
+            if (ids.isEmpty()) {
+                exhausted = true;
+            } else {
+                lastLoadedId = ids.get(ids.size() - 1);
+                // THE ENTITIES DELETED SINCE THE ID QUERY ARE MISSING FROM THE PAGE
+                page.addAll(coreIndexer.loadByIds(ids));
+            }
+        }
+        if (page.isEmpty()) {
+            return null;
+        }
+        T entity = page.removeFirst();
+        lastReadId = coreIndexer.getId(entity);
+        return entity;
+    }
+
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        executionContext.putLong(LAST_ID_KEY, lastReadId);
+    }
+
+    public void close() throws ItemStreamException {
+        page.clear();
+    }
+
+    public void setCoreIndexer(AbstractSolrCoreIndexer<T> coreIndexer) {
+        this.coreIndexer = coreIndexer;
+    }
+
+    public void setMinId(long minId) {
+        this.minId = minId;
+    }
+
+    public void setMaxId(long maxId) {
+        this.maxId = maxId;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+}
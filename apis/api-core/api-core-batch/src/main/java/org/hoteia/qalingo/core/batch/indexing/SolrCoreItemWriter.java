@@ -0,0 +1,108 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.batch.indexing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hoteia.qalingo.core.solr.service.SolrBatchIndexer;
+import org.hoteia.qalingo.core.solr.service.SolrIndexingResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.listener.StepExecutionListenerSupport;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemWriter;
+
+/**
+ * Builds the Solr documents of a chunk and adds them in one request to the live core, or to
+ * the rebuild core when the job builds a new core. A document rejected by Solr is logged and
+ * counted as a write skip of the step, and in the job execution context for the swap of the
+ * rebuild cores; a chunk without any indexed document fails the step, which can be restarted.
+ */
+public class SolrCoreItemWriter<T> extends StepExecutionListenerSupport implements ItemWriter<T> {
+
+    public static final String REJECTED_COUNT_KEY = "solr.reindex.rejected.count";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private AbstractSolrCoreIndexer<T> coreIndexer;
+
+    private SolrCoreAdmin solrCoreAdmin;
+
+    private boolean rebuild;
+
+    private int batchSize = 500;
+
+    private int commitWithin = 10000;
+
+    private SolrBatchIndexer solrBatchIndexer;
+
+    private StepExecution stepExecution;
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        this.stepExecution = stepExecution;
+    }
+
+    public void write(List<? extends T> items) throws Exception {
+        List<?> documents = coreIndexer.buildDocuments(new ArrayList<T>(items));
+        if (documents.isEmpty()) {
+            return;
+        }
+        SolrIndexingResult result = getSolrBatchIndexer().index(documents);
+        if (!result.isSuccess()) {
+            logger.error("Core " + coreIndexer.getCoreName() + ", documents rejected: " + result.getFailures());
+            if (result.getIndexedCount() == 0) {
+                throw new IllegalStateException("Core " + coreIndexer.getCoreName() + ", no document of the chunk was indexed");
+            }
+            countRejections(result.getFailedCount());
+        }
+    }
+
+    private void countRejections(final int rejectedCount) {
+        stepExecution.setWriteSkipCount(stepExecution.getWriteSkipCount() + rejectedCount);
+        // SHARED BY THE PARTITIONS, AND CARRIED OVER TO THE RESTARTS OF THE JOB
+        ExecutionContext jobExecutionContext = stepExecution.getJobExecution().getExecutionContext();
+        synchronized (jobExecutionContext) {
+            jobExecutionContext.putInt(REJECTED_COUNT_KEY, jobExecutionContext.getInt(REJECTED_COUNT_KEY, 0) + rejectedCount);
+        }
+    }
+
+    private SolrBatchIndexer getSolrBatchIndexer() {
+        if (solrBatchIndexer == null) {
+            String coreName = rebuild ? solrCoreAdmin.getRebuildCoreName(coreIndexer.getCoreName()) : coreIndexer.getCoreName();
+            // SYNCHRONOUS USE ONLY : NO QUEUE, NO WRITER THREAD
+            solrBatchIndexer = new SolrBatchIndexer(coreName, solrCoreAdmin.getSolrServer(coreName), batchSize, 1, commitWithin, 0, 0, 0);
+        }
+        return solrBatchIndexer;
+    }
+
+    public void setCoreIndexer(AbstractSolrCoreIndexer<T> coreIndexer) {
+        this.coreIndexer = coreIndexer;
+    }
+
+    public void setSolrCoreAdmin(SolrCoreAdmin solrCoreAdmin) {
+        this.solrCoreAdmin = solrCoreAdmin;
+    }
+
+    public void setRebuild(boolean rebuild) {
+        this.rebuild = rebuild;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setCommitWithin(int commitWithin) {
+        this.commitWithin = commitWithin;
+    }
+
+}
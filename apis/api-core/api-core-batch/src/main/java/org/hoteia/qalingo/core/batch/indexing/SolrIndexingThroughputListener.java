@@ -0,0 +1,38 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.batch.indexing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.listener.StepExecutionListenerSupport;
+
+/**
+ * Logs the throughput of a reindex step, in documents per second, and keeps it in the step
+ * execution context. On a partitioned step the master step reports the sum of its partitions.
+ */
+public class SolrIndexingThroughputListener extends StepExecutionListenerSupport {
+
+    public static final String DOCS_PER_SECOND_KEY = "solr.reindex.docs.per.second";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        long elapsedMillis = Math.max(System.currentTimeMillis() - stepExecution.getStartTime().getTime(), 1);
+        int documents = stepExecution.getWriteCount();
+        double docsPerSecond = documents * 1000d / elapsedMillis;
+        stepExecution.getExecutionContext().putDouble(DOCS_PER_SECOND_KEY, docsPerSecond);
+        logger.info(String.format("Step %s : %d documents in %d ms, %.1f docs/sec", stepExecution.getStepName(), documents, elapsedMillis, docsPerSecond));
+        return null;
+    }
+
+}
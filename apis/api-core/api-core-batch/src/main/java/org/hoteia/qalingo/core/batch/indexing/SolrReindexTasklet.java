@@ -0,0 +1,79 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.batch.indexing;
+
+import java.util.List;
+
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.RepeatStatus;
+
+/**
+ * First and last steps of the reindex job. In rebuild mode, PREPARE creates the rebuild cores
+ * and FINISH swaps them with the live cores; otherwise FINISH sends a hard commit to the live cores.
+ * When Solr rejected documents of any partition, FINISH fails the job instead of swapping in the
+ * incomplete rebuild cores : the live cores are kept, a new rebuild has to be launched.
+ */
+public class SolrReindexTasklet implements Tasklet {
+
+    public enum Action {
+        PREPARE, FINISH
+    }
+
+    private Action action;
+
+    private SolrCoreAdmin solrCoreAdmin;
+
+    private List<AbstractSolrCoreIndexer<?>> coreIndexers;
+
+    private boolean rebuild;
+
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        if (Action.FINISH.equals(action) && rebuild) {
+            ExecutionContext jobExecutionContext = chunkContext.getStepContext().getStepExecution().getJobExecution().getExecutionContext();
+            int rejectedCount = jobExecutionContext.getInt(SolrCoreItemWriter.REJECTED_COUNT_KEY, 0);
+            if (rejectedCount > 0) {
+                throw new IllegalStateException(rejectedCount + " documents rejected by Solr, the rebuild cores are not swapped with the live cores");
+            }
+        }
+        for (AbstractSolrCoreIndexer<?> coreIndexer : coreIndexers) {
+            String coreName = coreIndexer.getCoreName();
+            if (Action.PREPARE.equals(action)) {
+                if (rebuild) {
+                    solrCoreAdmin.createRebuildCore(coreName);
+                }
+            } else if (rebuild) {
+                solrCoreAdmin.swapRebuildCore(coreName);
+            } else {
+                solrCoreAdmin.commit(coreName);
+            }
+        }
+        return RepeatStatus.FINISHED;
+    }
+
+    public void setAction(Action action) {
+        this.action = action;
+    }
+
+    public void setSolrCoreAdmin(SolrCoreAdmin solrCoreAdmin) {
+        this.solrCoreAdmin = solrCoreAdmin;
+    }
+
+    public void setCoreIndexers(List<AbstractSolrCoreIndexer<?>> coreIndexers) {
+        this.coreIndexers = coreIndexers;
+    }
+
+    public void setRebuild(boolean rebuild) {
+        this.rebuild = rebuild;
+    }
+
+}
@@ -0,0 +1,63 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.batch.indexing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hoteia.qalingo.core.domain.Store;
+import org.hoteia.qalingo.core.fetchplan.FetchPlan;
+import org.hoteia.qalingo.core.fetchplan.SpecificFetchMode;
+import org.hoteia.qalingo.core.service.RetailerService;
+import org.hoteia.qalingo.core.solr.bean.StoreSolr;
+import org.hoteia.qalingo.core.solr.service.StoreSolrService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+@Component(value = "storeSolrCoreIndexer")
+public class StoreSolrCoreIndexer extends AbstractSolrCoreIndexer<Store> {
+
+    @Autowired
+    protected RetailerService retailerService;
+
+    @Autowired
+    protected StoreSolrService storeSolrService;
+
+    @Override
+    public String getCoreName() {
+        return "store";
+    }
+
+    @Override
+    protected String getEntityName() {
+        return "Store";
+    }
+
+    @Override
+    public Long getId(Store store) {
+        return store.getId();
+    }
+
+    @Override
+    public List<Store> loadByIds(List<Long> ids) {
+        // THE STORE DOCUMENT ONLY HOLDS COLUMNS OF THE STORE TABLE
+        return retailerService.findStoresByIds(ids, new FetchPlan(new ArrayList<SpecificFetchMode>()));
+    }
+
+    @Override
+    public List<?> buildDocuments(List<Store> stores) {
+        List<StoreSolr> storeSolrs = new ArrayList<StoreSolr>();
+        for (Store store : stores) {
+            storeSolrs.add(storeSolrService.buildStoreSolr(store));
+        }
+        return storeSolrs;
+    }
+
+}
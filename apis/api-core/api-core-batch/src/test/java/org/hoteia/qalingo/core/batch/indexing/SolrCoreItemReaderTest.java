@@ -0,0 +1,165 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.batch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.springframework.batch.item.ExecutionContext;
+
+/**
+ * SolrCoreItemReader Test : id range partitions, keyset pages and restart after the
+ * last id saved in the step execution context, on an in memory indexer.
+ */
+public class SolrCoreItemReaderTest {
+
+    private static class InMemoryCoreIndexer extends AbstractSolrCoreIndexer<Long> {
+
+        private final TreeSet<Long> ids = new TreeSet<Long>();
+        private int pageCount;
+
+        private InMemoryCoreIndexer(Long... ids) {
+            this.ids.addAll(Arrays.asList(ids));
+        }
+
+        @Override
+        public String getCoreName() {
+            return "test";
+        }
+
+        @Override
+        protected String getEntityName() {
+            return "Test";
+        }
+
+        @Override
+        public Long getId(Long entity) {
+            return entity;
+        }
+
+        @Override
+        public List<Long> loadByIds(List<Long> ids) {
+            pageCount++;
+            return new ArrayList<Long>(ids);
+        }
+
+        @Override
+        public List<?> buildDocuments(List<Long> entities) {
+            return entities;
+        }
+
+        @Override
+        public Long[] getIdRange() {
+            if (ids.isEmpty()) {
+                return new Long[] { null, null };
+            }
+            return new Long[] { ids.first(), ids.last() };
+        }
+
+        @Override
+        public List<Long> findIds(Long afterId, Long maxId, int maxResults) {
+            List<Long> page = new ArrayList<Long>();
+            for (Long id : ids.subSet(afterId, false, maxId, true)) {
+                if (page.size() == maxResults) {
+                    break;
+                }
+                page.add(id);
+            }
+            return page;
+        }
+    }
+
+    @Test
+    public void testPartitionsCoverTheIdRange() {
+        IdRangePartitioner partitioner = new IdRangePartitioner();
+        partitioner.setCoreIndexer(new InMemoryCoreIndexer(new Long(3), new Long(10), new Long(17), new Long(42)));
+        Map<String, ExecutionContext> partitions = partitioner.partition(4);
+
+        assertEquals(4, partitions.size());
+        long expectedMinId = 3;
+        for (ExecutionContext context : partitions.values()) {
+            assertEquals(expectedMinId, context.getLong(IdRangePartitioner.MIN_ID_KEY));
+            expectedMinId = context.getLong(IdRangePartitioner.MAX_ID_KEY) + 1;
+        }
+        assertEquals(43, expectedMinId);
+    }
+
+    @Test
+    public void testEmptyTableGivesOneEmptyPartition() {
+        IdRangePartitioner partitioner = new IdRangePartitioner();
+        partitioner.setCoreIndexer(new InMemoryCoreIndexer());
+        Map<String, ExecutionContext> partitions = partitioner.partition(4);
+
+        assertEquals(1, partitions.size());
+        SolrCoreItemReader<Long> reader = buildReader(new InMemoryCoreIndexer(), partitions.values().iterator().next());
+        reader.open(new ExecutionContext());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testReadsTheRangeByPages() {
+        InMemoryCoreIndexer coreIndexer = new InMemoryCoreIndexer(new Long(1), new Long(2), new Long(4), new Long(5), new Long(7), new Long(9));
+        ExecutionContext partition = new ExecutionContext();
+        partition.putLong(IdRangePartitioner.MIN_ID_KEY, 2);
+        partition.putLong(IdRangePartitioner.MAX_ID_KEY, 7);
+        SolrCoreItemReader<Long> reader = buildReader(coreIndexer, partition);
+        reader.open(new ExecutionContext());
+
+        assertEquals(Arrays.asList(new Long(2), new Long(4), new Long(5), new Long(7)), readAll(reader));
+        assertEquals(2, coreIndexer.pageCount);
+    }
+
+    @Test
+    public void testRestartCarriesOnAfterTheLastSavedId() {
+        InMemoryCoreIndexer coreIndexer = new InMemoryCoreIndexer(new Long(1), new Long(2), new Long(3), new Long(4), new Long(5));
+        ExecutionContext partition = new ExecutionContext();
+        partition.putLong(IdRangePartitioner.MIN_ID_KEY, 1);
+        partition.putLong(IdRangePartitioner.MAX_ID_KEY, 5);
+
+        SolrCoreItemReader<Long> reader = buildReader(coreIndexer, partition);
+        ExecutionContext stepContext = new ExecutionContext();
+        reader.open(stepContext);
+        reader.read();
+        reader.read();
+        reader.update(stepContext);
+        reader.read();
+        reader.close();
+
+        SolrCoreItemReader<Long> restartedReader = buildReader(coreIndexer, partition);
+        restartedReader.open(stepContext);
+        assertEquals(Arrays.asList(new Long(3), new Long(4), new Long(5)), readAll(restartedReader));
+    }
+
+    private SolrCoreItemReader<Long> buildReader(InMemoryCoreIndexer coreIndexer, ExecutionContext partition) {
+        SolrCoreItemReader<Long> reader = new SolrCoreItemReader<Long>();
+        reader.setCoreIndexer(coreIndexer);
+        reader.setMinId(partition.getLong(IdRangePartitioner.MIN_ID_KEY));
+        reader.setMaxId(partition.getLong(IdRangePartitioner.MAX_ID_KEY));
+        reader.setPageSize(2);
+        return reader;
+    }
+
+    private List<Long> readAll(SolrCoreItemReader<Long> reader) {
+        List<Long> entities = new ArrayList<Long>();
+        Long entity;
+        while ((entity = reader.read()) != null) {
+            entities.add(entity);
+        }
+        return entities;
+    }
+
+}
@@ -0,0 +1,187 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.batch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.scope.context.StepContext;
+
+/**
+ * SolrCoreItemWriter Test : the documents rejected by Solr counted as write skips of the
+ * partition, and the rebuild cores not swapped after a rejection.
+ */
+public class SolrCoreItemWriterTest {
+
+    private static final Long REJECTED_ID = new Long(2);
+
+    private JobExecution jobExecution;
+    private RecordingSolrCoreAdmin solrCoreAdmin;
+    private DocumentCoreIndexer coreIndexer;
+
+    /**
+     * Rejects the update requests which contain the document REJECTED_ID.
+     */
+    private static class RejectingSolrServer extends SolrServer {
+        @Override
+        public NamedList<Object> request(SolrRequest request) throws SolrServerException, IOException {
+            if (request instanceof UpdateRequest && ((UpdateRequest) request).getDocuments() != null) {
+                for (SolrInputDocument document : ((UpdateRequest) request).getDocuments()) {
+                    if (REJECTED_ID.equals(document.getFieldValue("id"))) {
+                        throw new SolrServerException("Document " + REJECTED_ID + " rejected");
+                    }
+                }
+            }
+            return new NamedList<Object>();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    private static class RecordingSolrCoreAdmin extends SolrCoreAdmin {
+        private final SolrServer solrServer = new RejectingSolrServer();
+        private final List<String> swappedCoreNames = new ArrayList<String>();
+
+        @Override
+        public SolrServer getSolrServer(String coreName) {
+            return solrServer;
+        }
+
+        @Override
+        public void swapRebuildCore(String coreName) {
+            swappedCoreNames.add(coreName);
+        }
+    }
+
+    private static class DocumentCoreIndexer extends AbstractSolrCoreIndexer<Long> {
+        @Override
+        public String getCoreName() {
+            return "test";
+        }
+
+        @Override
+        protected String getEntityName() {
+            return "Test";
+        }
+
+        @Override
+        public Long getId(Long entity) {
+            return entity;
+        }
+
+        @Override
+        public List<Long> loadByIds(List<Long> ids) {
+            return ids;
+        }
+
+        @Override
+        public List<?> buildDocuments(List<Long> entities) {
+            List<SolrInputDocument> documents = new ArrayList<SolrInputDocument>();
+            for (Long entity : entities) {
+                SolrInputDocument document = new SolrInputDocument();
+                document.addField("id", entity);
+                documents.add(document);
+            }
+            return documents;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        jobExecution = new JobExecution(new Long(1));
+        solrCoreAdmin = new RecordingSolrCoreAdmin();
+        coreIndexer = new DocumentCoreIndexer();
+    }
+
+    @Test
+    public void testRejectedDocumentsAreWriteSkips() throws Exception {
+        StepExecution partitionExecution = jobExecution.createStepExecution("solrReindexStorePartition:partition0");
+        SolrCoreItemWriter<Long> writer = buildWriter(partitionExecution);
+
+        writer.write(Arrays.asList(new Long(1), REJECTED_ID, new Long(3)));
+        writer.write(Arrays.asList(new Long(4), new Long(5)));
+
+        assertEquals(1, partitionExecution.getWriteSkipCount());
+        assertEquals(1, jobExecution.getExecutionContext().getInt(SolrCoreItemWriter.REJECTED_COUNT_KEY));
+    }
+
+    @Test
+    public void testChunkWithoutIndexedDocumentFailsTheStep() throws Exception {
+        StepExecution partitionExecution = jobExecution.createStepExecution("solrReindexStorePartition:partition0");
+        SolrCoreItemWriter<Long> writer = buildWriter(partitionExecution);
+        try {
+            writer.write(Collections.singletonList(REJECTED_ID));
+            fail("No document of the chunk was indexed");
+        } catch (IllegalStateException e) {
+            // THE CHUNK IS ROLLED BACK AND WRITTEN AGAIN ON RESTART : NOT COUNTED
+            assertEquals(0, partitionExecution.getWriteSkipCount());
+            assertEquals(0, jobExecution.getExecutionContext().getInt(SolrCoreItemWriter.REJECTED_COUNT_KEY, 0));
+        }
+    }
+
+    @Test
+    public void testRebuildCoresAreNotSwappedAfterRejections() throws Exception {
+        buildWriter(jobExecution.createStepExecution("solrReindexStorePartition:partition0")).write(Arrays.asList(new Long(1), REJECTED_ID));
+        try {
+            finish();
+            fail("Rebuild cores swapped with rejected documents");
+        } catch (IllegalStateException e) {
+            assertEquals(0, solrCoreAdmin.swappedCoreNames.size());
+        }
+    }
+
+    @Test
+    public void testRebuildCoresAreSwapped() throws Exception {
+        buildWriter(jobExecution.createStepExecution("solrReindexStorePartition:partition0")).write(Arrays.asList(new Long(1), new Long(3)));
+        finish();
+        assertEquals(Collections.singletonList("test"), solrCoreAdmin.swappedCoreNames);
+    }
+
+    private SolrCoreItemWriter<Long> buildWriter(final StepExecution stepExecution) {
+        SolrCoreItemWriter<Long> writer = new SolrCoreItemWriter<Long>();
+        writer.setCoreIndexer(coreIndexer);
+        writer.setSolrCoreAdmin(solrCoreAdmin);
+        writer.setRebuild(true);
+        writer.beforeStep(stepExecution);
+        return writer;
+    }
+
+    private void finish() throws Exception {
+        SolrReindexTasklet tasklet = new SolrReindexTasklet();
+        tasklet.setAction(SolrReindexTasklet.Action.FINISH);
+        tasklet.setSolrCoreAdmin(solrCoreAdmin);
+        tasklet.setRebuild(true);
+        List<AbstractSolrCoreIndexer<?>> coreIndexers = new ArrayList<AbstractSolrCoreIndexer<?>>();
+        coreIndexers.add(coreIndexer);
+        tasklet.setCoreIndexers(coreIndexers);
+        StepExecution finishExecution = jobExecution.createStepExecution("solrReindexFinish");
+        tasklet.execute(finishExecution.createStepContribution(), new ChunkContext(new StepContext(finishExecution)));
+    }
+
+}
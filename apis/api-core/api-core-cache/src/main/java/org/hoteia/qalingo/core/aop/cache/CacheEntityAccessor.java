@@ -0,0 +1,64 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.aop.cache;
+
+import java.lang.reflect.Method;
+
+/**
+ * getId/getCode accessors of an entity class, resolved once.
+ */
+public class CacheEntityAccessor {
+
+    private final Method idMethod;
+    private final Method codeMethod;
+
+    public CacheEntityAccessor(final Class<?> entityClass) {
+        this.idMethod = findAccessor(entityClass, "getId", Long.class);
+        this.codeMethod = findAccessor(entityClass, "getCode", String.class);
+    }
+
+    public boolean hasId() {
+        return idMethod != null;
+    }
+
+    public boolean hasCode() {
+        return codeMethod != null;
+    }
+
+    public Long getId(final Object entity) throws Exception {
+        if (idMethod == null || entity == null) {
+            return null;
+        }
+        return (Long) idMethod.invoke(entity);
+    }
+
+    public String getCode(final Object entity) throws Exception {
+        if (codeMethod == null || entity == null) {
+            return null;
+        }
+        return (String) codeMethod.invoke(entity);
+    }
+
+    private static Method findAccessor(final Class<?> entityClass, final String name, final Class<?> type) {
+        if (entityClass == null) {
+            return null;
+        }
+        try {
+            Method method = entityClass.getMethod(name);
+            if (type.isAssignableFrom(method.getReturnType())) {
+                return method;
+            }
+        } catch (NoSuchMethodException e) {
+            // NO ACCESSOR ON THIS CLASS
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,255 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.aop.cache;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hoteia.qalingo.core.domain.AbstractEntity;
+import org.hoteia.qalingo.core.domain.AbstractExtendEntity;
+import org.hoteia.qalingo.core.pojo.RequestData;
+
+/**
+ * Immutable key of the web_cache_* regions : the method/entity prefix, the market
+ * context codes of the RequestData and the typed arguments of the call.
+ *
+ * Arguments are compared with equals(), never through toString(). The hash is
+ * computed once, so an Ehcache lookup costs one hashCode() read and a field by
+ * field comparison.
+ *
+ * Migration : the region names (web_cache_*, *_link_code_id, *_misc) are unchanged,
+ * only the keys stored inside change. The regions are memory only, so entries with
+ * the former String keys disappear on restart; toString() still renders the former
+ * "prefix_MP_M_MA_LOC_RET_CUR_arg" form for logs and the cache manager screens.
+ */
+public final class CacheKey implements Serializable {
+
+    /**
+     * Generated UID
+     */
+    private static final long serialVersionUID = -3203651627413858062L;
+
+    private static final ConcurrentMap<String, String> CODES = new ConcurrentHashMap<String, String>();
+
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    private final String prefix;
+
+    private final String marketPlaceCode;
+    private final String marketCode;
+    private final String marketAreaCode;
+    private final String localizationCode;
+    private final String retailerCode;
+    private final String currencyCode;
+
+    private final Object[] arguments;
+
+    private final int hash;
+
+    private CacheKey(final String prefix, final RequestData requestData, final Object[] arguments) {
+        this.prefix = prefix;
+        if (requestData != null) {
+            this.marketPlaceCode = intern(requestData.getMarketPlace() != null ? requestData.getMarketPlace().getCode() : null);
+            this.marketCode = intern(requestData.getMarket() != null ? requestData.getMarket().getCode() : null);
+            this.marketAreaCode = intern(requestData.getMarketArea() != null ? requestData.getMarketArea().getCode() : null);
+            this.localizationCode = intern(requestData.getMarketAreaLocalization() != null ? requestData.getMarketAreaLocalization().getCode() : null);
+            this.retailerCode = intern(requestData.getMarketAreaRetailer() != null ? requestData.getMarketAreaRetailer().getCode() : null);
+            this.currencyCode = intern(requestData.getMarketAreaCurrency() != null ? requestData.getMarketAreaCurrency().getCode() : null);
+        } else {
+            this.marketPlaceCode = null;
+            this.marketCode = null;
+            this.marketAreaCode = null;
+            this.localizationCode = null;
+            this.retailerCode = null;
+            this.currencyCode = null;
+        }
+        this.arguments = arguments;
+
+        int result = prefix.hashCode();
+        result = 31 * result + hashCode(marketPlaceCode);
+        result = 31 * result + hashCode(marketCode);
+        result = 31 * result + hashCode(marketAreaCode);
+        result = 31 * result + hashCode(localizationCode);
+        result = 31 * result + hashCode(retailerCode);
+        result = 31 * result + hashCode(currencyCode);
+        result = 31 * result + Arrays.hashCode(arguments);
+        this.hash = result;
+    }
+
+    /**
+     * Key of an entity by id, in the entity region or in the code/id link region.
+     */
+    public static CacheKey forEntity(final String prefix, final Object id) {
+        return new CacheKey(prefix, null, new Object[] { id });
+    }
+
+    /**
+     * Key of a method call. The first RequestData argument gives the market context,
+     * entities are replaced by their id and Object[] arguments (fetch plans) are ignored.
+     */
+    public static CacheKey forCall(final String prefix, final Object[] args, final CacheMethodPlanRegistry registry) throws Exception {
+        return forCall(prefix, args, registry, false);
+    }
+
+    /**
+     * Key of a get by id call : the id argument is normalized to a Long, so the String and
+     * Long overloads share the entry, which is also the key of {@link #forEntity(String, Object)}.
+     */
+    public static CacheKey forIdCall(final String prefix, final Object[] args, final CacheMethodPlanRegistry registry) throws Exception {
+        return forCall(prefix, args, registry, true);
+    }
+
+    private static CacheKey forCall(final String prefix, final Object[] args, final CacheMethodPlanRegistry registry, final boolean normalizeId) throws Exception {
+        RequestData requestData = null;
+        Object[] arguments = args.length == 0 ? NO_ARGUMENTS : new Object[args.length];
+        int size = 0;
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg instanceof Object[]) {
+                continue;
+            }
+            if (arg instanceof RequestData && requestData == null) {
+                requestData = (RequestData) arg;
+            } else if (arg instanceof RequestData) {
+                arguments[size++] = new CacheKey("", (RequestData) arg, NO_ARGUMENTS);
+            } else if (arg instanceof AbstractEntity || arg instanceof AbstractExtendEntity) {
+                arguments[size++] = registry.getEntityAccessor(arg.getClass()).getId(arg);
+            } else if (normalizeId && size == 0) {
+                arguments[size++] = normalizeId(arg);
+            } else {
+                arguments[size++] = arg;
+            }
+        }
+        if (size != arguments.length) {
+            arguments = size == 0 ? NO_ARGUMENTS : Arrays.copyOf(arguments, size);
+        }
+        return new CacheKey(prefix, requestData, arguments);
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getMarketPlaceCode() {
+        return marketPlaceCode;
+    }
+
+    public String getMarketCode() {
+        return marketCode;
+    }
+
+    public String getMarketAreaCode() {
+        return marketAreaCode;
+    }
+
+    public String getLocalizationCode() {
+        return localizationCode;
+    }
+
+    public String getRetailerCode() {
+        return retailerCode;
+    }
+
+    public String getCurrencyCode() {
+        return currencyCode;
+    }
+
+    public int getArgumentCount() {
+        return arguments.length;
+    }
+
+    public Object getArgument(final int index) {
+        return arguments[index];
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof CacheKey))
+            return false;
+        CacheKey other = (CacheKey) obj;
+        return hash == other.hash
+                && equals(prefix, other.prefix)
+                && equals(marketAreaCode, other.marketAreaCode)
+                && equals(localizationCode, other.localizationCode)
+                && equals(retailerCode, other.retailerCode)
+                && equals(currencyCode, other.currencyCode)
+                && equals(marketCode, other.marketCode)
+                && equals(marketPlaceCode, other.marketPlaceCode)
+                && Arrays.equals(arguments, other.arguments);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(prefix);
+        if (marketAreaCode != null) {
+            builder.append('_').append(marketPlaceCode).append('_').append(marketCode).append('_').append(marketAreaCode)
+                   .append('_').append(localizationCode).append('_').append(retailerCode).append('_').append(currencyCode);
+        }
+        for (int i = 0; i < arguments.length; i++) {
+            builder.append('_').append(arguments[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the id as a Long when it is a number or a String holding one, otherwise unchanged
+     */
+    static Object normalizeId(final Object id) {
+        if (id instanceof Long) {
+            return id;
+        }
+        if (id instanceof Integer || id instanceof Short) {
+            return Long.valueOf(((Number) id).longValue());
+        }
+        if (id instanceof String) {
+            String rawId = (String) id;
+            if (rawId.length() > 0 && rawId.length() <= 19) {
+                try {
+                    return Long.valueOf(rawId);
+                } catch (NumberFormatException e) {
+                    // NOT AN ID : THE KEY KEEPS THE STRING
+                }
+            }
+        }
+        return id;
+    }
+
+    private static String intern(final String code) {
+        if (code == null) {
+            return null;
+        }
+        String internedCode = CODES.get(code);
+        if (internedCode == null) {
+            internedCode = CODES.putIfAbsent(code, code);
+            if (internedCode == null) {
+                internedCode = code;
+            }
+        }
+        return internedCode;
+    }
+
+    private static int hashCode(final String value) {
+        return value != null ? value.hashCode() : 0;
+    }
+
+    private static boolean equals(final String value, final String other) {
+        return value == other || (value != null && value.equals(other));
+    }
+
+}
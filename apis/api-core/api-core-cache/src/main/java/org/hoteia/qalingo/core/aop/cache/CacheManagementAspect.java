@@ -9,8 +9,6 @@
  */
 package org.hoteia.qalingo.core.aop.cache;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.Iterator;
 import java.util.List;
 
@@ -22,10 +20,11 @@ import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.reflect.MethodSignature;
+import org.hoteia.qalingo.core.cache.NearCache;
+import org.hoteia.qalingo.core.cache.NearCacheManager;
 import org.hoteia.qalingo.core.domain.AbstractEntity;
 import org.hoteia.qalingo.core.fetchplan.FetchPlan;
 import org.hoteia.qalingo.core.fetchplan.SpecificFetchMode;
-import org.hoteia.qalingo.core.pojo.RequestData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -48,311 +47,126 @@ public class CacheManagementAspect {
     @Autowired
     private EhCacheCacheManager ehCacheCacheManager;
 
+    @Autowired
+    private CacheMethodPlanRegistry cacheMethodPlanRegistry;
+
+    @Autowired
+    private NearCacheManager nearCacheManager;
+
     public Object around(ProceedingJoinPoint joinPoint) throws Throwable {
         Object returnObject = null;
         try {
             MethodSignature signature = (MethodSignature) joinPoint.getSignature();
-            Class classTarget = signature.getReturnType();
+            CacheMethodPlan plan = cacheMethodPlanRegistry.getPlan(signature);
+            CacheEntityAccessor entityAccessor = plan.getReturnTypeAccessor();
             Object[] args = joinPoint.getArgs();
-            String suffix = "";
-            List<SpecificFetchMode> askedFetchModes = null;
+            List<SpecificFetchMode> askedFetchModes = plan.findAskedFetchModes(args);
             List<SpecificFetchMode> loadedFetchModes = null;
-            String cacheType = CACHE_TYPE_MISC;
-            
-            // TOD : Denis : blindé le code pour tester les arg differement entre une method get* et find* et autre
-            
-            if(joinPoint.getSignature().toShortString().contains("ById")){
-                // FIRST ARG IS A LONG FOR THE GET METHOD : SO THIS A GET BY ID
-                cacheType = CACHE_BY_ID;
-            } else if(joinPoint.getSignature().toShortString().contains("ByCode")){
-                // FIRST ARG IS A STRING FOR THE GET METHOD : SO THIS A GET BY CODE
-                cacheType = CACHE_BY_CODE;
-            }
-            
-            for (int i = 0; i < args.length; i++) {
-                Object arg = args[i];
-                if(arg instanceof Object[]){
-                    Object[] objects = (Object[]) arg;
-                    for (int j = 0; j < objects.length; j++) {
-                        Object object = (Object) objects[j];
-                        if(object instanceof FetchPlan){
-                            FetchPlan fetchPlan = (FetchPlan) object;
-                            if(fetchPlan != null && !fetchPlan.getFetchModes().isEmpty()){
-                                askedFetchModes = fetchPlan.getFetchModes();
-                            }
-                        }
-                    }
-                } 
-                if(arg instanceof RequestData){
-                    RequestData requestData = (RequestData) arg;
-                    if(!suffix.endsWith("_")){
-                        suffix = suffix + "_";
-                    }
-                    suffix = suffix + requestData.getMarketPlace().getCode() 
-                                    + "_" + requestData.getMarket().getCode()
-                                    + "_" + requestData.getMarketArea().getCode()
-                                    + "_" + requestData.getMarketAreaLocalization().getCode()
-                                    + "_" + requestData.getMarketAreaRetailer().getCode()
-                                    + "_" + requestData.getMarketAreaCurrency().getCode();
 
-                } else if(arg instanceof AbstractEntity){
-                    AbstractEntity argEntity = (AbstractEntity) arg;
-                    if(!suffix.endsWith("_")){
-                        suffix = suffix + "_";
-                    }
-                    Method[] methods = argEntity.getClass().getMethods();
-                    for (int j = 0; j < methods.length; j++) {
-                        Method methodIt = methods[j];
-                        if(methodIt.getName().equals("getId")){
-                            Long id = (Long) methodIt.invoke(argEntity);
-                            suffix = suffix + id;
-                        }
-                    }
+            // TOD : Denis : blindé le code pour tester les arg differement entre une method get* et find* et autre
 
-                } else {
-                    if(!(arg instanceof java.lang.Object[])
-                            && !(arg instanceof AbstractEntity)) {
-                        if(!suffix.endsWith("_")){
-                            suffix = suffix + "_";
-                        }
-                        suffix = suffix + arg.toString();
-                    }
-                }
-            }
-            String key = null;
-            String cacheName = DEFAULT_CACHE_NAME;
-            if(classTarget != null){
-                try {
-                    Field cacheField = null;
-                    Field[] fields = classTarget.getFields();
-                    for (int i = 0; i < fields.length; i++) {
-                        Field fieldIt = fields[i];
-                        if(fieldIt.getName().equals(CACHE_NAME)){
-                            cacheField = fieldIt;
-                        }
-                    }
-                    if(cacheField != null){
-                        cacheName = (String) cacheField.get(CACHE_NAME);
-                    }
-                } catch (IllegalAccessException e) {
-                    if(logger.isDebugEnabled()){
-                        logger.debug("IllegalAccessException code.", e);
-                    }
-                }
-            }
-            
-            // CACHE TYPE
-            if(cacheType.equals(CACHE_TYPE_MISC)){
-                key = joinPoint.getSignature().toShortString() + suffix;
-                if(!cacheName.contains("_misc")){
-                    cacheName = cacheName + "_misc";
-                }
-            } else if(cacheType.equals(CACHE_BY_CODE)){
-                // TODO : Denis : utiliser un cache de type cacheName_link_code_id pour avoir l'id en fonction du code
-                key = classTarget.getName() + suffix;
-                cacheName = cacheName + "_link_code_id";
-            } else {
-                key = classTarget.getName() + suffix;
-            }
-            
-            Cache cache = getCacheManager() != null && StringUtils.isNotEmpty(cacheName) ? getCacheManager().getCache(cacheName) : null;
+            CacheKey key = plan.buildKey(args);
+            Cache cache = getCache(plan.getCacheName());
             if (cache != null) {
-                if (cache.isKeyInCache(key)) {
+                // NEAR CACHE FIRST : NO EHCACHE LOOKUP ON THE HOT PATH
+                NearCache nearCache = nearCacheManager.getNearCache(plan.getCacheName());
+                returnObject = nearCache != null ? nearCache.get(key) : null;
+                boolean nearCacheHit = returnObject != null;
+                if (!nearCacheHit) {
                     Element element = cache.get(key);
                     if (element != null && !element.isExpired()) {
-                        // WE TEST IF THE FETCH PLAN ARE EQUALS
                         returnObject = element.getObjectValue();
-                        if(returnObject instanceof AbstractEntity){
-                            AbstractEntity entity = (AbstractEntity) returnObject;
-                            if(entity.getFetchPlan() != null){
-                                loadedFetchModes = entity.getFetchPlan().getFetchModes();
-                            }
-                            
-                            if(cacheType.equals(CACHE_BY_ID)){
-                                // ENTITY : UPDATE THE CACHE LINK ID CODE
-                                String cacheNameIdCodeLink = cacheName + "_link_code_id";
-                                Cache cacheLinkIdCode = getCacheManager() != null && StringUtils.isNotEmpty(cacheNameIdCodeLink) ? getCacheManager().getCache(cacheNameIdCodeLink) : null;
-                                if(cacheLinkIdCode != null){
-                                    String newKey = null;
-                                    String codeValue = null;
-                                    try {
-                                        Method[] methods = classTarget.getMethods();
-                                        for (int i = 0; i < methods.length; i++) {
-                                            Method methodIt = methods[i];
-                                            if(methodIt.getName().equals("getId")){
-                                                Long id = (Long) methodIt.invoke(returnObject);
-                                                newKey = classTarget.getName() + "_" + id;
-                                            }
-                                            if(methodIt.getName().equals("getCode")){
-                                                codeValue = (String) methodIt.invoke(returnObject);
-                                            }
-                                            if(newKey != null && codeValue != null){
-                                                break;
-                                            }
-                                        }
-                                    } catch (Exception e) {
-                                        if(logger.isDebugEnabled()){
-                                            logger.debug("IllegalAccessException.", e);
-                                        }
-                                    }
-                                    if(newKey != null){
-                                        cacheLinkIdCode.put(new Element(newKey, codeValue));
-                                    }
+                        if (nearCache != null) {
+                            nearCache.put(key, returnObject);
+                        }
+                    }
+                }
+                if (returnObject != null) {
+                    // WE TEST IF THE FETCH PLAN ARE EQUALS
+                    if(returnObject instanceof AbstractEntity){
+                        AbstractEntity entity = (AbstractEntity) returnObject;
+                        if(entity.getFetchPlan() != null){
+                            loadedFetchModes = entity.getFetchPlan().getFetchModes();
+                        }
+
+                        if(plan.isCacheById() && !nearCacheHit){
+                            // ENTITY : UPDATE THE CACHE LINK ID CODE
+                            Cache cacheLinkIdCode = getCache(plan.getLinkCodeIdCacheName());
+                            if(cacheLinkIdCode != null && entityAccessor.hasId()){
+                                CacheKey linkKey = plan.buildEntityKey(entityAccessor.getId(returnObject));
+                                if(!cacheLinkIdCode.isKeyInCache(linkKey)){
+                                    cacheLinkIdCode.put(new Element(linkKey, entityAccessor.getCode(returnObject)));
                                 }
                             }
-                            
-                            if(cacheType.equals(CACHE_BY_CODE)){
-                                String cacheNameEntityById = cacheName.replace("_link_code_id", "");
-                                Cache cacheEntityById = getCacheManager() != null && StringUtils.isNotEmpty(cacheNameEntityById) ? getCacheManager().getCache(cacheNameEntityById) : null;
-                                
-                                String newKey = null;
-                                Method[] methods = classTarget.getMethods();
-                                for (int i = 0; i < methods.length; i++) {
-                                    Method methodIt = methods[i];
-                                    if(methodIt.getName().equals("getId")){
-                                        Long id = (Long) methodIt.invoke(returnObject);
-                                        newKey = classTarget.getName() + "_" + id;
-                                        break;
-                                    }
-                                }
-                                
-                                if (cacheEntityById != null) {
-                                    if (cacheEntityById.isKeyInCache(newKey)) {
-                                        Element elementEntityById = cacheEntityById.get(newKey);
-                                        if (elementEntityById != null && !elementEntityById.isExpired()) {
-                                            returnObject = elementEntityById.getObjectValue();
-                                        }
-                                    }
-                                }
+                        }
 
-                            }
-                        } else if(returnObject instanceof Long){
-                            if(cacheType.equals(CACHE_BY_CODE)){
-                                String cacheNameEntityById = cacheName.replace("_link_code_id", "");
-                                Cache cacheEntityById = getCacheManager() != null && StringUtils.isNotEmpty(cacheNameEntityById) ? getCacheManager().getCache(cacheNameEntityById) : null;
-                                String newKey = classTarget.getName() + "_" + returnObject;
-                                if (cacheEntityById.isKeyInCache(newKey)) {
-                                    Element finalElement = cacheEntityById.get(newKey);
-                                    if (finalElement != null && !finalElement.isExpired()) {
-                                        // WE WILL TEST IF THE FETCH PLAN ARE EQUALS
-                                        returnObject = finalElement.getObjectValue();
-                                    }
-                                } else {
-                                    // WE RESET THE returnObject WHICH HAS THE LONG VALUE - THIS WILL TRIGGER THE LOAD BY DAO
-                                    returnObject = null;
-                                }
+                        if(plan.isCacheByCode()){
+                            Object entityById = getCachedValue(plan.getEntityCacheName(), plan.buildEntityKey(entityAccessor.getId(returnObject)));
+                            if (entityById != null) {
+                                returnObject = entityById;
                             }
                         }
+                    } else if(returnObject instanceof Long){
+                        if(plan.isCacheByCode()){
+                            // WE WILL TEST IF THE FETCH PLAN ARE EQUALS
+                            // A NULL RESET THE returnObject WHICH HAS THE LONG VALUE - THIS WILL TRIGGER THE LOAD BY DAO
+                            returnObject = getCachedValue(plan.getEntityCacheName(), plan.buildEntityKey(returnObject));
+                        }
                     }
                 }
                 if(returnObject == null){
-                    if(loadedFetchModes != null){
-                        args = ArrayUtils.add(args, loadedFetchModes);
-                        returnObject = joinPoint.proceed(args);
-                    } else {
-                        returnObject = joinPoint.proceed();
-                    }
-                    if(cacheType.equals(CACHE_BY_CODE)){
-                        // PUT IN THE RIGHT ENTITY CACHE
-                        String cacheNameEntityById = cacheName.replace("_link_code_id", "");
-                        Cache cacheEntityById = getCacheManager() != null && StringUtils.isNotEmpty(cacheNameEntityById) ? getCacheManager().getCache(cacheNameEntityById) : null;
-                        String newKey = null;
-                        Method[] methods = classTarget.getMethods();
-                        Long value = null;
-                        for (int i = 0; i < methods.length; i++) {
-                            Method methodIt = methods[i];
-                            if(methodIt.getName().equals("getId")){
-                                Long id = (Long) methodIt.invoke(returnObject);
-                                newKey = classTarget.getName() + "_" + id;
-                                value = id;
-                                break;
-                            }
-                        }
-                        if (cacheEntityById != null) {
-                            cacheEntityById.put(new Element(newKey, returnObject));
-                        }
-                        
-                        cache.put(new Element(key, value));
+                    returnObject = joinPoint.proceed();
+                    putInCache(plan, cache, key, returnObject);
 
-                    } else {
-                        cache.put(new Element(key, returnObject));
+                } else if(returnObject instanceof AbstractEntity && askedFetchModes != null){
+                    AbstractEntity entity = (AbstractEntity) returnObject;
+                    if(entity.getFetchPlan() != null){
+                        loadedFetchModes = entity.getFetchPlan().getFetchModes();
                     }
-                } else {
-                    if(returnObject instanceof AbstractEntity){
-                        AbstractEntity entity = (AbstractEntity) returnObject;
-                        if(entity.getFetchPlan() != null){
-                            loadedFetchModes = entity.getFetchPlan().getFetchModes();
+                    for (Iterator<SpecificFetchMode> iterator = askedFetchModes.iterator(); iterator.hasNext();) {
+                        SpecificFetchMode specificFetchMode = (SpecificFetchMode) iterator.next();
+                        if(loadedFetchModes == null){
+                            // ENTITY IS LOAD WITHOUT FETCHPLAN - WE RESET THE returnObject TO TRIGGER THE RELOAD WITH THE FETCHPLAN
+                            returnObject = null;
+                            break;
+                        } else if (!loadedFetchModes.contains(specificFetchMode)){
+                            // ENTITY IS LOAD WITH A DIFF FETCHPLAN - WE RESET THE returnObject TO TRIGGER THE RELOAD
+                            returnObject = null;
+                            break;
                         }
-                        if(askedFetchModes != null){
-                            for (Iterator<SpecificFetchMode> iterator = askedFetchModes.iterator(); iterator.hasNext();) {
-                                SpecificFetchMode specificFetchMode = (SpecificFetchMode) iterator.next();
-                                if(loadedFetchModes == null){
-                                    // ENTITY IS LOAD WITHOUT FETCHPLAN - WE RESET THE returnObject TO TRIGGER THE RELOAD WITH THE FETCHPLAN
-                                    returnObject = null;
-                                    break;
-                                } else if (!loadedFetchModes.contains(specificFetchMode)){
-                                    // ENTITY IS LOAD WITH A DIFF FETCHPLAN - WE RESET THE returnObject TO TRIGGER THE RELOAD
-                                    returnObject = null;
-                                    break;
-                                }
-                            }
-                            
-                            if(returnObject == null){
-                                if(loadedFetchModes != null){
-                                    for (int i = 0; i < args.length; i++) {
-                                        Object arg = args[i];
-                                        if(arg instanceof Object[]){
-                                            Object[] objects = (Object[]) arg;
-                                            for (int j = 0; j < objects.length; j++) {
-                                                Object object = (Object) objects[j];
-                                                if(object instanceof FetchPlan){
-                                                    // WE ARE IN THE FETCHPLAN OBJECT ARRAY
-                                                    objects = ArrayUtils.add(objects, entity.getFetchPlan());
-                                                    args = ArrayUtils.remove(args, i);
-                                                    args = ArrayUtils.add(args, objects);
-                                                    break;
-                                                }
-                                            }
-                                        } 
-                                    }
-                                    
-                                    returnObject = joinPoint.proceed(args);
-                                } else {
-                                    returnObject = joinPoint.proceed();
-                                }
-                                
-                                if(returnObject != null){
-                                    if(cacheType.equals(CACHE_BY_CODE)){
-                                        // PUT IN THE RIGHT ENTITY CACHE
-                                        String cacheNameEntityById = cacheName.replace("_link_code_id", "");
-                                        Cache cacheEntityById = getCacheManager() != null && StringUtils.isNotEmpty(cacheNameEntityById) ? getCacheManager().getCache(cacheNameEntityById) : null;
-                                        String newKey = null;
-                                        Method[] methods = classTarget.getMethods();
-                                        Long value = null;
-                                        for (int i = 0; i < methods.length; i++) {
-                                            Method methodIt = methods[i];
-                                            if(methodIt.getName().equals("getId")){
-                                                Long id = (Long) methodIt.invoke(returnObject);
-                                                newKey = classTarget.getName() + "_" + id;
-                                                value = id;
-                                                break;
-                                            }
-                                        }
-                                        if (cacheEntityById != null) {
-                                            cacheEntityById.put(new Element(newKey, returnObject));
-                                        }
-                                        
-                                        cache.put(new Element(key, value));
+                    }
 
-                                    } else {
-                                        cache.put(new Element(key, returnObject));
+                    if(returnObject == null){
+                        if(loadedFetchModes != null){
+                            for (int i = 0; i < args.length; i++) {
+                                Object arg = args[i];
+                                if(arg instanceof Object[]){
+                                    Object[] objects = (Object[]) arg;
+                                    for (int j = 0; j < objects.length; j++) {
+                                        Object object = (Object) objects[j];
+                                        if(object instanceof FetchPlan){
+                                            // WE ARE IN THE FETCHPLAN OBJECT ARRAY
+                                            objects = ArrayUtils.add(objects, entity.getFetchPlan());
+                                            args = ArrayUtils.remove(args, i);
+                                            args = ArrayUtils.add(args, objects);
+                                            break;
+                                        }
                                     }
                                 }
                             }
+
+                            returnObject = joinPoint.proceed(args);
+                        } else {
+                            returnObject = joinPoint.proceed();
+                        }
+
+                        if(returnObject != null){
+                            putInCache(plan, cache, key, returnObject);
                         }
                     }
                 }
-                
+            } else {
+                returnObject = joinPoint.proceed();
             }
 
         } catch (Exception e) {
@@ -361,6 +175,59 @@ public class CacheManagementAspect {
         return returnObject;
     }
 
+    protected void putInCache(final CacheMethodPlan plan, final Cache cache, final CacheKey key, final Object returnObject) throws Exception {
+        if(plan.isCacheByCode()){
+            // PUT IN THE RIGHT ENTITY CACHE
+            if(returnObject == null){
+                return;
+            }
+            Long id = plan.getReturnTypeAccessor().getId(returnObject);
+            Cache cacheEntityById = getCache(plan.getEntityCacheName());
+            if (cacheEntityById != null) {
+                putCachedValue(plan.getEntityCacheName(), cacheEntityById, plan.buildEntityKey(id), returnObject);
+            }
+            putCachedValue(plan.getCacheName(), cache, key, id);
+
+        } else {
+            putCachedValue(plan.getCacheName(), cache, key, returnObject);
+        }
+    }
+
+    /**
+     * Reads the near cache of the region, then the Ehcache region. An Ehcache hit fills the near cache.
+     */
+    protected Object getCachedValue(final String cacheName, final CacheKey key) {
+        NearCache nearCache = nearCacheManager.getNearCache(cacheName);
+        Object value = nearCache != null ? nearCache.get(key) : null;
+        if (value == null) {
+            Cache cache = getCache(cacheName);
+            Element element = cache != null ? cache.get(key) : null;
+            if (element != null && !element.isExpired()) {
+                value = element.getObjectValue();
+                if (nearCache != null) {
+                    nearCache.put(key, value);
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Ehcache first : its put event clears the near cache entry, which is then replaced.
+     */
+    protected void putCachedValue(final String cacheName, final Cache cache, final CacheKey key, final Object value) {
+        cache.put(new Element(key, value));
+        NearCache nearCache = nearCacheManager.getNearCache(cacheName);
+        if (nearCache != null) {
+            nearCache.put(key, value);
+        }
+    }
+
+    protected Cache getCache(final String cacheName) {
+        CacheManager cacheManager = getCacheManager();
+        return cacheManager != null && StringUtils.isNotEmpty(cacheName) ? cacheManager.getCache(cacheName) : null;
+    }
+
     public CacheManager getCacheManager() {
         return ehCacheCacheManager.getCacheManager();
     }
@@ -0,0 +1,182 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.aop.cache;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import org.hoteia.qalingo.core.fetchplan.FetchPlan;
+import org.hoteia.qalingo.core.fetchplan.SpecificFetchMode;
+
+/**
+ * Everything the cache aspect needs to know about an intercepted method :
+ * cache type, cache names, key prefix and the accessors of the returned entity.
+ * A plan is built once per method by the {@link CacheMethodPlanRegistry}.
+ */
+public class CacheMethodPlan {
+
+    public static final String LINK_CODE_ID_SUFFIX = "_link_code_id";
+    public static final String MISC_SUFFIX = "_misc";
+
+    private final CacheMethodPlanRegistry registry;
+
+    private final String cacheType;
+    private final Class<?> returnType;
+    private final String keyPrefix;
+    private final String entityKeyPrefix;
+    private final String cacheName;
+    private final String entityCacheName;
+    private final String linkCodeIdCacheName;
+    private final CacheEntityAccessor returnTypeAccessor;
+
+    public CacheMethodPlan(final CacheMethodPlanRegistry registry, final String shortSignature, final Class<?> returnType) {
+        this.registry = registry;
+        this.returnType = returnType;
+
+        if (shortSignature.contains("ById")) {
+            // FIRST ARG IS A LONG FOR THE GET METHOD : SO THIS A GET BY ID
+            this.cacheType = CacheManagementAspect.CACHE_BY_ID;
+        } else if (shortSignature.contains("ByCode")) {
+            // FIRST ARG IS A STRING FOR THE GET METHOD : SO THIS A GET BY CODE
+            this.cacheType = CacheManagementAspect.CACHE_BY_CODE;
+        } else {
+            this.cacheType = CacheManagementAspect.CACHE_TYPE_MISC;
+        }
+
+        String returnTypeName = returnType != null ? returnType.getName() : "";
+        String entityCacheName = resolveCacheName(returnType);
+        this.entityCacheName = entityCacheName;
+        this.linkCodeIdCacheName = entityCacheName + LINK_CODE_ID_SUFFIX;
+        this.entityKeyPrefix = returnTypeName;
+
+        if (CacheManagementAspect.CACHE_TYPE_MISC.equals(cacheType)) {
+            this.keyPrefix = shortSignature;
+            this.cacheName = entityCacheName.contains(MISC_SUFFIX) ? entityCacheName : entityCacheName + MISC_SUFFIX;
+        } else if (CacheManagementAspect.CACHE_BY_CODE.equals(cacheType)) {
+            this.keyPrefix = returnTypeName;
+            this.cacheName = linkCodeIdCacheName;
+        } else {
+            this.keyPrefix = returnTypeName;
+            this.cacheName = entityCacheName;
+        }
+
+        this.returnTypeAccessor = registry.getEntityAccessor(returnType);
+    }
+
+    /**
+     * Builds the cache key for the given arguments.
+     */
+    public CacheKey buildKey(final Object[] args) throws Exception {
+        if (isCacheById()) {
+            return CacheKey.forIdCall(keyPrefix, args, registry);
+        }
+        return CacheKey.forCall(keyPrefix, args, registry);
+    }
+
+    /**
+     * @return the key of the entity in the cache by id.
+     */
+    public CacheKey buildEntityKey(final Object id) {
+        return CacheKey.forEntity(entityKeyPrefix, id);
+    }
+
+    /**
+     * @return the fetch modes asked by the FetchPlan varargs of the call, or null.
+     */
+    public List<SpecificFetchMode> findAskedFetchModes(final Object[] args) {
+        List<SpecificFetchMode> askedFetchModes = null;
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg instanceof Object[]) {
+                Object[] objects = (Object[]) arg;
+                for (int j = 0; j < objects.length; j++) {
+                    Object object = objects[j];
+                    if (object instanceof FetchPlan) {
+                        FetchPlan fetchPlan = (FetchPlan) object;
+                        if (!fetchPlan.getFetchModes().isEmpty()) {
+                            askedFetchModes = fetchPlan.getFetchModes();
+                        }
+                    }
+                }
+            }
+        }
+        return askedFetchModes;
+    }
+
+    public boolean isCacheById() {
+        return CacheManagementAspect.CACHE_BY_ID.equals(cacheType);
+    }
+
+    public boolean isCacheByCode() {
+        return CacheManagementAspect.CACHE_BY_CODE.equals(cacheType);
+    }
+
+    public boolean isCacheMisc() {
+        return CacheManagementAspect.CACHE_TYPE_MISC.equals(cacheType);
+    }
+
+    public String getCacheType() {
+        return cacheType;
+    }
+
+    public Class<?> getReturnType() {
+        return returnType;
+    }
+
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    /**
+     * @return the cache holding the values of this method (entity, code/id link or misc).
+     */
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    /**
+     * @return the cache holding the entities by id.
+     */
+    public String getEntityCacheName() {
+        return entityCacheName;
+    }
+
+    public String getLinkCodeIdCacheName() {
+        return linkCodeIdCacheName;
+    }
+
+    public CacheEntityAccessor getReturnTypeAccessor() {
+        return returnTypeAccessor;
+    }
+
+    /**
+     * @return the CACHE_NAME of the entity type, or the default cache name.
+     */
+    public static String resolveCacheName(final Class<?> returnType) {
+        if (returnType != null) {
+            try {
+                Field cacheField = returnType.getField(CacheManagementAspect.CACHE_NAME);
+                if (Modifier.isStatic(cacheField.getModifiers())) {
+                    Object value = cacheField.get(null);
+                    if (value instanceof String) {
+                        return (String) value;
+                    }
+                }
+            } catch (NoSuchFieldException e) {
+                // NO SPECIFIC CACHE FOR THIS TYPE
+            } catch (IllegalAccessException e) {
+                // NO SPECIFIC CACHE FOR THIS TYPE
+            }
+        }
+        return CacheManagementAspect.DEFAULT_CACHE_NAME;
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.aop.cache;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.stereotype.Component;
+
+/**
+ * Registry of the {@link CacheMethodPlan} built for each intercepted method,
+ * and of the entity accessors used to build the cache keys.
+ */
+@Component(value = "cacheMethodPlanRegistry")
+public class CacheMethodPlanRegistry {
+
+    private final ConcurrentMap<Method, CacheMethodPlan> plans = new ConcurrentHashMap<Method, CacheMethodPlan>();
+
+    private final ConcurrentMap<Class<?>, CacheEntityAccessor> entityAccessors = new ConcurrentHashMap<Class<?>, CacheEntityAccessor>();
+
+    public CacheMethodPlan getPlan(final MethodSignature signature) {
+        final Method method = signature.getMethod();
+        CacheMethodPlan plan = plans.get(method);
+        if (plan == null) {
+            plan = new CacheMethodPlan(this, signature.toShortString(), signature.getReturnType());
+            CacheMethodPlan existingPlan = plans.putIfAbsent(method, plan);
+            if (existingPlan != null) {
+                plan = existingPlan;
+            }
+        }
+        return plan;
+    }
+
+    public CacheEntityAccessor getEntityAccessor(final Class<?> entityClass) {
+        if (entityClass == null) {
+            return new CacheEntityAccessor(null);
+        }
+        CacheEntityAccessor entityAccessor = entityAccessors.get(entityClass);
+        if (entityAccessor == null) {
+            entityAccessor = new CacheEntityAccessor(entityClass);
+            CacheEntityAccessor existingEntityAccessor = entityAccessors.putIfAbsent(entityClass, entityAccessor);
+            if (existingEntityAccessor != null) {
+                entityAccessor = existingEntityAccessor;
+            }
+        }
+        return entityAccessor;
+    }
+
+    public int size() {
+        return plans.size();
+    }
+
+    public void clear() {
+        plans.clear();
+        entityAccessors.clear();
+    }
+
+}
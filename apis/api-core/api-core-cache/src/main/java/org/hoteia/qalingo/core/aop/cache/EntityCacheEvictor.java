@@ -0,0 +1,99 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.aop.cache;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.ehcache.EhCacheCacheManager;
+import org.springframework.stereotype.Component;
+
+/**
+ * Evicts a modified entity from the regions filled by the {@link CacheManagementAspect}.
+ *
+ * The entity and code/id link entries are removed by key. The misc region of the entity
+ * and the html page cache hold values built from the entity under keys that can not be
+ * rebuilt, so they are flushed : callers collect them with getDependentCacheNames() and
+ * flush each region once for a whole batch of evictions.
+ */
+@Component(value = "entityCacheEvictor")
+public class EntityCacheEvictor {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private EhCacheCacheManager ehCacheCacheManager;
+
+    @Value("${cache.web.html.name}")
+    protected String htmlCacheName;
+
+    /**
+     * Removes the entity from its region and from the code/id link region.
+     * 
+     * @param entityType the entity class name, as used in the cache keys
+     * @param cacheName the entity region, or null to use the CACHE_NAME of the entity type
+     */
+    public void evictEntity(final String entityType, final Long entityId, final String entityCode, final String cacheName) {
+        String entityCacheName = StringUtils.isNotEmpty(cacheName) ? cacheName : CacheManagementAspect.DEFAULT_CACHE_NAME;
+        Cache cache = getCache(entityCacheName);
+        if (cache != null && entityId != null) {
+            cache.remove(CacheKey.forEntity(entityType, entityId));
+        }
+        Cache cacheLinkCodeId = getCache(entityCacheName + CacheMethodPlan.LINK_CODE_ID_SUFFIX);
+        if (cacheLinkCodeId != null) {
+            if (entityCode != null) {
+                cacheLinkCodeId.remove(CacheKey.forEntity(entityType, entityCode));
+            }
+            if (entityId != null) {
+                cacheLinkCodeId.remove(CacheKey.forEntity(entityType, entityId));
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Evicted entity " + entityType + ", id: " + entityId + ", code: " + entityCode + ", from: " + entityCacheName);
+        }
+    }
+
+    /**
+     * @return the regions to flush when an entity of this region changes.
+     */
+    public Set<String> getDependentCacheNames(final String cacheName) {
+        Set<String> cacheNames = new LinkedHashSet<String>();
+        String entityCacheName = StringUtils.isNotEmpty(cacheName) ? cacheName : CacheManagementAspect.DEFAULT_CACHE_NAME;
+        cacheNames.add(entityCacheName + CacheMethodPlan.MISC_SUFFIX);
+        if (StringUtils.isNotEmpty(htmlCacheName)) {
+            cacheNames.add(htmlCacheName);
+        }
+        return cacheNames;
+    }
+
+    public void flushCaches(final Collection<String> cacheNames) {
+        for (String cacheName : cacheNames) {
+            Cache cache = getCache(cacheName);
+            if (cache != null) {
+                cache.removeAll();
+            }
+        }
+    }
+
+    protected Cache getCache(final String cacheName) {
+        CacheManager cacheManager = ehCacheCacheManager.getCacheManager();
+        return cacheManager != null ? cacheManager.getCache(cacheName) : null;
+    }
+
+}
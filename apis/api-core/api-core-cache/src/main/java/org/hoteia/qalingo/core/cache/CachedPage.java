@@ -0,0 +1,135 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.util.DigestUtils;
+
+/**
+ * Page of the html cache : the encoded body, its gzip variant, the content type and the
+ * validators (ETag, Last-Modified). Both bodies are built once when the page is cached,
+ * a hit only copies bytes to the response output stream.
+ */
+public class CachedPage implements Serializable {
+
+    /**
+     * Generated UID
+     */
+    private static final long serialVersionUID = 6530487524391743265L;
+
+    // SMALL PAGES ARE NOT WORTH THE GZIP HEADER
+    public static final int MIN_GZIP_LENGTH = 512;
+
+    private final byte[] body;
+    private final byte[] gzippedBody;
+    private final String contentType;
+    private final String eTag;
+    private final long lastModified;
+
+    public CachedPage(final byte[] body, final String contentType, final long lastModified) throws IOException {
+        this.body = body;
+        this.gzippedBody = body.length >= MIN_GZIP_LENGTH ? gzip(body) : null;
+        this.contentType = contentType;
+        this.eTag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+        // HTTP DATES HAVE A ONE SECOND PRECISION
+        this.lastModified = lastModified / 1000 * 1000;
+    }
+
+    /**
+     * Writes the page, or a 304 when the conditional headers of the request match.
+     */
+    public void write(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        response.setHeader("ETag", eTag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("Vary", "Accept-Encoding");
+        if (isNotModified(request)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        byte[] bytes = body;
+        if (gzippedBody != null && acceptsGzip(request)) {
+            response.setHeader("Content-Encoding", "gzip");
+            bytes = gzippedBody;
+        }
+        if (contentType != null) {
+            response.setContentType(contentType);
+        }
+        response.setContentLength(bytes.length);
+        response.getOutputStream().write(bytes);
+    }
+
+    protected boolean isNotModified(final HttpServletRequest request) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            // IF-NONE-MATCH TAKES PRECEDENCE OVER IF-MODIFIED-SINCE
+            return "*".equals(ifNoneMatch.trim()) || ifNoneMatch.contains(eTag);
+        }
+        try {
+            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            return ifModifiedSince != -1 && ifModifiedSince >= lastModified;
+        } catch (IllegalArgumentException e) {
+            // UNPARSABLE DATE : SEND THE PAGE
+            return false;
+        }
+    }
+
+    protected static boolean acceptsGzip(final HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (StringUtils.isEmpty(acceptEncoding)) {
+            return false;
+        }
+        String[] encodings = acceptEncoding.split(",");
+        for (int i = 0; i < encodings.length; i++) {
+            String encoding = encodings[i].trim();
+            if (encoding.startsWith("gzip")) {
+                String quality = StringUtils.substringAfter(encoding, "q=").trim();
+                return quality.length() == 0 || !quality.matches("0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(final byte[] body) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(body.length / 4);
+        GZIPOutputStream gzipOutput = new GZIPOutputStream(output);
+        gzipOutput.write(body);
+        gzipOutput.close();
+        return output.toByteArray();
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public byte[] getGzippedBody() {
+        return gzippedBody;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+}
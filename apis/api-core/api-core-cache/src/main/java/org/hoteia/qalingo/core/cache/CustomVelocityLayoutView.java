@@ -9,8 +9,6 @@
  */
 package org.hoteia.qalingo.core.cache;
 
-import java.io.StringWriter;
-
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -44,6 +42,7 @@ public class CustomVelocityLayoutView extends VelocityLayoutView {
             EhCacheCacheManager ehCacheCacheManager = (EhCacheCacheManager) getAttributesMap().get("ehCacheCacheManager");
             CacheManager cacheManager = ehCacheCacheManager.getCacheManager();
             String cacheName = (String) getAttributesMap().get("cacheName");
+            PageCacheKeyBuilder pageCacheKeyBuilder = (PageCacheKeyBuilder) getAttributesMap().get("pageCacheKeyBuilder");
             Cache cache = cacheManager != null && StringUtils.isNotEmpty(cacheName) ? cacheManager.getCache(cacheName) : null;
 
             HttpServletRequest request = ((ChainedContext) context).getRequest();
@@ -58,17 +57,20 @@ public class CustomVelocityLayoutView extends VelocityLayoutView {
             }
             boolean cacheable = useCache != null ? useCache : !isAjax(request) && isGet;
 
-            if (!cacheable || cache == null) {
+            // THE KEY IS BUILT AFTER THE CONTROLLER : IT HOLDS THE SESSION VALUES THE PAGE IS RENDERED WITH
+            PageCacheKey key = cacheable && cache != null && pageCacheKeyBuilder != null ? pageCacheKeyBuilder.buildKey(request) : null;
+            if (key == null || !pageCacheKeyBuilder.isCacheableResponse(response)) {
                 template.merge(context, response.getWriter());
             } else {
-                StringWriter outputWriter = new StringWriter();
-                template.merge(context, outputWriter);
-                outputWriter.close();
-                String output = outputWriter.toString();
-
-                cache.put(new Element(getRequestKey(request), output));
+                // THE PAGE STREAMS TO THE CLIENT AND IS CAPTURED, ENCODED ONCE, FOR THE CACHE
+                long lastModified = System.currentTimeMillis();
+                response.setDateHeader("Last-Modified", lastModified);
+                TeeWriter teeWriter = new TeeWriter(response.getWriter(), response.getCharacterEncoding());
+                template.merge(context, teeWriter);
+                byte[] body = teeWriter.getCapturedBytes();
+                teeWriter.close();
 
-                response.getWriter().write(output);
+                cache.put(new Element(key, new CachedPage(body, response.getContentType(), lastModified)));
             }
 
         } catch (MethodInvocationException ex) {
@@ -79,10 +81,6 @@ public class CustomVelocityLayoutView extends VelocityLayoutView {
         }
     }
     
-    public static final int getRequestKey(HttpServletRequest request) {
-        return (request.getRequestURL().toString() + request.getQueryString()).hashCode();
-    }
-
     private static boolean isAjax(HttpServletRequest request) {
         return StringUtils.equals("XMLHttpRequest", request.getHeader("X-Requested-With"));
     }
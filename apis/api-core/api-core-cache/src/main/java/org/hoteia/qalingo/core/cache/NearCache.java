@@ -0,0 +1,209 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.cache;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded per JVM cache in front of an Ehcache region. Reads and writes are lock free :
+ * entries live in a ConcurrentHashMap, the insertion order is kept in a ConcurrentLinkedQueue
+ * and the oldest entries are evicted when the region is full. Entries expire after the
+ * configured time to live.
+ */
+public class NearCache implements NearCacheMBean {
+
+    private final String cacheName;
+    private final int maxElements;
+    private final long timeToLiveMillis;
+
+    private final ConcurrentMap<Object, Entry> entries;
+    private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger removedInQueue = new AtomicInteger();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    private static final class Entry {
+        private final Object key;
+        private volatile Object value;
+        private volatile long expirationTime;
+        private volatile boolean removed;
+
+        private Entry(final Object key, final Object value, final long expirationTime) {
+            this.key = key;
+            this.value = value;
+            this.expirationTime = expirationTime;
+        }
+    }
+
+    public NearCache(final String cacheName, final int maxElements, final int timeToLiveSeconds) {
+        this.cacheName = cacheName;
+        this.maxElements = maxElements;
+        this.timeToLiveMillis = timeToLiveSeconds * 1000L;
+        this.entries = new ConcurrentHashMap<Object, Entry>(Math.max(16, maxElements * 4 / 3));
+    }
+
+    /**
+     * @return the cached value, or null when the key is absent or expired.
+     */
+    public Object get(final Object key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        if (entry.expirationTime < System.currentTimeMillis()) {
+            if (removeEntry(entry)) {
+                expiredCount.incrementAndGet();
+            }
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.value;
+    }
+
+    public void put(final Object key, final Object value) {
+        if (key == null || value == null) {
+            return;
+        }
+        long expirationTime = System.currentTimeMillis() + timeToLiveMillis;
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.removed) {
+            entry.value = value;
+            entry.expirationTime = expirationTime;
+            return;
+        }
+        Entry newEntry = new Entry(key, value, expirationTime);
+        Entry existingEntry = entries.putIfAbsent(key, newEntry);
+        if (existingEntry != null) {
+            existingEntry.value = value;
+            existingEntry.expirationTime = expirationTime;
+            return;
+        }
+        insertionOrder.offer(newEntry);
+        if (size.incrementAndGet() > maxElements) {
+            evictOldest();
+        }
+    }
+
+    public void remove(final Object key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            removeEntry(entry);
+        }
+    }
+
+    public void clear() {
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext();) {
+            removeEntry(iterator.next());
+        }
+        purgeRemovedEntries();
+    }
+
+    public void clearStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+        evictionCount.set(0);
+        expiredCount.set(0);
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public int getMaxElements() {
+        return maxElements;
+    }
+
+    public long getTimeToLiveSeconds() {
+        return timeToLiveMillis / 1000;
+    }
+
+    public int getSize() {
+        return size.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private void evictOldest() {
+        while (size.get() > maxElements) {
+            Entry oldestEntry = insertionOrder.poll();
+            if (oldestEntry == null) {
+                return;
+            }
+            if (oldestEntry.removed) {
+                removedInQueue.decrementAndGet();
+            } else if (removeEntry(oldestEntry, false)) {
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean removeEntry(final Entry entry) {
+        if (removeEntry(entry, true)) {
+            if (removedInQueue.get() > maxElements) {
+                purgeRemovedEntries();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean removeEntry(final Entry entry, final boolean stillQueued) {
+        if (entries.remove(entry.key, entry)) {
+            entry.removed = true;
+            size.decrementAndGet();
+            if (stillQueued) {
+                removedInQueue.incrementAndGet();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void purgeRemovedEntries() {
+        for (Iterator<Entry> iterator = insertionOrder.iterator(); iterator.hasNext();) {
+            if (iterator.next().removed) {
+                iterator.remove();
+                removedInQueue.decrementAndGet();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.cache;
+
+/**
+ * JMX view of a near cache region : size, configuration and hit/miss/eviction counters.
+ */
+public interface NearCacheMBean {
+
+    String getCacheName();
+
+    int getMaxElements();
+
+    long getTimeToLiveSeconds();
+
+    int getSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    long getExpiredCount();
+
+    double getHitRatio();
+
+    void clear();
+
+    void clearStatistics();
+
+}
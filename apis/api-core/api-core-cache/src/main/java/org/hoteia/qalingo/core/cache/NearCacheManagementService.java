@@ -0,0 +1,56 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers one MBean per near cache region, as "qalingo:type=NearCache,name=<region>",
+ * next to the Ehcache MBeans registered by net.sf.ehcache.management.ManagementService.
+ */
+public class NearCacheManagementService {
+
+    public static final String OBJECT_NAME_PREFIX = "qalingo:type=NearCache,name=";
+
+    private final NearCacheManager nearCacheManager;
+    private final MBeanServer mBeanServer;
+
+    private final List<ObjectName> registeredObjectNames = new ArrayList<ObjectName>();
+
+    public NearCacheManagementService(final NearCacheManager nearCacheManager, final MBeanServer mBeanServer) {
+        this.nearCacheManager = nearCacheManager;
+        this.mBeanServer = mBeanServer;
+    }
+
+    public void init() throws Exception {
+        for (NearCache nearCache : nearCacheManager.getNearCaches()) {
+            ObjectName objectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(nearCache.getCacheName()));
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(nearCache, objectName);
+            registeredObjectNames.add(objectName);
+        }
+    }
+
+    public void dispose() throws Exception {
+        for (ObjectName objectName : registeredObjectNames) {
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        }
+        registeredObjectNames.clear();
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Holds the near cache regions, one per configured Ehcache region. The regions are built
+ * once at startup, so getNearCache() is a plain map read.
+ *
+ * Each near cache listens to its Ehcache region : a put, remove, expiry, eviction or flush
+ * in Ehcache (cache manager screen, JMX, replication) removes the entry from the near cache too.
+ */
+public class NearCacheManager implements InitializingBean {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private CacheManager cacheManager;
+
+    private List<NearCacheConfiguration> configurations;
+
+    private boolean enabled = true;
+
+    private Map<String, NearCache> nearCaches = Collections.emptyMap();
+
+    public void afterPropertiesSet() throws Exception {
+        Map<String, NearCache> nearCaches = new HashMap<String, NearCache>();
+        if (enabled && configurations != null) {
+            for (NearCacheConfiguration configuration : configurations) {
+                Ehcache cache = cacheManager != null ? cacheManager.getEhcache(configuration.getCacheName()) : null;
+                if (cache == null) {
+                    logger.warn("Near cache '" + configuration.getCacheName() + "' ignored: no Ehcache region with this name.");
+                    continue;
+                }
+                NearCache nearCache = new NearCache(configuration.getCacheName(), configuration.getMaxElements(), configuration.getTimeToLiveSeconds());
+                cache.getCacheEventNotificationService().registerListener(new NearCacheInvalidationListener(nearCache));
+                nearCaches.put(configuration.getCacheName(), nearCache);
+            }
+        }
+        this.nearCaches = Collections.unmodifiableMap(nearCaches);
+    }
+
+    /**
+     * @return the near cache in front of this Ehcache region, or null if the region has none.
+     */
+    public NearCache getNearCache(final String cacheName) {
+        return nearCaches.get(cacheName);
+    }
+
+    public Collection<NearCache> getNearCaches() {
+        return nearCaches.values();
+    }
+
+    public void clearAll() {
+        for (NearCache nearCache : nearCaches.values()) {
+            nearCache.clear();
+        }
+    }
+
+    public void setCacheManager(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    public void setConfigurations(List<NearCacheConfiguration> configurations) {
+        this.configurations = configurations;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    private static class NearCacheInvalidationListener extends CacheEventListenerAdapter {
+
+        private final NearCache nearCache;
+
+        private NearCacheInvalidationListener(final NearCache nearCache) {
+            this.nearCache = nearCache;
+        }
+
+        @Override
+        public void notifyElementPut(Ehcache cache, Element element) throws CacheException {
+            nearCache.remove(element.getObjectKey());
+        }
+
+        @Override
+        public void notifyElementUpdated(Ehcache cache, Element element) throws CacheException {
+            nearCache.remove(element.getObjectKey());
+        }
+
+        @Override
+        public void notifyElementRemoved(Ehcache cache, Element element) throws CacheException {
+            nearCache.remove(element.getObjectKey());
+        }
+
+        @Override
+        public void notifyElementExpired(Ehcache cache, Element element) {
+            nearCache.remove(element.getObjectKey());
+        }
+
+        @Override
+        public void notifyElementEvicted(Ehcache cache, Element element) {
+            nearCache.remove(element.getObjectKey());
+        }
+
+        @Override
+        public void notifyRemoveAll(Ehcache cache) {
+            nearCache.clear();
+        }
+
+    }
+
+}
@@ -0,0 +1,78 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.cache;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Key of the web_html_cache region : the full request url with its query string and
+ * the values of the configured vary dimensions, in the order of the dimensions.
+ *
+ * The former key was the int hashCode of the url, so two urls with the same hash
+ * shared the same page. Here equals() compares the whole url and every vary value.
+ */
+public final class PageCacheKey implements Serializable {
+
+    /**
+     * Generated UID
+     */
+    private static final long serialVersionUID = 4962712040311452793L;
+
+    private final String url;
+    private final String[] varyValues;
+
+    private final int hash;
+
+    public PageCacheKey(final String url, final String[] varyValues) {
+        this.url = url;
+        this.varyValues = varyValues;
+        this.hash = 31 * url.hashCode() + Arrays.hashCode(varyValues);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getVaryValueCount() {
+        return varyValues.length;
+    }
+
+    public String getVaryValue(final int index) {
+        return varyValues[index];
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof PageCacheKey))
+            return false;
+        PageCacheKey other = (PageCacheKey) obj;
+        return hash == other.hash
+                && url.equals(other.url)
+                && Arrays.equals(varyValues, other.varyValues);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(url);
+        for (int i = 0; i < varyValues.length; i++) {
+            builder.append('_').append(varyValues[i]);
+        }
+        return builder.toString();
+    }
+
+}
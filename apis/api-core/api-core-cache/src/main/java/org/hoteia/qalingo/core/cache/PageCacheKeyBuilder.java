@@ -0,0 +1,128 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.cache;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.apache.commons.lang.StringUtils;
+import org.hoteia.qalingo.core.Constants;
+import org.hoteia.qalingo.core.domain.Cart;
+import org.hoteia.qalingo.core.domain.EngineEcoSession;
+
+/**
+ * Builds the PageCacheKey of a request from the full url and the EngineEcoSession values
+ * of the configured vary dimensions. The same builder is used by the CacheInterceptor to
+ * read the page and by the CustomVelocityLayoutView to store it, so both sides compute
+ * the same key.
+ *
+ * A personalised request has no key, and its page is neither read from nor put in the cache :
+ * no EngineEcoSession yet, a logged customer, or a filled cart when CART_EMPTY is not a vary
+ * dimension. A response marked private, no-store or no-cache is not stored either.
+ */
+public class PageCacheKeyBuilder {
+
+    public static final String DEFAULT_VALUE = "default";
+    public static final String CART_EMPTY_VALUE = "empty";
+    public static final String CART_FILLED_VALUE = "filled";
+
+    private PageCacheVary[] varyDimensions = PageCacheVary.values();
+
+    /**
+     * @return the key of the page, or null when the request is personalised.
+     */
+    public PageCacheKey buildKey(final HttpServletRequest request) {
+        HttpSession session = request.getSession(false);
+        Object sessionObject = session != null ? session.getAttribute(Constants.ENGINE_ECO_SESSION_OBJECT) : null;
+        if (!(sessionObject instanceof EngineEcoSession)) {
+            return null;
+        }
+        EngineEcoSession engineEcoSession = (EngineEcoSession) sessionObject;
+        if (engineEcoSession.getCurrentCustomer() != null) {
+            return null;
+        }
+
+        boolean cartEmpty = isCartEmpty(engineEcoSession);
+        String[] varyValues = new String[varyDimensions.length];
+        boolean varyOnCart = false;
+        for (int i = 0; i < varyDimensions.length; i++) {
+            switch (varyDimensions[i]) {
+            case THEME:
+                varyValues[i] = StringUtils.defaultIfEmpty(engineEcoSession.getTheme(), DEFAULT_VALUE);
+                break;
+            case DEVICE:
+                varyValues[i] = StringUtils.defaultIfEmpty(engineEcoSession.getDevice(), DEFAULT_VALUE);
+                break;
+            case MARKET_AREA:
+                varyValues[i] = engineEcoSession.getCurrentMarketArea() != null ? engineEcoSession.getCurrentMarketArea().getCode() : null;
+                break;
+            case LOCALIZATION:
+                varyValues[i] = engineEcoSession.getCurrentMarketAreaLocalization() != null ? engineEcoSession.getCurrentMarketAreaLocalization().getCode() : null;
+                break;
+            case CURRENCY:
+                varyValues[i] = engineEcoSession.getCurrentMarketAreaCurrency() != null ? engineEcoSession.getCurrentMarketAreaCurrency().getCode() : null;
+                break;
+            case CART_EMPTY:
+                varyValues[i] = cartEmpty ? CART_EMPTY_VALUE : CART_FILLED_VALUE;
+                varyOnCart = true;
+                break;
+            }
+        }
+        if (!cartEmpty && !varyOnCart) {
+            return null;
+        }
+        return new PageCacheKey(getFullUrl(request), varyValues);
+    }
+
+    /**
+     * @return false when the controller marked the response as not shareable.
+     */
+    public boolean isCacheableResponse(final HttpServletResponse response) {
+        String cacheControl = response.getHeader("Cache-Control");
+        if (cacheControl == null) {
+            return true;
+        }
+        cacheControl = cacheControl.toLowerCase();
+        return !cacheControl.contains("private") && !cacheControl.contains("no-store") && !cacheControl.contains("no-cache");
+    }
+
+    public PageCacheVary[] getVaryDimensions() {
+        return varyDimensions;
+    }
+
+    /**
+     * Comma separated list in the Spring configuration, see cache.web.html.vary.
+     */
+    public void setVaryDimensions(PageCacheVary[] varyDimensions) {
+        this.varyDimensions = varyDimensions;
+    }
+
+    protected String getFullUrl(final HttpServletRequest request) {
+        StringBuffer url = request.getRequestURL();
+        String queryString = request.getQueryString();
+        if (queryString != null) {
+            url.append('?').append(queryString);
+        }
+        return url.toString();
+    }
+
+    protected boolean isCartEmpty(final EngineEcoSession engineEcoSession) {
+        if (engineEcoSession.getCarts() == null || engineEcoSession.getCarts().isEmpty()) {
+            return true;
+        }
+        if (engineEcoSession.getCurrentMarketArea() == null || engineEcoSession.getCurrentMarketAreaRetailer() == null) {
+            return true;
+        }
+        Cart cart = engineEcoSession.getCart();
+        return cart == null || cart.getCartItems() == null || cart.getCartItems().isEmpty();
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.hoteia.qalingo.core.domain.enumtype.FoUrls;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+
+/**
+ * Hit, miss and rejected (personalised) counters of the html page cache, per FoUrls pattern,
+ * to decide which pages are worth caching. A request path is matched once against the
+ * FoUrls patterns, the result is kept for the next requests on the same path.
+ */
+public class PageCacheStatistics implements PageCacheStatisticsMBean {
+
+    public static final String OTHER_URL_PATTERN = "OTHER";
+
+    private static final int MAX_RESOLVED_PATHS = 10000;
+
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+
+    private final ConcurrentMap<String, String> resolvedPaths = new ConcurrentHashMap<String, String>();
+
+    private final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<String, Counters>();
+
+    private static final class Counters {
+        private final AtomicLong hitCount = new AtomicLong();
+        private final AtomicLong missCount = new AtomicLong();
+        private final AtomicLong rejectedCount = new AtomicLong();
+    }
+
+    public void recordHit(final HttpServletRequest request) {
+        getCounters(resolveUrlPattern(request)).hitCount.incrementAndGet();
+    }
+
+    public void recordMiss(final HttpServletRequest request) {
+        getCounters(resolveUrlPattern(request)).missCount.incrementAndGet();
+    }
+
+    public void recordRejected(final HttpServletRequest request) {
+        getCounters(resolveUrlPattern(request)).rejectedCount.incrementAndGet();
+    }
+
+    /**
+     * @return the name of the FoUrls constant matching the request path, or OTHER.
+     */
+    public String resolveUrlPattern(final HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String urlPattern = resolvedPaths.get(path);
+        if (urlPattern == null) {
+            urlPattern = OTHER_URL_PATTERN;
+            for (FoUrls foUrl : FoUrls.values()) {
+                if (foUrl.getUrl() != null && pathMatcher.match(foUrl.getUrl(), path)) {
+                    urlPattern = foUrl.name();
+                    break;
+                }
+            }
+            // PATHS WITH A CODE ARE UNBOUNDED : STOP REMEMBERING ONCE FULL
+            if (resolvedPaths.size() < MAX_RESOLVED_PATHS) {
+                resolvedPaths.put(path, urlPattern);
+            }
+        }
+        return urlPattern;
+    }
+
+    public String[] getStatistics() {
+        Map<String, Counters> sortedCounters = new TreeMap<String, Counters>(counters);
+        List<String> statistics = new ArrayList<String>(sortedCounters.size());
+        for (Map.Entry<String, Counters> entry : sortedCounters.entrySet()) {
+            Counters value = entry.getValue();
+            statistics.add(entry.getKey() + " hits=" + value.hitCount.get() + " misses=" + value.missCount.get() 
+                           + " rejected=" + value.rejectedCount.get() + " hitRatio=" + getHitRatio(entry.getKey()));
+        }
+        return statistics.toArray(new String[statistics.size()]);
+    }
+
+    public long getHitCount(final String urlPattern) {
+        Counters value = counters.get(urlPattern);
+        return value != null ? value.hitCount.get() : 0;
+    }
+
+    public long getMissCount(final String urlPattern) {
+        Counters value = counters.get(urlPattern);
+        return value != null ? value.missCount.get() : 0;
+    }
+
+    public long getRejectedCount(final String urlPattern) {
+        Counters value = counters.get(urlPattern);
+        return value != null ? value.rejectedCount.get() : 0;
+    }
+
+    /**
+     * Hits over all the requests of the pattern, rejected ones included.
+     */
+    public double getHitRatio(final String urlPattern) {
+        long hits = getHitCount(urlPattern);
+        long total = hits + getMissCount(urlPattern) + getRejectedCount(urlPattern);
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public void clearStatistics() {
+        counters.clear();
+    }
+
+    private Counters getCounters(final String urlPattern) {
+        Counters value = counters.get(urlPattern);
+        if (value == null) {
+            value = new Counters();
+            Counters existingValue = counters.putIfAbsent(urlPattern, value);
+            if (existingValue != null) {
+                value = existingValue;
+            }
+        }
+        return value;
+    }
+
+}
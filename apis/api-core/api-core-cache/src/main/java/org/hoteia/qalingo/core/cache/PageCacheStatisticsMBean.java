@@ -0,0 +1,32 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.cache;
+
+/**
+ * JMX view of the html page cache : hits, misses and personalised requests per FoUrls pattern.
+ */
+public interface PageCacheStatisticsMBean {
+
+    /**
+     * One line per url pattern : "PATTERN hits=.. misses=.. rejected=.. hitRatio=..".
+     */
+    String[] getStatistics();
+
+    long getHitCount(String urlPattern);
+
+    long getMissCount(String urlPattern);
+
+    long getRejectedCount(String urlPattern);
+
+    double getHitRatio(String urlPattern);
+
+    void clearStatistics();
+
+}
@@ -0,0 +1,28 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.cache;
+
+/**
+ * Session values a cached html page can vary on, besides the full request url.
+ */
+public enum PageCacheVary {
+
+    THEME,
+    DEVICE,
+    MARKET_AREA,
+    LOCALIZATION,
+    CURRENCY,
+
+    /**
+     * Empty or filled cart. Without this dimension, a request with a filled cart is not cacheable.
+     */
+    CART_EMPTY;
+
+}
@@ -0,0 +1,74 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+
+/**
+ * Writer which streams to the response writer and captures the same characters,
+ * encoded once, for the page cache.
+ */
+public class TeeWriter extends Writer {
+
+    private final Writer writer;
+    private final ByteArrayOutputStream capture;
+    private final Writer captureWriter;
+
+    public TeeWriter(final Writer writer, final String characterEncoding) throws UnsupportedEncodingException {
+        this.writer = writer;
+        this.capture = new ByteArrayOutputStream(8192);
+        this.captureWriter = new OutputStreamWriter(capture, characterEncoding);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        writer.write(c);
+        captureWriter.write(c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        writer.write(cbuf, off, len);
+        captureWriter.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        writer.write(str, off, len);
+        captureWriter.write(str, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+        captureWriter.flush();
+    }
+
+    /**
+     * The response writer is left open : the container closes it.
+     */
+    @Override
+    public void close() throws IOException {
+        captureWriter.close();
+    }
+
+    /**
+     * @return the encoded bytes written so far.
+     */
+    public byte[] getCapturedBytes() throws IOException {
+        captureWriter.flush();
+        return capture.toByteArray();
+    }
+
+}
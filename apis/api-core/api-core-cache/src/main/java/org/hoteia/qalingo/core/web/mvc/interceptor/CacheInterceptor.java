@@ -19,7 +19,10 @@ import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Element;
 
 import org.apache.commons.lang.StringUtils;
-import org.hoteia.qalingo.core.cache.CustomVelocityLayoutView;
+import org.hoteia.qalingo.core.cache.CachedPage;
+import org.hoteia.qalingo.core.cache.PageCacheKey;
+import org.hoteia.qalingo.core.cache.PageCacheKeyBuilder;
+import org.hoteia.qalingo.core.cache.PageCacheStatistics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.ehcache.EhCacheCacheManager;
@@ -35,6 +38,12 @@ public class CacheInterceptor implements HandlerInterceptor {
     @Autowired
     private EhCacheCacheManager ehCacheCacheManager;
 
+    @Autowired
+    private PageCacheKeyBuilder pageCacheKeyBuilder;
+
+    @Autowired
+    private PageCacheStatistics pageCacheStatistics;
+
     @Value("${cache.web.html.name}")
     private String cacheName;
 
@@ -44,14 +53,19 @@ public class CacheInterceptor implements HandlerInterceptor {
         boolean isGet = "GET".equals(request.getMethod());
         boolean isHttp = "http".equals(request.getScheme().toLowerCase());
         if (cache != null && isHttp && isGet) {
-            int key = CustomVelocityLayoutView.getRequestKey(request);
-            if (cache.isKeyInCache(key)) {
-                Element element = cache.get(key);
-                if (element != null && !element.isExpired()) {
-                    response.getWriter().write((String) element.getObjectValue());
-                    return false;
-                }
+            PageCacheKey key = pageCacheKeyBuilder.buildKey(request);
+            if (key == null) {
+                pageCacheStatistics.recordRejected(request);
+                return true;
+            }
+            Element element = cache.get(key);
+            if (element != null && !element.isExpired() && element.getObjectValue() instanceof CachedPage) {
+                // RAW BYTES : NO CHARACTER ENCODING NOR COMPRESSION ON A HIT
+                pageCacheStatistics.recordHit(request);
+                ((CachedPage) element.getObjectValue()).write(request, response);
+                return false;
             }
+            pageCacheStatistics.recordMiss(request);
         }
         return true;
     }
@@ -0,0 +1,208 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.aop.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.hoteia.qalingo.core.domain.CurrencyReferential;
+import org.hoteia.qalingo.core.domain.Localization;
+import org.hoteia.qalingo.core.domain.Market;
+import org.hoteia.qalingo.core.domain.MarketArea;
+import org.hoteia.qalingo.core.domain.MarketPlace;
+import org.hoteia.qalingo.core.domain.ProductSku;
+import org.hoteia.qalingo.core.domain.Retailer;
+import org.hoteia.qalingo.core.pojo.RequestData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CacheKey Test : equality of the composite keys, and construction plus lookup cost
+ * compared to the former concatenated String keys.
+ */
+public class CacheKeyTest {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final String PREFIX = "ProductService.getProductSkusByCatalogCategoryCode(..)";
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 200000;
+
+    private CacheMethodPlanRegistry registry;
+    private RequestData requestData;
+    private CacheManager cacheManager;
+
+    private static class NoToString {
+        private final String value;
+        private NoToString(String value) {
+            this.value = value;
+        }
+        @Override
+        public String toString() {
+            return "NoToString";
+        }
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof NoToString && ((NoToString) obj).value.equals(value);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new CacheMethodPlanRegistry();
+        requestData = buildRequestData(new String("MP_1"), new String("MA_FR"));
+
+        Configuration configuration = new Configuration();
+        configuration.setName("cacheKeyTest");
+        configuration.addCache(new CacheConfiguration("web_cache_product_sku_misc", 1000));
+        cacheManager = new CacheManager(configuration);
+    }
+
+    @After
+    public void tearDown() {
+        cacheManager.shutdown();
+    }
+
+    @Test
+    public void testEqualKeys() throws Exception {
+        ProductSku productSku = new ProductSku();
+        productSku.setId(new Long("12"));
+
+        CacheKey key = CacheKey.forCall(PREFIX, new Object[] { "CATEGORY_1", productSku, requestData, new Object[0] }, registry);
+        CacheKey sameKey = CacheKey.forCall(PREFIX, new Object[] { new String("CATEGORY_1"), new Long("12"), buildRequestData("MP_1", "MA_FR") }, registry);
+
+        assertEquals(key, sameKey);
+        assertEquals(key.hashCode(), sameKey.hashCode());
+        assertEquals(2, key.getArgumentCount());
+        assertEquals("MA_FR", key.getMarketAreaCode());
+    }
+
+    @Test
+    public void testNoCollisionOnToString() throws Exception {
+        CacheKey key = CacheKey.forCall(PREFIX, new Object[] { new NoToString("A"), requestData }, registry);
+        CacheKey otherKey = CacheKey.forCall(PREFIX, new Object[] { new NoToString("B"), requestData }, registry);
+        assertEquals(key.toString(), otherKey.toString());
+        assertFalse(key.equals(otherKey));
+    }
+
+    @Test
+    public void testMarketContextIsPartOfTheKey() throws Exception {
+        CacheKey key = CacheKey.forCall(PREFIX, new Object[] { "CATEGORY_1", requestData }, registry);
+        CacheKey otherKey = CacheKey.forCall(PREFIX, new Object[] { "CATEGORY_1", buildRequestData("MP_1", "MA_UK") }, registry);
+        assertFalse(key.equals(otherKey));
+    }
+
+    @Test
+    public void testIdOverloadsShareTheEntityKey() throws Exception {
+        CacheMethodPlan plan = new CacheMethodPlan(registry, "ProductService.getProductSkuById(..)", ProductSku.class);
+        CacheKey entityKey = CacheKey.forEntity(ProductSku.class.getName(), new Long("12"));
+
+        assertEquals(entityKey, plan.buildKey(new Object[] { "12", new Object[0] }));
+        assertEquals(entityKey, plan.buildKey(new Object[] { new Long("12"), new Object[0] }));
+        assertEquals(entityKey, plan.buildKey(new Object[] { Integer.valueOf(12) }));
+        assertEquals("NOT_AN_ID", plan.buildKey(new Object[] { "NOT_AN_ID" }).getArgument(0));
+
+        // THE OTHER METHODS KEEP THEIR STRING ARGUMENTS
+        CacheMethodPlan miscPlan = new CacheMethodPlan(registry, "ProductService.findProductSkus(..)", ProductSku.class);
+        assertFalse(miscPlan.buildKey(new Object[] { "12" }).equals(miscPlan.buildKey(new Object[] { new Long("12") })));
+    }
+
+    @Test
+    public void benchmarkKeyConstructionAndLookup() throws Exception {
+        Cache cache = cacheManager.getCache("web_cache_product_sku_misc");
+        Object[] args = new Object[] { "CATEGORY_1", requestData, new Object[0] };
+        cache.put(new Element(buildStringKey(args), "value"));
+        cache.put(new Element(CacheKey.forCall(PREFIX, args, registry), "value"));
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            cache.get(buildStringKey(args));
+            cache.get(CacheKey.forCall(PREFIX, args, registry));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertNotNull(cache.get(buildStringKey(args)));
+        }
+        long stringNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertNotNull(cache.get(CacheKey.forCall(PREFIX, args, registry)));
+        }
+        long cacheKeyNanos = System.nanoTime() - start;
+
+        logger.info("String key, construction and lookup : " + (stringNanos / ITERATIONS) + " ns/op");
+        logger.info("CacheKey, construction and lookup : " + (cacheKeyNanos / ITERATIONS) + " ns/op");
+    }
+
+    /**
+     * The key the aspect built before CacheKey.
+     */
+    private String buildStringKey(final Object[] args) {
+        String suffix = "";
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg instanceof RequestData) {
+                RequestData requestData = (RequestData) arg;
+                if (!suffix.endsWith("_")) {
+                    suffix = suffix + "_";
+                }
+                suffix = suffix + requestData.getMarketPlace().getCode() + "_" + requestData.getMarket().getCode() + "_" + requestData.getMarketArea().getCode() + "_"
+                        + requestData.getMarketAreaLocalization().getCode() + "_" + requestData.getMarketAreaRetailer().getCode() + "_" + requestData.getMarketAreaCurrency().getCode();
+            } else if (!(arg instanceof Object[])) {
+                if (!suffix.endsWith("_")) {
+                    suffix = suffix + "_";
+                }
+                suffix = suffix + arg.toString();
+            }
+        }
+        return PREFIX + suffix;
+    }
+
+    private RequestData buildRequestData(final String marketPlaceCode, final String marketAreaCode) {
+        MarketPlace marketPlace = new MarketPlace();
+        marketPlace.setCode(marketPlaceCode);
+        Market market = new Market();
+        market.setCode("MARKET_EU");
+        MarketArea marketArea = new MarketArea();
+        marketArea.setCode(marketAreaCode);
+        Localization localization = new Localization();
+        localization.setCode("fr");
+        Retailer retailer = new Retailer();
+        retailer.setCode("RETAILER_1");
+        CurrencyReferential currency = new CurrencyReferential();
+        currency.setCode("EUR");
+
+        RequestData requestData = new RequestData();
+        requestData.setMarketPlace(marketPlace);
+        requestData.setMarket(market);
+        requestData.setMarketArea(marketArea);
+        requestData.setMarketAreaLocalization(localization);
+        requestData.setMarketAreaRetailer(retailer);
+        requestData.setMarketAreaCurrency(currency);
+        return requestData;
+    }
+
+}
@@ -0,0 +1,261 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.aop.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.hoteia.qalingo.core.cache.NearCacheConfiguration;
+import org.hoteia.qalingo.core.cache.NearCacheManager;
+import org.hoteia.qalingo.core.domain.ProductSku;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.ehcache.EhCacheCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * CacheManagementAspect Benchmark : compiled plan versus the reflective resolution
+ * done on each call before the plan registry, for the hit and the miss paths, with and
+ * without the near cache.
+ */
+public class CacheManagementAspectBenchmarkTest {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 200000;
+
+    public interface SampleProductService {
+        ProductSku getProductSkuById(Long productSkuId);
+        ProductSku getProductSkuByCode(String productSkuCode);
+    }
+
+    private CacheManager cacheManager;
+    private CacheManagementAspect aspect;
+    private ProductSku productSku;
+    private int proceedCount;
+
+    @Before
+    public void setUp() throws Exception {
+        Configuration configuration = new Configuration();
+        configuration.setName("cacheManagementAspectBenchmark");
+        configuration.addCache(new CacheConfiguration(ProductSku.CACHE_NAME, 1000));
+        configuration.addCache(new CacheConfiguration(ProductSku.CACHE_NAME + CacheMethodPlan.LINK_CODE_ID_SUFFIX, 1000));
+        cacheManager = new CacheManager(configuration);
+
+        aspect = new CacheManagementAspect();
+        ReflectionTestUtils.setField(aspect, "ehCacheCacheManager", new EhCacheCacheManager(cacheManager));
+        ReflectionTestUtils.setField(aspect, "cacheMethodPlanRegistry", new CacheMethodPlanRegistry());
+        ReflectionTestUtils.setField(aspect, "nearCacheManager", buildNearCacheManager(false));
+
+        productSku = new ProductSku();
+        productSku.setId(new Long("1"));
+        productSku.setCode("SKU_1");
+    }
+
+    @After
+    public void tearDown() {
+        cacheManager.shutdown();
+    }
+
+    @Test
+    public void testGetByIdHitDoesNotProceed() throws Throwable {
+        ProceedingJoinPoint joinPoint = mockJoinPoint("getProductSkuById", new Object[] { new Long("1") });
+        assertSame(productSku, aspect.around(joinPoint));
+        assertSame(productSku, aspect.around(joinPoint));
+        assertEquals(1, proceedCount);
+    }
+
+    @Test
+    public void testGetByCodeFillsEntityAndLinkCaches() throws Throwable {
+        ProceedingJoinPoint joinPoint = mockJoinPoint("getProductSkuByCode", new Object[] { "SKU_1" });
+        assertSame(productSku, aspect.around(joinPoint));
+        assertEquals(new Long("1"), cacheManager.getCache(ProductSku.CACHE_NAME + CacheMethodPlan.LINK_CODE_ID_SUFFIX)
+                                                 .get(CacheKey.forEntity(ProductSku.class.getName(), "SKU_1")).getObjectValue());
+        assertSame(productSku, cacheManager.getCache(ProductSku.CACHE_NAME).get(CacheKey.forEntity(ProductSku.class.getName(), new Long("1"))).getObjectValue());
+
+        assertSame(productSku, aspect.around(joinPoint));
+        assertEquals(1, proceedCount);
+    }
+
+    @Test
+    public void benchmarkHitPath() throws Throwable {
+        ProceedingJoinPoint joinPoint = mockJoinPoint("getProductSkuById", new Object[] { new Long("1") });
+        aspect.around(joinPoint);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            aspect.around(joinPoint);
+            resolveWithReflection(joinPoint);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            aspect.around(joinPoint);
+        }
+        long planNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            resolveWithReflection(joinPoint);
+        }
+        long reflectionNanos = System.nanoTime() - start;
+
+        logger.info("Cache hit, full aspect with plan : " + (planNanos / ITERATIONS) + " ns/op");
+        logger.info("Cache hit, key and cache name resolution by reflection only : " + (reflectionNanos / ITERATIONS) + " ns/op");
+    }
+
+    @Test
+    public void testNearCacheIsClearedWithTheEhcacheRegion() throws Throwable {
+        NearCacheManager nearCacheManager = buildNearCacheManager(true);
+        ReflectionTestUtils.setField(aspect, "nearCacheManager", nearCacheManager);
+        ProceedingJoinPoint joinPoint = mockJoinPoint("getProductSkuById", new Object[] { new Long("1") });
+
+        aspect.around(joinPoint);
+        aspect.around(joinPoint);
+        assertEquals(1, proceedCount);
+        assertEquals(1, nearCacheManager.getNearCache(ProductSku.CACHE_NAME).getHitCount());
+
+        cacheManager.getCache(ProductSku.CACHE_NAME).removeAll();
+        assertEquals(0, nearCacheManager.getNearCache(ProductSku.CACHE_NAME).getSize());
+        aspect.around(joinPoint);
+        assertEquals(2, proceedCount);
+    }
+
+    @Test
+    public void benchmarkHitPathWithNearCache() throws Throwable {
+        ReflectionTestUtils.setField(aspect, "nearCacheManager", buildNearCacheManager(true));
+        ProceedingJoinPoint joinPoint = mockJoinPoint("getProductSkuById", new Object[] { new Long("1") });
+        aspect.around(joinPoint);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            aspect.around(joinPoint);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            aspect.around(joinPoint);
+        }
+        long nearCacheNanos = System.nanoTime() - start;
+
+        logger.info("Cache hit, full aspect with near cache : " + (nearCacheNanos / ITERATIONS) + " ns/op");
+    }
+
+    @Test
+    public void benchmarkMissPath() throws Throwable {
+        ProceedingJoinPoint joinPoint = mockJoinPoint("getProductSkuById", new Object[] { new Long("1") });
+        net.sf.ehcache.Cache cache = cacheManager.getCache(ProductSku.CACHE_NAME);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            cache.removeAll();
+            aspect.around(joinPoint);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            cache.removeAll();
+            aspect.around(joinPoint);
+        }
+        long planNanos = System.nanoTime() - start;
+
+        logger.info("Cache miss, full aspect with plan : " + (planNanos / ITERATIONS) + " ns/op");
+    }
+
+    private NearCacheManager buildNearCacheManager(final boolean enabled) throws Exception {
+        NearCacheConfiguration configuration = new NearCacheConfiguration();
+        configuration.setCacheName(ProductSku.CACHE_NAME);
+        NearCacheManager nearCacheManager = new NearCacheManager();
+        nearCacheManager.setCacheManager(cacheManager);
+        nearCacheManager.setEnabled(enabled);
+        nearCacheManager.setConfigurations(Collections.singletonList(configuration));
+        nearCacheManager.afterPropertiesSet();
+        return nearCacheManager;
+    }
+
+    private ProceedingJoinPoint mockJoinPoint(final String methodName, final Object[] args) throws Throwable {
+        final Method method = SampleProductService.class.getMethod(methodName, args[0].getClass());
+        final MethodSignature signature = (MethodSignature) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { MethodSignature.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method invoked, Object[] invokedArgs) throws Throwable {
+                if ("getMethod".equals(invoked.getName())) {
+                    return method;
+                } else if ("getReturnType".equals(invoked.getName())) {
+                    return method.getReturnType();
+                } else if ("toShortString".equals(invoked.getName())) {
+                    return SampleProductService.class.getSimpleName() + "." + methodName + "(..)";
+                }
+                throw new UnsupportedOperationException(invoked.getName());
+            }
+        });
+        return (ProceedingJoinPoint) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { ProceedingJoinPoint.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method invoked, Object[] invokedArgs) throws Throwable {
+                if ("getSignature".equals(invoked.getName())) {
+                    return signature;
+                } else if ("getArgs".equals(invoked.getName())) {
+                    return args;
+                } else if ("proceed".equals(invoked.getName())) {
+                    proceedCount++;
+                    return productSku;
+                }
+                throw new UnsupportedOperationException(invoked.getName());
+            }
+        });
+    }
+
+    /**
+     * What the aspect computed on every call before the plan registry.
+     */
+    private String resolveWithReflection(final ProceedingJoinPoint joinPoint) throws Exception {
+        MethodSignature signature = (MethodSignature) joinPoint.getSignature();
+        Class<?> classTarget = signature.getReturnType();
+        Object[] args = joinPoint.getArgs();
+        String suffix = "";
+        String cacheType = CacheManagementAspect.CACHE_TYPE_MISC;
+        if (signature.toShortString().contains("ById")) {
+            cacheType = CacheManagementAspect.CACHE_BY_ID;
+        } else if (signature.toShortString().contains("ByCode")) {
+            cacheType = CacheManagementAspect.CACHE_BY_CODE;
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (!suffix.endsWith("_")) {
+                suffix = suffix + "_";
+            }
+            suffix = suffix + args[i].toString();
+        }
+        String cacheName = CacheManagementAspect.DEFAULT_CACHE_NAME;
+        Field[] fields = classTarget.getFields();
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].getName().equals(CacheManagementAspect.CACHE_NAME)) {
+                cacheName = (String) fields[i].get(CacheManagementAspect.CACHE_NAME);
+            }
+        }
+        Method[] methods = classTarget.getMethods();
+        for (int i = 0; i < methods.length; i++) {
+            if (methods[i].getName().equals("getId")) {
+                methods[i].invoke(productSku);
+            }
+            if (methods[i].getName().equals("getCode")) {
+                methods[i].invoke(productSku);
+            }
+        }
+        return cacheType + cacheName + classTarget.getName() + suffix;
+    }
+
+}
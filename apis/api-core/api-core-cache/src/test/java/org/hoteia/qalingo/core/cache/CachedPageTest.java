@@ -0,0 +1,118 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * CachedPage Test : capture through the tee writer, gzip negotiation and conditional requests.
+ */
+public class CachedPageTest {
+
+    private static final String CONTENT_TYPE = "text/html;charset=UTF-8";
+
+    private String html;
+    private CachedPage cachedPage;
+
+    @Before
+    public void setUp() throws Exception {
+        StringBuilder builder = new StringBuilder("<html><body>");
+        for (int i = 0; i < 100; i++) {
+            builder.append("<p>Café crème ").append(i).append("</p>");
+        }
+        html = builder.append("</body></html>").toString();
+
+        StringWriter responseWriter = new StringWriter();
+        TeeWriter teeWriter = new TeeWriter(responseWriter, "UTF-8");
+        teeWriter.write(html);
+        byte[] body = teeWriter.getCapturedBytes();
+        teeWriter.close();
+
+        assertEquals(html, responseWriter.toString());
+        cachedPage = new CachedPage(body, CONTENT_TYPE, System.currentTimeMillis());
+    }
+
+    @Test
+    public void testPlainBody() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/home.html");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        cachedPage.write(request, response);
+
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals(cachedPage.getETag(), response.getHeader("ETag"));
+        assertArrayEquals(html.getBytes("UTF-8"), response.getContentAsByteArray());
+    }
+
+    @Test
+    public void testGzippedBody() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/home.html");
+        request.addHeader("Accept-Encoding", "deflate, gzip");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        cachedPage.write(request, response);
+
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals(html, new String(gunzip(response.getContentAsByteArray()), "UTF-8"));
+
+        request = new MockHttpServletRequest("GET", "/home.html");
+        request.addHeader("Accept-Encoding", "gzip;q=0");
+        response = new MockHttpServletResponse();
+        cachedPage.write(request, response);
+        assertNull(response.getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void testConditionalRequests() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/home.html");
+        request.addHeader("If-None-Match", cachedPage.getETag());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        cachedPage.write(request, response);
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        request = new MockHttpServletRequest("GET", "/home.html");
+        request.addHeader("If-Modified-Since", cachedPage.getLastModified());
+        response = new MockHttpServletResponse();
+        cachedPage.write(request, response);
+        assertEquals(304, response.getStatus());
+
+        request = new MockHttpServletRequest("GET", "/home.html");
+        request.addHeader("If-None-Match", "\"other\"");
+        request.addHeader("If-Modified-Since", cachedPage.getLastModified());
+        response = new MockHttpServletResponse();
+        cachedPage.write(request, response);
+        assertEquals(200, response.getStatus());
+    }
+
+    private byte[] gunzip(final byte[] bytes) throws Exception {
+        GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        input.close();
+        return output.toByteArray();
+    }
+
+}
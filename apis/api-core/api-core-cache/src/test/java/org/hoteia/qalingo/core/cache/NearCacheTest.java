@@ -0,0 +1,101 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * NearCache Test : size bound, time to live and counters, alone and under concurrent writers.
+ */
+public class NearCacheTest {
+
+    @Test
+    public void testOldestEntriesAreEvicted() throws Exception {
+        NearCache nearCache = new NearCache("test", 3, 60);
+        for (int i = 0; i < 5; i++) {
+            nearCache.put("key_" + i, "value_" + i);
+        }
+        assertEquals(3, nearCache.getSize());
+        assertEquals(2, nearCache.getEvictionCount());
+        assertNull(nearCache.get("key_0"));
+        assertEquals("value_4", nearCache.get("key_4"));
+        assertEquals(1, nearCache.getHitCount());
+        assertEquals(1, nearCache.getMissCount());
+    }
+
+    @Test
+    public void testRemovedEntriesAreNotEvictedTwice() throws Exception {
+        NearCache nearCache = new NearCache("test", 2, 60);
+        nearCache.put("key_0", "value_0");
+        nearCache.remove("key_0");
+        nearCache.put("key_0", "value_0");
+        nearCache.put("key_1", "value_1");
+        nearCache.put("key_2", "value_2");
+        assertEquals(2, nearCache.getSize());
+        assertEquals(1, nearCache.getEvictionCount());
+        assertEquals("value_2", nearCache.get("key_2"));
+    }
+
+    @Test
+    public void testExpiredEntriesAreMisses() throws Exception {
+        NearCache nearCache = new NearCache("test", 10, 0);
+        nearCache.put("key", "value");
+        Thread.sleep(5);
+        assertNull(nearCache.get("key"));
+        assertEquals(1, nearCache.getExpiredCount());
+        assertEquals(0, nearCache.getSize());
+    }
+
+    @Test
+    public void testConcurrentWritersKeepTheBound() throws Exception {
+        final NearCache nearCache = new NearCache("test", 100, 60);
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t * 1000;
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 10000; i++) {
+                            Integer key = Integer.valueOf(offset + (i % 1000));
+                            nearCache.put(key, key);
+                            Object value = nearCache.get(key);
+                            if (value != null && !value.equals(key)) {
+                                failures.incrementAndGet();
+                            }
+                            if (i % 7 == 0) {
+                                nearCache.remove(key);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(0, failures.get());
+        assertTrue(nearCache.getSize() <= 100);
+    }
+
+}
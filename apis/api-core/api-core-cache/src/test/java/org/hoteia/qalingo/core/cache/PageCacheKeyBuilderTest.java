@@ -0,0 +1,182 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hoteia.qalingo.core.Constants;
+import org.hoteia.qalingo.core.domain.Cart;
+import org.hoteia.qalingo.core.domain.CartItem;
+import org.hoteia.qalingo.core.domain.CurrencyReferential;
+import org.hoteia.qalingo.core.domain.Customer;
+import org.hoteia.qalingo.core.domain.EngineEcoSession;
+import org.hoteia.qalingo.core.domain.Localization;
+import org.hoteia.qalingo.core.domain.MarketArea;
+import org.hoteia.qalingo.core.domain.Retailer;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * PageCacheKeyBuilder Test : full url keys, vary dimensions, personalised requests and
+ * statistics per FoUrls pattern.
+ */
+public class PageCacheKeyBuilderTest {
+
+    private PageCacheKeyBuilder pageCacheKeyBuilder;
+
+    @Before
+    public void setUp() throws Exception {
+        pageCacheKeyBuilder = new PageCacheKeyBuilder();
+    }
+
+    @Test
+    public void testSameRequestSameKey() throws Exception {
+        PageCacheKey key = pageCacheKeyBuilder.buildKey(buildRequest("/fr-fr/home.html", "page=1", buildEngineEcoSession("fr")));
+        PageCacheKey sameKey = pageCacheKeyBuilder.buildKey(buildRequest("/fr-fr/home.html", "page=1", buildEngineEcoSession("fr")));
+        assertEquals(key, sameKey);
+        assertEquals(key.hashCode(), sameKey.hashCode());
+        assertTrue(key.getUrl().endsWith("/fr-fr/home.html?page=1"));
+    }
+
+    @Test
+    public void testCollidingUrlsHaveDistinctKeys() throws Exception {
+        // "Aa" AND "BB" HAVE THE SAME String.hashCode(), AS HAD THE FORMER INT KEYS
+        String url = "http://localhost:80/fr-fr/home.html?q=";
+        assertEquals((url + "Aa").hashCode(), (url + "BB").hashCode());
+
+        PageCacheKey key = pageCacheKeyBuilder.buildKey(buildRequest("/fr-fr/home.html", "q=Aa", buildEngineEcoSession("fr")));
+        PageCacheKey otherKey = pageCacheKeyBuilder.buildKey(buildRequest("/fr-fr/home.html", "q=BB", buildEngineEcoSession("fr")));
+        assertFalse(key.equals(otherKey));
+    }
+
+    @Test
+    public void testVaryDimensions() throws Exception {
+        PageCacheKey key = pageCacheKeyBuilder.buildKey(buildRequest("/home.html", null, buildEngineEcoSession("fr")));
+        PageCacheKey otherLocalizationKey = pageCacheKeyBuilder.buildKey(buildRequest("/home.html", null, buildEngineEcoSession("en")));
+        assertFalse(key.equals(otherLocalizationKey));
+
+        EngineEcoSession mobileSession = buildEngineEcoSession("fr");
+        mobileSession.setDevice("mobile");
+        assertFalse(key.equals(pageCacheKeyBuilder.buildKey(buildRequest("/home.html", null, mobileSession))));
+
+        pageCacheKeyBuilder.setVaryDimensions(new PageCacheVary[] { PageCacheVary.THEME, PageCacheVary.MARKET_AREA, PageCacheVary.CART_EMPTY });
+        assertEquals(pageCacheKeyBuilder.buildKey(buildRequest("/home.html", null, buildEngineEcoSession("fr"))), 
+                     pageCacheKeyBuilder.buildKey(buildRequest("/home.html", null, mobileSession)));
+    }
+
+    @Test
+    public void testCartEmptyDimension() throws Exception {
+        EngineEcoSession filledCartSession = buildEngineEcoSession("fr");
+        addCart(filledCartSession, true);
+        EngineEcoSession emptyCartSession = buildEngineEcoSession("fr");
+        addCart(emptyCartSession, false);
+
+        PageCacheKey filledCartKey = pageCacheKeyBuilder.buildKey(buildRequest("/home.html", null, filledCartSession));
+        PageCacheKey emptyCartKey = pageCacheKeyBuilder.buildKey(buildRequest("/home.html", null, emptyCartSession));
+        assertNotNull(filledCartKey);
+        assertFalse(filledCartKey.equals(emptyCartKey));
+        assertEquals(emptyCartKey, pageCacheKeyBuilder.buildKey(buildRequest("/home.html", null, buildEngineEcoSession("fr"))));
+
+        // WITHOUT THE DIMENSION, A FILLED CART IS PERSONALISED
+        pageCacheKeyBuilder.setVaryDimensions(new PageCacheVary[] { PageCacheVary.THEME, PageCacheVary.LOCALIZATION });
+        assertNull(pageCacheKeyBuilder.buildKey(buildRequest("/home.html", null, filledCartSession)));
+        assertNotNull(pageCacheKeyBuilder.buildKey(buildRequest("/home.html", null, emptyCartSession)));
+    }
+
+    @Test
+    public void testPersonalisedRequestsAreRejected() throws Exception {
+        assertNull(pageCacheKeyBuilder.buildKey(buildRequest("/home.html", null, null)));
+
+        EngineEcoSession loggedSession = buildEngineEcoSession("fr");
+        loggedSession.setCurrentCustomer(new Customer());
+        assertNull(pageCacheKeyBuilder.buildKey(buildRequest("/home.html", null, loggedSession)));
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(pageCacheKeyBuilder.isCacheableResponse(response));
+        response.setHeader("Cache-Control", "private, max-age=0");
+        assertFalse(pageCacheKeyBuilder.isCacheableResponse(response));
+    }
+
+    @Test
+    public void testStatisticsPerUrlPattern() throws Exception {
+        PageCacheStatistics pageCacheStatistics = new PageCacheStatistics();
+        MockHttpServletRequest homeRequest = buildRequest("/fr-fr/home.html", null, null);
+        MockHttpServletRequest storeRequest = buildRequest("/fr-fr/store-details-paris-1.html", null, null);
+        assertEquals("HOME", pageCacheStatistics.resolveUrlPattern(homeRequest));
+        assertEquals("STORE_DETAILS", pageCacheStatistics.resolveUrlPattern(storeRequest));
+        assertEquals(PageCacheStatistics.OTHER_URL_PATTERN, pageCacheStatistics.resolveUrlPattern(buildRequest("/fr-fr/unknown.txt", null, null)));
+
+        pageCacheStatistics.recordMiss(homeRequest);
+        pageCacheStatistics.recordHit(homeRequest);
+        pageCacheStatistics.recordHit(homeRequest);
+        pageCacheStatistics.recordRejected(homeRequest);
+        pageCacheStatistics.recordRejected(storeRequest);
+
+        assertEquals(2, pageCacheStatistics.getHitCount("HOME"));
+        assertEquals(0.5, pageCacheStatistics.getHitRatio("HOME"), 0.0001);
+        assertEquals(1, pageCacheStatistics.getRejectedCount("STORE_DETAILS"));
+        assertEquals(2, pageCacheStatistics.getStatistics().length);
+
+        pageCacheStatistics.clearStatistics();
+        assertEquals(0, pageCacheStatistics.getHitCount("HOME"));
+    }
+
+    private MockHttpServletRequest buildRequest(final String uri, final String queryString, final EngineEcoSession engineEcoSession) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        request.setQueryString(queryString);
+        if (engineEcoSession != null) {
+            request.getSession().setAttribute(Constants.ENGINE_ECO_SESSION_OBJECT, engineEcoSession);
+        }
+        return request;
+    }
+
+    private EngineEcoSession buildEngineEcoSession(final String localizationCode) {
+        MarketArea marketArea = new MarketArea();
+        marketArea.setId(new Long("1"));
+        marketArea.setCode("MA_FR");
+        Retailer retailer = new Retailer();
+        retailer.setId(new Long("1"));
+        Localization localization = new Localization();
+        localization.setCode(localizationCode);
+        CurrencyReferential currency = new CurrencyReferential();
+        currency.setCode("EUR");
+
+        EngineEcoSession engineEcoSession = new EngineEcoSession();
+        engineEcoSession.setCurrentMarketArea(marketArea);
+        engineEcoSession.setCurrentMarketAreaRetailer(retailer);
+        engineEcoSession.setCurrentMarketAreaLocalization(localization);
+        engineEcoSession.setCurrentMarketAreaCurrency(currency);
+        return engineEcoSession;
+    }
+
+    private void addCart(final EngineEcoSession engineEcoSession, final boolean filled) {
+        Cart cart = new Cart();
+        cart.setMarketAreaId(new Long("1"));
+        cart.setRetailerId(new Long("1"));
+        Set<CartItem> cartItems = new HashSet<CartItem>();
+        if (filled) {
+            cartItems.add(new CartItem());
+        }
+        cart.setCartItems(cartItems);
+        Set<Cart> carts = new HashSet<Cart>();
+        carts.add(cart);
+        engineEcoSession.setCarts(carts);
+    }
+
+}
@@ -11,6 +11,7 @@ package org.hoteia.qalingo.core.dao;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -18,6 +19,9 @@ import javax.persistence.Query;
 
 import org.hibernate.Criteria;
 import org.hibernate.Session;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
 import org.hoteia.qalingo.core.fetchplan.FetchPlan;
 import org.hoteia.qalingo.core.fetchplan.SpecificFetchMode;
 import org.hoteia.qalingo.core.util.CoreUtil;
@@ -45,6 +49,43 @@ public abstract class AbstractGenericDao {
         return criteria;
     }
     
+    /**
+     * Criteria without fetch plan and without the distinct done in memory : for the ids of a
+     * page, or a count.
+     */
+    protected Criteria createIdCriteria(Class<?> entityClass) {
+        return getSession().createCriteria(entityClass);
+    }
+    
+    /**
+     * Page of the ids greater than afterId, selected with the restrictions of the criteria only.
+     * The entities are then loaded by ids with their fetch plan : the rows duplicated by the
+     * collection joins are bounded by the page size, kept between 1 and KeysetPage.MAX_PAGE_SIZE.
+     */
+    protected KeysetPage<Long> findIdPage(Criteria criteria, Long afterId, int pageSize) {
+        // AN EMPTY PAGE WOULD NEVER BE THE LAST ONE
+        pageSize = Math.max(1, Math.min(pageSize, KeysetPage.MAX_PAGE_SIZE));
+        criteria.setProjection(Projections.distinct(Projections.id()));
+        if (afterId != null) {
+            criteria.add(Restrictions.gt("id", afterId));
+        }
+        criteria.addOrder(Order.asc("id"));
+        criteria.setMaxResults(pageSize + 1);
+
+        @SuppressWarnings("unchecked")
+        List<Long> ids = criteria.list();
+        boolean hasNext = ids.size() > pageSize;
+        if (hasNext) {
+            ids = new ArrayList<Long>(ids.subList(0, pageSize));
+        }
+        return new KeysetPage<Long>(ids, ids.isEmpty() ? afterId : ids.get(ids.size() - 1), !hasNext);
+    }
+    
+    protected long countIds(Criteria criteria) {
+        criteria.setProjection(Projections.countDistinct("id"));
+        return ((Number) criteria.uniqueResult()).longValue();
+    }
+    
     protected Query createSqlQuery(String queryString) {
         Query query = em.createQuery(queryString);
         return query;
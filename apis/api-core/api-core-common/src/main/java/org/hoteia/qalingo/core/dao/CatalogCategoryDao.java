@@ -9,11 +9,20 @@
  */
 package org.hoteia.qalingo.core.dao;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.hibernate.Criteria;
+import org.hibernate.Query;
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.sql.JoinType;
 import org.hoteia.qalingo.core.domain.CatalogCategoryMaster;
@@ -45,6 +54,23 @@ public class CatalogCategoryDao extends AbstractGenericDao {
         return catalogCategory;
 	}
 	
+    public List<CatalogCategoryMaster> findMasterCategoriesByIds(final List<Long> catalogCategoryIds, Object... params) {
+        if (catalogCategoryIds == null || catalogCategoryIds.isEmpty()) {
+            return new ArrayList<CatalogCategoryMaster>();
+        }
+        Criteria criteria = createDefaultCriteria(CatalogCategoryMaster.class);
+        FetchPlan fetchPlan = handleSpecificFetchMasterCategoryMode(criteria, params);
+        criteria.add(Restrictions.in("id", catalogCategoryIds));
+        criteria.addOrder(Order.asc("id"));
+
+        @SuppressWarnings("unchecked")
+        List<CatalogCategoryMaster> categories = criteria.list();
+        for (CatalogCategoryMaster category : categories) {
+            category.setFetchPlan(fetchPlan);
+        }
+        return categories;
+    }
+
 	public CatalogCategoryMaster getMasterCatalogCategoryByCode(final String catalogCategoryCode, final String catalogMasterCode, Object... params) {
         Criteria criteria = createDefaultCriteria(CatalogCategoryMaster.class);
         
@@ -153,6 +179,23 @@ public class CatalogCategoryDao extends AbstractGenericDao {
         return catalogCategory;
 	}
 	
+    public List<CatalogCategoryVirtual> findVirtualCategoriesByIds(final List<Long> catalogCategoryIds, Object... params) {
+        if (catalogCategoryIds == null || catalogCategoryIds.isEmpty()) {
+            return new ArrayList<CatalogCategoryVirtual>();
+        }
+        Criteria criteria = createDefaultCriteria(CatalogCategoryVirtual.class);
+        FetchPlan fetchPlan = handleSpecificFetchVirtualCategoryMode(criteria, params);
+        criteria.add(Restrictions.in("id", catalogCategoryIds));
+        criteria.addOrder(Order.asc("id"));
+
+        @SuppressWarnings("unchecked")
+        List<CatalogCategoryVirtual> categories = criteria.list();
+        for (CatalogCategoryVirtual category : categories) {
+            category.setFetchPlan(fetchPlan);
+        }
+        return categories;
+    }
+
 	public CatalogCategoryVirtual getVirtualCatalogCategoryByVirtualCategoryCode(final String catalogCategoryCode, final String catalogVirtualCode, Object... params) {
         Criteria criteria = createDefaultCriteria(CatalogCategoryVirtual.class);
         
@@ -249,6 +292,61 @@ public class CatalogCategoryDao extends AbstractGenericDao {
 		return categories;
 	}
 	
+    /**
+     * Virtual categories of several product skus with two queries : the sku/category links,
+     * then the categories with their fetch plan. The lists are ordered by category id, like
+     * findVirtualCategoriesByProductSkuId.
+     */
+    public Map<Long, List<CatalogCategoryVirtual>> findVirtualCategoriesByProductSkuIds(final List<Long> productSkuIds, Object... params) {
+        Map<Long, List<CatalogCategoryVirtual>> categoriesByProductSkuId = new HashMap<Long, List<CatalogCategoryVirtual>>();
+        if (productSkuIds == null || productSkuIds.isEmpty()) {
+            return categoriesByProductSkuId;
+        }
+        Query query = getSession().createQuery("SELECT rel.pk.productSku.id, rel.pk.catalogCategoryVirtual.id FROM CatalogCategoryVirtualProductSkuRel rel WHERE rel.pk.productSku.id IN (:productSkuIds)");
+        query.setParameterList("productSkuIds", productSkuIds);
+        @SuppressWarnings("unchecked")
+        List<Object[]> links = query.list();
+        if (links.isEmpty()) {
+            return categoriesByProductSkuId;
+        }
+
+        Set<Long> categoryIds = new HashSet<Long>();
+        for (Object[] link : links) {
+            categoryIds.add((Long) link[1]);
+        }
+        Criteria criteria = createDefaultCriteria(CatalogCategoryVirtual.class);
+        handleSpecificFetchVirtualCategoryMode(criteria, params);
+        criteria.add(Restrictions.in("id", categoryIds));
+        criteria.addOrder(Order.asc("id"));
+
+        @SuppressWarnings("unchecked")
+        List<CatalogCategoryVirtual> categories = criteria.list();
+        Map<Long, CatalogCategoryVirtual> categoriesById = new HashMap<Long, CatalogCategoryVirtual>();
+        for (CatalogCategoryVirtual category : categories) {
+            categoriesById.put(category.getId(), category);
+        }
+        for (Object[] link : links) {
+            CatalogCategoryVirtual category = categoriesById.get((Long) link[1]);
+            if (category == null) {
+                continue;
+            }
+            List<CatalogCategoryVirtual> productSkuCategories = categoriesByProductSkuId.get((Long) link[0]);
+            if (productSkuCategories == null) {
+                productSkuCategories = new ArrayList<CatalogCategoryVirtual>();
+                categoriesByProductSkuId.put((Long) link[0], productSkuCategories);
+            }
+            productSkuCategories.add(category);
+        }
+        for (List<CatalogCategoryVirtual> productSkuCategories : categoriesByProductSkuId.values()) {
+            Collections.sort(productSkuCategories, new Comparator<CatalogCategoryVirtual>() {
+                public int compare(CatalogCategoryVirtual category, CatalogCategoryVirtual otherCategory) {
+                    return category.getId().compareTo(otherCategory.getId());
+                }
+            });
+        }
+        return categoriesByProductSkuId;
+    }
+	
 //    public List<CatalogCategoryVirtual> findVirtualCategoriesByProductMarketingId(final Long productMarketingId, Object... params) {
 //        Criteria criteria = createDefaultCriteria(CatalogCategoryVirtual.class);
 //
@@ -265,6 +363,38 @@ public class CatalogCategoryDao extends AbstractGenericDao {
 //        return categories;
 //    }
 	
+    /**
+     * Columns of all the virtual categories, without the entities : id, code, virtual catalog id,
+     * parent category id, ranking and default flag.
+     */
+    public List<Object[]> findVirtualCategoryTreeRows() {
+        Criteria criteria = createIdCriteria(CatalogCategoryVirtual.class);
+        criteria.setProjection(Projections.projectionList()
+                .add(Projections.id())
+                .add(Projections.property("code"))
+                .add(Projections.property("catalog.id"))
+                .add(Projections.property("parentCatalogCategory.id"))
+                .add(Projections.property("ranking"))
+                .add(Projections.property("isDefault")));
+        criteria.addOrder(Order.asc("id"));
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = criteria.list();
+        return rows;
+    }
+
+    /**
+     * Columns of all the virtual category / product sku links : category id, product sku id,
+     * ranking, default category flag and product marketing id.
+     */
+    public List<Object[]> findVirtualCategoryProductSkuRows() {
+        Query query = getSession().createQuery("SELECT rel.pk.catalogCategoryVirtual.id, productSku.id, rel.ranking, rel.isDefaultCategory, productMarketing.id "
+                                             + "FROM CatalogCategoryVirtualProductSkuRel rel JOIN rel.pk.productSku productSku LEFT JOIN productSku.productMarketing productMarketing");
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = query.list();
+        return rows;
+    }
+
 	public CatalogCategoryVirtual saveOrUpdateCatalogCategory(final CatalogCategoryVirtual catalogCategory) {
 		if(catalogCategory.getDateCreate() == null){
 			catalogCategory.setDateCreate(new Date());
@@ -9,6 +9,7 @@
  */
 package org.hoteia.qalingo.core.dao;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -94,6 +95,33 @@ public class CustomerDao extends AbstractGenericDao {
         List<Customer> customers = criteria.list();
 		return customers;
 	}
+
+    public List<Customer> findCustomersByIds(final List<Long> customerIds, Object... params) {
+        if (customerIds == null || customerIds.isEmpty()) {
+            return new ArrayList<Customer>();
+        }
+        Criteria criteria = createDefaultCriteria(Customer.class);
+        FetchPlan fetchPlan = handleSpecificFetchMode(criteria, params);
+        criteria.add(Restrictions.in("id", customerIds));
+        criteria.addOrder(Order.asc("id"));
+
+        @SuppressWarnings("unchecked")
+        List<Customer> customers = criteria.list();
+        for (Iterator<Customer> iterator = customers.iterator(); iterator.hasNext();) {
+            Customer customer = (Customer) iterator.next();
+            customer.setFetchPlan(fetchPlan);
+        }
+        return customers;
+    }
+
+    public KeysetPage<Customer> findCustomerPage(final Long afterId, final int pageSize, Object... params) {
+        KeysetPage<Long> idPage = findIdPage(createIdCriteria(Customer.class), afterId, pageSize);
+        return idPage.withItems(findCustomersByIds(idPage.getItems(), params));
+    }
+
+    public long countCustomers() {
+        return countIds(createIdCriteria(Customer.class));
+    }
 	
 	public Customer saveOrUpdateCustomer(final Customer customer) throws Exception {
 		if(customer.getDateCreate() == null){
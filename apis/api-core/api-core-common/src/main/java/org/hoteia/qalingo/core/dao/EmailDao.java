@@ -9,24 +9,33 @@
  */
 package org.hoteia.qalingo.core.dao;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.sql.Blob;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.hibernate.Criteria;
 import org.hibernate.Hibernate;
+import org.hibernate.LockMode;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.type.StandardBasicTypes;
 import org.hoteia.qalingo.core.domain.Email;
+import org.hoteia.qalingo.core.domain.EmailBody;
+import org.hoteia.qalingo.core.email.EmailPayloadCodec;
 import org.hoteia.qalingo.core.util.impl.MimeMessagePreparatorImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -90,6 +99,82 @@ public class EmailDao extends AbstractGenericDao {
         return emailIds;
     }
 
+    /**
+     * Locks the next emails to send (pending, in error since the retry date, or left in
+     * SENDING by a stopped dispatcher) and flags them SENDING, until the end of the transaction.
+     */
+    public List<Email> claimEmailsForSync(final int maxResults, final Date staleBefore, final Date retryBefore, final Collection<Long> excludedEmailIds) {
+        Criteria criteria = createDefaultCriteria(Email.class);
+        criteria.add(Restrictions.or(
+                Restrictions.and(Restrictions.eq("status", Email.EMAIl_STATUS_PENDING), Restrictions.le("processedCount", 5)),
+                Restrictions.and(Restrictions.eq("status", Email.EMAIl_STATUS_ERROR), Restrictions.le("processedCount", 5), Restrictions.lt("dateUpdate", retryBefore)),
+                Restrictions.and(Restrictions.eq("status", Email.EMAIl_STATUS_SENDING), Restrictions.lt("dateUpdate", staleBefore))));
+        if (!excludedEmailIds.isEmpty()) {
+            criteria.add(Restrictions.not(Restrictions.in("id", excludedEmailIds)));
+        }
+        criteria.addOrder(Order.asc("id"));
+        criteria.setMaxResults(maxResults);
+        criteria.setLockMode(LockMode.PESSIMISTIC_WRITE);
+
+        @SuppressWarnings("unchecked")
+        List<Email> emails = criteria.list();
+        if (!emails.isEmpty()) {
+            List<Long> emailIds = new ArrayList<Long>(emails.size());
+            for (Email email : emails) {
+                emailIds.add(email.getId());
+            }
+            // THE VERSION IS KEPT : THE LOADED EMAILS CAN STILL BE UPDATED IN THIS TRANSACTION
+            Session session = (Session) em.getDelegate();
+            Query query = session.createQuery("UPDATE Email SET status = :status, dateUpdate = :dateUpdate WHERE id IN (:emailIds)");
+            query.setString("status", Email.EMAIl_STATUS_SENDING);
+            query.setTimestamp("dateUpdate", new Timestamp(new Date().getTime()));
+            query.setParameterList("emailIds", emailIds);
+            query.executeUpdate();
+        }
+        return emails;
+    }
+
+    /**
+     * Sets the status of several emails with one UPDATE, and counts the try.
+     */
+    public int updateEmailsStatus(final List<Long> emailIds, final String status) {
+        if (emailIds.isEmpty()) {
+            return 0;
+        }
+        Session session = (Session) em.getDelegate();
+        String hql = "UPDATE Email SET status = :status, processedCount = processedCount + 1, dateUpdate = :dateUpdate, version = version + 1 WHERE id IN (:emailIds)";
+        Query query = session.createQuery(hql);
+        query.setString("status", status);
+        query.setTimestamp("dateUpdate", new Timestamp(new Date().getTime()));
+        query.setParameterList("emailIds", emailIds);
+        return query.executeUpdate();
+    }
+
+    /**
+     * Sets several emails in error with one UPDATE, with the same exception, and counts the try.
+     */
+    public int updateEmailsError(final List<Long> emailIds, final Exception exception) throws IOException {
+        if (emailIds.isEmpty()) {
+            return 0;
+        }
+        Session session = (Session) em.getDelegate();
+        String hql = "UPDATE Email SET status = :status, exceptionContent = :exceptionContent, processedCount = processedCount + 1, dateUpdate = :dateUpdate, version = version + 1 WHERE id IN (:emailIds)";
+        Query query = session.createQuery(hql);
+        query.setString("status", Email.EMAIl_STATUS_ERROR);
+        query.setParameter("exceptionContent", Hibernate.getLobCreator(session).createBlob(EmailPayloadCodec.encodeException(exception)), StandardBasicTypes.BLOB);
+        query.setTimestamp("dateUpdate", new Timestamp(new Date().getTime()));
+        query.setParameterList("emailIds", emailIds);
+        return query.executeUpdate();
+    }
+
+    public Long countEmailsForSync() {
+        Criteria criteria = createDefaultCriteria(Email.class);
+        criteria.add(Restrictions.or(Restrictions.eq("status", Email.EMAIl_STATUS_PENDING), Restrictions.eq("status", Email.EMAIl_STATUS_ERROR)));
+        criteria.add(Restrictions.le("processedCount", 5));
+        criteria.setProjection(Projections.rowCount());
+        return (Long) criteria.uniqueResult();
+    }
+
     public Email saveOrUpdateEmail(final Email email) {
         if (email.getDateCreate() == null) {
             email.setDateCreate(new Timestamp(new Date().getTime()));
@@ -118,22 +203,170 @@ public class EmailDao extends AbstractGenericDao {
      */
     public void saveEmail(final Email email, final MimeMessagePreparatorImpl mimeMessagePreparator) throws IOException {
         Session session = (Session) em.getDelegate();
+        byte[] data = EmailPayloadCodec.encode(mimeMessagePreparator, email.getHtmlBodyHash(), email.getTextBodyHash());
+        Blob blob = Hibernate.getLobCreator(session).createBlob(data);
+        email.setEmailContent(blob);
+        saveOrUpdateEmail(email);
+    }
 
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(bos);
+    /**
+     * Saves the emails of a campaign : a body rendered for several emails is stored once, in
+     * an EmailBody, and the emails keep its hash.
+     */
+    public void saveEmails(final List<Email> emails, final List<MimeMessagePreparatorImpl> mimeMessagePreparators) throws IOException {
+        Map<String, Integer> bodyCounts = new HashMap<String, Integer>();
+        List<String[]> hashes = new ArrayList<String[]>(emails.size());
+        for (MimeMessagePreparatorImpl mimeMessagePreparator : mimeMessagePreparators) {
+            String[] emailHashes = {hashBody(mimeMessagePreparator.getHtmlContent()), hashBody(mimeMessagePreparator.getPlainTextContent())};
+            for (String hash : emailHashes) {
+                if (hash != null) {
+                    Integer count = bodyCounts.get(hash);
+                    bodyCounts.put(hash, count == null ? 1 : count + 1);
+                }
+            }
+            hashes.add(emailHashes);
+        }
+        Set<String> storedHashes = new HashSet<String>();
+        for (int i = 0; i < emails.size(); i++) {
+            Email email = emails.get(i);
+            MimeMessagePreparatorImpl mimeMessagePreparator = mimeMessagePreparators.get(i);
+            String[] emailHashes = hashes.get(i);
+            email.setHtmlBodyHash(shareBody(emailHashes[0], mimeMessagePreparator.getHtmlContent(), bodyCounts, storedHashes));
+            email.setTextBodyHash(shareBody(emailHashes[1], mimeMessagePreparator.getPlainTextContent(), bodyCounts, storedHashes));
+            saveEmail(email, mimeMessagePreparator);
+        }
+    }
 
-        oos.writeObject(mimeMessagePreparator);
-        oos.flush();
-        oos.close();
-        bos.close();
+    /**
+     * @return the hash of the body when it is shared, null when it is kept in the email content
+     */
+    protected String shareBody(final String hash, final String body, final Map<String, Integer> bodyCounts, final Set<String> storedHashes) throws IOException {
+        if (hash == null || bodyCounts.get(hash) < 2) {
+            return null;
+        }
+        if (storedHashes.add(hash)) {
+            Timestamp now = new Timestamp(new Date().getTime());
+            EmailBody emailBody = lockEmailBodyByHash(hash);
+            if (emailBody == null) {
+                emailBody = new EmailBody();
+                emailBody.setHash(hash);
+                emailBody.setContent(Hibernate.getLobCreator((Session) em.getDelegate()).createBlob(EmailPayloadCodec.encodeBody(body)));
+                emailBody.setDateCreate(now);
+                emailBody.setDateUpdate(now);
+                em.persist(emailBody);
+            } else {
+                // REUSED : KEPT BY deleteUnusedEmailBodies UNTIL THE NEXT PURGE
+                emailBody.setDateUpdate(now);
+            }
+        }
+        return hash;
+    }
 
-        byte[] data = bos.toByteArray();
+    /**
+     * Reads the body with a row lock : a purge running at the same time waits for the end of
+     * the campaign transaction, and a body deleted by the purge is not found.
+     */
+    protected EmailBody lockEmailBodyByHash(final String hash) {
+        Criteria criteria = createDefaultCriteria(EmailBody.class);
+        criteria.add(Restrictions.eq("hash", hash));
+        criteria.setLockMode(LockMode.PESSIMISTIC_WRITE);
+        return (EmailBody) criteria.uniqueResult();
+    }
 
-        Blob blob = Hibernate.getLobCreator(session).createBlob(data);
+    private String hashBody(final String body) {
+        return body != null ? EmailPayloadCodec.hash(body) : null;
+    }
 
-        email.setEmailContent(blob);
+    public EmailBody getEmailBodyByHash(final String hash) {
+        Criteria criteria = createDefaultCriteria(EmailBody.class);
+        criteria.add(Restrictions.eq("hash", hash));
+        return (EmailBody) criteria.uniqueResult();
+    }
 
-        saveOrUpdateEmail(email);
+    /**
+     * Reads the email content, streamed from the blob.
+     */
+    public MimeMessagePreparatorImpl readEmailContent(final Email email, final EmailPayloadCodec.EmailBodyResolver emailBodyResolver) throws IOException {
+        if (email.getEmailContent() == null) {
+            return null;
+        }
+        try {
+            return EmailPayloadCodec.decode(email.getEmailContent().getBinaryStream(), emailBodyResolver);
+        } catch (SQLException e) {
+            throw new IOException("Can't read the content of the email " + email.getId(), e);
+        }
+    }
+
+    /**
+     * @return the content of a shared body, null when it doesn't exist
+     */
+    public String readEmailBody(final String hash) throws IOException {
+        EmailBody emailBody = getEmailBodyByHash(hash);
+        if (emailBody == null) {
+            return null;
+        }
+        try {
+            return EmailPayloadCodec.decodeBody(emailBody.getContent().getBinaryStream());
+        } catch (SQLException e) {
+            throw new IOException("Can't read the email body " + hash, e);
+        }
+    }
+
+    /**
+     * @return the stack trace of the last error of the email, null when there is none
+     */
+    public String readExceptionContent(final Email email) throws IOException {
+        if (email.getExceptionContent() == null) {
+            return null;
+        }
+        try {
+            return EmailPayloadCodec.decodeException(email.getExceptionContent().getBinaryStream());
+        } catch (SQLException e) {
+            throw new IOException("Can't read the exception of the email " + email.getId(), e);
+        }
+    }
+
+    /**
+     * @return the emails after this id, by id
+     */
+    public List<Email> findEmailsAfter(final Long lastEmailId, final int maxResults) {
+        Criteria criteria = createDefaultCriteria(Email.class);
+        if (lastEmailId != null) {
+            criteria.add(Restrictions.gt("id", lastEmailId));
+        }
+        criteria.addOrder(Order.asc("id"));
+        criteria.setMaxResults(maxResults);
+
+        @SuppressWarnings("unchecked")
+        List<Email> emails = criteria.list();
+        return emails;
+    }
+
+    /**
+     * Rewrites the contents serialized by Java in the compact format.
+     * 
+     * @return true when the email was converted
+     */
+    public boolean migrateEmailContent(final Email email) throws IOException {
+        try {
+            boolean migrated = false;
+            Session session = (Session) em.getDelegate();
+            Blob emailContent = email.getEmailContent();
+            if (emailContent != null && emailContent.length() >= 2 && EmailPayloadCodec.isJavaSerialization(emailContent.getBytes(1, 2))) {
+                MimeMessagePreparatorImpl mimeMessagePreparator = EmailPayloadCodec.decode(emailContent.getBinaryStream(), null);
+                email.setEmailContent(Hibernate.getLobCreator(session).createBlob(EmailPayloadCodec.encode(mimeMessagePreparator, null, null)));
+                migrated = true;
+            }
+            Blob exceptionContent = email.getExceptionContent();
+            if (exceptionContent != null && exceptionContent.length() >= 2 && EmailPayloadCodec.isJavaSerialization(exceptionContent.getBytes(1, 2))) {
+                String stackTrace = EmailPayloadCodec.decodeException(exceptionContent.getBinaryStream());
+                email.setExceptionContent(Hibernate.getLobCreator(session).createBlob(EmailPayloadCodec.encodeStackTrace(stackTrace)));
+                migrated = true;
+            }
+            return migrated;
+        } catch (SQLException e) {
+            throw new IOException("Can't migrate the content of the email " + email.getId(), e);
+        }
     }
 
     /**
@@ -153,19 +386,8 @@ public class EmailDao extends AbstractGenericDao {
      */
     public void handleEmailException(final Email email, final Exception exception) throws IOException {
         Session session = (Session) em.getDelegate();
-
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(bos);
-
-        oos.writeObject(exception);
-        oos.flush();
-        oos.close();
-        bos.close();
-
-        byte[] data = bos.toByteArray();
-
+        byte[] data = EmailPayloadCodec.encodeException(exception);
         Blob blob = Hibernate.getLobCreator(session).createBlob(data);
-
         email.setExceptionContent(blob);
     }
 
@@ -184,9 +406,23 @@ public class EmailDao extends AbstractGenericDao {
                 Email email = (Email) iterator.next();
                 deleteEmail(email);
             }
+            deleteUnusedEmailBodies(before);
             return emails.size();
         }
         return 0;
     }
 
+    /**
+     * Deletes the shared bodies no more used by an email and not used by a campaign since
+     * before : the emails of a campaign still in progress are not visible yet.
+     */
+    public int deleteUnusedEmailBodies(final Timestamp before) {
+        Session session = (Session) em.getDelegate();
+        String hql = "DELETE FROM EmailBody emailBody WHERE emailBody.dateUpdate <= :before AND NOT EXISTS (SELECT email.id FROM Email email "
+                   + "WHERE email.htmlBodyHash = emailBody.hash OR email.textBodyHash = emailBody.hash)";
+        Query query = session.createQuery(hql);
+        query.setTimestamp("before", before);
+        return query.executeUpdate();
+    }
+
 }
\ No newline at end of file
@@ -12,12 +12,14 @@ package org.hoteia.qalingo.core.dao;
 import java.util.Date;
 import java.util.UUID;
 
+import javax.persistence.Query;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Restrictions;
+import org.hoteia.qalingo.core.domain.Customer;
 import org.hoteia.qalingo.core.domain.EngineBoSession;
 import org.hoteia.qalingo.core.domain.EngineEcoSession;
 import org.slf4j.Logger;
@@ -79,6 +81,21 @@ public class EngineSessionDao extends AbstractGenericDao {
         }
     }
 
+    /**
+     * Writes the columns of the session row, without the carts and without a version check :
+     * the detached session in the http session keeps its version for the next merge.
+     * 
+     * @return the number of updated rows, 0 when the session was deleted
+     */
+    public int updateEngineEcoSessionState(final Long engineSessionId, final String jSessionId, final Long customerId, final Date dateUpdate) {
+        Query query = em.createQuery("UPDATE EngineEcoSession SET jSessionId = :jSessionId, currentCustomer = :customer, dateUpdate = :dateUpdate WHERE id = :id");
+        query.setParameter("jSessionId", jSessionId);
+        query.setParameter("customer", customerId != null ? em.getReference(Customer.class, customerId) : null);
+        query.setParameter("dateUpdate", dateUpdate);
+        query.setParameter("id", engineSessionId);
+        return query.executeUpdate();
+    }
+
     public void deleteEngineEcoSession(EngineEcoSession engineSession) {
         em.remove(em.contains(engineSession) ? engineSession : em.merge(engineSession));
     }
@@ -112,6 +129,14 @@ public class EngineSessionDao extends AbstractGenericDao {
         return em.merge(engineSession);
     }
 
+    public int updateEngineBoSessionState(final Long engineSessionId, final String jSessionId, final Date dateUpdate) {
+        Query query = em.createQuery("UPDATE EngineBoSession SET jSessionId = :jSessionId, dateUpdate = :dateUpdate WHERE id = :id");
+        query.setParameter("jSessionId", jSessionId);
+        query.setParameter("dateUpdate", dateUpdate);
+        query.setParameter("id", engineSessionId);
+        return query.executeUpdate();
+    }
+
     public void deleteEngineBoSession(EngineBoSession engineSession) {
         em.remove(engineSession);
     }
@@ -9,7 +9,10 @@
  */
 package org.hoteia.qalingo.core.dao;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Restrictions;
@@ -41,6 +44,20 @@ public class GeolocDao extends AbstractGenericDao {
         return geolocCity;
     }
 
+    /**
+     * @return the "city,country" keys of all the geolocated cities
+     */
+    public List<String> findGeolocCityKeys() {
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = getSession().createQuery("SELECT city, country FROM GeolocCity").list();
+        List<String> keys = new ArrayList<String>(rows.size());
+        for (Iterator<Object[]> iterator = rows.iterator(); iterator.hasNext();) {
+            Object[] row = (Object[]) iterator.next();
+            keys.add(row[0] + "," + row[1]);
+        }
+        return keys;
+    }
+
     public GeolocCity saveOrUpdateGeolocCity(final GeolocCity geolocCity) {
         if (geolocCity.getDateCreate() == null) {
             geolocCity.setDateCreate(new Date());
@@ -82,6 +99,33 @@ public class GeolocDao extends AbstractGenericDao {
         return geolocAddress;
 	}
 	
+    public List<GeolocAddress> findGeolocAddressesByFormatedAddresses(final List<String> formatedAddresses, Object... params) {
+        if (formatedAddresses == null || formatedAddresses.isEmpty()) {
+            return new ArrayList<GeolocAddress>();
+        }
+        Criteria criteria = createDefaultCriteria(GeolocAddress.class);
+
+        FetchPlan fetchPlan = handleSpecificFetchMode(criteria);
+
+        criteria.add(Restrictions.in("formatedAddress", formatedAddresses));
+        @SuppressWarnings("unchecked")
+        List<GeolocAddress> geolocAddresses = criteria.list();
+        for (Iterator<GeolocAddress> iterator = geolocAddresses.iterator(); iterator.hasNext();) {
+            GeolocAddress geolocAddress = (GeolocAddress) iterator.next();
+            geolocAddress.setFetchPlan(fetchPlan);
+        }
+        return geolocAddresses;
+    }
+
+    /**
+     * @return the formated addresses of all the geolocated addresses
+     */
+    public List<String> findGeolocAddressFormatedAddresses() {
+        @SuppressWarnings("unchecked")
+        List<String> formatedAddresses = getSession().createQuery("SELECT formatedAddress FROM GeolocAddress").list();
+        return formatedAddresses;
+    }
+
     public GeolocAddress getGeolocAddressByLatitudeAndLongitude(final String latitude, final String longitude, Object... params) {
         Criteria criteria = createDefaultCriteria(GeolocAddress.class);
 
@@ -0,0 +1,66 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.dao;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Page of a seek (keyset) pagination on the ids : the next page is asked with the last id
+ * of this one, and is never shifted by the rows created or deleted in between.
+ */
+public class KeysetPage<T> implements Serializable {
+
+    /**
+     * Generated UID
+     */
+    private static final long serialVersionUID = 3528114398741021576L;
+
+    /**
+     * Largest page returned : a bigger page size asked by a client is reduced to it.
+     */
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private final List<T> items;
+    private final Long lastId;
+    private final boolean last;
+
+    public KeysetPage(final List<T> items, final Long lastId, final boolean last) {
+        this.items = items;
+        this.lastId = lastId;
+        this.last = last;
+    }
+
+    /**
+     * Same page with the entities loaded for its ids.
+     */
+    public <E> KeysetPage<E> withItems(final List<E> items) {
+        return new KeysetPage<E>(items, lastId, last);
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the id to give to get the next page
+     */
+    public Long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * @return true when there is no next page
+     */
+    public boolean isLast() {
+        return last;
+    }
+
+}
@@ -9,19 +9,18 @@
  */
 package org.hoteia.qalingo.core.dao;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
 
-import javax.persistence.RollbackException;
-
 import org.hibernate.Criteria;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 import org.hoteia.qalingo.core.domain.OrderCustomer;
-import org.hoteia.qalingo.core.domain.OrderNumber;
 import org.hoteia.qalingo.core.fetchplan.FetchPlan;
 import org.hoteia.qalingo.core.fetchplan.common.FetchPlanGraphCommon;
 import org.slf4j.Logger;
@@ -72,6 +71,33 @@ public class OrderCustomerDao extends AbstractGenericDao {
         return orderCustomers;
     }
 
+    public List<OrderCustomer> findOrdersByIds(final List<Long> orderCustomerIds, Object... params) {
+        if (orderCustomerIds == null || orderCustomerIds.isEmpty()) {
+            return new ArrayList<OrderCustomer>();
+        }
+        Criteria criteria = createDefaultCriteria(OrderCustomer.class);
+        FetchPlan fetchPlan = handleSpecificFetchMode(criteria, params);
+        criteria.add(Restrictions.in("id", orderCustomerIds));
+        criteria.addOrder(Order.asc("id"));
+
+        @SuppressWarnings("unchecked")
+        List<OrderCustomer> orderCustomers = criteria.list();
+        for (Iterator<OrderCustomer> iterator = orderCustomers.iterator(); iterator.hasNext();) {
+            OrderCustomer orderCustomer = (OrderCustomer) iterator.next();
+            orderCustomer.setFetchPlan(fetchPlan);
+        }
+        return orderCustomers;
+    }
+
+    public KeysetPage<OrderCustomer> findOrderPage(final Long afterId, final int pageSize, Object... params) {
+        KeysetPage<Long> idPage = findIdPage(createIdCriteria(OrderCustomer.class), afterId, pageSize);
+        return idPage.withItems(findOrdersByIds(idPage.getItems(), params));
+    }
+
+    public long countOrders() {
+        return countIds(createIdCriteria(OrderCustomer.class));
+    }
+
     public List<OrderCustomer> findOrdersByCustomerId(final Long customerId, Object... params) {
         Criteria criteria = createDefaultCriteria(OrderCustomer.class);
 
@@ -87,60 +113,49 @@ public class OrderCustomerDao extends AbstractGenericDao {
         return orderCustomers;
     }
 
+    /**
+     * Stores a new order. The order number is allocated before, by the OrderNumberAllocator.
+     */
     public OrderCustomer createNewOrder(OrderCustomer orderCustomer) {
         if (orderCustomer.getDateCreate() == null) {
             orderCustomer.setDateCreate(new Date());
         }
         orderCustomer.setDateUpdate(new Date());
         if (orderCustomer.getId() == null) {
-            orderCustomer = createNewOrderWithRightOrderNumber(orderCustomer);
+            orderCustomer.setPrefixHashFolder(UUID.randomUUID().toString());
+            orderCustomer = em.merge(orderCustomer);
         }
         return orderCustomer;
     }
 
-    private OrderCustomer createNewOrderWithRightOrderNumber(final OrderCustomer orderCustomer) {
-        OrderCustomer mergedOrSavedOrderCustomer = null;
-        try {
-            Session session = (Session) em.getDelegate();
-            String hql = "FROM OrderNumber";
-            Query query = session.createQuery(hql);
-            OrderNumber orderNumber = (OrderNumber) query.uniqueResult();
-            Integer previousLastOrderNumber = orderNumber.getLastOrderNumber();
-            Integer newLastOrderNumber = new Integer(previousLastOrderNumber.intValue() + 1);
-
-            orderCustomer.setPrefixHashFolder(UUID.randomUUID().toString());
-            orderCustomer.setOrderNum("" + newLastOrderNumber);
-
-//            if (orderCustomer.getId() != null) {
-//                if (em.contains(orderCustomer)) {
-//                    em.refresh(orderCustomer);
-//                }
-//                mergedOrSavedOrderCustomer = em.merge(orderCustomer);
-//                em.flush();
-//                return orderCustomer;
-//            } else {
-//                em.persist(orderCustomer);
-//                mergedOrSavedOrderCustomer = orderCustomer;
-//            }
-            mergedOrSavedOrderCustomer = em.merge(orderCustomer);
-
-            hql = "UPDATE OrderNumber SET lastOrderNumber = :newLastOrderNumber WHERE lastOrderNumber = :previousLastOrderNumber";
-            query = session.createQuery(hql);
-            query.setInteger("newLastOrderNumber", newLastOrderNumber);
-            query.setInteger("previousLastOrderNumber", previousLastOrderNumber);
-            int rowCount = query.executeUpdate();
-
-            if (rowCount == 0) {
-                em.getTransaction().rollback();
-                mergedOrSavedOrderCustomer = createNewOrderWithRightOrderNumber(orderCustomer);
-            }
-
-        } catch (RollbackException e) {
-            logger.debug("Failed to create a new Order with a specific OrderNumber increment", e);
-        } catch (Exception e) {
-            logger.error("Failed to create a new Order with a specific OrderNumber increment", e);
+    /**
+     * Reserves a block of order numbers : one UPDATE which locks the OrderNumber row until the
+     * end of the transaction, then the read of the new last number.
+     * 
+     * @param marketAreaId the market area of the sequence, null for the shared sequence
+     * @return the last number of the block, or null when the sequence doesn't exist
+     */
+    public Integer reserveOrderNumbers(final Long marketAreaId, final int count) {
+        Session session = (Session) em.getDelegate();
+        String restriction = marketAreaId == null ? "marketAreaId IS NULL" : "marketAreaId = :marketAreaId";
+        Query query = session.createQuery("UPDATE OrderNumber SET lastOrderNumber = lastOrderNumber + :count WHERE " + restriction);
+        query.setInteger("count", count);
+        if (marketAreaId != null) {
+            query.setLong("marketAreaId", marketAreaId);
+        }
+        int rowCount = query.executeUpdate();
+        if (rowCount == 0) {
+            return null;
+        }
+        if (rowCount > 1) {
+            logger.warn("Several OrderNumber rows for the market area " + marketAreaId + ", the order numbers may not be unique");
+        }
+        query = session.createQuery("SELECT lastOrderNumber FROM OrderNumber WHERE " + restriction);
+        if (marketAreaId != null) {
+            query.setLong("marketAreaId", marketAreaId);
         }
-        return mergedOrSavedOrderCustomer;
+        query.setMaxResults(1);
+        return (Integer) query.uniqueResult();
     }
 
     public OrderCustomer saveOrUpdateOrder(OrderCustomer orderCustomer) {
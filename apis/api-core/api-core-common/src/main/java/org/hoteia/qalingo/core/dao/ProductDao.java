@@ -31,6 +31,7 @@ import org.hoteia.qalingo.core.domain.ProductMarketingCustomerComment;
 import org.hoteia.qalingo.core.domain.ProductMarketingCustomerRate;
 import org.hoteia.qalingo.core.domain.ProductSku;
 import org.hoteia.qalingo.core.domain.ProductSkuOptionDefinition;
+import org.hoteia.qalingo.core.domain.ProductSkuPrice;
 import org.hoteia.qalingo.core.fetchplan.FetchPlan;
 import org.hoteia.qalingo.core.fetchplan.catalog.FetchPlanGraphProduct;
 import org.slf4j.Logger;
@@ -55,6 +56,24 @@ public class ProductDao extends AbstractGenericDao {
         return productMarketing;
 	}
 
+    public List<ProductMarketing> findProductMarketingsByIds(final List<Long> productMarketingIds, Object... params) {
+        if (productMarketingIds == null || productMarketingIds.isEmpty()) {
+            return new ArrayList<ProductMarketing>();
+        }
+        Criteria criteria = createDefaultCriteria(ProductMarketing.class);
+        FetchPlan fetchPlan = handleSpecificProductMarketingFetchMode(criteria, params);
+        criteria.add(Restrictions.in("id", productMarketingIds));
+        criteria.addOrder(Order.asc("id"));
+
+        @SuppressWarnings("unchecked")
+        List<ProductMarketing> productMarketings = criteria.list();
+        for (Iterator<ProductMarketing> iterator = productMarketings.iterator(); iterator.hasNext();) {
+            ProductMarketing productMarketing = (ProductMarketing) iterator.next();
+            productMarketing.setFetchPlan(fetchPlan);
+        }
+        return productMarketings;
+    }
+
 	public ProductMarketing getProductMarketingByCode(final String productMarketingCode, Object... params) {
         Criteria criteria = createDefaultCriteria(ProductMarketing.class);
         FetchPlan fetchPlan = handleSpecificProductMarketingFetchMode(criteria, params);
@@ -91,7 +110,7 @@ public class ProductDao extends AbstractGenericDao {
         Criteria criteria = createDefaultCriteria(ProductMarketing.class);
         handleSpecificProductMarketingFetchMode(criteria, params);
 
-        criteria.add(Restrictions.or(Restrictions.like("code", text, MatchMode.ANYWHERE), Restrictions.like("name", text, MatchMode.ANYWHERE), Restrictions.like("description", text, MatchMode.ANYWHERE)));
+        addProductMarketingTextRestriction(criteria, text);
         
         criteria.addOrder(Order.asc("id"));
 
@@ -100,6 +119,32 @@ public class ProductDao extends AbstractGenericDao {
 		return productMarketings;
 	}
 
+    public KeysetPage<ProductMarketing> findProductMarketingPage(final Long afterId, final int pageSize, Object... params) {
+        KeysetPage<Long> idPage = findIdPage(createIdCriteria(ProductMarketing.class), afterId, pageSize);
+        return idPage.withItems(findProductMarketingsByIds(idPage.getItems(), params));
+    }
+
+    public long countProductMarketings() {
+        return countIds(createIdCriteria(ProductMarketing.class));
+    }
+
+    public KeysetPage<ProductMarketing> findProductMarketingPageByText(final String text, final Long afterId, final int pageSize, Object... params) {
+        Criteria criteria = createIdCriteria(ProductMarketing.class);
+        addProductMarketingTextRestriction(criteria, text);
+        KeysetPage<Long> idPage = findIdPage(criteria, afterId, pageSize);
+        return idPage.withItems(findProductMarketingsByIds(idPage.getItems(), params));
+    }
+
+    public long countProductMarketingsByText(final String text) {
+        Criteria criteria = createIdCriteria(ProductMarketing.class);
+        addProductMarketingTextRestriction(criteria, text);
+        return countIds(criteria);
+    }
+
+    private void addProductMarketingTextRestriction(Criteria criteria, final String text) {
+        criteria.add(Restrictions.or(Restrictions.like("code", text, MatchMode.ANYWHERE), Restrictions.like("name", text, MatchMode.ANYWHERE), Restrictions.like("description", text, MatchMode.ANYWHERE)));
+    }
+
     public List<ProductMarketing> findProductMarketingsByBrandId(final Long brandId, Object... params) {
         Criteria criteria = createDefaultCriteria(ProductMarketing.class);
         handleSpecificProductMarketingFetchMode(criteria, params);
@@ -340,6 +385,24 @@ public class ProductDao extends AbstractGenericDao {
         return productSku;
     }
     
+    public List<ProductSku> findProductSkusByIds(final List<Long> productSkuIds, Object... params) {
+        if (productSkuIds == null || productSkuIds.isEmpty()) {
+            return new ArrayList<ProductSku>();
+        }
+        Criteria criteria = createDefaultCriteria(ProductSku.class);
+        FetchPlan fetchPlan = handleSpecificProductSkuFetchMode(criteria, params);
+        criteria.add(Restrictions.in("id", productSkuIds));
+        criteria.addOrder(Order.asc("id"));
+
+        @SuppressWarnings("unchecked")
+        List<ProductSku> productSkus = criteria.list();
+        for (Iterator<ProductSku> iterator = productSkus.iterator(); iterator.hasNext();) {
+            ProductSku productSku = (ProductSku) iterator.next();
+            productSku.setFetchPlan(fetchPlan);
+        }
+        return productSkus;
+    }
+    
     public ProductSku getProductSkuByCode(final String skuCode, Object... params) {
         Criteria criteria = createDefaultCriteria(ProductSku.class);
         FetchPlan fetchPlan = handleSpecificProductSkuFetchMode(criteria, params);
@@ -367,9 +430,7 @@ public class ProductDao extends AbstractGenericDao {
         Criteria criteria = createDefaultCriteria(ProductSku.class);
         handleSpecificProductSkuFetchMode(criteria, params);
         
-        criteria.add(Restrictions.or(Restrictions.eq("code", "%" + text + "%")));
-        criteria.add(Restrictions.or(Restrictions.eq("name", "%" + text + "%")));
-        criteria.add(Restrictions.or(Restrictions.eq("description", "%" + text + "%")));
+        addProductSkuTextRestriction(criteria, text);
         
         criteria.addOrder(Order.asc("id"));
 
@@ -378,6 +439,47 @@ public class ProductDao extends AbstractGenericDao {
         return productSkus;
     }
 
+    public KeysetPage<ProductSku> findProductSkuPageByText(final String text, final Long afterId, final int pageSize, Object... params) {
+        Criteria criteria = createIdCriteria(ProductSku.class);
+        addProductSkuTextRestriction(criteria, text);
+        KeysetPage<Long> idPage = findIdPage(criteria, afterId, pageSize);
+        return idPage.withItems(findProductSkusByIds(idPage.getItems(), params));
+    }
+
+    public long countProductSkusByText(final String text) {
+        Criteria criteria = createIdCriteria(ProductSku.class);
+        addProductSkuTextRestriction(criteria, text);
+        return countIds(criteria);
+    }
+
+    private void addProductSkuTextRestriction(Criteria criteria, final String text) {
+        criteria.add(Restrictions.or(Restrictions.like("code", text, MatchMode.ANYWHERE), Restrictions.like("name", text, MatchMode.ANYWHERE), Restrictions.like("description", text, MatchMode.ANYWHERE)));
+    }
+
+    /**
+     * Page of the price columns, without the entities : id, product sku id, market area id,
+     * retailer id, catalog price and currency id.
+     */
+    public List<Object[]> findProductSkuPriceRows(final Long afterId, final int pageSize) {
+        Criteria criteria = createIdCriteria(ProductSkuPrice.class);
+        criteria.setProjection(Projections.projectionList()
+                .add(Projections.id())
+                .add(Projections.property("productSku.id"))
+                .add(Projections.property("marketAreaId"))
+                .add(Projections.property("retailerId"))
+                .add(Projections.property("catalogPrice"))
+                .add(Projections.property("currency.id")));
+        if (afterId != null) {
+            criteria.add(Restrictions.gt("id", afterId));
+        }
+        criteria.addOrder(Order.asc("id"));
+        criteria.setMaxResults(pageSize);
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = criteria.list();
+        return rows;
+    }
+
     public List<ProductSku> findProductSkusByMasterCatalogCategoryId(final Long categoryId, Object... params) {
         Criteria criteria = createDefaultCriteria(ProductSku.class);
         handleSpecificProductMarketingFetchMode(criteria, params);
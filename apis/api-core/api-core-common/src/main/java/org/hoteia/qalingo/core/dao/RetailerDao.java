@@ -118,6 +118,33 @@ public class RetailerDao extends AbstractGenericDao {
         List<Retailer> retailers = criteria.list();
 		return retailers;
 	}
+
+    public List<Retailer> findRetailersByIds(final List<Long> retailerIds, Object... params) {
+        if (retailerIds == null || retailerIds.isEmpty()) {
+            return new ArrayList<Retailer>();
+        }
+        Criteria criteria = createDefaultCriteria(Retailer.class);
+        FetchPlan fetchPlan = handleSpecificRetailerFetchMode(criteria, params);
+        criteria.add(Restrictions.in("id", retailerIds));
+        criteria.addOrder(Order.asc("id"));
+
+        @SuppressWarnings("unchecked")
+        List<Retailer> retailers = criteria.list();
+        for (Iterator<Retailer> iterator = retailers.iterator(); iterator.hasNext();) {
+            Retailer retailer = (Retailer) iterator.next();
+            retailer.setFetchPlan(fetchPlan);
+        }
+        return retailers;
+    }
+
+    public KeysetPage<Retailer> findRetailerPage(final Long afterId, final int pageSize, Object... params) {
+        KeysetPage<Long> idPage = findIdPage(createIdCriteria(Retailer.class), afterId, pageSize);
+        return idPage.withItems(findRetailersByIds(idPage.getItems(), params));
+    }
+
+    public long countRetailers() {
+        return countIds(createIdCriteria(Retailer.class));
+    }
 	
 	public List<Retailer> findRetailersByTags(final List<String> tags, Object... params) {
         Criteria criteria = createDefaultCriteria(Retailer.class);
@@ -308,6 +335,24 @@ public class RetailerDao extends AbstractGenericDao {
         return store;
 	}
 
+    public List<Store> findStoresByIds(final List<Long> storeIds, Object... params) {
+        if (storeIds == null || storeIds.isEmpty()) {
+            return new ArrayList<Store>();
+        }
+        Criteria criteria = createDefaultCriteria(Store.class);
+        FetchPlan fetchPlan = handleSpecificStoreFetchMode(criteria, params);
+        criteria.add(Restrictions.in("id", storeIds));
+        criteria.addOrder(Order.asc("id"));
+
+        @SuppressWarnings("unchecked")
+        List<Store> stores = criteria.list();
+        for (Iterator<Store> iterator = stores.iterator(); iterator.hasNext();) {
+            Store store = (Store) iterator.next();
+            store.setFetchPlan(fetchPlan);
+        }
+        return stores;
+    }
+
 	public Store getStoreByCode(final String storeCode, Object... params) {
         Criteria criteria = createDefaultCriteria(Store.class);
         
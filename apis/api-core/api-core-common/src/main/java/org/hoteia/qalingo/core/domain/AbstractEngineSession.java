@@ -17,8 +17,39 @@ public abstract class AbstractEngineSession extends AbstractEntity {
      */
     private static final long serialVersionUID = -4246956151302392700L;
 
+    /**
+     * Columns of the session row : jsession id, guid, customer.
+     */
+    public static final int DIRTY_STATE = 1;
+
+    /**
+     * Carts of the eco session, written with their items by a merge.
+     */
+    public static final int DIRTY_CARTS = 2;
+
+    private int dirtyFields;
+
 	public AbstractEngineSession(){
 	}
+
+    /**
+     * Flags a change of persistent fields, the session row has to be written.
+     */
+    public synchronized void markDirty(final int fields) {
+        dirtyFields |= fields;
+    }
+
+    public synchronized boolean isDirty() {
+        return dirtyFields != 0;
+    }
+
+    public synchronized boolean isDirty(final int fields) {
+        return (dirtyFields & fields) != 0;
+    }
+
+    public synchronized void clearDirty(final int fields) {
+        dirtyFields &= ~fields;
+    }
 	
 	abstract  public MarketPlace getCurrentMarketPlace();
 	
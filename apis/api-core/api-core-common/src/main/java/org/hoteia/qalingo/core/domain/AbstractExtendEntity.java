@@ -32,6 +32,9 @@ public abstract class AbstractExtendEntity<E> implements Serializable {
     @Transient
     private FetchPlan fetchPlan;
 
+    @Transient
+    private transient volatile AttributeIndex attributeIndex;
+
     public FetchPlan getFetchPlan() {
         return fetchPlan;
     }
@@ -76,22 +79,40 @@ public abstract class AbstractExtendEntity<E> implements Serializable {
         return productSkuMarketAreaAttributes;
     }
     
+    /**
+     * The market area value of the attribute when there is one, the global value otherwise.
+     * Resolved with an index of the attributes, built on the first call and again when the
+     * attributes collection is replaced or its size changes.
+     */
     public AbstractAttribute getAttribute(String attributeCode, Long marketAreaId, String localizationCode) {
-        AbstractAttribute AbstractAttributeToReturn = null;
-
-        // 1: GET THE GLOBAL VALUE
-        AbstractAttribute globalAttribute = getAttribute(getGlobalAttributes(), attributeCode, marketAreaId, localizationCode);
-
-        // 2: GET THE MARKET AREA VALUE
-        AbstractAttribute marketAreaAttribute = getAttribute(getMarketAreaAttributes(marketAreaId), attributeCode, marketAreaId, localizationCode);
-        
-        if(marketAreaAttribute != null){
-            AbstractAttributeToReturn = marketAreaAttribute;
-        } else if (globalAttribute != null){
-            AbstractAttributeToReturn = globalAttribute;
+        final AttributeIndex index = getAttributeIndex();
+        if (index == null) {
+            return null;
         }
-        
-        return AbstractAttributeToReturn;
+        return index.getAttribute(attributeCode, marketAreaId, localizationCode);
+    }
+    
+    private AttributeIndex getAttributeIndex() {
+        final Set<E> attributes = getAttributes();
+        AttributeIndex index = attributeIndex;
+        if (index == null
+                || !index.isIndexOf(attributes)) {
+            // AN INDEXED COLLECTION IS INITIALIZED : THE CHECK IS NOT REPEATED ON EACH LOOKUP
+            if (attributes == null
+                    || !Hibernate.isInitialized(attributes)) {
+                return null;
+            }
+            index = new AttributeIndex(attributes);
+            attributeIndex = index;
+        }
+        return index;
+    }
+    
+    /**
+     * To call when an attribute is changed in place : its definition, market area or localization.
+     */
+    public void resetAttributeIndex() {
+        attributeIndex = null;
     }
     
     public AbstractAttribute getAttribute(List<AbstractAttribute> attributes, String attributeCode, Long marketAreaId, String localizationCode) {
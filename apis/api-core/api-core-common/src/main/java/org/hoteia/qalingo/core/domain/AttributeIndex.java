@@ -0,0 +1,158 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.domain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Attributes of an entity grouped by attribute definition code, the global ones apart from
+ * the market area ones. A lookup reads the group of its code and checks the market area and
+ * the localization of its few attributes, without creating any object. Immutable once built.
+ */
+final class AttributeIndex {
+
+    private static final AbstractAttribute[] NO_ATTRIBUTES = new AbstractAttribute[0];
+
+    private final Collection<?> attributes;
+    private final int size;
+
+    private final Map<String, AttributeGroup> groups;
+    private final String[] codes;
+    private final AttributeGroup[] codeGroups;
+
+    /**
+     * Attributes of one definition code.
+     */
+    static final class AttributeGroup {
+        private final AbstractAttribute[] globalAttributes;
+        private final AbstractAttribute[] marketAreaAttributes;
+
+        AttributeGroup(final List<AbstractAttribute> globalAttributes, final List<AbstractAttribute> marketAreaAttributes) {
+            this.globalAttributes = globalAttributes.toArray(NO_ATTRIBUTES);
+            this.marketAreaAttributes = marketAreaAttributes.toArray(NO_ATTRIBUTES);
+        }
+    }
+
+    AttributeIndex(final Collection<?> attributes) {
+        this.attributes = attributes;
+        this.size = attributes.size();
+
+        Map<String, List<AbstractAttribute>> globalAttributes = new HashMap<String, List<AbstractAttribute>>();
+        Map<String, List<AbstractAttribute>> marketAreaAttributes = new HashMap<String, List<AbstractAttribute>>();
+        for (Iterator<?> iterator = attributes.iterator(); iterator.hasNext();) {
+            AbstractAttribute attribute = (AbstractAttribute) iterator.next();
+            AttributeDefinition attributeDefinition = attribute.getAttributeDefinition();
+            if (attributeDefinition == null
+                    || attributeDefinition.getCode() == null) {
+                continue;
+            }
+            String code = attributeDefinition.getCode();
+            add(globalAttributes, code, attributeDefinition.isGlobal() ? attribute : null);
+            add(marketAreaAttributes, code, attributeDefinition.isGlobal() ? null : attribute);
+        }
+
+        this.groups = new HashMap<String, AttributeGroup>();
+        this.codes = new String[globalAttributes.size()];
+        this.codeGroups = new AttributeGroup[globalAttributes.size()];
+        int i = 0;
+        for (Map.Entry<String, List<AbstractAttribute>> entry : globalAttributes.entrySet()) {
+            AttributeGroup group = new AttributeGroup(entry.getValue(), marketAreaAttributes.get(entry.getKey()));
+            groups.put(entry.getKey(), group);
+            codes[i] = entry.getKey();
+            codeGroups[i] = group;
+            i++;
+        }
+    }
+
+    private static void add(final Map<String, List<AbstractAttribute>> attributesByCode, final String code, final AbstractAttribute attribute) {
+        List<AbstractAttribute> attributes = attributesByCode.get(code);
+        if (attributes == null) {
+            attributes = new ArrayList<AbstractAttribute>(2);
+            attributesByCode.put(code, attributes);
+        }
+        if (attribute != null) {
+            attributes.add(attribute);
+        }
+    }
+
+    /**
+     * @return false when the attributes collection was replaced, or an attribute added or removed
+     */
+    boolean isIndexOf(final Collection<?> attributes) {
+        return attributes != null
+                && this.attributes == attributes
+                && size == attributes.size();
+    }
+
+    /**
+     * The market area value when there is one, the global value otherwise : same rules as
+     * AbstractExtendEntity.getAttribute(List, String, Long, String) on the two lists.
+     */
+    AbstractAttribute getAttribute(final String attributeCode, final Long marketAreaId, final String localizationCode) {
+        AttributeGroup group = getGroup(attributeCode);
+        if (group == null) {
+            return null;
+        }
+        AbstractAttribute marketAreaAttribute = find(group.marketAreaAttributes, marketAreaId, localizationCode);
+        if (marketAreaAttribute != null) {
+            return marketAreaAttribute;
+        }
+        return find(group.globalAttributes, null, localizationCode);
+    }
+
+    private AttributeGroup getGroup(final String attributeCode) {
+        if (attributeCode == null) {
+            return null;
+        }
+        AttributeGroup group = groups.get(attributeCode);
+        if (group != null) {
+            return group;
+        }
+        // THE CODES ARE COMPARED IGNORING THE CASE
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i].equalsIgnoreCase(attributeCode)) {
+                return codeGroups[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the only attribute for this market area and this localization, null when none or several
+     */
+    private static AbstractAttribute find(final AbstractAttribute[] attributes, final Long marketAreaId, final String localizationCode) {
+        AbstractAttribute attributeFound = null;
+        int count = 0;
+        for (int i = 0; i < attributes.length; i++) {
+            AbstractAttribute attribute = attributes[i];
+            if (marketAreaId != null
+                    && attribute.getMarketAreaId() != null
+                    && !attribute.getMarketAreaId().equals(marketAreaId)) {
+                continue;
+            }
+            if (StringUtils.isNotEmpty(localizationCode)
+                    && StringUtils.isNotEmpty(attribute.getLocalizationCode())
+                    && !attribute.getLocalizationCode().equals(localizationCode)) {
+                continue;
+            }
+            attributeFound = attribute;
+            count++;
+        }
+        return count == 1 ? attributeFound : null;
+    }
+
+}
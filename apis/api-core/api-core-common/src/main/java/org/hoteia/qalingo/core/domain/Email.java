@@ -44,6 +44,7 @@ public class Email extends AbstractEntity {
 	public static final String EMAIl_TYPE_ABANDONED_SHOPPING_CART					= "ABANDONED_SHOPPING_CART";
 	
 	public static final String EMAIl_STATUS_PENDING = "PENDING";
+	public static final String EMAIl_STATUS_SENDING = "SENDING";
 	public static final String EMAIl_STATUS_SENDED = "SENDED";
 	public static final String EMAIl_STATUS_ERROR = "ERROR";
 
@@ -65,6 +66,12 @@ public class Email extends AbstractEntity {
 	@Lob
     private Blob emailContent;
 	
+	@Column(name="HTML_BODY_HASH", length=40)
+	private String htmlBodyHash;
+	
+	@Column(name="TEXT_BODY_HASH", length=40)
+	private String textBodyHash;
+	
 	@Column(name="STATUS", nullable=false)
 	private String status;
 	
@@ -119,6 +126,28 @@ public class Email extends AbstractEntity {
 		this.emailContent = emailContent;
 	}
 
+	/**
+	 * @return the hash of the shared html body (EmailBody), null when the body is in the email content
+	 */
+	public String getHtmlBodyHash() {
+		return htmlBodyHash;
+	}
+	
+	public void setHtmlBodyHash(String htmlBodyHash) {
+		this.htmlBodyHash = htmlBodyHash;
+	}
+	
+	/**
+	 * @return the hash of the shared text body (EmailBody), null when the body is in the email content
+	 */
+	public String getTextBodyHash() {
+		return textBodyHash;
+	}
+	
+	public void setTextBodyHash(String textBodyHash) {
+		this.textBodyHash = textBodyHash;
+	}
+
 	public String getStatus() {
 		return status;
 	}
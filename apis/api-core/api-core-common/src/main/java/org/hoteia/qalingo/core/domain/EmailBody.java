@@ -0,0 +1,131 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.domain;
+
+import java.sql.Blob;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Html or text body shared by the emails of a campaign, stored once and found by the hash
+ * of its content.
+ */
+@Entity
+@Table(name="TBO_EMAIL_BODY")
+public class EmailBody extends AbstractEntity {
+
+	/**
+	 * Generated UID
+	 */
+	private static final long serialVersionUID = -3215488920713146072L;
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	@Column(name="ID", nullable=false)
+	private Long id;
+	
+	@Column(name="HASH", nullable=false, unique=true, length=40)
+	private String hash;
+	
+	@Column(name="CONTENT")
+	@Lob
+    private Blob content;
+	
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name="DATE_CREATE")
+	private Date dateCreate;
+	
+	/**
+	 * Last time a campaign used the body : the unused bodies are only deleted after a while.
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name="DATE_UPDATE")
+	private Date dateUpdate;
+	
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+	
+	public String getHash() {
+		return hash;
+	}
+	
+	public void setHash(String hash) {
+		this.hash = hash;
+	}
+	
+	public Blob getContent() {
+		return content;
+	}
+	
+	public void setContent(Blob content) {
+		this.content = content;
+	}
+	
+	public Date getDateCreate() {
+		return dateCreate;
+	}
+
+	public void setDateCreate(Date dateCreate) {
+		this.dateCreate = dateCreate;
+	}
+	
+	public Date getDateUpdate() {
+		return dateUpdate;
+	}
+
+	public void setDateUpdate(Date dateUpdate) {
+		this.dateUpdate = dateUpdate;
+	}
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((hash == null) ? 0 : hash.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        EmailBody other = (EmailBody) obj;
+        if (hash == null) {
+            if (other.hash != null)
+                return false;
+        } else if (!hash.equals(other.hash))
+            return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "EmailBody [id=" + id + ", hash=" + hash + ", dateCreate=" + dateCreate + "]";
+    }
+	
+}
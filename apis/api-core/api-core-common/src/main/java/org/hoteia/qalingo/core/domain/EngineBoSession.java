@@ -119,6 +119,9 @@ public class EngineBoSession extends AbstractEngineSession {
 	}
 	
 	public void setjSessionId(String jSessionId) {
+		if (!equals(this.jSessionId, jSessionId)) {
+			markDirty(DIRTY_STATE);
+		}
 		this.jSessionId = jSessionId;
 	}
 	
@@ -127,6 +130,9 @@ public class EngineBoSession extends AbstractEngineSession {
     }
 	
 	public void setEngineSessionGuid(String engineSessionGuid) {
+        if (!equals(this.engineSessionGuid, engineSessionGuid)) {
+            markDirty(DIRTY_STATE);
+        }
         this.engineSessionGuid = engineSessionGuid;
     }
 	
@@ -250,6 +256,10 @@ public class EngineBoSession extends AbstractEngineSession {
 		this.dateUpdate = dateUpdate;
 	}
 
+    private static boolean equals(final Object value, final Object other) {
+        return value == other || (value != null && value.equals(other));
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -137,6 +137,9 @@ public class EngineEcoSession extends AbstractEngineSession {
     }
 
     public void setjSessionId(String jSessionId) {
+        if (!equals(this.jSessionId, jSessionId)) {
+            markDirty(DIRTY_STATE);
+        }
         this.jSessionId = jSessionId;
     }
 
@@ -145,6 +148,9 @@ public class EngineEcoSession extends AbstractEngineSession {
     }
 
     public void setEngineSessionGuid(String engineSessionGuid) {
+        if (!equals(this.engineSessionGuid, engineSessionGuid)) {
+            markDirty(DIRTY_STATE);
+        }
         this.engineSessionGuid = engineSessionGuid;
     }
 
@@ -183,6 +189,7 @@ public class EngineEcoSession extends AbstractEngineSession {
         }
 
         this.carts.add(cart);
+        markDirty(DIRTY_CARTS);
         return cart;
     }
 
@@ -196,6 +203,7 @@ public class EngineEcoSession extends AbstractEngineSession {
         cart.setLocalizationId(getCurrentMarketAreaLocalization().getId());
         cart.setRetailerId(getCurrentMarketAreaRetailer().getId());
         cart.setCurrency(getCurrentMarketAreaCurrency());
+        markDirty(DIRTY_CARTS);
         return cart;
     }
 
@@ -207,6 +215,7 @@ public class EngineEcoSession extends AbstractEngineSession {
                 if (cart != null && cart.getMarketAreaId().equals(getCurrentMarketArea().getId()) 
                         && cart.getRetailerId().equals(getCurrentMarketAreaRetailer().getId())) {
                     this.carts.remove(cart);
+                    markDirty(DIRTY_CARTS);
                 }
             }
         }
@@ -216,6 +225,7 @@ public class EngineEcoSession extends AbstractEngineSession {
         Cart cartToUpdate = getCart();
         cartToUpdate = cart;
         this.carts.add(cartToUpdate);
+        markDirty(DIRTY_CARTS);
         return cartToUpdate;
     }
 
@@ -244,6 +254,9 @@ public class EngineEcoSession extends AbstractEngineSession {
     }
 
     public void setCurrentCustomer(Customer customer) {
+        if (!equals(getCustomerId(this.currentCustomer), getCustomerId(customer))) {
+            markDirty(DIRTY_STATE);
+        }
         this.currentCustomer = customer;
     }
 
@@ -382,6 +395,14 @@ public class EngineEcoSession extends AbstractEngineSession {
         this.dateUpdate = dateUpdate;
     }
 
+    private static Long getCustomerId(final Customer customer) {
+        return customer != null ? customer.getId() : null;
+    }
+
+    private static boolean equals(final Object value, final Object other) {
+        return value == other || (value != null && value.equals(other));
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
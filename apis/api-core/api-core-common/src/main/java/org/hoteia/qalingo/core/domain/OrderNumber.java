@@ -40,6 +40,12 @@ public class OrderNumber extends AbstractEntity {
 	@Column(name="LAST_ORDER_NUMBER")
 	private Integer lastOrderNumber;
 
+	/**
+	 * Sequence of a market area, or the shared sequence when null.
+	 */
+	@Column(name="MARKET_AREA_ID")
+	private Long marketAreaId;
+
 	public OrderNumber(){
 	}
 	
@@ -67,6 +73,14 @@ public class OrderNumber extends AbstractEntity {
 		this.lastOrderNumber = lastOrderNumber;
 	}
 
+	public Long getMarketAreaId() {
+		return marketAreaId;
+	}
+
+	public void setMarketAreaId(Long marketAreaId) {
+		this.marketAreaId = marketAreaId;
+	}
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -100,7 +114,7 @@ public class OrderNumber extends AbstractEntity {
 
     @Override
     public String toString() {
-        return "OrderNumber [id=" + id + ", version=" + version + ", lastOrderNumber=" + lastOrderNumber + "]";
+        return "OrderNumber [id=" + id + ", version=" + version + ", lastOrderNumber=" + lastOrderNumber + ", marketAreaId=" + marketAreaId + "]";
     }
 
 }
\ No newline at end of file
@@ -37,6 +37,7 @@ import javax.persistence.Version;
 
 import org.apache.commons.lang.StringUtils;
 import org.hibernate.Hibernate;
+import org.hoteia.qalingo.core.util.LongHashIndex;
 
 @Entity
 @Table(name="TECO_PRODUCT_SKU")
@@ -122,6 +123,9 @@ public class ProductSku extends AbstractExtendEntity {
     @Transient
     private Integer ranking;
     
+    @Transient
+    private transient volatile CollectionIndex<ProductSkuPrice> priceIndex;
+    
     @Temporal(TemporalType.TIMESTAMP)
     @Column(name = "DATE_CREATE")
     private Date dateCreate;
@@ -249,19 +253,53 @@ public class ProductSku extends AbstractExtendEntity {
 		return prices;
 	}
 	
+	/**
+	 * Price of the market area and the retailer, read from an index of the prices by packed
+	 * (marketAreaId, retailerId) key. The index is built on the first call, and again when the
+	 * prices set is replaced or its size changes.
+	 */
 	public ProductSkuPrice getPrice(final Long marketAreaId, final Long retailerId){
-	    if(prices != null
-	            && Hibernate.isInitialized(prices)){
-	        for (ProductSkuPrice productSkuPrice : prices) {
-	            if(productSkuPrice.getMarketAreaId().equals(marketAreaId) 
-	                    && productSkuPrice.getRetailerId().equals(retailerId)) {
-	                return productSkuPrice;
-	            }
-	        }    
+	    CollectionIndex<ProductSkuPrice> index = priceIndex;
+	    if(index == null
+	            || !index.isIndexOf(prices)){
+	        // AN INDEXED SET IS INITIALIZED : THE CHECK IS NOT REPEATED ON EACH LOOKUP
+	        if(prices == null
+	                || !Hibernate.isInitialized(prices)){
+	            return null;
+	        }
+	        index = buildPriceIndex(prices);
+	        priceIndex = index;
+	    }
+	    if(index.values != null){
+	        return index.values.get(LongHashIndex.pack(marketAreaId, retailerId));
 	    }
+	    // AN ID BEYOND 32 BITS : NO PACKED KEY
+	    for (ProductSkuPrice productSkuPrice : prices) {
+	        if(productSkuPrice.getMarketAreaId().equals(marketAreaId) 
+	                && productSkuPrice.getRetailerId().equals(retailerId)) {
+	            return productSkuPrice;
+	        }
+	    }    
 	    return null;
 	}
 	
+	private static CollectionIndex<ProductSkuPrice> buildPriceIndex(final Set<ProductSkuPrice> prices) {
+	    LongHashIndex<ProductSkuPrice> values = new LongHashIndex<ProductSkuPrice>(prices.size());
+	    for (ProductSkuPrice productSkuPrice : prices) {
+	        if(productSkuPrice.getMarketAreaId() == null
+	                || productSkuPrice.getRetailerId() == null){
+	            // NEVER RETURNED
+	            continue;
+	        }
+	        long key = LongHashIndex.pack(productSkuPrice.getMarketAreaId(), productSkuPrice.getRetailerId());
+	        if(key == LongHashIndex.NO_KEY){
+	            return new CollectionIndex<ProductSkuPrice>(prices, null);
+	        }
+	        values.put(key, productSkuPrice);
+	    }
+	    return new CollectionIndex<ProductSkuPrice>(prices, values);
+	}
+	
 	public void setPrices(Set<ProductSkuPrice> prices) {
 		this.prices = prices;
 	}
@@ -274,6 +312,13 @@ public class ProductSku extends AbstractExtendEntity {
 		this.stocks = stocks;
 	}
 	
+	/**
+	 * To call when a price is changed in place : its market area or its retailer.
+	 */
+	public void resetPriceIndex() {
+	    priceIndex = null;
+	}
+	
 	public Set<Store> getStores() {
         return stores;
     }
@@ -466,4 +511,25 @@ public class ProductSku extends AbstractExtendEntity {
                 + dateCreate + ", dateUpdate=" + dateUpdate + "]";
     }
 	
+    /**
+     * Values of a set by key, with the reference and the size of the set it was built from.
+     */
+    private static final class CollectionIndex<V> {
+        private final Set<V> set;
+        private final int size;
+        private final LongHashIndex<V> values;
+
+        CollectionIndex(final Set<V> set, final LongHashIndex<V> values) {
+            this.set = set;
+            this.size = set.size();
+            this.values = values;
+        }
+
+        boolean isIndexOf(final Set<V> set) {
+            return set != null
+                    && this.set == set
+                    && size == set.size();
+        }
+    }
+
 }
\ No newline at end of file
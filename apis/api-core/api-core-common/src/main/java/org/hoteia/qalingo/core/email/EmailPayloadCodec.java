@@ -0,0 +1,304 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.email;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.hoteia.qalingo.core.util.impl.MimeMessagePreparatorImpl;
+
+/**
+ * Binary format of the email payloads stored in TBO_EMAIL, instead of the Java serialization
+ * of MimeMessagePreparatorImpl and of the exceptions.
+ * 
+ * A payload starts with a two bytes magic and a version byte, followed by the gzipped fields.
+ * A body is written inline, or as the hash of an EmailBody row when the body is shared by
+ * the mails of a campaign. The rows written before this format (Java serialization, magic
+ * 0xACED) are still read.
+ */
+public final class EmailPayloadCodec {
+
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC_EMAIL = ('Q' << 8) | 'E';
+    private static final int MAGIC_EXCEPTION = ('Q' << 8) | 'X';
+    private static final int MAGIC_JAVA_SERIALIZATION = 0xACED;
+
+    private static final int BODY_NULL = 0;
+    private static final int BODY_INLINE = 1;
+    private static final int BODY_REFERENCE = 2;
+
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Loads the shared bodies referenced by a payload.
+     */
+    public interface EmailBodyResolver {
+
+        String getBody(String hash) throws IOException;
+
+    }
+
+    private EmailPayloadCodec() {
+    }
+
+    /**
+     * @param htmlBodyHash the hash of the shared html body, or null to write the body inline
+     * @param textBodyHash the hash of the shared text body, or null to write the body inline
+     */
+    public static byte[] encode(final MimeMessagePreparatorImpl mimeMessagePreparator, final String htmlBodyHash, final String textBodyHash) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(estimateSize(mimeMessagePreparator));
+        DataOutputStream header = new DataOutputStream(bos);
+        header.writeShort(MAGIC_EMAIL);
+        header.writeByte(FORMAT_VERSION);
+        header.flush();
+
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bos, 4096));
+        writeString(out, mimeMessagePreparator.getFrom());
+        writeString(out, mimeMessagePreparator.getFromName());
+        writeString(out, mimeMessagePreparator.getTo());
+        writeString(out, mimeMessagePreparator.getCc());
+        writeString(out, mimeMessagePreparator.getReplyTo());
+        writeString(out, mimeMessagePreparator.getSubject());
+        writeString(out, mimeMessagePreparator.getUnsubscribeUrlOrEmail());
+        out.writeBoolean(mimeMessagePreparator.isMirroringActivated());
+        writeString(out, mimeMessagePreparator.getMirroringFilePath());
+        writeBody(out, mimeMessagePreparator.getHtmlContent(), htmlBodyHash);
+        writeBody(out, mimeMessagePreparator.getPlainTextContent(), textBodyHash);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Reads a payload from the stream of the blob, in this format or serialized by Java.
+     */
+    public static MimeMessagePreparatorImpl decode(final InputStream inputStream, final EmailBodyResolver emailBodyResolver) throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(inputStream, 8192);
+        int magic = readMagic(bis);
+        if (magic == MAGIC_JAVA_SERIALIZATION) {
+            return (MimeMessagePreparatorImpl) readSerializedObject(bis);
+        }
+        if (magic != MAGIC_EMAIL) {
+            throw new IOException("Unknown email payload: " + Integer.toHexString(magic));
+        }
+        int version = bis.read();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unknown email payload version: " + version);
+        }
+        DataInputStream in = new DataInputStream(new GZIPInputStream(bis, 4096));
+        try {
+            MimeMessagePreparatorImpl mimeMessagePreparator = new MimeMessagePreparatorImpl();
+            mimeMessagePreparator.setFrom(readString(in));
+            mimeMessagePreparator.setFromName(readString(in));
+            mimeMessagePreparator.setTo(readString(in));
+            mimeMessagePreparator.setCc(readString(in));
+            mimeMessagePreparator.setReplyTo(readString(in));
+            mimeMessagePreparator.setSubject(readString(in));
+            mimeMessagePreparator.setUnsubscribeUrlOrEmail(readString(in));
+            mimeMessagePreparator.setMirroringActivated(in.readBoolean());
+            mimeMessagePreparator.setMirroringFilePath(readString(in));
+            mimeMessagePreparator.setHtmlContent(readBody(in, emailBodyResolver));
+            mimeMessagePreparator.setPlainTextContent(readBody(in, emailBodyResolver));
+            return mimeMessagePreparator;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param firstBytes the first two bytes of a payload
+     * @return true when the payload was written by Java serialization, before this format
+     */
+    public static boolean isJavaSerialization(final byte[] firstBytes) {
+        return firstBytes.length >= 2 && (((firstBytes[0] & 0xFF) << 8) | (firstBytes[1] & 0xFF)) == MAGIC_JAVA_SERIALIZATION;
+    }
+
+    /**
+     * Stores the stack trace of an exception, the only part read afterwards.
+     */
+    public static byte[] encodeException(final Throwable exception) throws IOException {
+        return encodeStackTrace(getStackTrace(exception));
+    }
+
+    public static byte[] encodeStackTrace(final String stackTrace) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
+        DataOutputStream header = new DataOutputStream(bos);
+        header.writeShort(MAGIC_EXCEPTION);
+        header.writeByte(FORMAT_VERSION);
+        header.flush();
+
+        GZIPOutputStream out = new GZIPOutputStream(bos);
+        out.write(stackTrace.getBytes(CHARSET));
+        out.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * @return the stack trace of the stored exception
+     */
+    public static String decodeException(final InputStream inputStream) throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(inputStream, 8192);
+        int magic = readMagic(bis);
+        if (magic == MAGIC_JAVA_SERIALIZATION) {
+            return getStackTrace((Throwable) readSerializedObject(bis));
+        }
+        if (magic != MAGIC_EXCEPTION || bis.read() != FORMAT_VERSION) {
+            throw new IOException("Unknown exception payload: " + Integer.toHexString(magic));
+        }
+        return readFully(new GZIPInputStream(bis));
+    }
+
+    /**
+     * Compressed content of a shared body.
+     */
+    public static byte[] encodeBody(final String body) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(body.length() / 4 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(bos);
+        out.write(body.getBytes(CHARSET));
+        out.close();
+        return bos.toByteArray();
+    }
+
+    public static String decodeBody(final InputStream inputStream) throws IOException {
+        return readFully(new GZIPInputStream(inputStream, 4096));
+    }
+
+    /**
+     * @return the SHA-1 of a body, in hexadecimal
+     */
+    public static String hash(final String body) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+            byte[] digest = messageDigest.digest(body.getBytes(CHARSET));
+            StringBuilder hash = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hash.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int readMagic(final InputStream inputStream) throws IOException {
+        // THE STREAM IS LEFT AT THE START, FOR THE JAVA DESERIALIZATION
+        inputStream.mark(2);
+        int magic = (inputStream.read() << 8) | inputStream.read();
+        if (magic == MAGIC_JAVA_SERIALIZATION) {
+            inputStream.reset();
+        }
+        return magic;
+    }
+
+    private static Object readSerializedObject(final InputStream inputStream) throws IOException {
+        ObjectInputStream ois = new ObjectInputStream(inputStream);
+        try {
+            return ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Can't read the serialized email payload", e);
+        } finally {
+            ois.close();
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        // NOT writeUTF : LIMITED TO 64KB
+        byte[] bytes = value.getBytes(CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    private static void writeBody(final DataOutputStream out, final String body, final String hash) throws IOException {
+        if (body == null) {
+            out.writeByte(BODY_NULL);
+        } else if (hash != null) {
+            out.writeByte(BODY_REFERENCE);
+            writeString(out, hash);
+        } else {
+            out.writeByte(BODY_INLINE);
+            writeString(out, body);
+        }
+    }
+
+    private static String readBody(final DataInputStream in, final EmailBodyResolver emailBodyResolver) throws IOException {
+        int kind = in.readByte();
+        if (kind == BODY_NULL) {
+            return null;
+        }
+        String value = readString(in);
+        if (kind == BODY_REFERENCE) {
+            String body = emailBodyResolver.getBody(value);
+            if (body == null) {
+                throw new IOException("Email body not found: " + value);
+            }
+            return body;
+        }
+        return value;
+    }
+
+    private static String readFully(final InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(4096);
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                bos.write(buffer, 0, count);
+            }
+            return new String(bos.toByteArray(), CHARSET);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static String getStackTrace(final Throwable exception) {
+        StringWriter stringWriter = new StringWriter();
+        exception.printStackTrace(new PrintWriter(stringWriter));
+        return stringWriter.toString();
+    }
+
+    private static int estimateSize(final MimeMessagePreparatorImpl mimeMessagePreparator) {
+        int size = 256;
+        if (mimeMessagePreparator.getHtmlContent() != null) {
+            size += mimeMessagePreparator.getHtmlContent().length() / 4;
+        }
+        if (mimeMessagePreparator.getPlainTextContent() != null) {
+            size += mimeMessagePreparator.getPlainTextContent().length() / 4;
+        }
+        return size;
+    }
+
+}
@@ -13,6 +13,8 @@ import java.net.URLEncoder;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -28,7 +30,9 @@ import org.hoteia.qalingo.core.i18n.enumtype.ScopeWebMessage;
 import org.hoteia.qalingo.core.i18n.message.CoreMessageSource;
 import org.hoteia.qalingo.core.pojo.RequestData;
 import org.hoteia.qalingo.core.util.CoreUtil;
+import org.hoteia.qalingo.core.util.UrlTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 public abstract class AbstractUrlService {
 
@@ -38,29 +42,90 @@ public abstract class AbstractUrlService {
     @Autowired
     public EngineSettingService engineSettingService;
 
+    @Value("${url.seo.prefix.cache.delay:60000}")
+    protected long seoPrefixUrlCacheDelay = 60000;
+
+    private static final int MAX_CACHED_URLS = 1024;
+
+    private static final int MAX_URL_BUILDER_CAPACITY = 4096;
+
+    private static final ThreadLocal<StringBuilder> URL_BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private final ConcurrentMap<String, UrlTemplate> urlTemplates = new ConcurrentHashMap<String, UrlTemplate>();
+
+    private volatile ConcurrentMap<String, String> seoPrefixUrls = new ConcurrentHashMap<String, String>();
+    private volatile long seoPrefixUrlsDate = System.currentTimeMillis();
+
     protected String handleUrlParameters(String url, Map<String, String> urlParams, Map<String, String> getParams) {
         if (StringUtils.isNotEmpty(url)) {
-            if (urlParams != null) {
-                for (Entry<String, String> entry : urlParams.entrySet()) {
-                    String key = String.format("\\{%s(:[^\\}]+)?\\}", entry.getKey());
-                    if (StringUtils.equals(entry.getKey(), "slug")) {
-                        key = "\\*\\*";
-                    }
-                    if (entry.getValue() != null) {
-                        url = url.replaceAll(key, entry.getValue());
-                    }
-                }
+            final StringBuilder urlBuilder = getUrlBuilder();
+            UrlTemplate.compile(url).appendTo(urlBuilder, urlParams);
+            appendQueryString(urlBuilder, getParams);
+            return urlBuilder.toString();
+        }
+        return url;
+    }
+
+    /**
+     * The prefix as is, then the url pattern with its parameters, then the query string. Each
+     * pattern is compiled once.
+     */
+    protected String buildUrl(final String prefixUrl, final String urlWithoutWildcard, Map<String, String> urlParams, Map<String, String> getParams) {
+        final StringBuilder urlBuilder = getUrlBuilder();
+        urlBuilder.append(prefixUrl);
+        getUrlTemplate(urlWithoutWildcard).appendTo(urlBuilder, urlParams);
+        appendQueryString(urlBuilder, getParams);
+        return urlBuilder.toString();
+    }
+
+    protected UrlTemplate getUrlTemplate(final String urlWithoutWildcard) {
+        final String pattern = String.valueOf(urlWithoutWildcard);
+        UrlTemplate urlTemplate = urlTemplates.get(pattern);
+        if (urlTemplate == null) {
+            urlTemplate = UrlTemplate.compile(pattern);
+            // THE FoUrls AND BoUrls PATTERNS FIT : THE BOUND IS FOR THE PATTERNS BUILT BY THE CALLERS
+            if (urlTemplates.size() < MAX_CACHED_URLS) {
+                urlTemplates.putIfAbsent(pattern, urlTemplate);
             }
+        }
+        return urlTemplate;
+    }
+
+    /**
+     * Forgets the compiled patterns and the seo prefixes, after a change of the seo messages.
+     */
+    public void clearUrlCaches() {
+        urlTemplates.clear();
+        seoPrefixUrls = new ConcurrentHashMap<String, String>();
+        seoPrefixUrlsDate = System.currentTimeMillis();
+    }
 
-            String queryString = "";
-            if (getParams != null) {
-                for (Entry<String, String> entry : getParams.entrySet()) {
-                    queryString += "&" + entry.getKey() + "=" + entry.getValue();
-                }
+    private void appendQueryString(final StringBuilder urlBuilder, final Map<String, String> getParams) {
+        if (getParams != null) {
+            char separator = '?';
+            for (Entry<String, String> entry : getParams.entrySet()) {
+                urlBuilder.append(separator).append(entry.getKey()).append('=').append(entry.getValue());
+                separator = '&';
             }
-            return url + queryString.replaceFirst("&", "?");
         }
-        return url;
+    }
+
+    /**
+     * The StringBuilder of the thread, emptied.
+     */
+    private StringBuilder getUrlBuilder() {
+        StringBuilder urlBuilder = URL_BUILDER.get();
+        if (urlBuilder.capacity() > MAX_URL_BUILDER_CAPACITY) {
+            urlBuilder = new StringBuilder(256);
+            URL_BUILDER.set(urlBuilder);
+        }
+        urlBuilder.setLength(0);
+        return urlBuilder;
     }
 
     public String buildAbsoluteUrl(final RequestData requestData, final String relativeUrl) throws Exception {
@@ -127,7 +192,49 @@ public abstract class AbstractUrlService {
         return fullPrefixUrl;
     }
 
+    /**
+     * Cached by context path, market place, market, market area, localization and retailer,
+     * for the seo prefix cache delay.
+     */
     protected String getSeoPrefixUrl(final RequestData requestData) throws Exception {
+        final String key = buildSeoPrefixUrlKey(requestData);
+        final ConcurrentMap<String, String> cachedSeoPrefixUrls = getSeoPrefixUrls();
+        String seoPrefixUrl = cachedSeoPrefixUrls.get(key);
+        if (seoPrefixUrl == null) {
+            seoPrefixUrl = buildSeoPrefixUrl(requestData);
+            if (cachedSeoPrefixUrls.size() < MAX_CACHED_URLS) {
+                cachedSeoPrefixUrls.put(key, seoPrefixUrl);
+            }
+        }
+        return seoPrefixUrl;
+    }
+
+    private ConcurrentMap<String, String> getSeoPrefixUrls() {
+        final long now = System.currentTimeMillis();
+        if (now - seoPrefixUrlsDate > seoPrefixUrlCacheDelay) {
+            seoPrefixUrls = new ConcurrentHashMap<String, String>();
+            seoPrefixUrlsDate = now;
+        }
+        return seoPrefixUrls;
+    }
+
+    private String buildSeoPrefixUrlKey(final RequestData requestData) {
+        final MarketPlace marketPlace = requestData.getMarketPlace();
+        final Market market = requestData.getMarket();
+        final MarketArea marketArea = requestData.getMarketArea();
+        final Localization localization = requestData.getMarketAreaLocalization();
+        final Retailer retailer = requestData.getMarketAreaRetailer();
+        final StringBuilder key = new StringBuilder(64);
+        key.append(buildContextPath(requestData));
+        key.append('|').append(marketPlace != null ? marketPlace.getCode() : null);
+        key.append('|').append(market != null ? market.getCode() : null);
+        key.append('|').append(marketArea != null ? marketArea.getCode() : null);
+        key.append('|').append(localization != null ? localization.getCode() : null);
+        key.append('|').append(retailer != null ? retailer.getCode() : null);
+        return key.toString();
+    }
+
+    protected String buildSeoPrefixUrl(final RequestData requestData) throws Exception {
         final MarketPlace marketPlace = requestData.getMarketPlace();
         final Market market = requestData.getMarket();
         final MarketArea marketArea = requestData.getMarketArea();
@@ -139,7 +246,7 @@ public abstract class AbstractUrlService {
 
         String seoSegmentMain = getSeoSegmentMain(locale);
         if (StringUtils.isNotEmpty(seoSegmentMain)) {
-            seoPrefixUrl = seoPrefixUrl + getSeoSegmentMain(locale);
+            seoPrefixUrl = seoPrefixUrl + seoSegmentMain;
         }
 
         if (StringUtils.isNotEmpty(seoPrefixUrl)) {
@@ -12,12 +12,14 @@ package org.hoteia.qalingo.core.service;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.hoteia.qalingo.core.comparator.CatalogCategoryMasterComparator;
 import org.hoteia.qalingo.core.comparator.CatalogCategoryVirtualComparator;
 import org.hoteia.qalingo.core.dao.CatalogCategoryDao;
 import org.hoteia.qalingo.core.domain.CatalogCategoryMaster;
 import org.hoteia.qalingo.core.domain.CatalogCategoryVirtual;
+import org.hoteia.qalingo.core.service.catalog.CatalogCategoryTreeSnapshot;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -29,12 +31,19 @@ public class CatalogCategoryService {
     @Autowired
     private CatalogCategoryDao catalogCategoryDao;
 
+    @Autowired
+    private CatalogCategoryTreeSnapshot catalogCategoryTreeSnapshot;
+
     // MASTER
 
     public CatalogCategoryMaster getMasterCatalogCategoryById(final Long catalogCategoryId, Object... params) {
         return catalogCategoryDao.getMasterCatalogCategoryById(catalogCategoryId, params);
     }
 
+    public List<CatalogCategoryMaster> findMasterCategoriesByIds(final List<Long> catalogCategoryIds, Object... params) {
+        return catalogCategoryDao.findMasterCategoriesByIds(catalogCategoryIds, params);
+    }
+
     public CatalogCategoryMaster getMasterCatalogCategoryById(final String rawCatalogCategoryId, Object... params) {
         long catalogCategoryId = -1;
         try {
@@ -82,6 +91,10 @@ public class CatalogCategoryService {
         return catalogCategoryDao.getVirtualCatalogCategoryById(catalogCategoryId, params);
     }
 
+    public List<CatalogCategoryVirtual> findVirtualCategoriesByIds(final List<Long> catalogCategoryIds, Object... params) {
+        return catalogCategoryDao.findVirtualCategoriesByIds(catalogCategoryIds, params);
+    }
+
     public CatalogCategoryVirtual getVirtualCatalogCategoryById(final String rawCatalogCategoryId, Object... params) {
         long catalogCategoryId = -1;
         try {
@@ -107,7 +120,18 @@ public class CatalogCategoryService {
         return catalogCategoryVirtual;
     }
 
+    /**
+     * The category is chosen in the category trees, then loaded by id. A product sku unknown
+     * to the trees (added since their load) is looked up with its links.
+     */
     public CatalogCategoryVirtual getDefaultVirtualCatalogCategoryByProductSkuId(final Long productSkuId, Object... params) {
+        Long defaultCategoryId = catalogCategoryTreeSnapshot.getDefaultCategoryId(productSkuId);
+        if (defaultCategoryId != null) {
+            CatalogCategoryVirtual catalogCategoryVirtual = catalogCategoryDao.getVirtualCatalogCategoryById(defaultCategoryId, params);
+            if (catalogCategoryVirtual != null) {
+                return catalogCategoryVirtual;
+            }
+        }
         List<CatalogCategoryVirtual> categories = catalogCategoryDao.findVirtualCategoriesByProductSkuId(productSkuId, params);
         CatalogCategoryVirtual catalogCategoryVirtual = null;
         if (categories != null) {
@@ -138,17 +162,32 @@ public class CatalogCategoryService {
         return catalogCategoryDao.findVirtualCategoriesByProductSkuId(productSkuId, params);
     }
     
+    public Map<Long, List<CatalogCategoryVirtual>> findVirtualCategoriesByProductSkuIds(final List<Long> productSkuIds, Object... params) {
+        return catalogCategoryDao.findVirtualCategoriesByProductSkuIds(productSkuIds, params);
+    }
+    
+    public List<Object[]> findVirtualCategoryTreeRows() {
+        return catalogCategoryDao.findVirtualCategoryTreeRows();
+    }
+
+    public List<Object[]> findVirtualCategoryProductSkuRows() {
+        return catalogCategoryDao.findVirtualCategoryProductSkuRows();
+    }
+
     public List<CatalogCategoryVirtual> orderCategoryVirtualList(final List<CatalogCategoryVirtual> categories) {
         Collections.sort(categories, new CatalogCategoryVirtualComparator());
         return categories;
     }
     
     public CatalogCategoryVirtual saveOrUpdateCatalogCategory(CatalogCategoryVirtual catalogCategory) {
-        return catalogCategoryDao.saveOrUpdateCatalogCategory(catalogCategory);
+        CatalogCategoryVirtual savedCatalogCategory = catalogCategoryDao.saveOrUpdateCatalogCategory(catalogCategory);
+        catalogCategoryTreeSnapshot.invalidate();
+        return savedCatalogCategory;
     }
 
     public void deleteCatalogCategory(CatalogCategoryVirtual catalogCategory) {
         catalogCategoryDao.deleteCatalogCategory(catalogCategory);
+        catalogCategoryTreeSnapshot.invalidate();
     }
     
 }
\ No newline at end of file
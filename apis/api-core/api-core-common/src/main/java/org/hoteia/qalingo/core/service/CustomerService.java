@@ -12,6 +12,7 @@ package org.hoteia.qalingo.core.service;
 import java.util.Date;
 import java.util.List;
 
+import org.hoteia.qalingo.core.dao.KeysetPage;
 import org.hoteia.qalingo.core.dao.CustomerDao;
 import org.hoteia.qalingo.core.domain.Customer;
 import org.hoteia.qalingo.core.domain.CustomerCredential;
@@ -61,6 +62,14 @@ public class CustomerService {
         return customerDao.findCustomers(params);
     }
 
+    public KeysetPage<Customer> findCustomerPage(final Long afterId, final int pageSize, Object... params) {
+        return customerDao.findCustomerPage(afterId, pageSize, params);
+    }
+
+    public long countCustomers() {
+        return customerDao.countCustomers();
+    }
+
     public Customer addProductSkuToWishlist(final MarketArea marketArea, Customer customer, final String catalogCategoryCode, final String productSkuCode) throws Exception {
         final CustomerMarketArea customerMarketArea = customer.getCurrentCustomerMarketArea(marketArea.getId());
         CustomerWishlist customerWishlist = customerMarketArea.getCustomerWishlistByProductSkuCode(productSkuCode);
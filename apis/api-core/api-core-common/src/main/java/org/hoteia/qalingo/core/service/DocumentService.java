@@ -9,7 +9,11 @@
  */
 package org.hoteia.qalingo.core.service;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -19,7 +23,6 @@ import java.util.Map;
 import java.util.Set;
 
 import net.sf.jasperreports.engine.JRDataSource;
-import net.sf.jasperreports.engine.JasperCompileManager;
 import net.sf.jasperreports.engine.JasperExportManager;
 import net.sf.jasperreports.engine.JasperFillManager;
 import net.sf.jasperreports.engine.JasperPrint;
@@ -40,6 +43,7 @@ import org.hoteia.qalingo.core.i18n.enumtype.I18nKeyValueUniverse;
 import org.hoteia.qalingo.core.i18n.enumtype.ScopeDocumentMessage;
 import org.hoteia.qalingo.core.i18n.message.CoreMessageSource;
 import org.hoteia.qalingo.core.pojo.OrderCustomerPojo;
+import org.hoteia.qalingo.core.service.document.JasperReportCache;
 import org.hoteia.qalingo.core.service.pojo.OrderPojoService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -66,6 +70,9 @@ public class DocumentService {
     @Autowired
     protected OrderPojoService orderPojoService;
     
+    @Autowired
+    protected JasperReportCache jasperReportCache;
+    
     // ORDER CONFIRMATION CONFIRMATION
     
     public String getOrderConfirmationFilePath(final OrderCustomer order) {
@@ -87,54 +94,7 @@ public class DocumentService {
     public void generateOrderConfirmation(final OrderCustomer order) {
         try {
             final MarketArea marketArea = marketService.getMarketAreaById(order.getMarketAreaId());
-            final Localization localization = localizationService.getLocalizationById(order.getLocalizationId());
-            final Locale locale = localization.getLocale();
-            
-            // WE SET TO NULL USELESS DATA - BETTER WAY SHOULD BE TO USE A SPECIFIC DOZER RULE
-            for (Iterator<OrderItem> iterator = order.getOrderItems().iterator(); iterator.hasNext();) {
-                OrderItem orderItem = (OrderItem) iterator.next();
-                orderItem.getProductSku().setPrices(null);
-                orderItem.getProductSku().setStocks(null);
-                orderItem.getProductSku().setProductMarketing(null);
-                orderItem.getProductSku().setStores(null);
-            }
-            
-            final OrderCustomerPojo orderCustomerPojo = orderPojoService.handleOrderMapping(order);
-            
-            final String jrxml = getOrderConfirmationTemplateByMarketArea(marketArea);
-            File fileJrxml = new File (jrxml);
-            final String resourcePath = jrxml.replace(fileJrxml.getName(), "");
-            final JasperReport jasperReport = JasperCompileManager.compileReport(jrxml);
-
-            Map <String, Object> parameters = new HashMap<String, Object>();
-            parameters.put("RESOURCE_PATH", resourcePath);
-            parameters.put("RECORD_DELIMITER", "\r\n");
-            parameters.put("order", orderCustomerPojo);
-            Object[] orderInformationsParams = { orderCustomerPojo.getOrderNum() };
-            parameters.put("orderInformations", coreMessageSource.getDocumentMessage(ScopeDocumentMessage.ORDER_CONFIRMATION.getPropertyKey(), "header_order_informations", orderInformationsParams, locale));
-            parameters.put("date", orderCustomerPojo.getDateUpdate().toString());
-            parameters.put("billingAddress", orderCustomerPojo.getBillingAddress());
-            parameters.put("shippingAddress", orderCustomerPojo.getShippingAddress());
-            
-            Map<String, String> wording = coreMessageSource.loadWording(I18nKeyValueUniverse.DOCUMENT.getPropertyKey(), locale);
-            parameters.put("wording", wording);
-            
-            List<OrderItem> orderItems = new ArrayList<OrderItem>(); 
-            Set<OrderShipment> orderShipments = orderCustomerPojo.getOrderShipments();
-            for (Iterator<OrderShipment> iterator = orderShipments.iterator(); iterator.hasNext();) {
-                OrderShipment orderShipment = (OrderShipment) iterator.next();
-                orderItems.addAll(orderShipment.getOrderItems());
-            }
-            
-            // TODO : denis : one page/table by OrderShipment
-            
-            JRDataSource datasource = new JRBeanCollectionDataSource(orderItems, true);
-            
-            final JasperPrint jasperPrint = JasperFillManager.fillReport(jasperReport, parameters, datasource);
-            
-            String fullFilePath = getOrderConfirmationFilePath(order);
-            JasperExportManager.exportReportToPdfFile(jasperPrint, fullFilePath);
-
+            generateDocument(order, getOrderConfirmationTemplateByMarketArea(marketArea), ScopeDocumentMessage.ORDER_CONFIRMATION, getOrderConfirmationFilePath(order));
         } catch (Exception e) {
             logger.error("", e);
         }
@@ -175,54 +135,7 @@ public class DocumentService {
     public void generateShippingConfirmation(final OrderCustomer order) {
         try {
             final MarketArea marketArea = marketService.getMarketAreaById(order.getMarketAreaId());
-            final Localization localization = localizationService.getLocalizationById(order.getLocalizationId());
-            final Locale locale = localization.getLocale();
-            
-            // WE SET TO NULL USELESS DATA - BETTER WAY SHOULD BE TO USE A SPECIFIC DOZER RULE
-            for (Iterator<OrderItem> iterator = order.getOrderItems().iterator(); iterator.hasNext();) {
-                OrderItem orderItem = (OrderItem) iterator.next();
-                orderItem.getProductSku().setPrices(null);
-                orderItem.getProductSku().setStocks(null);
-                orderItem.getProductSku().setProductMarketing(null);
-                orderItem.getProductSku().setStores(null);
-            }
-            
-            final OrderCustomerPojo orderCustomerPojo = orderPojoService.handleOrderMapping(order);
-            
-            final String jrxml = getShippingConfirmationTemplateByMarketArea(marketArea);
-            File fileJrxml = new File (jrxml);
-            final String resourcePath = jrxml.replace(fileJrxml.getName(), "");
-            final JasperReport jasperReport = JasperCompileManager.compileReport(jrxml);
-
-            Map <String, Object> parameters = new HashMap<String, Object>();
-            parameters.put("RESOURCE_PATH", resourcePath);
-            parameters.put("RECORD_DELIMITER", "\r\n");
-            parameters.put("order", orderCustomerPojo);
-            Object[] orderInformationsParams = { orderCustomerPojo.getOrderNum() };
-            parameters.put("orderInformations", coreMessageSource.getDocumentMessage(ScopeDocumentMessage.SHIPPING_CONFIRMATION.getPropertyKey(), "header_order_informations", orderInformationsParams, locale));
-            parameters.put("date", orderCustomerPojo.getDateUpdate().toString());
-            parameters.put("billingAddress", orderCustomerPojo.getBillingAddress());
-            parameters.put("shippingAddress", orderCustomerPojo.getShippingAddress());
-            
-            Map<String, String> wording = coreMessageSource.loadWording(I18nKeyValueUniverse.DOCUMENT.getPropertyKey(), locale);
-            parameters.put("wording", wording);
-            
-            List<OrderItem> orderItems = new ArrayList<OrderItem>(); 
-            Set<OrderShipment> orderShipments = orderCustomerPojo.getOrderShipments();
-            for (Iterator<OrderShipment> iterator = orderShipments.iterator(); iterator.hasNext();) {
-                OrderShipment orderShipment = (OrderShipment) iterator.next();
-                orderItems.addAll(orderShipment.getOrderItems());
-            }
-            
-            // TODO : denis : one page/table by OrderShipment
-            
-            JRDataSource datasource = new JRBeanCollectionDataSource(orderItems, true);
-            
-            final JasperPrint jasperPrint = JasperFillManager.fillReport(jasperReport, parameters, datasource);
-            
-            String fullFilePath = getShippingConfirmationFilePath(order);
-            JasperExportManager.exportReportToPdfFile(jasperPrint, fullFilePath);
-
+            generateDocument(order, getShippingConfirmationTemplateByMarketArea(marketArea), ScopeDocumentMessage.SHIPPING_CONFIRMATION, getShippingConfirmationFilePath(order));
         } catch (Exception e) {
             logger.error("", e);
         }
@@ -263,54 +176,7 @@ public class DocumentService {
     public void generateInvoice(final OrderCustomer order) {
         try {
             final MarketArea marketArea = marketService.getMarketAreaById(order.getMarketAreaId());
-            final Localization localization = localizationService.getLocalizationById(order.getLocalizationId());
-            final Locale locale = localization.getLocale();
-            
-            // WE SET TO NULL USELESS DATA - BETTER WAY SHOULD BE TO USE A SPECIFIC DOZER RULE
-            for (Iterator<OrderItem> iterator = order.getOrderItems().iterator(); iterator.hasNext();) {
-                OrderItem orderItem = (OrderItem) iterator.next();
-                orderItem.getProductSku().setPrices(null);
-                orderItem.getProductSku().setStocks(null);
-                orderItem.getProductSku().setProductMarketing(null);
-                orderItem.getProductSku().setStores(null);
-            }
-            
-            final OrderCustomerPojo orderCustomerPojo = orderPojoService.handleOrderMapping(order);
-            
-            final String jrxml = getInvoiceTemplateByMarketArea(marketArea);
-            File fileJrxml = new File (jrxml);
-            final String resourcePath = jrxml.replace(fileJrxml.getName(), "");
-            final JasperReport jasperReport = JasperCompileManager.compileReport(jrxml);
-
-            Map <String, Object> parameters = new HashMap<String, Object>();
-            parameters.put("RESOURCE_PATH", resourcePath);
-            parameters.put("RECORD_DELIMITER", "\r\n");
-            parameters.put("order", orderCustomerPojo);
-            Object[] orderInformationsParams = { orderCustomerPojo.getOrderNum() };
-            parameters.put("orderInformations", coreMessageSource.getDocumentMessage(ScopeDocumentMessage.INVOICE.getPropertyKey(), "header_order_informations", orderInformationsParams, locale));
-            parameters.put("date", orderCustomerPojo.getDateUpdate().toString());
-            parameters.put("billingAddress", orderCustomerPojo.getBillingAddress());
-            parameters.put("shippingAddress", orderCustomerPojo.getShippingAddress());
-            
-            Map<String, String> wording = coreMessageSource.loadWording(I18nKeyValueUniverse.DOCUMENT.getPropertyKey(), locale);
-            parameters.put("wording", wording);
-            
-            List<OrderItem> orderItems = new ArrayList<OrderItem>(); 
-            Set<OrderShipment> orderShipments = orderCustomerPojo.getOrderShipments();
-            for (Iterator<OrderShipment> iterator = orderShipments.iterator(); iterator.hasNext();) {
-                OrderShipment orderShipment = (OrderShipment) iterator.next();
-                orderItems.addAll(orderShipment.getOrderItems());
-            }
-            
-            // TODO : denis : one page/table by OrderShipment
-            
-            JRDataSource datasource = new JRBeanCollectionDataSource(orderItems, true);
-            
-            final JasperPrint jasperPrint = JasperFillManager.fillReport(jasperReport, parameters, datasource);
-            
-            String fullFilePath = getInvoiceFilePath(order);
-            JasperExportManager.exportReportToPdfFile(jasperPrint, fullFilePath);
-
+            generateDocument(order, getInvoiceTemplateByMarketArea(marketArea), ScopeDocumentMessage.INVOICE, getInvoiceFilePath(order));
         } catch (Exception e) {
             logger.error("", e);
         }
@@ -330,6 +196,75 @@ public class DocumentService {
         return defaultInvoiceTemplate;
     }
     
+    /**
+     * Fills the compiled report of the template and streams the PDF to a temporary file, renamed
+     * to the document file at the end : a document is never read half written.
+     */
+    protected void generateDocument(final OrderCustomer order, final String jrxml, final ScopeDocumentMessage scopeDocumentMessage, final String fullFilePath) throws Exception {
+        final Localization localization = localizationService.getLocalizationById(order.getLocalizationId());
+        final Locale locale = localization.getLocale();
+        
+        // WE SET TO NULL USELESS DATA - BETTER WAY SHOULD BE TO USE A SPECIFIC DOZER RULE
+        for (Iterator<OrderItem> iterator = order.getOrderItems().iterator(); iterator.hasNext();) {
+            OrderItem orderItem = (OrderItem) iterator.next();
+            orderItem.getProductSku().setPrices(null);
+            orderItem.getProductSku().setStocks(null);
+            orderItem.getProductSku().setProductMarketing(null);
+            orderItem.getProductSku().setStores(null);
+        }
+        
+        final OrderCustomerPojo orderCustomerPojo = orderPojoService.handleOrderMapping(order);
+        
+        File fileJrxml = new File (jrxml);
+        final String resourcePath = jrxml.replace(fileJrxml.getName(), "");
+        final JasperReport jasperReport = jasperReportCache.getReport(jrxml);
+
+        Map <String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("RESOURCE_PATH", resourcePath);
+        parameters.put("RECORD_DELIMITER", "\r\n");
+        parameters.put("order", orderCustomerPojo);
+        Object[] orderInformationsParams = { orderCustomerPojo.getOrderNum() };
+        parameters.put("orderInformations", coreMessageSource.getDocumentMessage(scopeDocumentMessage.getPropertyKey(), "header_order_informations", orderInformationsParams, locale));
+        parameters.put("date", orderCustomerPojo.getDateUpdate().toString());
+        parameters.put("billingAddress", orderCustomerPojo.getBillingAddress());
+        parameters.put("shippingAddress", orderCustomerPojo.getShippingAddress());
+        
+        Map<String, String> wording = coreMessageSource.loadWording(I18nKeyValueUniverse.DOCUMENT.getPropertyKey(), locale);
+        parameters.put("wording", wording);
+        
+        List<OrderItem> orderItems = new ArrayList<OrderItem>(); 
+        Set<OrderShipment> orderShipments = orderCustomerPojo.getOrderShipments();
+        for (Iterator<OrderShipment> iterator = orderShipments.iterator(); iterator.hasNext();) {
+            OrderShipment orderShipment = (OrderShipment) iterator.next();
+            orderItems.addAll(orderShipment.getOrderItems());
+        }
+        
+        // TODO : denis : one page/table by OrderShipment
+        
+        JRDataSource datasource = new JRBeanCollectionDataSource(orderItems, true);
+        
+        long start = System.nanoTime();
+        final JasperPrint jasperPrint = JasperFillManager.fillReport(jasperReport, parameters, datasource);
+        jasperReportCache.recordFill(jrxml, System.nanoTime() - start);
+        
+        start = System.nanoTime();
+        final File file = new File(fullFilePath);
+        final File temporaryFile = new File(fullFilePath + ".tmp");
+        final OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(temporaryFile));
+        try {
+            JasperExportManager.exportReportToPdfStream(jasperPrint, outputStream);
+        } finally {
+            outputStream.close();
+        }
+        if (!temporaryFile.renameTo(file)) {
+            file.delete();
+            if (!temporaryFile.renameTo(file)) {
+                throw new IOException("Document can't be renamed to " + fullFilePath);
+            }
+        }
+        jasperReportCache.recordExport(jrxml, System.nanoTime() - start);
+    }
+    
     private String buildFilePathSegment(final OrderCustomer order){
         final EngineSetting documentFileRootPathEngineSetting = engineSettingService.getSettingDocumentFileRootPath();
         String documentFileRootPath = documentFileRootPathEngineSetting.getDefaultValue();
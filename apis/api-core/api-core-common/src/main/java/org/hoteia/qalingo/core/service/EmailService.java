@@ -11,8 +11,13 @@ package org.hoteia.qalingo.core.service;
 
 import java.io.IOException;
 import java.net.URLEncoder;
-import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -20,7 +25,6 @@ import java.util.UUID;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
-import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.exception.VelocityException;
 import org.hoteia.qalingo.core.Constants;
 import org.hoteia.qalingo.core.RequestConstants;
@@ -31,6 +35,7 @@ import org.hoteia.qalingo.core.domain.Localization;
 import org.hoteia.qalingo.core.domain.MarketArea;
 import org.hoteia.qalingo.core.domain.User;
 import org.hoteia.qalingo.core.domain.enumtype.FoUrls;
+import org.hoteia.qalingo.core.email.EmailPayloadCodec;
 import org.hoteia.qalingo.core.email.bean.AbandonedShoppingCartEmailBean;
 import org.hoteia.qalingo.core.email.bean.AbstractEmailBean;
 import org.hoteia.qalingo.core.email.bean.ContactEmailBean;
@@ -47,6 +52,9 @@ import org.hoteia.qalingo.core.email.bean.UserResetPasswordConfirmationEmailBean
 import org.hoteia.qalingo.core.exception.EmailProcessException;
 import org.hoteia.qalingo.core.i18n.message.CoreMessageSource;
 import org.hoteia.qalingo.core.pojo.RequestData;
+import org.hoteia.qalingo.core.service.email.EmailMirroringSettings;
+import org.hoteia.qalingo.core.service.email.EmailTemplateEngine;
+import org.hoteia.qalingo.core.service.email.RenderedEmail;
 import org.hoteia.qalingo.core.util.impl.MimeMessagePreparatorImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,7 +62,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.mail.MailException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.ui.velocity.VelocityEngineUtils;
 
 @Service("emailService")
 @Transactional
@@ -73,7 +80,7 @@ public class EmailService {
 	protected UrlService urlService;
 	
 	@Autowired
-	protected VelocityEngine velocityEngine;
+	protected EmailTemplateEngine emailTemplateEngine;
     
 	@Autowired
 	protected CoreMessageSource coreMessageSource;
@@ -81,6 +88,31 @@ public class EmailService {
 	@Autowired
 	protected EngineSettingService engineSettingService;
 	
+	/**
+	 * The shared bodies never change : the last ones read are kept.
+	 */
+	private final EmailPayloadCodec.EmailBodyResolver emailBodyResolver = new EmailPayloadCodec.EmailBodyResolver() {
+		private final Map<String, String> bodies = Collections.synchronizedMap(new LinkedHashMap<String, String>(64, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > 32;
+			}
+		});
+
+		public String getBody(String hash) throws IOException {
+			String body = bodies.get(hash);
+			if (body == null) {
+				body = emailDao.readEmailBody(hash);
+				if (body != null) {
+					bodies.put(hash, body);
+				}
+			}
+			return body;
+		}
+	};
+	
 	public Email getEmailById(final Long id, Object... params) {
 		return emailDao.getEmailById(id, params);
 	}
@@ -101,10 +133,123 @@ public class EmailService {
 		emailDao.saveEmail(email, mimeMessagePreparator);
 	}
 	
+	public void saveEmails(final List<Email> emails, final List<MimeMessagePreparatorImpl> mimeMessagePreparators) throws IOException {
+		emailDao.saveEmails(emails, mimeMessagePreparators);
+	}
+	
 	public void deleteEmail(final Email email) {
 		emailDao.deleteEmail(email);
 	}
 	
+	/**
+	 * Claims the next emails to send : they are SENDING once the transaction is committed.
+	 * An email whose content can't be read is set in error.
+	 * 
+	 * @param staleBefore the emails SENDING since this date are claimed again
+	 * @param retryBefore the emails in error since this date are claimed again
+	 * @param excludedEmailIds the emails not to claim, already tried
+	 * @return the contents of the claimed emails, by email id
+	 */
+	public Map<Long, MimeMessagePreparatorImpl> claimEmailsForSync(final int maxResults, final Date staleBefore, final Date retryBefore, final Collection<Long> excludedEmailIds) {
+		List<Email> emails = emailDao.claimEmailsForSync(maxResults, staleBefore, retryBefore, excludedEmailIds);
+		Map<Long, MimeMessagePreparatorImpl> mimeMessagePreparators = new LinkedHashMap<Long, MimeMessagePreparatorImpl>();
+		for (Email email : emails) {
+			try {
+				mimeMessagePreparators.put(email.getId(), readEmailContent(email));
+			} catch (IOException e) {
+				logger.error("Can't read the content of the email " + email.getId(), e);
+				markEmailError(email.getId(), e);
+			}
+		}
+		return mimeMessagePreparators;
+	}
+	
+	public void markEmailsSended(final List<Long> emailIds) {
+		emailDao.updateEmailsStatus(emailIds, Email.EMAIl_STATUS_SENDED);
+	}
+	
+	/**
+	 * Sets the emails in error : one UPDATE per exception, a connection failure is shared by
+	 * all the emails of its connection.
+	 */
+	public void markEmailsError(final Map<Long, Exception> exceptions) {
+		Map<Exception, List<Long>> emailIdsByException = new IdentityHashMap<Exception, List<Long>>();
+		for (Map.Entry<Long, Exception> entry : exceptions.entrySet()) {
+			List<Long> emailIds = emailIdsByException.get(entry.getValue());
+			if (emailIds == null) {
+				emailIds = new ArrayList<Long>();
+				emailIdsByException.put(entry.getValue(), emailIds);
+			}
+			emailIds.add(entry.getKey());
+		}
+		for (Map.Entry<Exception, List<Long>> entry : emailIdsByException.entrySet()) {
+			try {
+				emailDao.updateEmailsError(entry.getValue(), entry.getKey());
+			} catch (IOException e) {
+				logger.error("Can't save the exception of the emails " + entry.getValue(), e);
+			}
+		}
+	}
+	
+	protected void markEmailError(final Long emailId, final Exception exception) {
+		Email email = emailDao.getEmailById(emailId);
+		if (email == null) {
+			return;
+		}
+		// THE EMAIL IS MANAGED : WRITTEN AT THE COMMIT
+		email.setStatus(Email.EMAIl_STATUS_ERROR);
+		email.setProcessedCount(email.getProcessedCount() + 1);
+		email.setDateUpdate(new Date());
+		try {
+			emailDao.handleEmailException(email, exception);
+		} catch (IOException e) {
+			logger.error("Can't save the exception of the email " + emailId, e);
+		}
+	}
+	
+	/**
+	 * @return the number of emails waiting to be sent
+	 */
+	public long countEmailsForSync() {
+		return emailDao.countEmailsForSync();
+	}
+	
+	/**
+	 * Reads the content of an email, with its shared bodies.
+	 */
+	public MimeMessagePreparatorImpl readEmailContent(final Email email) throws IOException {
+		return emailDao.readEmailContent(email, emailBodyResolver);
+	}
+	
+	/**
+	 * @return the stack trace of the last error of the email
+	 */
+	public String readExceptionContent(final Email email) throws IOException {
+		return emailDao.readExceptionContent(email);
+	}
+	
+	/**
+	 * Converts the contents serialized by Java of the emails after lastEmailId. Called in a loop
+	 * with the returned id, one transaction per batch, until it returns null.
+	 * 
+	 * @return the id of the last email of the batch, null when there is no more email
+	 */
+	public Long migrateEmailContents(final Long lastEmailId, final int batchSize) throws IOException {
+		List<Email> emails = emailDao.findEmailsAfter(lastEmailId, batchSize);
+		if (emails.isEmpty()) {
+			return null;
+		}
+		int migratedCount = 0;
+		for (Email email : emails) {
+			// THE EMAILS ARE MANAGED : WRITTEN AT THE COMMIT
+			if (emailDao.migrateEmailContent(email)) {
+				migratedCount++;
+			}
+		}
+		logger.info("Email contents migrated: " + migratedCount + "/" + emails.size());
+		return emails.get(emails.size() - 1).getId();
+	}
+	
     /**
      * @throws Exception 
      * @see org.hoteia.qalingo.core.service.EmailService#buildAndSaveContactMail(Localization localization, Customer customer, String velocityPath, ContactEmailBean contactEmailBean)
@@ -118,11 +263,8 @@ public class EmailService {
         	checkEmailAddresses(contactEmailBean);
         	
         	Map<String, Object> model = new HashMap<String, Object>();
-        	DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.FULL, locale);
-        	java.sql.Timestamp currentDate = new java.sql.Timestamp((new java.util.Date()).getTime());
-        	model.put(CURRENT_DATE, dateFormatter.format(currentDate));
+        	emailTemplateEngine.initModel(model, locale);
         	model.put("contactEmailBean", contactEmailBean);
-        	model.put(WORDING, coreMessageSource.loadWording(Email.WORDING_SCOPE_EMAIL, locale));
 
             String fromAddress = handleFromAddress(contactEmailBean.getFromAddress(), locale);
             String fromName = handleFromAddress(contactEmailBean.getFromAddress(), locale);
@@ -135,8 +277,9 @@ public class EmailService {
         	mimeMessagePreparator.setReplyTo(fromAddress);
         	Object[] parameters = {contactEmailBean.getLastname(), contactEmailBean.getFirstname()};
         	mimeMessagePreparator.setSubject(coreMessageSource.getMessage("email.contact.email_subject", parameters, locale));
-        	mimeMessagePreparator.setHtmlContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "contact-html-content.vm", model));
-        	mimeMessagePreparator.setPlainTextContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "contact-text-content.vm", model));
+        	RenderedEmail renderedEmail = emailTemplateEngine.render(velocityPath, "contact", model);
+        	mimeMessagePreparator.setHtmlContent(renderedEmail.getHtmlContent());
+        	mimeMessagePreparator.setPlainTextContent(renderedEmail.getPlainTextContent());
         	
         	mimeMessagePreparator.getHtmlContent();
         	
@@ -169,12 +312,9 @@ public class EmailService {
         	checkEmailAddresses(retailerContactEmailBean);
         	
         	Map<String, Object> model = new HashMap<String, Object>();
-        	DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.FULL, locale);
-        	java.sql.Timestamp currentDate = new java.sql.Timestamp((new java.util.Date()).getTime());
-        	model.put(CURRENT_DATE, dateFormatter.format(currentDate));
+        	emailTemplateEngine.initModel(model, locale);
         	model.put(CUSTOMER, customer);
         	model.put("retailerContactEmailBean", retailerContactEmailBean);
-        	model.put(WORDING, coreMessageSource.loadWording(Email.WORDING_SCOPE_EMAIL, locale));
 
             String fromAddress = handleFromAddress(retailerContactEmailBean.getFromAddress(), locale);
             String fromName = handleFromName(retailerContactEmailBean.getFromName(), locale);
@@ -187,8 +327,9 @@ public class EmailService {
         	mimeMessagePreparator.setReplyTo(fromAddress);
         	Object[] parameters = {retailerContactEmailBean.getLastname(), retailerContactEmailBean.getFirstname()};
         	mimeMessagePreparator.setSubject(coreMessageSource.getMessage("email.retailer_contact.email_subject", parameters, locale));
-        	mimeMessagePreparator.setHtmlContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "retailer-contact-html-content.vm", model));
-        	mimeMessagePreparator.setPlainTextContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "retailer-contact-text-content.vm", model));
+        	RenderedEmail renderedEmail = emailTemplateEngine.render(velocityPath, "retailer-contact", model);
+        	mimeMessagePreparator.setHtmlContent(renderedEmail.getHtmlContent());
+        	mimeMessagePreparator.setPlainTextContent(renderedEmail.getPlainTextContent());
         	
         	Email email = new Email();
         	email.setType(Email.EMAIl_TYPE_RETAILER_CONTACT);
@@ -222,11 +363,8 @@ public class EmailService {
         	
         	Map<String, Object> model = new HashMap<String, Object>();
           
-        	DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.FULL, locale);
-        	java.sql.Timestamp currentDate = new java.sql.Timestamp((new java.util.Date()).getTime());
-        	model.put(CURRENT_DATE, dateFormatter.format(currentDate));
+        	emailTemplateEngine.initModel(model, locale);
         	model.put("newsletterEmailBean", newsletterEmailBean);
-        	model.put(WORDING, coreMessageSource.loadWording(Email.WORDING_SCOPE_EMAIL, locale));
 
     		Map<String, String> urlParams = new HashMap<String, String>();
     		urlParams.put(RequestConstants.REQUEST_PARAMETER_NEWSLETTER_EMAIL, URLEncoder.encode(newsletterEmailBean.getToEmail(), Constants.ANSI));
@@ -248,8 +386,9 @@ public class EmailService {
         	mimeMessagePreparator.setReplyTo(fromAddress);
         	Object[] parameters = {};
         	mimeMessagePreparator.setSubject(coreMessageSource.getMessage("email.newsletter_subscription.email_subject", parameters, locale));
-        	mimeMessagePreparator.setHtmlContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "newsletter-subscription-confirmation-html-content.vm", model));
-        	mimeMessagePreparator.setPlainTextContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "newsletter-subscription-confirmation-text-content.vm", model));
+        	RenderedEmail renderedEmail = emailTemplateEngine.render(velocityPath, "newsletter-subscription-confirmation", model);
+        	mimeMessagePreparator.setHtmlContent(renderedEmail.getHtmlContent());
+        	mimeMessagePreparator.setPlainTextContent(renderedEmail.getPlainTextContent());
         	
         	Email email = new Email();
         	email.setType(Email.EMAIl_TYPE_NEWSLETTER_SUBSCRIPTION);
@@ -282,11 +421,8 @@ public class EmailService {
         	
         	Map<String, Object> model = new HashMap<String, Object>();
           
-        	DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.FULL, locale);
-        	java.sql.Timestamp currentDate = new java.sql.Timestamp((new java.util.Date()).getTime());
-        	model.put(CURRENT_DATE, dateFormatter.format(currentDate));
+        	emailTemplateEngine.initModel(model, locale);
         	model.put("newsletterEmailBean", newsletterEmailBean);
-        	model.put(WORDING, coreMessageSource.loadWording(Email.WORDING_SCOPE_EMAIL, locale));
 
 			Map<String, String> urlParams = new HashMap<String, String>();
 			urlParams.put(RequestConstants.REQUEST_PARAMETER_NEWSLETTER_EMAIL, URLEncoder.encode(newsletterEmailBean.getToEmail(), Constants.ANSI));
@@ -310,8 +446,9 @@ public class EmailService {
         	mimeMessagePreparator.setReplyTo(fromAddress);
         	Object[] parameters = {};
         	mimeMessagePreparator.setSubject(coreMessageSource.getMessage("email.newsletter_unsubscription.email_subject", parameters, locale));
-        	mimeMessagePreparator.setHtmlContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "newsletter-unsubscription-confirmation-html-content.vm", model));
-        	mimeMessagePreparator.setPlainTextContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "newsletter-unsubscription-confirmation-text-content.vm", model));
+        	RenderedEmail renderedEmail = emailTemplateEngine.render(velocityPath, "newsletter-unsubscription-confirmation", model);
+        	mimeMessagePreparator.setHtmlContent(renderedEmail.getHtmlContent());
+        	mimeMessagePreparator.setPlainTextContent(renderedEmail.getPlainTextContent());
         	
         	Email email = new Email();
         	email.setType(Email.EMAIl_TYPE_NEWSLETTER_SUBSCRIPTION);
@@ -344,11 +481,8 @@ public class EmailService {
         	
         	Map<String, Object> model = new HashMap<String, Object>();
           
-        	DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.FULL, locale);
-        	java.sql.Timestamp currentDate = new java.sql.Timestamp((new java.util.Date()).getTime());
-        	model.put(CURRENT_DATE, dateFormatter.format(currentDate));
+        	emailTemplateEngine.initModel(model, locale);
         	model.put("customerNewAccountConfirmationEmailBean", customerNewAccountConfirmationEmailBean);
-        	model.put(WORDING, coreMessageSource.loadWording(Email.WORDING_SCOPE_EMAIL, locale));
 
 			Map<String, String> urlParams = new HashMap<String, String>();
 			urlParams.put(RequestConstants.REQUEST_PARAMETER_NEW_CUSTOMER_VALIDATION_EMAIL, URLEncoder.encode(customerNewAccountConfirmationEmailBean.getEmail(), Constants.ANSI));
@@ -367,8 +501,9 @@ public class EmailService {
         	mimeMessagePreparator.setReplyTo(fromAddress);
         	Object[] parameters = {customerNewAccountConfirmationEmailBean.getLastname(), customerNewAccountConfirmationEmailBean.getFirstname()};
         	mimeMessagePreparator.setSubject(coreMessageSource.getMessage("email.new_account.email_subject", parameters, locale));
-        	mimeMessagePreparator.setHtmlContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "new-account-confirmation-html-content.vm", model));
-        	mimeMessagePreparator.setPlainTextContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "new-account-confirmation-text-content.vm", model));
+        	RenderedEmail renderedEmail = emailTemplateEngine.render(velocityPath, "new-account-confirmation", model);
+        	mimeMessagePreparator.setHtmlContent(renderedEmail.getHtmlContent());
+        	mimeMessagePreparator.setPlainTextContent(renderedEmail.getPlainTextContent());
         	
         	Email email = new Email();
         	email.setType(Email.EMAIl_TYPE_NEW_ACCOUNT_CONFIRMATION);
@@ -402,12 +537,9 @@ public class EmailService {
         	
         	Map<String, Object> model = new HashMap<String, Object>();
           
-        	DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.FULL, locale);
-        	java.sql.Timestamp currentDate = new java.sql.Timestamp((new java.util.Date()).getTime());
-        	model.put(CURRENT_DATE, dateFormatter.format(currentDate));
+        	emailTemplateEngine.initModel(model, locale);
         	model.put(CUSTOMER, customer);
         	model.put("customerForgottenPasswordEmailBean", customerForgottenPasswordEmailBean);
-        	model.put(WORDING, coreMessageSource.loadWording(Email.WORDING_SCOPE_EMAIL, locale));
 
 			Map<String, String> urlParams = new HashMap<String, String>();
 			urlParams.put(RequestConstants.REQUEST_PARAMETER_PASSWORD_RESET_EMAIL, URLEncoder.encode(customer.getEmail(), Constants.ANSI));
@@ -431,8 +563,9 @@ public class EmailService {
         	mimeMessagePreparator.setReplyTo(fromAddress);
         	Object[] parameters = {customer.getLastname(), customer.getFirstname()};
         	mimeMessagePreparator.setSubject(coreMessageSource.getMessage("email.forgotten_password.email_subject", parameters, locale));
-        	mimeMessagePreparator.setHtmlContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "forgotten-password-html-content.vm", model));
-        	mimeMessagePreparator.setPlainTextContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "forgotten-password-text-content.vm", model));
+        	RenderedEmail renderedEmail = emailTemplateEngine.render(velocityPath, "forgotten-password", model);
+        	mimeMessagePreparator.setHtmlContent(renderedEmail.getHtmlContent());
+        	mimeMessagePreparator.setPlainTextContent(renderedEmail.getPlainTextContent());
         	
         	Email email = new Email();
         	email.setType(Email.EMAIl_TYPE_FORGOTTEN_PASSWORD);
@@ -465,12 +598,9 @@ public class EmailService {
         	
         	Map<String, Object> model = new HashMap<String, Object>();
           
-        	DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.FULL, locale);
-        	java.sql.Timestamp currentDate = new java.sql.Timestamp((new java.util.Date()).getTime());
-        	model.put(CURRENT_DATE, dateFormatter.format(currentDate));
+        	emailTemplateEngine.initModel(model, locale);
         	model.put(CUSTOMER, customer);
         	model.put("customerResetPasswordConfirmationEmailBean", customerResetPasswordConfirmationEmailBean);
-        	model.put(WORDING, coreMessageSource.loadWording(Email.WORDING_SCOPE_EMAIL, locale));
 
 			String loginUrl = urlService.generateUrl(FoUrls.LOGIN, requestData);
         	model.put("loginUrl", urlService.buildAbsoluteUrl(requestData, loginUrl));
@@ -486,8 +616,9 @@ public class EmailService {
         	mimeMessagePreparator.setReplyTo(fromAddress);
         	Object[] parameters = {customer.getLastname(), customer.getFirstname()};
         	mimeMessagePreparator.setSubject(coreMessageSource.getMessage("email.reset_password_confirmation.email_subject", parameters, locale));
-        	mimeMessagePreparator.setHtmlContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "reset-password-confirmation-html-content.vm", model));
-        	mimeMessagePreparator.setPlainTextContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "reset-password-confirmation-text-content.vm", model));
+        	RenderedEmail renderedEmail = emailTemplateEngine.render(velocityPath, "reset-password-confirmation", model);
+        	mimeMessagePreparator.setHtmlContent(renderedEmail.getHtmlContent());
+        	mimeMessagePreparator.setPlainTextContent(renderedEmail.getPlainTextContent());
         	
         	Email email = new Email();
         	email.setType(Email.EMAIl_TYPE_RESET_PASSWORD_CONFIRMATION);
@@ -520,11 +651,8 @@ public class EmailService {
             
             Map<String, Object> model = new HashMap<String, Object>();
           
-            DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.FULL, locale);
-            java.sql.Timestamp currentDate = new java.sql.Timestamp((new java.util.Date()).getTime());
-            model.put(CURRENT_DATE, dateFormatter.format(currentDate));
+            emailTemplateEngine.initModel(model, locale);
             model.put("userNewAccountConfirmationEmailBean", userNewAccountConfirmationEmailBean);
-            model.put(WORDING, coreMessageSource.loadWording(Email.WORDING_SCOPE_EMAIL, locale));
 
             Map<String, String> urlParams = new HashMap<String, String>();
             urlParams.put(RequestConstants.REQUEST_PARAMETER_NEW_CUSTOMER_VALIDATION_EMAIL, URLEncoder.encode(userNewAccountConfirmationEmailBean.getEmail(), Constants.ANSI));
@@ -543,8 +671,9 @@ public class EmailService {
             mimeMessagePreparator.setReplyTo(fromAddress);
             Object[] parameters = {userNewAccountConfirmationEmailBean.getLastname(), userNewAccountConfirmationEmailBean.getFirstname()};
             mimeMessagePreparator.setSubject(coreMessageSource.getMessage("email.new_account.email_subject", parameters, locale));
-            mimeMessagePreparator.setHtmlContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "new-account-confirmation-html-content.vm", model));
-            mimeMessagePreparator.setPlainTextContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "new-account-confirmation-text-content.vm", model));
+            RenderedEmail renderedEmail = emailTemplateEngine.render(velocityPath, "new-account-confirmation", model);
+            mimeMessagePreparator.setHtmlContent(renderedEmail.getHtmlContent());
+            mimeMessagePreparator.setPlainTextContent(renderedEmail.getPlainTextContent());
             
             Email email = new Email();
             email.setType(Email.EMAIl_TYPE_NEW_ACCOUNT_CONFIRMATION);
@@ -578,12 +707,9 @@ public class EmailService {
             
             Map<String, Object> model = new HashMap<String, Object>();
           
-            DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.FULL, locale);
-            java.sql.Timestamp currentDate = new java.sql.Timestamp((new java.util.Date()).getTime());
-            model.put(CURRENT_DATE, dateFormatter.format(currentDate));
+            emailTemplateEngine.initModel(model, locale);
             model.put(CUSTOMER, user);
             model.put("userForgottenPasswordEmailBean", userForgottenPasswordEmailBean);
-            model.put(WORDING, coreMessageSource.loadWording(Email.WORDING_SCOPE_EMAIL, locale));
 
             Map<String, String> urlParams = new HashMap<String, String>();
             urlParams.put(RequestConstants.REQUEST_PARAMETER_PASSWORD_RESET_EMAIL, URLEncoder.encode(user.getEmail(), Constants.ANSI));
@@ -607,8 +733,9 @@ public class EmailService {
             mimeMessagePreparator.setReplyTo(fromAddress);
             Object[] parameters = {user.getLastname(), user.getFirstname()};
             mimeMessagePreparator.setSubject(coreMessageSource.getMessage("email.forgotten_password.email_subject", parameters, locale));
-            mimeMessagePreparator.setHtmlContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "forgotten-password-html-content.vm", model));
-            mimeMessagePreparator.setPlainTextContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "forgotten-password-text-content.vm", model));
+            RenderedEmail renderedEmail = emailTemplateEngine.render(velocityPath, "forgotten-password", model);
+            mimeMessagePreparator.setHtmlContent(renderedEmail.getHtmlContent());
+            mimeMessagePreparator.setPlainTextContent(renderedEmail.getPlainTextContent());
             
             Email email = new Email();
             email.setType(Email.EMAIl_TYPE_FORGOTTEN_PASSWORD);
@@ -641,12 +768,9 @@ public class EmailService {
             
             Map<String, Object> model = new HashMap<String, Object>();
           
-            DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.FULL, locale);
-            java.sql.Timestamp currentDate = new java.sql.Timestamp((new java.util.Date()).getTime());
-            model.put(CURRENT_DATE, dateFormatter.format(currentDate));
+            emailTemplateEngine.initModel(model, locale);
             model.put(CUSTOMER, user);
             model.put("userResetPasswordConfirmationEmailBean", userResetPasswordConfirmationEmailBean);
-            model.put(WORDING, coreMessageSource.loadWording(Email.WORDING_SCOPE_EMAIL, locale));
 
             String loginUrl = urlService.generateUrl(FoUrls.LOGIN, requestData);
             model.put("loginUrl", urlService.buildAbsoluteUrl(requestData, loginUrl));
@@ -662,8 +786,9 @@ public class EmailService {
             mimeMessagePreparator.setReplyTo(fromAddress);
             Object[] parameters = {user.getLastname(), user.getFirstname()};
             mimeMessagePreparator.setSubject(coreMessageSource.getMessage("email.reset_password_confirmation.email_subject", parameters, locale));
-            mimeMessagePreparator.setHtmlContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "reset-password-confirmation-html-content.vm", model));
-            mimeMessagePreparator.setPlainTextContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "reset-password-confirmation-text-content.vm", model));
+            RenderedEmail renderedEmail = emailTemplateEngine.render(velocityPath, "reset-password-confirmation", model);
+            mimeMessagePreparator.setHtmlContent(renderedEmail.getHtmlContent());
+            mimeMessagePreparator.setPlainTextContent(renderedEmail.getPlainTextContent());
             
             Email email = new Email();
             email.setType(Email.EMAIl_TYPE_RESET_PASSWORD_CONFIRMATION);
@@ -696,12 +821,9 @@ public class EmailService {
         	
         	Map<String, Object> model = new HashMap<String, Object>();
           
-        	DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.FULL, locale);
-        	java.sql.Timestamp currentDate = new java.sql.Timestamp((new java.util.Date()).getTime());
-        	model.put(CURRENT_DATE, dateFormatter.format(currentDate));
+        	emailTemplateEngine.initModel(model, locale);
         	model.put(CUSTOMER, customer);
         	model.put("orderConfirmationEmailBean", orderConfirmationEmailBean);
-        	model.put(WORDING, coreMessageSource.loadWording(Email.WORDING_SCOPE_EMAIL, locale));
 
         	String fromAddress = handleFromAddress(orderConfirmationEmailBean.getFromAddress(), locale);
             String fromName = handleFromName(orderConfirmationEmailBean.getFromName(), locale);
@@ -714,8 +836,9 @@ public class EmailService {
         	mimeMessagePreparator.setReplyTo(fromAddress);
         	Object[] parameters = {customer.getLastname(), customer.getFirstname()};
         	mimeMessagePreparator.setSubject(coreMessageSource.getMessage("email.order.confirmation_email_subject", parameters, locale));
-        	mimeMessagePreparator.setHtmlContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "order-confirmation-html-content.vm", model));
-        	mimeMessagePreparator.setPlainTextContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "order-confirmation-text-content.vm", model));
+        	RenderedEmail renderedEmail = emailTemplateEngine.render(velocityPath, "order-confirmation", model);
+        	mimeMessagePreparator.setHtmlContent(renderedEmail.getHtmlContent());
+        	mimeMessagePreparator.setPlainTextContent(renderedEmail.getPlainTextContent());
         	
         	Email email = new Email();
         	email.setType(Email.EMAIl_TYPE_ORDER_CONFIRMATION);
@@ -748,12 +871,9 @@ public class EmailService {
         	
         	Map<String, Object> model = new HashMap<String, Object>();
           
-        	DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.FULL, locale);
-        	java.sql.Timestamp currentDate = new java.sql.Timestamp((new java.util.Date()).getTime());
-        	model.put(CURRENT_DATE, dateFormatter.format(currentDate));
+        	emailTemplateEngine.initModel(model, locale);
         	model.put(CUSTOMER, customer);
         	model.put("orderSentConfirmationEmailBean", orderSentConfirmationEmailBean);
-        	model.put(WORDING, coreMessageSource.loadWording(Email.WORDING_SCOPE_EMAIL, locale));
 
         	String fromAddress = handleFromAddress(orderSentConfirmationEmailBean.getFromAddress(), locale);
             String fromName = handleFromName(orderSentConfirmationEmailBean.getFromName(), locale);
@@ -766,8 +886,9 @@ public class EmailService {
         	mimeMessagePreparator.setReplyTo(fromAddress);
         	Object[] parameters = {customer.getLastname(), customer.getFirstname()};
         	mimeMessagePreparator.setSubject(coreMessageSource.getMessage("email.order_shipped.shipped_email_subject", parameters, locale));
-        	mimeMessagePreparator.setHtmlContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "order-shipped-html-content.vm", model));
-        	mimeMessagePreparator.setPlainTextContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "order-shipped-text-content.vm", model));
+        	RenderedEmail renderedEmail = emailTemplateEngine.render(velocityPath, "order-shipped", model);
+        	mimeMessagePreparator.setHtmlContent(renderedEmail.getHtmlContent());
+        	mimeMessagePreparator.setPlainTextContent(renderedEmail.getPlainTextContent());
         	
         	Email email = new Email();
         	email.setType(Email.EMAIl_TYPE_ORDER_SHIPPED);
@@ -800,12 +921,9 @@ public class EmailService {
         	
         	Map<String, Object> model = new HashMap<String, Object>();
           
-        	DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.FULL, locale);
-        	java.sql.Timestamp currentDate = new java.sql.Timestamp((new java.util.Date()).getTime());
-        	model.put(CURRENT_DATE, dateFormatter.format(currentDate));
+        	emailTemplateEngine.initModel(model, locale);
         	model.put(CUSTOMER, customer);
         	model.put("abandonedShoppingCartEmailBean", abandonedShoppingCartEmailBean);
-        	model.put(WORDING, coreMessageSource.loadWording(Email.WORDING_SCOPE_EMAIL, locale));
 
         	String fromAddress = handleFromAddress(abandonedShoppingCartEmailBean.getFromAddress(), locale);
             String fromName = handleFromName(abandonedShoppingCartEmailBean.getFromName(), locale);
@@ -818,8 +936,9 @@ public class EmailService {
         	mimeMessagePreparator.setReplyTo(fromAddress);
         	Object[] parameters = {customer.getLastname(), customer.getFirstname()};
         	mimeMessagePreparator.setSubject(coreMessageSource.getMessage("email.abandoned_shopping_cart.email_subject", parameters, locale));
-        	mimeMessagePreparator.setHtmlContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "abandoned-shopping-cart-html-content.vm", model));
-        	mimeMessagePreparator.setPlainTextContent(VelocityEngineUtils.mergeTemplateIntoString(velocityEngine, velocityPath + "abandoned-shopping-cart-text-content.vm", model));
+        	RenderedEmail renderedEmail = emailTemplateEngine.render(velocityPath, "abandoned-shopping-cart", model);
+        	mimeMessagePreparator.setHtmlContent(renderedEmail.getHtmlContent());
+        	mimeMessagePreparator.setPlainTextContent(renderedEmail.getPlainTextContent());
         	
         	Email email = new Email();
         	email.setType(Email.EMAIl_TYPE_ABANDONED_SHOPPING_CART);
@@ -838,6 +957,74 @@ public class EmailService {
         }
     }
 
+    /**
+     * Abandoned shopping cart campaign : the mails are rendered together, they share the
+     * template, the wording and the date. A recipient without addresses is skipped.
+     */
+    public void buildAndSaveAbandonedShoppingCartMails(final RequestData requestData, final String velocityPath, 
+                                                       final Map<Customer, AbandonedShoppingCartEmailBean> abandonedShoppingCartEmailBeans) throws Exception {
+        try {
+            final Localization localization = requestData.getMarketAreaLocalization();
+            final Locale locale = localization.getLocale();
+            final String subjectKey = "email.abandoned_shopping_cart.email_subject";
+            
+            List<Map<String, Object>> recipientModels = new ArrayList<Map<String, Object>>();
+            List<MimeMessagePreparatorImpl> mimeMessagePreparators = new ArrayList<MimeMessagePreparatorImpl>();
+            for (Map.Entry<Customer, AbandonedShoppingCartEmailBean> entry : abandonedShoppingCartEmailBeans.entrySet()) {
+                final Customer customer = entry.getKey();
+                final AbandonedShoppingCartEmailBean abandonedShoppingCartEmailBean = entry.getValue();
+                try {
+                    // SANITY CHECK
+                    checkEmailAddresses(abandonedShoppingCartEmailBean);
+                } catch (EmailProcessException e) {
+                    logger.warn("Abandoned shopping cart mail skipped for the customer " + customer.getId() + ": " + e.getMessage());
+                    continue;
+                }
+                
+                Map<String, Object> model = new HashMap<String, Object>();
+                model.put(CUSTOMER, customer);
+                model.put("abandonedShoppingCartEmailBean", abandonedShoppingCartEmailBean);
+                
+                String fromAddress = handleFromAddress(abandonedShoppingCartEmailBean.getFromAddress(), locale);
+                MimeMessagePreparatorImpl mimeMessagePreparator = getMimeMessagePreparator(requestData, Email.EMAIl_TYPE_ABANDONED_SHOPPING_CART, model);
+                mimeMessagePreparator.setTo(customer.getEmail());
+                mimeMessagePreparator.setFrom(fromAddress);
+                mimeMessagePreparator.setFromName(handleFromName(abandonedShoppingCartEmailBean.getFromName(), locale));
+                mimeMessagePreparator.setReplyTo(fromAddress);
+                Object[] parameters = {customer.getLastname(), customer.getFirstname()};
+                mimeMessagePreparator.setSubject(coreMessageSource.getMessage(subjectKey, parameters, locale));
+                
+                recipientModels.add(model);
+                mimeMessagePreparators.add(mimeMessagePreparator);
+            }
+            
+            List<RenderedEmail> renderedEmails = emailTemplateEngine.renderAll(velocityPath, "abandoned-shopping-cart", locale, 
+                                                                               new HashMap<String, Object>(), recipientModels);
+            List<Email> emails = new ArrayList<Email>(renderedEmails.size());
+            for (int i = 0; i < renderedEmails.size(); i++) {
+                MimeMessagePreparatorImpl mimeMessagePreparator = mimeMessagePreparators.get(i);
+                mimeMessagePreparator.setHtmlContent(renderedEmails.get(i).getHtmlContent());
+                mimeMessagePreparator.setPlainTextContent(renderedEmails.get(i).getPlainTextContent());
+                
+                Email email = new Email();
+                email.setType(Email.EMAIl_TYPE_ABANDONED_SHOPPING_CART);
+                email.setStatus(Email.EMAIl_STATUS_PENDING);
+                emails.add(email);
+            }
+            saveEmails(emails, mimeMessagePreparators);
+            
+        } catch (MailException e) {
+            logger.error("Error, can't save the message :", e);
+            throw e;
+        } catch (VelocityException e) {
+            logger.error("Error, can't build the message :", e);
+            throw e;
+        } catch (IOException e) {
+            logger.error("Error, can't serializable the message :", e);
+            throw e;
+        }
+    }
+
     protected String handleFromAddress(String fromAddress, Locale locale){
         if(StringUtils.isEmpty(fromAddress)){
             fromAddress = coreMessageSource.getMessage("email.common.from_address", locale);
@@ -854,26 +1041,17 @@ public class EmailService {
     
     protected MimeMessagePreparatorImpl getMimeMessagePreparator(final RequestData requestData, final String emailType, final Map<String, Object> model) throws Exception{
     	MimeMessagePreparatorImpl mimeMessagePreparator = new MimeMessagePreparatorImpl();
-    	boolean emailFileMirroringActivated = engineSettingService.getEmailFileMirroringActivated(emailType);
-    	if(emailFileMirroringActivated){
-    		mimeMessagePreparator.setMirroringActivated(emailFileMirroringActivated);
+    	EmailMirroringSettings emailMirroringSettings = emailTemplateEngine.getMirroringSettings(emailType);
+    	if(emailMirroringSettings.isActivated()){
+    		mimeMessagePreparator.setMirroringActivated(true);
     		
-    		String emailFileMirroringExtension = engineSettingService.getEmailFileMirroringExtension(emailType);
-    		String filePath = emailType.toLowerCase() + System.getProperty ("file.separator") + UUID.randomUUID() + "-" + UUID.randomUUID() + emailFileMirroringExtension;
+    		String filePath = emailType.toLowerCase() + System.getProperty ("file.separator") + UUID.randomUUID() + "-" + UUID.randomUUID() + emailMirroringSettings.getExtension();
     		// FILE SYSTEM FOLDER PATH
-    		String emailFileMirroringFolderPath = engineSettingService.getEmailFileMirroringFolderPath(emailType);
-    		if(!emailFileMirroringFolderPath.endsWith("/")){
-    			emailFileMirroringFolderPath = emailFileMirroringFolderPath + "/";
-    		}
-    		String mirroringFilePath = FilenameUtils.separatorsToUnix(emailFileMirroringFolderPath + filePath);
+    		String mirroringFilePath = FilenameUtils.separatorsToUnix(emailMirroringSettings.getFolderPath() + filePath);
     		mimeMessagePreparator.setMirroringFilePath(mirroringFilePath);
     		
     		// MIRRORING WEB URL IN EMAIL
-    		String emailFileMirroringWebPath = engineSettingService.getEmailFileMirroringWebPath(emailType);
-    		if(!emailFileMirroringWebPath.endsWith("/")){
-    			emailFileMirroringWebPath = emailFileMirroringWebPath + "/";
-    		}
-    		String webFileRelativeUrl = emailFileMirroringWebPath + filePath;
+    		String webFileRelativeUrl = emailMirroringSettings.getWebPath() + filePath;
     		model.put("mirroringWebPath", urlService.buildAbsoluteUrl(requestData, webFileRelativeUrl));
     	}
     	return mimeMessagePreparator;
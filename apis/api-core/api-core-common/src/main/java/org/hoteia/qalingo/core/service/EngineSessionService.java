@@ -9,13 +9,13 @@
  */
 package org.hoteia.qalingo.core.service;
 
-import org.dozer.Mapper;
+import java.util.Date;
+
 import org.hoteia.qalingo.core.dao.EngineSessionDao;
+import org.hoteia.qalingo.core.domain.AbstractEngineSession;
 import org.hoteia.qalingo.core.domain.EngineBoSession;
 import org.hoteia.qalingo.core.domain.EngineEcoSession;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.beans.BeansException;
+import org.hoteia.qalingo.core.service.session.EngineSessionWriteBehindStore;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -24,47 +24,63 @@ import org.springframework.transaction.annotation.Transactional;
 @Transactional
 public class EngineSessionService {
 
-    private final Logger logger = LoggerFactory.getLogger(getClass());
-    
     @Autowired
     private EngineSessionDao engineSessionDao;
 
-    @Autowired 
-    private Mapper dozerBeanMapper;
+    @Autowired
+    private EngineSessionWriteBehindStore engineSessionWriteBehindStore;
 
     // ECO SESSION
     
     /**
-     * 
+     * Writes the session kept in the http session, when a persistent field changed since the
+     * last write. The ids, version and carts generated by the merge are copied back on the
+     * given session : its transient values (market context, geoloc...) stay as they are.
+     * The pending write-behind snapshot of the session, older, is dropped.
      */
     public EngineEcoSession updateAndSynchronizeEngineEcoSession(EngineEcoSession engineEcoSessionWithTransientValues) throws Exception {
-        saveOrUpdateEngineEcoSession(engineEcoSessionWithTransientValues);
-        // RELOAD ENGINE SESSION - NOT A GOOD WAY FOR PERF - BUT A GOOD WAY TO ALWAYS KEEP RIGHT ENGINE SESSION DATAS LIKE TRANSIENT
-        EngineEcoSession engineEcoSession = getEngineEcoSessionById(engineEcoSessionWithTransientValues.getId());
-        synchronizeEngineEcoSession(engineEcoSessionWithTransientValues, engineEcoSession);
+        if (engineEcoSessionWithTransientValues.getId() != null
+                && !engineEcoSessionWithTransientValues.isDirty()) {
+            return engineEcoSessionWithTransientValues;
+        }
+        if (engineEcoSessionWithTransientValues.getId() != null) {
+            engineSessionWriteBehindStore.discard(engineEcoSessionWithTransientValues);
+        }
+        EngineEcoSession engineEcoSession = saveOrUpdateEngineEcoSession(engineEcoSessionWithTransientValues);
+        if (engineEcoSession != engineEcoSessionWithTransientValues) {
+            copyPersistentState(engineEcoSession, engineEcoSessionWithTransientValues);
+        }
+        engineEcoSessionWithTransientValues.clearDirty(AbstractEngineSession.DIRTY_STATE | AbstractEngineSession.DIRTY_CARTS);
         return engineEcoSessionWithTransientValues;
     }
     
     /**
-     * 
+     * Reloads a former session (cookie) in the session of the http session.
      */
-    private void synchronizeEngineEcoSession(final EngineEcoSession engineEcoSessionWithTransientValues, final EngineEcoSession engineEcoSession) throws Exception {
-        try {
-            dozerBeanMapper.map(engineEcoSession, engineEcoSessionWithTransientValues);
-        } catch (BeansException e) {
-            logger.error("", e);
+    public void synchronizeEngineEcoSession(final EngineEcoSession engineEcoSessionWithTransientValues, final String ecoEngineSessionGuid) throws Exception {
+        EngineEcoSession engineEcoSession =  getEngineEcoSessionByEngineSessionGuid(ecoEngineSessionGuid);
+        if (engineEcoSession != null) {
+            copyPersistentState(engineEcoSession, engineEcoSessionWithTransientValues);
+            engineEcoSessionWithTransientValues.setCurrentCustomer(engineEcoSession.getCurrentCustomer());
         }
     }
     
+    private void copyPersistentState(final EngineEcoSession engineEcoSession, final EngineEcoSession engineEcoSessionWithTransientValues) {
+        engineEcoSessionWithTransientValues.setId(engineEcoSession.getId());
+        engineEcoSessionWithTransientValues.setVersion(engineEcoSession.getVersion());
+        engineEcoSessionWithTransientValues.setEngineSessionGuid(engineEcoSession.getEngineSessionGuid());
+        engineEcoSessionWithTransientValues.setCarts(engineEcoSession.getCarts());
+        engineEcoSessionWithTransientValues.setDateCreate(engineEcoSession.getDateCreate());
+        engineEcoSessionWithTransientValues.setDateUpdate(engineEcoSession.getDateUpdate());
+    }
+    
     /**
-     * 
+     * Write-behind of the columns of the session row, see EngineSessionWriteBehindStore.
      */
-    public void synchronizeEngineEcoSession(final EngineEcoSession engineEcoSessionWithTransientValues, final String ecoEngineSessionGuid) throws Exception {
-        EngineEcoSession engineEcoSession =  getEngineEcoSessionByEngineSessionGuid(ecoEngineSessionGuid);
-        synchronizeEngineEcoSession(engineEcoSessionWithTransientValues, engineEcoSession);
+    public boolean updateEngineEcoSessionState(final Long engineSessionId, final String jSessionId, final Long customerId, final Date dateUpdate) {
+        return engineSessionDao.updateEngineEcoSessionState(engineSessionId, jSessionId, customerId, dateUpdate) > 0;
     }
     
-    
     public EngineEcoSession getEngineEcoSessionById(final Long engineSessionId, Object... params) {
         return engineSessionDao.getEngineEcoSessionById(engineSessionId, params);
     }
@@ -115,6 +131,32 @@ public class EngineSessionService {
         return engineSessionDao.saveOrUpdateEngineBoSession(engineBoSession);
     }
 
+    /**
+     * Writes the session kept in the http session, when a persistent field changed since the last write.
+     * The pending write-behind snapshot of the session, older, is dropped.
+     */
+    public EngineBoSession updateAndSynchronizeEngineBoSession(EngineBoSession engineBoSessionWithTransientValues) {
+        if (engineBoSessionWithTransientValues.getId() != null
+                && !engineBoSessionWithTransientValues.isDirty()) {
+            return engineBoSessionWithTransientValues;
+        }
+        if (engineBoSessionWithTransientValues.getId() != null) {
+            engineSessionWriteBehindStore.discard(engineBoSessionWithTransientValues);
+        }
+        EngineBoSession engineBoSession = saveOrUpdateEngineBoSession(engineBoSessionWithTransientValues);
+        engineBoSessionWithTransientValues.setId(engineBoSession.getId());
+        engineBoSessionWithTransientValues.setVersion(engineBoSession.getVersion());
+        engineBoSessionWithTransientValues.setEngineSessionGuid(engineBoSession.getEngineSessionGuid());
+        engineBoSessionWithTransientValues.setDateCreate(engineBoSession.getDateCreate());
+        engineBoSessionWithTransientValues.setDateUpdate(engineBoSession.getDateUpdate());
+        engineBoSessionWithTransientValues.clearDirty(AbstractEngineSession.DIRTY_STATE);
+        return engineBoSessionWithTransientValues;
+    }
+
+    public boolean updateEngineBoSessionState(final Long engineSessionId, final String jSessionId, final Date dateUpdate) {
+        return engineSessionDao.updateEngineBoSessionState(engineSessionId, jSessionId, dateUpdate) > 0;
+    }
+
     public void deleteEngineBoSession(final EngineBoSession engineBoSession) {
         engineSessionDao.deleteEngineBoSession(engineBoSession);
     }
@@ -9,21 +9,18 @@
  */
 package org.hoteia.qalingo.core.service;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.InetAddress;
-import java.text.ParseException;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.hibernate.internal.util.SerializationHelper;
 import org.hoteia.qalingo.core.dao.GeolocDao;
 import org.hoteia.qalingo.core.domain.EngineSetting;
@@ -32,6 +29,9 @@ import org.hoteia.qalingo.core.domain.GeolocCity;
 import org.hoteia.qalingo.core.domain.bean.GeolocData;
 import org.hoteia.qalingo.core.domain.bean.GeolocDataCity;
 import org.hoteia.qalingo.core.domain.bean.GeolocDataCountry;
+import org.hoteia.qalingo.core.service.geoloc.GeoIpDatabase;
+import org.hoteia.qalingo.core.service.geoloc.GoogleGeocodingClient;
+import org.hoteia.qalingo.core.service.geoloc.StringBloomFilter;
 import org.hoteia.qalingo.core.web.bean.geoloc.json.GoogleGeoCode;
 import org.hoteia.qalingo.core.web.bean.geoloc.json.GoogleGeoCodeResult;
 import org.slf4j.Logger;
@@ -40,9 +40,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.maxmind.geoip2.DatabaseReader;
-import com.maxmind.geoip2.exception.AddressNotFoundException;
+import com.maxmind.geoip2.exception.GeoIp2Exception;
 import com.maxmind.geoip2.model.CityResponse;
 import com.maxmind.geoip2.model.CountryResponse;
 import com.maxmind.geoip2.record.City;
@@ -63,42 +62,105 @@ public class GeolocService {
     @Autowired
     protected GeolocDao geolocDao;
     
+    @Autowired
+    protected GoogleGeocodingClient googleGeocodingClient;
+    
+    protected long existenceFilterReloadDelay = 3600000;
+    
+    private static final int MAX_IN_SIZE = 500;
+    
+    private volatile StringBloomFilter geolocCityFilter;
+    private volatile StringBloomFilter geolocAddressFilter;
+    private volatile long nextExistenceFilterReloadTime;
+    
+    protected final GeoIpDatabase<Country> countryDatabase = new GeoIpDatabase<Country>() {
+        @Override
+        protected String resolveDatabasePath() {
+            return getCountryDataBase().getPath();
+        }
+
+        @Override
+        protected Country lookup(DatabaseReader reader, InetAddress address) throws IOException, GeoIp2Exception {
+            final CountryResponse countryResponse = reader.country(address);
+            return countryResponse != null ? countryResponse.getCountry() : null;
+        }
+    };
+
+    protected final GeoIpDatabase<City> cityDatabase = new GeoIpDatabase<City>() {
+        @Override
+        protected String resolveDatabasePath() {
+            return getCityDataBase().getPath();
+        }
+
+        @Override
+        protected City lookup(DatabaseReader reader, InetAddress address) throws IOException, GeoIp2Exception {
+            final CityResponse cityResponse = reader.city(address);
+            return cityResponse != null ? cityResponse.getCity() : null;
+        }
+    };
+    
     // COMMON
     
+    /**
+     * Geolocated city from the database, or from Google when the city was never asked.
+     * Null when Google can't answer now (over quota, rate limit); a city unknown by Google
+     * is returned without latitude/longitude.
+     */
     public GeolocCity geolocByCityAndCountry(final String city, final String country){
-        GeolocCity geolocCity = null;
-        String addressParam = encodeGoogleAddress(null, null, city, country);
-        GoogleGeoCode geoCode = geolocGoogleWithAddress(addressParam);
-        if("OVER_QUERY_LIMIT".equals(geoCode.getStatus())){
-            logger.error("API Geoloc returns message OVER_QUERY_LIMIT: " + geoCode.getErrorMessage());
-            engineSettingService.flagSettingGoogleGeolocationApiOverQuota();
+        // READ FIRST : THE CITY MAY HAVE BEEN STORED BY AN OTHER NODE SINCE THE LOAD OF THE EXISTENCE FILTER
+        GeolocCity geolocCity = geolocDao.getGeolocCityByCityAndCountry(city, country);
+        if(geolocCity != null){
+            getGeolocCityFilter().add(buildGeolocCityKey(city, country));
             return geolocCity;
         }
-        
-        if(geoCode != null) {
-            geolocCity = new GeolocCity();
-            geolocCity.setCity(city);
-            geolocCity.setCountry(country);
+        String addressParam = encodeGoogleAddress(null, null, city, country);
+        GoogleGeoCode geoCode = geolocGoogleWithAddress(addressParam);
+        if(isStorable(geoCode)) {
+            // AN OTHER NODE MAY HAVE STORED THIS CITY DURING THE CALL TO GOOGLE
+            geolocCity = geolocDao.getGeolocCityByCityAndCountry(city, country);
+            if(geolocCity == null){
+                geolocCity = new GeolocCity();
+                geolocCity.setCity(city);
+                geolocCity.setCountry(country);
+            }
+            // ZERO_RESULTS IS STORED TOO, WITHOUT LATITUDE/LONGITUDE : THE CITY IS NOT ASKED AGAIN
             geolocCity.setJson(SerializationHelper.serialize(geoCode));
             geolocCity.setLatitude(geoCode.getLatitude());
             geolocCity.setLongitude(geoCode.getLongitude());
             geolocCity = geolocDao.saveOrUpdateGeolocCity(geolocCity);
+            getGeolocCityFilter().add(buildGeolocCityKey(city, country));
         }
         return geolocCity;
     }
     
+    /**
+     * Geolocated address from the database, or from Google when the address was never asked.
+     * Null when Google can't answer now (over quota, rate limit); an address unknown by Google
+     * is returned without latitude/longitude.
+     */
     public GeolocAddress geolocByAddress(final String address, final String postalCode, final String city, final String country){
-        GeolocAddress geolocAddress = null;
+        return geolocByAddress(address, postalCode, city, country, false);
+    }
+    
+    /**
+     * @param batch true to wait for the rate limit of the geocoding client, instead of giving up at once as a request thread
+     */
+    protected GeolocAddress geolocByAddress(final String address, final String postalCode, final String city, final String country, final boolean batch){
         String formatedAddress = encodeGoogleAddress(address, postalCode, city, country);
-        GoogleGeoCode geoCode = geolocGoogleWithAddress(formatedAddress);
-        if("OVER_QUERY_LIMIT".equals(geoCode.getStatus())){
-            logger.error("API Geoloc returns message OVER_QUERY_LIMIT: " + geoCode.getErrorMessage());
-            engineSettingService.flagSettingGoogleGeolocationApiOverQuota();
+        // READ FIRST : THE ADDRESS MAY HAVE BEEN STORED BY AN OTHER NODE SINCE THE LOAD OF THE EXISTENCE FILTER
+        GeolocAddress geolocAddress = geolocDao.getGeolocAddressByFormatedAddress(formatedAddress);
+        if(geolocAddress != null){
+            getGeolocAddressFilter().add(formatedAddress);
             return geolocAddress;
         }
-        
-        if(geoCode != null) {
-            geolocAddress = new GeolocAddress();
+        GoogleGeoCode geoCode = batch ? googleGeocodingClient.batchGeocodeAddress(formatedAddress) : geolocGoogleWithAddress(formatedAddress);
+        if(isStorable(geoCode)) {
+            // AN OTHER NODE MAY HAVE STORED THIS ADDRESS DURING THE CALL TO GOOGLE
+            geolocAddress = geolocDao.getGeolocAddressByFormatedAddress(formatedAddress);
+            if(geolocAddress == null){
+                geolocAddress = new GeolocAddress();
+            }
+            // ZERO_RESULTS IS STORED TOO, WITHOUT LATITUDE/LONGITUDE : THE ADDRESS IS NOT ASKED AGAIN
             geolocAddress.setAddress(address);
             geolocAddress.setPostalCode(postalCode);
             geolocAddress.setCity(city);
@@ -108,6 +170,7 @@ public class GeolocService {
             geolocAddress.setLatitude(geoCode.getLatitude());
             geolocAddress.setLongitude(geoCode.getLongitude());
             geolocAddress = geolocDao.saveOrUpdateGeolocAddress(geolocAddress);
+            getGeolocAddressFilter().add(formatedAddress);
         }
         return geolocAddress;
     }
@@ -115,13 +178,10 @@ public class GeolocService {
     public GeolocAddress geolocByLatitudeLongitude(final String latitude, final String longitude) {
         GeolocAddress geolocAddress = null;
         GoogleGeoCode geoCode = geolocGoogleWithLatitudeLongitude(latitude, longitude);
-        if("OVER_QUERY_LIMIT".equals(geoCode.getStatus())){
-            logger.error("API Geoloc returns message OVER_QUERY_LIMIT: " + geoCode.getErrorMessage());
-            engineSettingService.flagSettingGoogleGeolocationApiOverQuota();
-            return geolocAddress;
-        }
-        
-        if(geoCode != null) {
+        if(geoCode != null
+                && GoogleGeocodingClient.STATUS_OK.equals(geoCode.getStatus())
+                && geoCode.getResults() != null
+                && !geoCode.getResults().isEmpty()) {
             GoogleGeoCodeResult googleGeoCodeResult = geoCode.getResults().get(0);
             String formatedAdress = googleGeoCodeResult.getFormattedAddress();
             formatedAdress = formatedAdress.replace(" ", "+");
@@ -140,92 +200,136 @@ public class GeolocService {
     }
     
     public GoogleGeoCode geolocGoogleWithAddress(final String formatedAddress){
-        GoogleGeoCode geoCode = null;
-        boolean googleGelocIsOverQuota;
-        try {
-            googleGelocIsOverQuota = engineSettingService.isGoogleGeolocationApiStillOverQuotas(new Date());
-            if (googleGelocIsOverQuota == false) {
-                String key = null;
-                try {
-                    key = engineSettingService.getGoogleGeolocationApiKey();
-                } catch (Exception e) {
-                    logger.error("Google Geolocation API Key is mandatory!", e);
-                }
-                if (key != null && StringUtils.isNotEmpty(key)) {
-                    HttpPost httpPost = new HttpPost("https://maps.googleapis.com/maps/api/geocode/json?address=" + formatedAddress + "&key=" + key);
-                    HttpClient httpClient = new DefaultHttpClient();
-                    HttpResponse httpResponse = httpClient.execute(httpPost);
-
-                    BufferedReader streamReader = new BufferedReader(new InputStreamReader(httpResponse.getEntity().getContent()));
-                    StringBuilder responseStrBuilder = new StringBuilder();
-
-                    String inputStr;
-                    while ((inputStr = streamReader.readLine()) != null) {
-                        responseStrBuilder.append(inputStr);
-                    }
-                    String json = responseStrBuilder.toString();
-
-                    ObjectMapper mapper = new ObjectMapper();
-                    geoCode = mapper.readValue(json, GoogleGeoCode.class);
-                }
-            } else {
-                logger.warn("Google Geolocation API still over Quota! We can't use geolocation for this address: " + formatedAddress);
+        return googleGeocodingClient.geocodeAddress(formatedAddress);
+    }
+    
+    public GoogleGeoCode geolocGoogleWithLatitudeLongitude(final String latitude, final String longitude){
+        return googleGeocodingClient.geocodeLatitudeLongitude(latitude, longitude);
+    }
+    
+    /**
+     * @see #geolocByCityAndCountry(String, String)
+     */
+    public GeolocCity geolocCityWithCache(final String city, final String country){
+        return geolocByCityAndCountry(city, country);
+    }
+    
+    /**
+     * @see #geolocByAddress(String, String, String, String)
+     */
+    public GeolocAddress geolocAddressWithCache(final String address, final String postalCode, final String city, final String country){
+        return geolocByAddress(address, postalCode, city, country);
+    }
+    
+    /**
+     * Batch of geolocAddressWithCache : the addresses of the existence filter are loaded with IN
+     * queries, the others are read one by one then asked to Google at the rate of the geocoding
+     * client, waiting for it, until the API is over quota.
+     * 
+     * @param addresses address, postal code, city and country to geolocate
+     * @return the geolocated addresses by formated address, without the ones Google couldn't answer
+     */
+    public Map<String, GeolocAddress> geolocAddressesWithCache(final List<GeolocAddress> addresses){
+        Map<String, GeolocAddress> requests = new LinkedHashMap<String, GeolocAddress>();
+        for (Iterator<GeolocAddress> iterator = addresses.iterator(); iterator.hasNext();) {
+            GeolocAddress address = (GeolocAddress) iterator.next();
+            String formatedAddress = encodeGoogleAddress(address.getAddress(), address.getPostalCode(), address.getCity(), address.getCountry());
+            if(!requests.containsKey(formatedAddress)){
+                requests.put(formatedAddress, address);
+            }
+        }
+        
+        Map<String, GeolocAddress> geolocAddresses = new HashMap<String, GeolocAddress>();
+        StringBloomFilter geolocAddressFilter = getGeolocAddressFilter();
+        List<String> storedFormatedAddresses = new ArrayList<String>();
+        for (Iterator<String> iterator = requests.keySet().iterator(); iterator.hasNext();) {
+            String formatedAddress = (String) iterator.next();
+            if(geolocAddressFilter.mightContain(formatedAddress)){
+                storedFormatedAddresses.add(formatedAddress);
             }
-        } catch (ClientProtocolException e) {
-            logger.error("", e);
-        } catch (IOException e) {
-            logger.error("", e);
-        } catch (IllegalStateException e) {
-            logger.error("", e);
-        } catch (ParseException e) {
-            logger.error("", e);
         }
-        return geoCode;
+        for (int i = 0; i < storedFormatedAddresses.size(); i += MAX_IN_SIZE) {
+            List<String> formatedAddresses = storedFormatedAddresses.subList(i, Math.min(i + MAX_IN_SIZE, storedFormatedAddresses.size()));
+            for (Iterator<GeolocAddress> iterator = geolocDao.findGeolocAddressesByFormatedAddresses(new ArrayList<String>(formatedAddresses)).iterator(); iterator.hasNext();) {
+                GeolocAddress geolocAddress = (GeolocAddress) iterator.next();
+                geolocAddresses.put(geolocAddress.getFormatedAddress(), geolocAddress);
+            }
+        }
+        
+        for (Iterator<Map.Entry<String, GeolocAddress>> iterator = requests.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<String, GeolocAddress> request = (Map.Entry<String, GeolocAddress>) iterator.next();
+            if(geolocAddresses.containsKey(request.getKey())){
+                continue;
+            }
+            if(googleGeocodingClient.isOverQuota()){
+                logger.warn("Google Geolocation API over quota, " + (requests.size() - geolocAddresses.size()) + " addresses left without geolocation");
+                break;
+            }
+            GeolocAddress address = request.getValue();
+            GeolocAddress geolocAddress = geolocByAddress(address.getAddress(), address.getPostalCode(), address.getCity(), address.getCountry(), true);
+            if(geolocAddress != null){
+                geolocAddresses.put(request.getKey(), geolocAddress);
+            }
+        }
+        return geolocAddresses;
     }
     
-    public GoogleGeoCode geolocGoogleWithLatitudeLongitude(final String latitude, final String longitude){
-        GoogleGeoCode geoCode = null;
-        boolean googleGelocIsOverQuota;
-        try {
-            googleGelocIsOverQuota = engineSettingService.isGoogleGeolocationApiStillOverQuotas(new Date());
-            String paramLatLong = latitude.trim() + "," + longitude.trim();
-            if (googleGelocIsOverQuota == false) {
-                String key = null;
-                try {
-                    key = engineSettingService.getGoogleGeolocationApiKey();
-                } catch (Exception e) {
-                    logger.error("Google Geolocation API Key is mandatory!", e);
-                }
-                if (key != null && StringUtils.isNotEmpty(key)) {
-                    HttpPost request = new HttpPost("https://maps.googleapis.com/maps/api/geocode/json?latlng=" + paramLatLong + "&key=" + key);
-                    HttpClient httpClient = new DefaultHttpClient();
-                    HttpResponse response = httpClient.execute(request);
-
-                    BufferedReader streamReader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-                    StringBuilder responseStrBuilder = new StringBuilder();
-
-                    String inputStr;
-                    while ((inputStr = streamReader.readLine()) != null) {
-                        responseStrBuilder.append(inputStr);
-                    }
-                    String json = responseStrBuilder.toString();
-
-                    ObjectMapper mapper = new ObjectMapper();
-                    geoCode = mapper.readValue(json, GoogleGeoCode.class);
+    /**
+     * An answer is stored when it is final for this address : found or unknown.
+     */
+    protected boolean isStorable(final GoogleGeoCode geoCode){
+        return geoCode != null
+                && (GoogleGeocodingClient.STATUS_OK.equals(geoCode.getStatus())
+                        || GoogleGeocodingClient.STATUS_ZERO_RESULTS.equals(geoCode.getStatus()));
+    }
+    
+    protected String buildGeolocCityKey(final String city, final String country){
+        return city + "," + country;
+    }
+    
+    /**
+     * Existence checks of the stored cities and addresses : the batch loads the keys of the
+     * filter with IN queries. A key absent from the filter is still read from the database
+     * before Google, the filters are only loaded again every existenceFilterReloadDelay
+     * milliseconds for the keys stored by the other nodes.
+     */
+    protected StringBloomFilter getGeolocCityFilter(){
+        checkExistenceFilters();
+        return geolocCityFilter;
+    }
+    
+    protected StringBloomFilter getGeolocAddressFilter(){
+        checkExistenceFilters();
+        return geolocAddressFilter;
+    }
+    
+    private void checkExistenceFilters(){
+        if(geolocCityFilter != null
+                && System.currentTimeMillis() < nextExistenceFilterReloadTime){
+            return;
+        }
+        synchronized (this) {
+            if(geolocCityFilter != null
+                    && System.currentTimeMillis() < nextExistenceFilterReloadTime){
+                return;
+            }
+            List<String> cityKeys = geolocDao.findGeolocCityKeys();
+            StringBloomFilter cityFilter = new StringBloomFilter(Math.max(cityKeys.size() * 2, 10000), 0.01);
+            for (Iterator<String> iterator = cityKeys.iterator(); iterator.hasNext();) {
+                cityFilter.add((String) iterator.next());
+            }
+            List<String> formatedAddresses = geolocDao.findGeolocAddressFormatedAddresses();
+            StringBloomFilter addressFilter = new StringBloomFilter(Math.max(formatedAddresses.size() * 2, 10000), 0.01);
+            for (Iterator<String> iterator = formatedAddresses.iterator(); iterator.hasNext();) {
+                String formatedAddress = (String) iterator.next();
+                if(formatedAddress != null){
+                    addressFilter.add(formatedAddress);
                 }
-            } else {
-                logger.warn("Google Geolocation API still over Quota! We can't use geolocation for this lat/long: " + paramLatLong);
             }
-        } catch (ClientProtocolException e) {
-            logger.error("", e);
-        } catch (IOException e) {
-            logger.error("", e);
-        } catch (IllegalStateException e) {
-            logger.error("", e);
-        } catch (ParseException e) {
-            logger.error("", e);
+            geolocAddressFilter = addressFilter;
+            geolocCityFilter = cityFilter;
+            nextExistenceFilterReloadTime = System.currentTimeMillis() + existenceFilterReloadDelay;
         }
-        return geoCode;
     }
     
     public String encodeGoogleAddress(final String address, final String postalCode, final String city, final String country) {
@@ -298,8 +402,10 @@ public class GeolocService {
                 geolocData.setCountry(geolocDataCountry);
                 final City city = geolocAndGetCity(remoteAddress);
                 GeolocDataCity geolocDataCity = new GeolocDataCity();
-                geolocDataCity.setGeoNameId(city.getGeoNameId());
-                geolocDataCity.setName(city.getName());
+                if(city != null){
+                    geolocDataCity.setGeoNameId(city.getGeoNameId());
+                    geolocDataCity.setName(city.getName());
+                }
                 geolocData.setCity(geolocDataCity);
             }
         }
@@ -321,12 +427,10 @@ public class GeolocService {
         try {
             final InetAddress address = InetAddress.getByName(customerRemoteAddr);
             
-            final DatabaseReader databaseReader = new DatabaseReader.Builder(getCountryDataBase()).build();
-            final CountryResponse countryResponse = databaseReader.country(address);
-            if(countryResponse != null){
-                return countryResponse.getCountry();
+            final Country country = countryDatabase.get(address);
+            if(country != null){
+                return country;
             }
-        } catch (AddressNotFoundException e) {
             logger.warn("Geoloc country, can't find this address:" + customerRemoteAddr);
         } catch (FileNotFoundException e) {
             logger.error("Geoloc country, can't find database MaxMind", e);
@@ -351,14 +455,10 @@ public class GeolocService {
         try {
             final InetAddress address = InetAddress.getByName(customerRemoteAddr);
             
-            final DatabaseReader databaseReader = new DatabaseReader.Builder(getCityDataBase()).build();
-
-            final CityResponse cityResponse = databaseReader.city(address);
-            if(cityResponse != null){
-                return cityResponse.getCity();
-                
+            final City city = cityDatabase.get(address);
+            if(city != null){
+                return city;
             }
-        } catch (AddressNotFoundException e) {
             logger.warn("Geoloc city, can't find this address:" + customerRemoteAddr);
         } catch (FileNotFoundException e) {
             logger.error("Geoloc city, can't find database MaxMind", e);
@@ -380,4 +480,12 @@ public class GeolocService {
         return database;
     }
     
+    public GeoIpDatabase<Country> getCountryDatabase() {
+        return countryDatabase;
+    }
+    
+    public GeoIpDatabase<City> getCityDatabase() {
+        return cityDatabase;
+    }
+    
 }
\ No newline at end of file
@@ -11,8 +11,10 @@ package org.hoteia.qalingo.core.service;
 
 import java.util.List;
 
+import org.hoteia.qalingo.core.dao.KeysetPage;
 import org.hoteia.qalingo.core.dao.OrderCustomerDao;
 import org.hoteia.qalingo.core.domain.OrderCustomer;
+import org.hoteia.qalingo.core.service.order.OrderNumberAllocator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -24,6 +26,9 @@ public class OrderCustomerService {
     @Autowired
     private OrderCustomerDao orderDao;
 
+    @Autowired
+    private OrderNumberAllocator orderNumberAllocator;
+
     public OrderCustomer getOrderById(final Long orderCustomerId, Object... params) {
         return orderDao.getOrderById(orderCustomerId, params);
     }
@@ -50,7 +55,18 @@ public class OrderCustomerService {
         return orderDao.findOrders(params);
     }
 
+    public KeysetPage<OrderCustomer> findOrderPage(final Long afterId, final int pageSize, Object... params) {
+        return orderDao.findOrderPage(afterId, pageSize, params);
+    }
+
+    public long countOrders() {
+        return orderDao.countOrders();
+    }
+
     public OrderCustomer createNewOrder(final OrderCustomer orderCustomer) {
+        if (orderCustomer.getId() == null) {
+            orderCustomer.setOrderNum(orderNumberAllocator.nextOrderNumber(orderCustomer.getMarketAreaId()));
+        }
         return orderDao.createNewOrder(orderCustomer);
     }
 
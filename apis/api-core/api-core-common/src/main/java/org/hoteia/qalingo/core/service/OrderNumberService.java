@@ -0,0 +1,36 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service;
+
+import org.hoteia.qalingo.core.dao.OrderCustomerDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Reservation of the order number blocks, in their own short transaction : the lock of the
+ * OrderNumber row is released at once, not at the end of the checkout transaction.
+ */
+@Service("orderNumberService")
+@Transactional(propagation = Propagation.REQUIRES_NEW)
+public class OrderNumberService {
+
+    @Autowired
+    private OrderCustomerDao orderDao;
+
+    /**
+     * @return the last number of the reserved block, or null when the sequence doesn't exist
+     */
+    public Integer reserveOrderNumbers(final Long marketAreaId, final int count) {
+        return orderDao.reserveOrderNumbers(marketAreaId, count);
+    }
+
+}
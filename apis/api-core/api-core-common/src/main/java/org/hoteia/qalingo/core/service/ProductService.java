@@ -14,6 +14,7 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.hoteia.qalingo.core.Constants;
+import org.hoteia.qalingo.core.dao.KeysetPage;
 import org.hoteia.qalingo.core.dao.ProductDao;
 import org.hoteia.qalingo.core.domain.Asset;
 import org.hoteia.qalingo.core.domain.CatalogCategoryVirtual;
@@ -24,6 +25,9 @@ import org.hoteia.qalingo.core.domain.ProductMarketingCustomerComment;
 import org.hoteia.qalingo.core.domain.ProductMarketingCustomerRate;
 import org.hoteia.qalingo.core.domain.ProductSku;
 import org.hoteia.qalingo.core.domain.ProductSkuOptionDefinition;
+import org.hoteia.qalingo.core.service.catalog.CatalogCategoryTree;
+import org.hoteia.qalingo.core.service.catalog.CatalogCategoryTreeSnapshot;
+import org.hoteia.qalingo.core.service.catalog.ProductSkuPriceSnapshot;
 import org.hoteia.qalingo.core.web.mvc.viewbean.CustomerProductRatesViewBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -38,6 +42,12 @@ public class ProductService {
 
     @Autowired
     private CatalogCategoryService catalogCategoryService;
+
+    @Autowired
+    private CatalogCategoryTreeSnapshot catalogCategoryTreeSnapshot;
+
+    @Autowired
+    private ProductSkuPriceSnapshot productSkuPriceSnapshot;
     
     // PRODUCT MARKETING
 
@@ -55,6 +65,10 @@ public class ProductService {
         return getProductMarketingById(productMarketingId, params);
     }
 
+    public List<ProductMarketing> findProductMarketingsByIds(final List<Long> productMarketingIds, Object... params) {
+        return productDao.findProductMarketingsByIds(productMarketingIds, params);
+    }
+
     public ProductMarketing getProductMarketingByCode(final String productMarketingCode, Object... params) {
         return productDao.getProductMarketingByCode(productMarketingCode, params);
     }
@@ -63,10 +77,21 @@ public class ProductService {
         return getDefaultVirtualCatalogCategory(productMarketing.getDefaultProductSku(), catalogCategories, withFallback);
     }
 
+    /**
+     * The links of a category are read in its category tree, and with the lazy collection
+     * only for a category unknown to the trees.
+     */
     public CatalogCategoryVirtual getDefaultVirtualCatalogCategory(final ProductSku productSku, final List<CatalogCategoryVirtual> catalogCategories, boolean withFallback) {
         if(catalogCategories != null){
             for (Iterator<CatalogCategoryVirtual> iteratorCatalogCategoryVirtual = catalogCategories.iterator(); iteratorCatalogCategoryVirtual.hasNext();) {
                 CatalogCategoryVirtual catalogCategoryVirtual = (CatalogCategoryVirtual) iteratorCatalogCategoryVirtual.next();
+                CatalogCategoryTree catalogCategoryTree = catalogCategoryTreeSnapshot.getTreeOfCategory(catalogCategoryVirtual.getId());
+                if(catalogCategoryTree != null){
+                    if(catalogCategoryTree.isDefaultCategoryOf(catalogCategoryTree.indexOf(catalogCategoryVirtual.getId()), productSku.getId())){
+                        return catalogCategoryVirtual;
+                    }
+                    continue;
+                }
                 for (Iterator<CatalogCategoryVirtualProductSkuRel> iteratorCatalogCategoryProductSkuRel = catalogCategoryVirtual.getCatalogCategoryProductSkuRels().iterator(); iteratorCatalogCategoryProductSkuRel.hasNext();) {
                     CatalogCategoryVirtualProductSkuRel catalogCategoryVirtualProductSkuRel = (CatalogCategoryVirtualProductSkuRel) iteratorCatalogCategoryProductSkuRel.next();
                     if(productSku.getCode().equals(catalogCategoryVirtualProductSkuRel.getProductSku().getCode()) 
@@ -98,6 +123,22 @@ public class ProductService {
         return productMarketings;
     }
 
+    public KeysetPage<ProductMarketing> findProductMarketingPage(final Long afterId, final int pageSize, Object... params) {
+        return productDao.findProductMarketingPage(afterId, pageSize, params);
+    }
+
+    public long countProductMarketings() {
+        return productDao.countProductMarketings();
+    }
+
+    public KeysetPage<ProductMarketing> findProductMarketingPageByText(final String text, final Long afterId, final int pageSize, Object... params) {
+        return productDao.findProductMarketingPageByText(text, afterId, pageSize, params);
+    }
+
+    public long countProductMarketingsByText(final String text) {
+        return productDao.countProductMarketingsByText(text);
+    }
+
     public List<ProductMarketing> findProductMarketingsByBrandId(final Long brandId, Object... params) {
         List<ProductMarketing> productMarketings = productDao.findProductMarketingsByBrandId(brandId, params);
         return productMarketings;
@@ -135,11 +176,14 @@ public class ProductService {
     }
 
     public ProductMarketing saveOrUpdateProductMarketing(final ProductMarketing productMarketing) {
-        return productDao.saveOrUpdateProductMarketing(productMarketing);
+        ProductMarketing savedProductMarketing = productDao.saveOrUpdateProductMarketing(productMarketing);
+        productSkuPriceSnapshot.invalidate();
+        return savedProductMarketing;
     }
 
     public void deleteProductMarketing(final ProductMarketing productMarketing) {
         productDao.deleteProductMarketing(productMarketing);
+        productSkuPriceSnapshot.invalidate();
     }
 
     // PRODUCT MARKETING COMMENT/RATE
@@ -258,6 +302,10 @@ public class ProductService {
         return getProductSkuById(productSkuId, params);
     }
 
+    public List<ProductSku> findProductSkusByIds(final List<Long> productSkuIds, Object... params) {
+        return productDao.findProductSkusByIds(productSkuIds, params);
+    }
+
     public ProductSku getProductSkuByCode(final String skuCode, Object... params) {
         return productDao.getProductSkuByCode(skuCode, params);
     }
@@ -278,6 +326,18 @@ public class ProductService {
         return skus;
     }
 
+    public KeysetPage<ProductSku> findProductSkuPageByText(final String text, final Long afterId, final int pageSize, Object... params) {
+        return productDao.findProductSkuPageByText(text, afterId, pageSize, params);
+    }
+
+    public long countProductSkusByText(final String text) {
+        return productDao.countProductSkusByText(text);
+    }
+
+    public List<Object[]> findProductSkuPriceRows(final Long afterId, final int pageSize) {
+        return productDao.findProductSkuPriceRows(afterId, pageSize);
+    }
+
     public List<ProductSku> findProductSkusByMasterCatalogCategoryId(Long categoryId, Object... params) {
         List<ProductSku> skus = productDao.findProductSkusByMasterCatalogCategoryId(categoryId, params);
         return skus;
@@ -313,11 +373,14 @@ public class ProductService {
     }
 
     public ProductSku saveOrUpdateProductSku(final ProductSku productSku) {
-        return productDao.saveOrUpdateProductSku(productSku);
+        ProductSku savedProductSku = productDao.saveOrUpdateProductSku(productSku);
+        productSkuPriceSnapshot.invalidate();
+        return savedProductSku;
     }
 
     public void deleteProductSku(final ProductSku productSku) {
         productDao.deleteProductSku(productSku);
+        productSkuPriceSnapshot.invalidate();
     }
 
     // PRODUCT SKU ASSET
@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.io.FilenameUtils;
+import org.hoteia.qalingo.core.dao.KeysetPage;
 import org.hoteia.qalingo.core.dao.RetailerDao;
 import org.hoteia.qalingo.core.domain.EngineSetting;
 import org.hoteia.qalingo.core.domain.Retailer;
@@ -66,6 +67,14 @@ public class RetailerService {
         return retailerDao.findAllRetailers(params);
     }
 
+    public KeysetPage<Retailer> findRetailerPage(final Long afterId, final int pageSize, Object... params) {
+        return retailerDao.findRetailerPage(afterId, pageSize, params);
+    }
+
+    public long countRetailers() {
+        return retailerDao.countRetailers();
+    }
+
     public List<Retailer> findRetailersByMarketAreaCode(final String marketAreaCode, Object... params) {
         return retailerDao.findRetailersByMarketAreaCode(marketAreaCode, params);
     }
@@ -179,6 +188,10 @@ public class RetailerService {
         return getStoreById(storeId, params);
     }
 
+    public List<Store> findStoresByIds(final List<Long> storeIds, Object... params) {
+        return retailerDao.findStoresByIds(storeIds, params);
+    }
+
     public Store getStoreByCode(final String storeCode, Object... params) {
         return retailerDao.getStoreByCode(storeCode, params);
     }
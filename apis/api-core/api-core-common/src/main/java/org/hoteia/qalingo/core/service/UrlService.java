@@ -179,7 +179,7 @@ public class UrlService extends AbstractUrlService {
                 urlStr = urlStr.substring(0, urlStr.length() - 1);
             }
 
-            urlStr = urlStr + urlWithoutWildcard;
+            return buildUrl(urlStr, urlWithoutWildcard, urlParams, getParams);
 
         } catch (Exception e) {
             logger.error("Can't build Url!", e);
@@ -0,0 +1,348 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.catalog;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hoteia.qalingo.core.util.LongHashIndex;
+
+/**
+ * Immutable category tree of one virtual catalog. The categories are flat arrays, by position
+ * in the id order : parent position, children sorted by ranking, product skus sorted by
+ * ranking, and the product skus of each category as a bitset over the positions of the skus.
+ * Read without entity, Hibernate collection or sort.
+ */
+public final class CatalogCategoryTree {
+
+    public static final int NO_INDEX = -1;
+
+    private final Long catalogId;
+
+    private final long[] categoryIds;
+    private final String[] categoryCodes;
+    private final boolean[] defaultCategories;
+    private final int[] parentIndexes;
+    private final int[] rootIndexes;
+    private final int[][] childIndexes;
+
+    private final long[][] productSkuIds;
+    private final int[] productMarketingCounts;
+    private final BitSet[] productSkus;
+    private final BitSet[] defaultProductSkus;
+
+    private final LongHashIndex<Integer> categoryIndexes;
+    private final Map<String, Integer> categoryIndexesByCode;
+    private final LongHashIndex<Integer> productSkuIndexes;
+    private final int[][] productSkuCategoryIndexes;
+
+    /**
+     * @param categoryRows the categories of the catalog : id, code, catalog id, parent category id, ranking and default flag
+     * @param productSkuRows the links of these categories : category id, product sku id, ranking, default category flag and product marketing id
+     */
+    CatalogCategoryTree(final Long catalogId, final List<Object[]> categoryRows, final List<Object[]> productSkuRows) {
+        this.catalogId = catalogId;
+
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        for (Object[] row : categoryRows) {
+            if (LongHashIndex.key((Long) row[0]) != LongHashIndex.NO_KEY) {
+                rows.add(row);
+            }
+        }
+        Collections.sort(rows, new Comparator<Object[]>() {
+            public int compare(Object[] o1, Object[] o2) {
+                return ((Long) o1[0]).compareTo((Long) o2[0]);
+            }
+        });
+
+        final int size = rows.size();
+        categoryIds = new long[size];
+        categoryCodes = new String[size];
+        defaultCategories = new boolean[size];
+        parentIndexes = new int[size];
+        childIndexes = new int[size][];
+        categoryIndexes = new LongHashIndex<Integer>(size);
+        categoryIndexesByCode = new HashMap<String, Integer>(size * 2);
+        final Integer[] rankings = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            Object[] row = rows.get(i);
+            categoryIds[i] = (Long) row[0];
+            categoryCodes[i] = (String) row[1];
+            rankings[i] = (Integer) row[4];
+            defaultCategories[i] = Boolean.TRUE.equals(row[5]);
+            categoryIndexes.put(categoryIds[i], Integer.valueOf(i));
+            if (categoryCodes[i] != null
+                    && !categoryIndexesByCode.containsKey(categoryCodes[i])) {
+                categoryIndexesByCode.put(categoryCodes[i], Integer.valueOf(i));
+            }
+        }
+
+        // CHILDREN BY RANKING, THEN BY ID : A PARENT OUT OF THE CATALOG MAKES A ROOT
+        final Comparator<Integer> rankingComparator = new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                int compare = compareRankings(rankings[o1], rankings[o2]);
+                return compare != 0 ? compare : o1.compareTo(o2);
+            }
+        };
+        final List<List<Integer>> children = new ArrayList<List<Integer>>(size);
+        for (int i = 0; i < size; i++) {
+            children.add(new ArrayList<Integer>());
+        }
+        final List<Integer> roots = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            parentIndexes[i] = indexOf((Long) rows.get(i)[3]);
+            if (parentIndexes[i] == NO_INDEX
+                    || parentIndexes[i] == i) {
+                parentIndexes[i] = NO_INDEX;
+                roots.add(i);
+            } else {
+                children.get(parentIndexes[i]).add(i);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            childIndexes[i] = toSortedArray(children.get(i), rankingComparator);
+        }
+        rootIndexes = toSortedArray(roots, rankingComparator);
+
+        // PRODUCT SKUS : DENSE POSITIONS, THEN THE LINKS OF EACH CATEGORY
+        final Map<Long, Integer> productSkuPositions = new HashMap<Long, Integer>();
+        final List<List<Object[]>> links = new ArrayList<List<Object[]>>(size);
+        for (int i = 0; i < size; i++) {
+            links.add(new ArrayList<Object[]>());
+        }
+        for (Object[] row : productSkuRows) {
+            int categoryIndex = indexOf((Long) row[0]);
+            Long productSkuId = (Long) row[1];
+            if (categoryIndex == NO_INDEX
+                    || LongHashIndex.key(productSkuId) == LongHashIndex.NO_KEY) {
+                continue;
+            }
+            links.get(categoryIndex).add(row);
+            if (!productSkuPositions.containsKey(productSkuId)) {
+                productSkuPositions.put(productSkuId, Integer.valueOf(productSkuPositions.size()));
+            }
+        }
+        productSkuIndexes = new LongHashIndex<Integer>(productSkuPositions.size());
+        for (Map.Entry<Long, Integer> entry : productSkuPositions.entrySet()) {
+            productSkuIndexes.put(entry.getKey(), entry.getValue());
+        }
+
+        final Comparator<Object[]> linkComparator = new Comparator<Object[]>() {
+            public int compare(Object[] o1, Object[] o2) {
+                int compare = compareRankings((Integer) o1[2], (Integer) o2[2]);
+                return compare != 0 ? compare : ((Long) o1[1]).compareTo((Long) o2[1]);
+            }
+        };
+        productSkuIds = new long[size][];
+        productMarketingCounts = new int[size];
+        productSkus = new BitSet[size];
+        defaultProductSkus = new BitSet[size];
+        final List<List<Integer>> productSkuCategories = new ArrayList<List<Integer>>(productSkuPositions.size());
+        for (int i = 0; i < productSkuPositions.size(); i++) {
+            productSkuCategories.add(new ArrayList<Integer>(1));
+        }
+        for (int i = 0; i < size; i++) {
+            List<Object[]> categoryLinks = links.get(i);
+            Collections.sort(categoryLinks, linkComparator);
+            productSkus[i] = new BitSet();
+            defaultProductSkus[i] = new BitSet();
+            List<Long> sortedProductSkuIds = new ArrayList<Long>(categoryLinks.size());
+            Set<Long> productMarketingIds = new HashSet<Long>();
+            for (Object[] link : categoryLinks) {
+                int position = productSkuPositions.get((Long) link[1]);
+                if (productSkus[i].get(position)) {
+                    continue;
+                }
+                productSkus[i].set(position);
+                if (Boolean.TRUE.equals(link[3])) {
+                    defaultProductSkus[i].set(position);
+                }
+                sortedProductSkuIds.add((Long) link[1]);
+                productSkuCategories.get(position).add(i);
+                if (link.length > 4
+                        && link[4] != null) {
+                    productMarketingIds.add((Long) link[4]);
+                }
+            }
+            productMarketingCounts[i] = productMarketingIds.size();
+            productSkuIds[i] = new long[sortedProductSkuIds.size()];
+            for (int j = 0; j < productSkuIds[i].length; j++) {
+                productSkuIds[i][j] = sortedProductSkuIds.get(j);
+            }
+        }
+        // CATEGORIES ARE VISITED BY POSITION : THE CATEGORIES OF A SKU ARE IN THE ID ORDER
+        productSkuCategoryIndexes = new int[productSkuCategories.size()][];
+        for (int i = 0; i < productSkuCategoryIndexes.length; i++) {
+            productSkuCategoryIndexes[i] = toSortedArray(productSkuCategories.get(i), null);
+        }
+    }
+
+    private static int compareRankings(final Integer ranking1, final Integer ranking2) {
+        if (ranking1 == null) {
+            return ranking2 == null ? 0 : 1;
+        }
+        return ranking2 == null ? -1 : ranking1.compareTo(ranking2);
+    }
+
+    private static int[] toSortedArray(final List<Integer> indexes, final Comparator<Integer> comparator) {
+        if (comparator != null) {
+            Collections.sort(indexes, comparator);
+        }
+        int[] array = new int[indexes.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = indexes.get(i);
+        }
+        return array;
+    }
+
+    public Long getCatalogId() {
+        return catalogId;
+    }
+
+    /**
+     * @return the number of categories
+     */
+    public int size() {
+        return categoryIds.length;
+    }
+
+    /**
+     * @return the position of the category, NO_INDEX when it is not in the tree
+     */
+    public int indexOf(final Long categoryId) {
+        long key = LongHashIndex.key(categoryId);
+        if (key == LongHashIndex.NO_KEY) {
+            return NO_INDEX;
+        }
+        Integer index = categoryIndexes.get(key);
+        return index != null ? index.intValue() : NO_INDEX;
+    }
+
+    public int indexOfCode(final String categoryCode) {
+        Integer index = categoryIndexesByCode.get(categoryCode);
+        return index != null ? index.intValue() : NO_INDEX;
+    }
+
+    public long getCategoryId(final int index) {
+        return categoryIds[index];
+    }
+
+    public String getCategoryCode(final int index) {
+        return categoryCodes[index];
+    }
+
+    public boolean isDefault(final int index) {
+        return defaultCategories[index];
+    }
+
+    public int getParentIndex(final int index) {
+        return parentIndexes[index];
+    }
+
+    /**
+     * @return the root categories, sorted by ranking
+     */
+    public int[] getRootIndexes() {
+        return rootIndexes.clone();
+    }
+
+    /**
+     * @return the sub categories, sorted by ranking
+     */
+    public int[] getChildIndexes(final int index) {
+        return childIndexes[index].clone();
+    }
+
+    public int getChildCount(final int index) {
+        return childIndexes[index].length;
+    }
+
+    public long[] getChildIds(final int index) {
+        int[] children = childIndexes[index];
+        long[] childIds = new long[children.length];
+        for (int i = 0; i < children.length; i++) {
+            childIds[i] = categoryIds[children[i]];
+        }
+        return childIds;
+    }
+
+    /**
+     * The breadcrumb of a category : its ancestors from the root, then the category.
+     */
+    public int[] getPathIndexes(final int index) {
+        int depth = 0;
+        for (int i = index; i != NO_INDEX && depth <= size(); i = parentIndexes[i]) {
+            depth++;
+        }
+        int[] path = new int[Math.min(depth, size())];
+        int i = index;
+        for (int position = path.length - 1; position >= 0; position--) {
+            path[position] = i;
+            i = parentIndexes[i];
+        }
+        return path;
+    }
+
+    /**
+     * @return the product skus of the category, sorted by ranking
+     */
+    public long[] getProductSkuIds(final int index) {
+        return productSkuIds[index].clone();
+    }
+
+    public int getProductSkuCount(final int index) {
+        return productSkuIds[index].length;
+    }
+
+    /**
+     * @return the number of product marketings of the product skus of the category
+     */
+    public int getProductMarketingCount(final int index) {
+        return productMarketingCounts[index];
+    }
+
+    public boolean containsProductSku(final int index, final Long productSkuId) {
+        int position = productSkuPosition(productSkuId);
+        return position != NO_INDEX && productSkus[index].get(position);
+    }
+
+    /**
+     * @return true when the link of the product sku marks this category as its default one
+     */
+    public boolean isDefaultCategoryOf(final int index, final Long productSkuId) {
+        int position = productSkuPosition(productSkuId);
+        return position != NO_INDEX && defaultProductSkus[index].get(position);
+    }
+
+    /**
+     * @return the categories of the product sku, in the id order
+     */
+    public int[] getProductSkuCategoryIndexes(final Long productSkuId) {
+        int position = productSkuPosition(productSkuId);
+        return position != NO_INDEX ? productSkuCategoryIndexes[position].clone() : new int[0];
+    }
+
+    private int productSkuPosition(final Long productSkuId) {
+        long key = LongHashIndex.key(productSkuId);
+        if (key == LongHashIndex.NO_KEY) {
+            return NO_INDEX;
+        }
+        Integer position = productSkuIndexes.get(key);
+        return position != null ? position.intValue() : NO_INDEX;
+    }
+
+}
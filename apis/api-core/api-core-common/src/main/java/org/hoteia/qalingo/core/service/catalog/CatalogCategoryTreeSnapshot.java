@@ -0,0 +1,329 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.catalog;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.hibernate.proxy.HibernateProxy;
+import org.hoteia.qalingo.core.domain.CatalogVirtual;
+import org.hoteia.qalingo.core.domain.MarketArea;
+import org.hoteia.qalingo.core.service.CatalogCategoryService;
+import org.hoteia.qalingo.core.util.LongHashIndex;
+import org.hoteia.qalingo.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Read-only category trees of the virtual catalogs, for the navigation, the default category
+ * of a product sku and the indexer. The trees are loaded on the first lookup from the category
+ * and link columns, then replaced every refresh delay, and rebuilt when a virtual category is
+ * saved or deleted, once the transaction is committed : the lookups never wait for a rebuild.
+ * The other nodes rebuild theirs when they receive the cache eviction of the category
+ * (CacheServeurManagementQueueListener).
+ */
+@Component("catalogCategoryTreeSnapshot")
+@ManagedResource(objectName = "qalingo:type=Catalog,name=catalogCategoryTreeSnapshot", description = "Read-only category trees of the virtual catalogs")
+public class CatalogCategoryTreeSnapshot {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    protected CatalogCategoryService catalogCategoryService;
+
+    @Value("${catalog.category.tree.refresh.delay:300000}")
+    protected long refreshDelay;
+
+    @Value("${catalog.category.tree.rebuild.delay:500}")
+    protected long rebuildDelay;
+
+    private final ScheduledExecutorService refreshExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "catalog-category-tree-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+
+    private volatile Snapshot snapshot;
+
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+    private volatile long lastLoadTime;
+    private volatile Date lastLoadDate;
+
+    /**
+     * Trees by virtual catalog id and by category id. Immutable.
+     */
+    static final class Snapshot {
+        private final CatalogCategoryTree[] trees;
+        private final LongHashIndex<CatalogCategoryTree> treesByCatalog;
+        private final LongHashIndex<CatalogCategoryTree> treesByCategory;
+        private final int categoryCount;
+
+        Snapshot(final List<CatalogCategoryTree> trees) {
+            this.trees = trees.toArray(new CatalogCategoryTree[trees.size()]);
+            int count = 0;
+            for (CatalogCategoryTree tree : trees) {
+                count += tree.size();
+            }
+            this.categoryCount = count;
+            this.treesByCatalog = new LongHashIndex<CatalogCategoryTree>(trees.size());
+            this.treesByCategory = new LongHashIndex<CatalogCategoryTree>(count);
+            for (CatalogCategoryTree tree : trees) {
+                treesByCatalog.put(tree.getCatalogId(), tree);
+                for (int i = 0; i < tree.size(); i++) {
+                    treesByCategory.put(tree.getCategoryId(i), tree);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the tree of the virtual catalog, null when the catalog has no category
+     */
+    public CatalogCategoryTree getTree(final Long catalogVirtualId) {
+        long key = LongHashIndex.key(catalogVirtualId);
+        return key != LongHashIndex.NO_KEY ? getSnapshot().treesByCatalog.get(key) : null;
+    }
+
+    /**
+     * @return the tree of the virtual catalog of the market area, without loading the catalog
+     */
+    public CatalogCategoryTree getTree(final MarketArea marketArea) {
+        if (marketArea == null
+                || marketArea.getCatalog() == null) {
+            return null;
+        }
+        CatalogVirtual catalog = marketArea.getCatalog();
+        if (catalog instanceof HibernateProxy) {
+            return getTree((Long) ((HibernateProxy) catalog).getHibernateLazyInitializer().getIdentifier());
+        }
+        return getTree(catalog.getId());
+    }
+
+    /**
+     * @return the tree which contains the virtual category, null when the category is unknown
+     */
+    public CatalogCategoryTree getTreeOfCategory(final Long catalogCategoryId) {
+        long key = LongHashIndex.key(catalogCategoryId);
+        return key != LongHashIndex.NO_KEY ? getSnapshot().treesByCategory.get(key) : null;
+    }
+
+    /**
+     * The default virtual category of a product sku, as CatalogCategoryService did it : among
+     * the categories of the sku in the id order, the last default category, otherwise the first.
+     *
+     * @return the category id, null when no tree contains the product sku
+     */
+    public Long getDefaultCategoryId(final Long productSkuId) {
+        Long firstCategoryId = null;
+        Long defaultCategoryId = null;
+        for (CatalogCategoryTree tree : getSnapshot().trees) {
+            for (int index : tree.getProductSkuCategoryIndexes(productSkuId)) {
+                Long categoryId = tree.getCategoryId(index);
+                if (firstCategoryId == null
+                        || categoryId < firstCategoryId) {
+                    firstCategoryId = categoryId;
+                }
+                if (tree.isDefault(index)
+                        && (defaultCategoryId == null || categoryId > defaultCategoryId)) {
+                    defaultCategoryId = categoryId;
+                }
+            }
+        }
+        return defaultCategoryId != null ? defaultCategoryId : firstCategoryId;
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot currentSnapshot = snapshot;
+        if (currentSnapshot == null) {
+            synchronized (this) {
+                currentSnapshot = snapshot;
+                if (currentSnapshot == null) {
+                    refresh();
+                    currentSnapshot = snapshot;
+                }
+            }
+            start();
+        }
+        return currentSnapshot;
+    }
+
+    private void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        refreshExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        }, refreshDelay, refreshDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A virtual category changed : the trees are rebuilt after the commit of the current
+     * transaction, nothing is done on a rollback. The rebuild starts after the rebuild delay,
+     * and the invalidations received meanwhile share it.
+     */
+    public void invalidate() {
+        invalidationCount.incrementAndGet();
+        TransactionUtil.runAfterCommit(new Runnable() {
+            public void run() {
+                scheduleRebuild();
+            }
+        });
+    }
+
+    private void scheduleRebuild() {
+        if (snapshot == null
+                || !rebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        refreshExecutor.schedule(new Runnable() {
+            public void run() {
+                rebuildScheduled.set(false);
+                refresh();
+            }
+        }, rebuildDelay, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * Loads new trees, which replace the current ones. On error the current ones are kept.
+     */
+    @ManagedOperation(description = "Reloads the category trees now")
+    public void refresh() {
+        try {
+            long start = System.nanoTime();
+            snapshot = load();
+            lastLoadTime = (System.nanoTime() - start) / 1000000;
+            lastLoadDate = new Date();
+            loadCount.incrementAndGet();
+            logger.info("Catalog category trees loaded: " + snapshot.trees.length + " catalogs, " + snapshot.categoryCount + " categories in " + lastLoadTime + " ms");
+        } catch (Exception e) {
+            errorCount.incrementAndGet();
+            logger.error("Catalog category trees load failed", e);
+            if (snapshot == null) {
+                snapshot = new Snapshot(new ArrayList<CatalogCategoryTree>());
+            }
+        }
+    }
+
+    protected Snapshot load() {
+        Map<Long, List<Object[]>> categoryRowsByCatalog = new HashMap<Long, List<Object[]>>();
+        Map<Long, Long> catalogByCategory = new HashMap<Long, Long>();
+        for (Object[] row : catalogCategoryService.findVirtualCategoryTreeRows()) {
+            Long catalogId = (Long) row[2];
+            if (LongHashIndex.key(catalogId) == LongHashIndex.NO_KEY) {
+                continue;
+            }
+            List<Object[]> categoryRows = categoryRowsByCatalog.get(catalogId);
+            if (categoryRows == null) {
+                categoryRows = new ArrayList<Object[]>();
+                categoryRowsByCatalog.put(catalogId, categoryRows);
+            }
+            categoryRows.add(row);
+            catalogByCategory.put((Long) row[0], catalogId);
+        }
+
+        Map<Long, List<Object[]>> productSkuRowsByCatalog = new HashMap<Long, List<Object[]>>();
+        for (Object[] row : catalogCategoryService.findVirtualCategoryProductSkuRows()) {
+            Long catalogId = catalogByCategory.get((Long) row[0]);
+            if (catalogId == null) {
+                continue;
+            }
+            List<Object[]> productSkuRows = productSkuRowsByCatalog.get(catalogId);
+            if (productSkuRows == null) {
+                productSkuRows = new ArrayList<Object[]>();
+                productSkuRowsByCatalog.put(catalogId, productSkuRows);
+            }
+            productSkuRows.add(row);
+        }
+
+        List<CatalogCategoryTree> trees = new ArrayList<CatalogCategoryTree>(categoryRowsByCatalog.size());
+        for (Map.Entry<Long, List<Object[]>> entry : categoryRowsByCatalog.entrySet()) {
+            List<Object[]> productSkuRows = productSkuRowsByCatalog.get(entry.getKey());
+            trees.add(new CatalogCategoryTree(entry.getKey(), entry.getValue(), productSkuRows != null ? productSkuRows : new ArrayList<Object[]>()));
+        }
+        return new Snapshot(trees);
+    }
+
+    @ManagedAttribute(description = "Virtual catalogs in the snapshot")
+    public int getSize() {
+        Snapshot currentSnapshot = snapshot;
+        return currentSnapshot != null ? currentSnapshot.trees.length : 0;
+    }
+
+    @ManagedAttribute(description = "Virtual categories in the snapshot")
+    public int getCategoryCount() {
+        Snapshot currentSnapshot = snapshot;
+        return currentSnapshot != null ? currentSnapshot.categoryCount : 0;
+    }
+
+    @ManagedAttribute(description = "Duration of the last load, in ms")
+    public long getLastLoadTime() {
+        return lastLoadTime;
+    }
+
+    @ManagedAttribute
+    public Date getLastLoadDate() {
+        return lastLoadDate;
+    }
+
+    @ManagedAttribute
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    @ManagedAttribute
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    @ManagedAttribute
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public void setRefreshDelay(long refreshDelay) {
+        this.refreshDelay = refreshDelay;
+    }
+
+    public void setRebuildDelay(long rebuildDelay) {
+        this.rebuildDelay = rebuildDelay;
+    }
+
+}
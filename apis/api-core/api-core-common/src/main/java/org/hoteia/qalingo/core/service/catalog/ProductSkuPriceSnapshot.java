@@ -0,0 +1,284 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.catalog;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.hoteia.qalingo.core.domain.CurrencyReferential;
+import org.hoteia.qalingo.core.service.CurrencyReferentialService;
+import org.hoteia.qalingo.core.service.ProductService;
+import org.hoteia.qalingo.core.util.LongHashIndex;
+import org.hoteia.qalingo.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Read-only snapshot of all the product sku prices, for the listing pages : a lookup by
+ * product sku, market area and retailer reads two hash indexes, without entity or Hibernate
+ * collection. The snapshot is loaded on the first lookup by pages of price columns, then
+ * replaced every refresh delay, and rebuilt after the commit of a product sku or product
+ * marketing change, on this node by ProductService and on the other nodes by the
+ * CacheServeurManagementQueueListener. The cart and the checkout read the prices of the
+ * entities.
+ */
+@Component("productSkuPriceSnapshot")
+@ManagedResource(objectName = "qalingo:type=Catalog,name=productSkuPriceSnapshot", description = "Read-only snapshot of the product sku prices")
+public class ProductSkuPriceSnapshot {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected CurrencyReferentialService currencyReferentialService;
+
+    @Value("${catalog.price.snapshot.refresh.delay:300000}")
+    protected long refreshDelay;
+
+    @Value("${catalog.price.snapshot.rebuild.delay:500}")
+    protected long rebuildDelay;
+
+    @Value("${catalog.price.snapshot.page.size:1000}")
+    protected int pageSize;
+
+    private final ScheduledExecutorService refreshExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "product-sku-price-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+
+    private volatile Snapshot snapshot;
+
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+    private volatile long lastLoadTime;
+    private volatile Date lastLoadDate;
+
+    /**
+     * Prices by product sku id, then by packed (marketAreaId, retailerId) key. Immutable.
+     */
+    static final class Snapshot {
+        private final LongHashIndex<LongHashIndex<SnapshotPrice>> pricesByProductSku;
+        private final int size;
+
+        Snapshot(final LongHashIndex<LongHashIndex<SnapshotPrice>> pricesByProductSku, final int size) {
+            this.pricesByProductSku = pricesByProductSku;
+            this.size = size;
+        }
+    }
+
+    /**
+     * @return the price of the snapshot, null when the product sku has no price for this market area and retailer
+     */
+    public SnapshotPrice getPrice(final Long productSkuId, final Long marketAreaId, final Long retailerId) {
+        LongHashIndex<SnapshotPrice> prices = getSnapshot().pricesByProductSku.get(LongHashIndex.key(productSkuId));
+        if (prices == null) {
+            return null;
+        }
+        return prices.get(LongHashIndex.pack(marketAreaId, retailerId));
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot currentSnapshot = snapshot;
+        if (currentSnapshot == null) {
+            synchronized (this) {
+                currentSnapshot = snapshot;
+                if (currentSnapshot == null) {
+                    refresh();
+                    currentSnapshot = snapshot;
+                }
+            }
+            start();
+        }
+        return currentSnapshot;
+    }
+
+    private void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        refreshExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        }, refreshDelay, refreshDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A price changed : the snapshot is rebuilt after the commit of the current transaction,
+     * nothing is done on a rollback. The rebuild starts after the rebuild delay, and the
+     * invalidations received meanwhile share it.
+     */
+    public void invalidate() {
+        invalidationCount.incrementAndGet();
+        TransactionUtil.runAfterCommit(new Runnable() {
+            public void run() {
+                scheduleRebuild();
+            }
+        });
+    }
+
+    private void scheduleRebuild() {
+        if (snapshot == null
+                || !rebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        refreshExecutor.schedule(new Runnable() {
+            public void run() {
+                rebuildScheduled.set(false);
+                refresh();
+            }
+        }, rebuildDelay, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * Loads a new snapshot, which replaces the current one. On error the current one is kept.
+     */
+    @ManagedOperation(description = "Reloads the prices now")
+    public void refresh() {
+        try {
+            long start = System.nanoTime();
+            snapshot = load();
+            lastLoadTime = (System.nanoTime() - start) / 1000000;
+            lastLoadDate = new Date();
+            loadCount.incrementAndGet();
+            logger.info("Product sku price snapshot loaded: " + snapshot.size + " prices in " + lastLoadTime + " ms");
+        } catch (Exception e) {
+            errorCount.incrementAndGet();
+            logger.error("Product sku price snapshot load failed", e);
+            if (snapshot == null) {
+                snapshot = new Snapshot(new LongHashIndex<LongHashIndex<SnapshotPrice>>(0), 0);
+            }
+        }
+    }
+
+    protected Snapshot load() {
+        Map<Long, CurrencyReferential> currencies = new HashMap<Long, CurrencyReferential>();
+        for (CurrencyReferential currency : currencyReferentialService.findCurrencyReferentials()) {
+            currencies.put(currency.getId(), currency);
+        }
+
+        Map<Long, List<SnapshotPrice>> pricesByProductSku = new HashMap<Long, List<SnapshotPrice>>();
+        Long afterId = null;
+        while (true) {
+            List<Object[]> rows = productService.findProductSkuPriceRows(afterId, pageSize);
+            for (Object[] row : rows) {
+                Long productSkuId = (Long) row[1];
+                if (productSkuId == null) {
+                    continue;
+                }
+                SnapshotPrice price = new SnapshotPrice(productSkuId, (Long) row[2], (Long) row[3], (BigDecimal) row[4], currencies.get((Long) row[5]));
+                List<SnapshotPrice> prices = pricesByProductSku.get(productSkuId);
+                if (prices == null) {
+                    prices = new ArrayList<SnapshotPrice>(2);
+                    pricesByProductSku.put(productSkuId, prices);
+                }
+                prices.add(price);
+            }
+            if (rows.size() < pageSize) {
+                break;
+            }
+            afterId = (Long) rows.get(rows.size() - 1)[0];
+        }
+
+        LongHashIndex<LongHashIndex<SnapshotPrice>> index = new LongHashIndex<LongHashIndex<SnapshotPrice>>(pricesByProductSku.size());
+        int size = 0;
+        for (Map.Entry<Long, List<SnapshotPrice>> entry : pricesByProductSku.entrySet()) {
+            LongHashIndex<SnapshotPrice> prices = new LongHashIndex<SnapshotPrice>(entry.getValue().size());
+            for (SnapshotPrice price : entry.getValue()) {
+                long key = LongHashIndex.pack(price.getMarketAreaId(), price.getRetailerId());
+                if (key != LongHashIndex.NO_KEY
+                        && prices.put(key, price)) {
+                    size++;
+                }
+            }
+            long productSkuKey = LongHashIndex.key(entry.getKey());
+            if (productSkuKey != LongHashIndex.NO_KEY) {
+                index.put(productSkuKey, prices);
+            }
+        }
+        return new Snapshot(index, size);
+    }
+
+    @ManagedAttribute(description = "Prices in the snapshot")
+    public int getSize() {
+        Snapshot currentSnapshot = snapshot;
+        return currentSnapshot != null ? currentSnapshot.size : 0;
+    }
+
+    @ManagedAttribute(description = "Duration of the last load, in ms")
+    public long getLastLoadTime() {
+        return lastLoadTime;
+    }
+
+    @ManagedAttribute
+    public Date getLastLoadDate() {
+        return lastLoadDate;
+    }
+
+    @ManagedAttribute
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    @ManagedAttribute
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    @ManagedAttribute
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public void setRefreshDelay(long refreshDelay) {
+        this.refreshDelay = refreshDelay;
+    }
+
+    public void setRebuildDelay(long rebuildDelay) {
+        this.rebuildDelay = rebuildDelay;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+}
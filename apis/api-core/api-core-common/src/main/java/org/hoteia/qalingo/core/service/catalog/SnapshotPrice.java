@@ -0,0 +1,77 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.catalog;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+import org.hoteia.qalingo.core.domain.CurrencyReferential;
+
+/**
+ * Read-only copy of a ProductSkuPrice row, kept by the ProductSkuPriceSnapshot.
+ */
+public final class SnapshotPrice implements Serializable {
+
+    /**
+     * Generated UID
+     */
+    private static final long serialVersionUID = 6115230941409839512L;
+
+    private final Long productSkuId;
+    private final Long marketAreaId;
+    private final Long retailerId;
+    private final BigDecimal catalogPrice;
+    private final CurrencyReferential currency;
+
+    public SnapshotPrice(final Long productSkuId, final Long marketAreaId, final Long retailerId, final BigDecimal catalogPrice,
+            final CurrencyReferential currency) {
+        this.productSkuId = productSkuId;
+        this.marketAreaId = marketAreaId;
+        this.retailerId = retailerId;
+        this.catalogPrice = catalogPrice;
+        this.currency = currency;
+    }
+
+    public Long getProductSkuId() {
+        return productSkuId;
+    }
+
+    public Long getMarketAreaId() {
+        return marketAreaId;
+    }
+
+    public Long getRetailerId() {
+        return retailerId;
+    }
+
+    public BigDecimal getCatalogPrice() {
+        return catalogPrice;
+    }
+
+    /**
+     * Same as ProductSkuPrice : the catalog price, no promotion is applied in the snapshot.
+     */
+    public BigDecimal getSalePrice() {
+        return catalogPrice;
+    }
+
+    public CurrencyReferential getCurrency() {
+        return currency;
+    }
+
+    public String getPriceWithStandardCurrencySign() {
+        if (currency == null
+                || catalogPrice == null) {
+            return null;
+        }
+        return currency.formatPriceWithStandardCurrencySign(catalogPrice);
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.document;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hoteia.qalingo.core.domain.OrderCustomer;
+import org.hoteia.qalingo.core.domain.enumtype.OrderDocumentType;
+import org.hoteia.qalingo.core.service.DocumentService;
+import org.hoteia.qalingo.core.service.OrderCustomerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Renders the order documents in the thread of the JMS consumer : the message is acknowledged
+ * once the document is written, and the number of documents rendered at the same time is the
+ * number of consumers of the document queue (document.consumer.concurrency).
+ */
+@Component("documentRenderer")
+@ManagedResource(objectName = "qalingo:type=Document,name=documentRenderer", description = "Rendering of the order documents")
+public class DocumentRenderer {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    protected DocumentService documentService;
+
+    @Autowired
+    protected OrderCustomerService orderCustomerService;
+
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+
+    public void render(final Long orderId, final String documentType) {
+        activeCount.incrementAndGet();
+        try {
+            final OrderCustomer order = orderCustomerService.getOrderById(orderId);
+            if (OrderDocumentType.ORDER_CONFIRMATION.getPropertyKey().equals(documentType)) {
+                documentService.generateOrderConfirmation(order);
+
+            } else if (OrderDocumentType.SHIPPING_CONFIRMATION.getPropertyKey().equals(documentType)) {
+                documentService.generateShippingConfirmation(order);
+
+            } else if (OrderDocumentType.INVOICE.getPropertyKey().equals(documentType)) {
+                documentService.generateInvoice(order);
+
+            } else {
+                logger.warn("Document generation: unknown document type " + documentType);
+                return;
+            }
+            processedCount.incrementAndGet();
+        } catch (Exception e) {
+            errorCount.incrementAndGet();
+            logger.error("Document generation failed for the order " + orderId + " and the type " + documentType, e);
+        } finally {
+            activeCount.decrementAndGet();
+        }
+    }
+
+    @ManagedAttribute(description = "Documents being rendered")
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    @ManagedAttribute
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    @ManagedAttribute
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+}
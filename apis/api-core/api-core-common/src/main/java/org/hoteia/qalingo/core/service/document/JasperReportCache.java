@@ -0,0 +1,219 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.document;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.util.JRLoader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compiled Jasper reports by template path. A report is compiled once, and again only when
+ * the modification date of its jrxml changes. A pre-compiled .jasper next to the jrxml, and
+ * not older than it, is loaded instead of compiling. The .jasper of the preload paths are
+ * loaded at startup.
+ * 
+ * Also keeps the compile, fill and export timings of each template.
+ */
+@Component("jasperReportCache")
+@ManagedResource(objectName = "qalingo:type=Document,name=jasperReportCache", description = "Compiled Jasper reports and the timings by template")
+public class JasperReportCache {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public static final String JRXML_EXTENSION = ".jrxml";
+    public static final String JASPER_EXTENSION = ".jasper";
+
+    @Value("${document.jasper.preload.paths:}")
+    protected String preloadPaths;
+
+    private final ConcurrentMap<String, CompiledReport> compiledReports = new ConcurrentHashMap<String, CompiledReport>();
+    private final ConcurrentMap<String, TemplateStatistics> templateStatistics = new ConcurrentHashMap<String, TemplateStatistics>();
+
+    /**
+     * A report and the modification date of the file it comes from.
+     */
+    static final class CompiledReport {
+        private final JasperReport jasperReport;
+        private final long lastModified;
+
+        CompiledReport(final JasperReport jasperReport, final long lastModified) {
+            this.jasperReport = jasperReport;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Counts and cumulated times of a template, in nanoseconds.
+     */
+    static final class TemplateStatistics {
+        private final AtomicLong compileCount = new AtomicLong();
+        private final AtomicLong compileTime = new AtomicLong();
+        private final AtomicLong loadCount = new AtomicLong();
+        private final AtomicLong fillCount = new AtomicLong();
+        private final AtomicLong fillTime = new AtomicLong();
+        private final AtomicLong exportCount = new AtomicLong();
+        private final AtomicLong exportTime = new AtomicLong();
+
+        @Override
+        public String toString() {
+            return "compile=" + compileCount.get() + "/" + average(compileTime, compileCount) + "ms"
+                    + ", load=" + loadCount.get()
+                    + ", fill=" + fillCount.get() + "/" + average(fillTime, fillCount) + "ms"
+                    + ", export=" + exportCount.get() + "/" + average(exportTime, exportCount) + "ms";
+        }
+
+        private static long average(final AtomicLong time, final AtomicLong count) {
+            long value = count.get();
+            return value == 0 ? 0 : time.get() / value / 1000000;
+        }
+    }
+
+    @PostConstruct
+    public void preload() {
+        if (StringUtils.isBlank(preloadPaths)) {
+            return;
+        }
+        for (String path : StringUtils.split(preloadPaths, ",")) {
+            try {
+                getReport(path.trim());
+            } catch (JRException e) {
+                logger.error("Jasper report can't be preloaded: " + path, e);
+            }
+        }
+    }
+
+    /**
+     * @param templatePath the jrxml, or the pre-compiled .jasper
+     */
+    public JasperReport getReport(final String templatePath) throws JRException {
+        final File sourceFile = getSourceFile(templatePath);
+        CompiledReport compiledReport = compiledReports.get(templatePath);
+        if (compiledReport != null && compiledReport.lastModified == sourceFile.lastModified()) {
+            return compiledReport.jasperReport;
+        }
+        synchronized (getStatistics(templatePath)) {
+            // AN OTHER THREAD MAY HAVE COMPILED IT WHILE WAITING
+            compiledReport = compiledReports.get(templatePath);
+            long lastModified = sourceFile.lastModified();
+            if (compiledReport != null && compiledReport.lastModified == lastModified) {
+                return compiledReport.jasperReport;
+            }
+            compiledReport = new CompiledReport(loadReport(templatePath, sourceFile), lastModified);
+            compiledReports.put(templatePath, compiledReport);
+            return compiledReport.jasperReport;
+        }
+    }
+
+    private JasperReport loadReport(final String templatePath, final File sourceFile) throws JRException {
+        final TemplateStatistics statistics = getStatistics(templatePath);
+        final File jasperFile = getJasperFile(templatePath);
+        if (jasperFile.isFile() && jasperFile.lastModified() >= sourceFile.lastModified()) {
+            statistics.loadCount.incrementAndGet();
+            logger.info("Jasper report loaded: " + jasperFile.getPath());
+            return (JasperReport) JRLoader.loadObject(jasperFile);
+        }
+        long start = System.nanoTime();
+        JasperReport jasperReport = JasperCompileManager.compileReport(templatePath);
+        statistics.compileCount.incrementAndGet();
+        statistics.compileTime.addAndGet(System.nanoTime() - start);
+        logger.info("Jasper report compiled: " + templatePath);
+        return jasperReport;
+    }
+
+    /**
+     * The jrxml when it exists, the .jasper alone otherwise.
+     */
+    private File getSourceFile(final String templatePath) {
+        File sourceFile = new File(templatePath);
+        if (!sourceFile.exists() && templatePath.endsWith(JRXML_EXTENSION)) {
+            return getJasperFile(templatePath);
+        }
+        return sourceFile;
+    }
+
+    private File getJasperFile(final String templatePath) {
+        if (templatePath.endsWith(JRXML_EXTENSION)) {
+            return new File(templatePath.substring(0, templatePath.length() - JRXML_EXTENSION.length()) + JASPER_EXTENSION);
+        }
+        return new File(templatePath);
+    }
+
+    private TemplateStatistics getStatistics(final String templatePath) {
+        TemplateStatistics statistics = templateStatistics.get(templatePath);
+        if (statistics == null) {
+            TemplateStatistics newStatistics = new TemplateStatistics();
+            statistics = templateStatistics.putIfAbsent(templatePath, newStatistics);
+            if (statistics == null) {
+                statistics = newStatistics;
+            }
+        }
+        return statistics;
+    }
+
+    public void recordFill(final String templatePath, final long nanos) {
+        TemplateStatistics statistics = getStatistics(templatePath);
+        statistics.fillCount.incrementAndGet();
+        statistics.fillTime.addAndGet(nanos);
+    }
+
+    public void recordExport(final String templatePath, final long nanos) {
+        TemplateStatistics statistics = getStatistics(templatePath);
+        statistics.exportCount.incrementAndGet();
+        statistics.exportTime.addAndGet(nanos);
+    }
+
+    public long getCompileCount(final String templatePath) {
+        return getStatistics(templatePath).compileCount.get();
+    }
+
+    public long getLoadCount(final String templatePath) {
+        return getStatistics(templatePath).loadCount.get();
+    }
+
+    @ManagedAttribute(description = "Compile, fill and export counts and average times by template")
+    public String[] getTemplateTimings() {
+        List<String> timings = new ArrayList<String>();
+        for (Map.Entry<String, TemplateStatistics> entry : templateStatistics.entrySet()) {
+            timings.add(entry.getKey() + ": " + entry.getValue());
+        }
+        return timings.toArray(new String[timings.size()]);
+    }
+
+    @ManagedAttribute
+    public int getSize() {
+        return compiledReports.size();
+    }
+
+    @ManagedOperation(description = "Removes the compiled reports")
+    public void clear() {
+        compiledReports.clear();
+    }
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.email;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hoteia.qalingo.core.service.EmailService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Converts the email contents serialized by Java to the compact format, batch after batch,
+ * one transaction per batch (EmailService.migrateEmailContents). Run once after the upgrade,
+ * from the JMX console; the rows not converted yet stay readable meanwhile.
+ */
+@Component("emailContentMigration")
+@ManagedResource(objectName = "qalingo:type=Email,name=emailContentMigration", description = "Conversion of the Java serialized email contents")
+public class EmailContentMigration {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    protected EmailService emailService;
+
+    @Value("${email.migration.batch.size:100}")
+    protected int batchSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile Long lastEmailId;
+
+    /**
+     * @return the number of batches read
+     */
+    @ManagedOperation(description = "Converts the Java serialized email contents")
+    public int migrate() throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("The email content migration is already running");
+        }
+        try {
+            int batchCount = 0;
+            lastEmailId = null;
+            Long batchLastEmailId = emailService.migrateEmailContents(null, batchSize);
+            while (batchLastEmailId != null) {
+                batchCount++;
+                lastEmailId = batchLastEmailId;
+                batchLastEmailId = emailService.migrateEmailContents(batchLastEmailId, batchSize);
+            }
+            logger.info("Email content migration done: " + batchCount + " batches, last email " + lastEmailId);
+            return batchCount;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    @ManagedAttribute(description = "True while the migration runs")
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    @ManagedAttribute(description = "Id of the last email read by the migration")
+    public Long getLastEmailId() {
+        return lastEmailId;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+}
@@ -0,0 +1,335 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.email;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.mail.internet.MimeMessage;
+
+import org.hoteia.qalingo.core.service.EmailService;
+import org.hoteia.qalingo.core.util.impl.MimeMessagePreparatorImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sends the pending emails. The notifications (signal) received during the coalesce delay
+ * start one dispatch, which claims the emails by batches (row lock, status SENDING) and sends
+ * each batch over a bounded number of SMTP connections : one connection per sender thread and
+ * per batch, reused for all its messages. The sent emails are then updated with one UPDATE,
+ * the failed ones with one UPDATE per exception.
+ * 
+ * The dispatcher starts with the first signal, then also runs every poll delay for the emails
+ * in error and the lost notifications. An email in error is claimed again after the retry
+ * delay, never twice in the same dispatch, and a dispatch stops after a batch without any
+ * email sent (SMTP server down) : the next poll tries again.
+ */
+@Component("emailDispatcher")
+@ManagedResource(objectName = "qalingo:type=Email,name=emailDispatcher", description = "Email dispatcher : queue depth and send rate")
+public class EmailDispatcher {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    protected EmailService emailService;
+
+    @Autowired
+    protected JavaMailSender mailSender;
+
+    @Value("${email.dispatcher.batch.size:100}")
+    protected int batchSize;
+
+    @Value("${email.dispatcher.threads:4}")
+    protected int threads;
+
+    @Value("${email.dispatcher.coalesce.delay:500}")
+    protected long coalesceDelay;
+
+    @Value("${email.dispatcher.poll.delay:60000}")
+    protected long pollDelay;
+
+    @Value("${email.dispatcher.stale.delay:600000}")
+    protected long staleDelay;
+
+    @Value("${email.dispatcher.retry.delay:300000}")
+    protected long retryDelay;
+
+    private final ScheduledExecutorService dispatchExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "email-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private ExecutorService sendExecutor;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+
+    private final AtomicLong signalCount = new AtomicLong();
+    private final AtomicLong dispatchCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private volatile long queueDepth;
+    private volatile double sendRate;
+
+    /**
+     * A new email is waiting : the notifications are coalesced in one dispatch.
+     */
+    public void signal() {
+        signalCount.incrementAndGet();
+        start();
+        if (dispatchScheduled.compareAndSet(false, true)) {
+            dispatchExecutor.schedule(new Runnable() {
+                public void run() {
+                    dispatch();
+                }
+            }, coalesceDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        sendExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "email-sender-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        dispatchExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                signal();
+            }
+        }, pollDelay, pollDelay, TimeUnit.MILLISECONDS);
+        logger.info("Email dispatcher started: " + threads + " SMTP connections, batches of " + batchSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatchExecutor.shutdownNow();
+        if (sendExecutor != null) {
+            sendExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Sends the pending emails, batch after batch, until the queue is empty.
+     */
+    @ManagedOperation(description = "Sends the pending emails now")
+    public void dispatch() {
+        start();
+        // A SIGNAL RECEIVED FROM NOW STARTS A NEW DISPATCH
+        dispatchScheduled.set(false);
+        dispatchCount.incrementAndGet();
+        try {
+            long start = System.nanoTime();
+            int dispatchSentCount = 0;
+            Set<Long> triedEmailIds = new HashSet<Long>();
+            while (true) {
+                long now = System.currentTimeMillis();
+                Map<Long, MimeMessagePreparatorImpl> mimeMessagePreparators = emailService.claimEmailsForSync(batchSize, new Date(now - staleDelay), new Date(now - retryDelay), triedEmailIds);
+                if (mimeMessagePreparators.isEmpty()) {
+                    break;
+                }
+                batchCount.incrementAndGet();
+                triedEmailIds.addAll(mimeMessagePreparators.keySet());
+                int batchSentCount = send(mimeMessagePreparators);
+                dispatchSentCount += batchSentCount;
+                if (batchSentCount == 0
+                        || mimeMessagePreparators.size() < batchSize) {
+                    break;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            if (dispatchSentCount > 0 && elapsed > 0) {
+                sendRate = dispatchSentCount * 1000000000D / elapsed;
+            }
+            queueDepth = emailService.countEmailsForSync();
+        } catch (Exception e) {
+            logger.error("Email dispatch failed", e);
+        }
+    }
+
+    /**
+     * @return the number of emails sent
+     */
+    protected int send(final Map<Long, MimeMessagePreparatorImpl> mimeMessagePreparators) throws InterruptedException {
+        List<Long> emailIds = new ArrayList<Long>(mimeMessagePreparators.keySet());
+        int chunkSize = (emailIds.size() + threads - 1) / threads;
+        List<Future<Map<Long, Exception>>> futures = new ArrayList<Future<Map<Long, Exception>>>();
+        List<List<Long>> chunksEmailIds = new ArrayList<List<Long>>();
+        for (int i = 0; i < emailIds.size(); i += chunkSize) {
+            final List<Long> chunkEmailIds = emailIds.subList(i, Math.min(i + chunkSize, emailIds.size()));
+            final List<MimeMessagePreparatorImpl> chunk = new ArrayList<MimeMessagePreparatorImpl>(chunkEmailIds.size());
+            for (Long emailId : chunkEmailIds) {
+                chunk.add(mimeMessagePreparators.get(emailId));
+            }
+            futures.add(sendExecutor.submit(new Callable<Map<Long, Exception>>() {
+                public Map<Long, Exception> call() {
+                    return sendChunk(chunkEmailIds, chunk);
+                }
+            }));
+            chunksEmailIds.add(chunkEmailIds);
+        }
+
+        Map<Long, Exception> exceptions = new HashMap<Long, Exception>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                exceptions.putAll(futures.get(i).get());
+            } catch (ExecutionException e) {
+                // THE EMAILS OF THE CHUNK MAY NOT HAVE BEEN SENT : IN ERROR, RETRIED LATER
+                logger.error("Email sender failed", e.getCause());
+                Exception exception = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                for (Long emailId : chunksEmailIds.get(i)) {
+                    exceptions.put(emailId, exception);
+                }
+            }
+        }
+        List<Long> sentEmailIds = new ArrayList<Long>(emailIds);
+        sentEmailIds.removeAll(exceptions.keySet());
+        emailService.markEmailsSended(sentEmailIds);
+        if (!exceptions.isEmpty()) {
+            emailService.markEmailsError(exceptions);
+        }
+        sentCount.addAndGet(sentEmailIds.size());
+        errorCount.addAndGet(exceptions.size());
+        return sentEmailIds.size();
+    }
+
+    /**
+     * Sends the messages over one SMTP connection.
+     * 
+     * @return the exceptions of the messages not sent, by email id
+     */
+    protected Map<Long, Exception> sendChunk(final List<Long> emailIds, final List<MimeMessagePreparatorImpl> chunk) {
+        Map<Long, Exception> exceptions = new HashMap<Long, Exception>();
+        List<Long> preparedEmailIds = new ArrayList<Long>(chunk.size());
+        List<MimeMessage> mimeMessages = new ArrayList<MimeMessage>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            try {
+                MimeMessage mimeMessage = mailSender.createMimeMessage();
+                chunk.get(i).prepare(mimeMessage);
+                preparedEmailIds.add(emailIds.get(i));
+                mimeMessages.add(mimeMessage);
+            } catch (Exception e) {
+                exceptions.put(emailIds.get(i), e);
+            }
+        }
+        if (mimeMessages.isEmpty()) {
+            return exceptions;
+        }
+        try {
+            mailSender.send(mimeMessages.toArray(new MimeMessage[mimeMessages.size()]));
+        } catch (MailSendException e) {
+            // THE FAILED MESSAGES ARE KEYED BY THEIR MIME MESSAGE, NONE WHEN THE CONNECTION FAILED
+            Map<Object, Exception> failedMessages = e.getFailedMessages();
+            for (int i = 0; i < mimeMessages.size(); i++) {
+                Exception exception = failedMessages.get(mimeMessages.get(i));
+                if (exception != null || failedMessages.isEmpty()) {
+                    exceptions.put(preparedEmailIds.get(i), exception != null ? exception : e);
+                }
+            }
+        } catch (MailException e) {
+            for (Long emailId : preparedEmailIds) {
+                exceptions.put(emailId, e);
+            }
+        }
+        return exceptions;
+    }
+
+    @ManagedAttribute(description = "Emails waiting to be sent, at the end of the last dispatch")
+    public long getQueueDepth() {
+        return queueDepth;
+    }
+
+    @ManagedAttribute(description = "Emails sent per second during the last dispatch")
+    public double getSendRate() {
+        return sendRate;
+    }
+
+    @ManagedAttribute
+    public long getSignalCount() {
+        return signalCount.get();
+    }
+
+    @ManagedAttribute
+    public long getDispatchCount() {
+        return dispatchCount.get();
+    }
+
+    @ManagedAttribute
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    @ManagedAttribute
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    @ManagedAttribute
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setCoalesceDelay(long coalesceDelay) {
+        this.coalesceDelay = coalesceDelay;
+    }
+
+    public void setPollDelay(long pollDelay) {
+        this.pollDelay = pollDelay;
+    }
+
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+}
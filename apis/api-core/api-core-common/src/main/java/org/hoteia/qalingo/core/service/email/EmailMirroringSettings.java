@@ -0,0 +1,51 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.email;
+
+/**
+ * File mirroring settings of an email type : the copy of the mail, readable from a web link.
+ */
+public class EmailMirroringSettings {
+
+    private final boolean activated;
+    private final String extension;
+    private final String folderPath;
+    private final String webPath;
+
+    public EmailMirroringSettings(final boolean activated, final String extension, final String folderPath, final String webPath) {
+        this.activated = activated;
+        this.extension = extension;
+        this.folderPath = folderPath != null && !folderPath.endsWith("/") ? folderPath + "/" : folderPath;
+        this.webPath = webPath != null && !webPath.endsWith("/") ? webPath + "/" : webPath;
+    }
+
+    public boolean isActivated() {
+        return activated;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return the folder path, ending with a slash
+     */
+    public String getFolderPath() {
+        return folderPath;
+    }
+
+    /**
+     * @return the web path, ending with a slash
+     */
+    public String getWebPath() {
+        return webPath;
+    }
+
+}
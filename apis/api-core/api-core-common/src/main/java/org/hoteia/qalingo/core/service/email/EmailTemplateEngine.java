@@ -0,0 +1,244 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.email;
+
+import java.io.StringWriter;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.context.Context;
+import org.hoteia.qalingo.core.domain.Email;
+import org.hoteia.qalingo.core.i18n.message.CoreMessageSource;
+import org.hoteia.qalingo.core.service.EmailService;
+import org.hoteia.qalingo.core.service.EngineSettingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rendering of the email templates. The parsed templates are kept by path, the email wording
+ * and the file mirroring settings are loaded once per locale / email type and shared by the
+ * mails as immutable maps, until the cache ttl.
+ *
+ * A mail is rendered with one context for its html and text templates; a campaign renders
+ * all its recipients with one shared context (date, wording) chained to a small context
+ * per recipient.
+ */
+@Component("emailTemplateEngine")
+public class EmailTemplateEngine {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public static final String HTML_CONTENT_SUFFIX = "-html-content.vm";
+    public static final String TEXT_CONTENT_SUFFIX = "-text-content.vm";
+
+    @Autowired
+    protected VelocityEngine velocityEngine;
+
+    @Autowired
+    protected CoreMessageSource coreMessageSource;
+
+    @Autowired
+    protected EngineSettingService engineSettingService;
+
+    @Value("${email.template.cache:true}")
+    protected boolean templateCacheEnabled;
+
+    @Value("${email.wording.cache.ttl:600000}")
+    protected long wordingCacheTtl;
+
+    private final ConcurrentMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
+    private final ConcurrentMap<Locale, CachedValue<Map<String, String>>> wordings = new ConcurrentHashMap<Locale, CachedValue<Map<String, String>>>();
+    private final ConcurrentMap<String, CachedValue<EmailMirroringSettings>> mirroringSettings = new ConcurrentHashMap<String, CachedValue<EmailMirroringSettings>>();
+    private final ConcurrentMap<Locale, CurrentDate> currentDates = new ConcurrentHashMap<Locale, CurrentDate>();
+
+    private final AtomicLong renderCount = new AtomicLong();
+    private final AtomicLong templateLoadCount = new AtomicLong();
+
+    static final class CachedValue<T> {
+        private final T value;
+        private final long loadTime;
+
+        CachedValue(final T value) {
+            this.value = value;
+            this.loadTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Formatted current date of a locale, formatted again when the day changes.
+     */
+    static final class CurrentDate {
+        private final String day;
+        private final String formattedDate;
+
+        CurrentDate(final String day, final String formattedDate) {
+            this.day = day;
+            this.formattedDate = formattedDate;
+        }
+    }
+
+    /**
+     * Puts the current date and the email wording of the locale in the model.
+     */
+    public void initModel(final Map<String, Object> model, final Locale locale) {
+        model.put(EmailService.CURRENT_DATE, getCurrentDate(locale));
+        model.put(EmailService.WORDING, getWording(locale));
+    }
+
+    /**
+     * Renders the html and text templates of a mail, ie velocityPath + templateName + "-html-content.vm"
+     * and velocityPath + templateName + "-text-content.vm", with the same context.
+     */
+    public RenderedEmail render(final String velocityPath, final String templateName, final Map<String, Object> model) {
+        return render(velocityPath, templateName, new VelocityContext(model));
+    }
+
+    /**
+     * Renders the same template for several recipients. The shared model gets the current date
+     * and the wording of the locale; each recipient model only holds what differs per mail.
+     */
+    public List<RenderedEmail> renderAll(final String velocityPath, final String templateName, final Locale locale,
+                                         final Map<String, Object> sharedModel, final List<Map<String, Object>> recipientModels) {
+        Map<String, Object> model = new HashMap<String, Object>(sharedModel);
+        initModel(model, locale);
+        VelocityContext sharedContext = new VelocityContext(model);
+        List<RenderedEmail> renderedEmails = new ArrayList<RenderedEmail>(recipientModels.size());
+        for (Map<String, Object> recipientModel : recipientModels) {
+            // A PUT IN THE RECIPIENT CONTEXT (#set) DOESN'T REACH THE SHARED ONE
+            renderedEmails.add(render(velocityPath, templateName, new VelocityContext(new HashMap<String, Object>(recipientModel), sharedContext)));
+        }
+        return renderedEmails;
+    }
+
+    private RenderedEmail render(final String velocityPath, final String templateName, final Context context) {
+        Template htmlTemplate = getTemplate(velocityPath + templateName + HTML_CONTENT_SUFFIX);
+        Template textTemplate = getTemplate(velocityPath + templateName + TEXT_CONTENT_SUFFIX);
+        StringWriter writer = new StringWriter(4096);
+        htmlTemplate.merge(context, writer);
+        String htmlContent = writer.toString();
+        writer = new StringWriter(1024);
+        textTemplate.merge(context, writer);
+        renderCount.incrementAndGet();
+        return new RenderedEmail(htmlContent, writer.toString());
+    }
+
+    protected Template getTemplate(final String templatePath) {
+        if (!templateCacheEnabled) {
+            return velocityEngine.getTemplate(templatePath);
+        }
+        Template template = templates.get(templatePath);
+        if (template == null) {
+            template = velocityEngine.getTemplate(templatePath);
+            templateLoadCount.incrementAndGet();
+            Template existingTemplate = templates.putIfAbsent(templatePath, template);
+            if (existingTemplate != null) {
+                template = existingTemplate;
+            }
+        }
+        return template;
+    }
+
+    /**
+     * @return the email wording of the locale, not modifiable
+     */
+    public Map<String, String> getWording(final Locale locale) {
+        CachedValue<Map<String, String>> wording = wordings.get(locale);
+        if (wording == null || isExpired(wording)) {
+            Map<String, String> wordingKeyValues = coreMessageSource.loadWording(Email.WORDING_SCOPE_EMAIL, locale);
+            wording = new CachedValue<Map<String, String>>(Collections.unmodifiableMap(new HashMap<String, String>(wordingKeyValues)));
+            wordings.put(locale, wording);
+        }
+        return wording.value;
+    }
+
+    public String getCurrentDate(final Locale locale) {
+        Calendar calendar = Calendar.getInstance();
+        String day = calendar.get(Calendar.YEAR) + "-" + calendar.get(Calendar.DAY_OF_YEAR);
+        CurrentDate currentDate = currentDates.get(locale);
+        if (currentDate == null || !currentDate.day.equals(day)) {
+            // DATEFORMAT IS NOT THREAD SAFE : A NEW ONE, ONCE A DAY
+            DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.FULL, locale);
+            currentDate = new CurrentDate(day, dateFormatter.format(calendar.getTime()));
+            currentDates.put(locale, currentDate);
+        }
+        return currentDate.formattedDate;
+    }
+
+    /**
+     * @return the file mirroring settings of an email type
+     */
+    public EmailMirroringSettings getMirroringSettings(final String emailType) {
+        CachedValue<EmailMirroringSettings> settings = mirroringSettings.get(emailType);
+        if (settings == null || isExpired(settings)) {
+            boolean activated = engineSettingService.getEmailFileMirroringActivated(emailType);
+            EmailMirroringSettings emailMirroringSettings;
+            if (activated) {
+                emailMirroringSettings = new EmailMirroringSettings(true, engineSettingService.getEmailFileMirroringExtension(emailType),
+                        engineSettingService.getEmailFileMirroringFolderPath(emailType), engineSettingService.getEmailFileMirroringWebPath(emailType));
+            } else {
+                emailMirroringSettings = new EmailMirroringSettings(false, null, null, null);
+            }
+            settings = new CachedValue<EmailMirroringSettings>(emailMirroringSettings);
+            mirroringSettings.put(emailType, settings);
+        }
+        return settings.value;
+    }
+
+    private boolean isExpired(final CachedValue<?> cachedValue) {
+        return System.currentTimeMillis() - cachedValue.loadTime > wordingCacheTtl;
+    }
+
+    /**
+     * Forgets the templates, the wording and the settings, after a change of the templates.
+     */
+    public void clearCache() {
+        templates.clear();
+        wordings.clear();
+        mirroringSettings.clear();
+        currentDates.clear();
+        logger.info("Email template cache cleared");
+    }
+
+    public long getRenderCount() {
+        return renderCount.get();
+    }
+
+    public long getTemplateLoadCount() {
+        return templateLoadCount.get();
+    }
+
+    public int getTemplateCacheSize() {
+        return templates.size();
+    }
+
+    public void setTemplateCacheEnabled(boolean templateCacheEnabled) {
+        this.templateCacheEnabled = templateCacheEnabled;
+    }
+
+    public void setWordingCacheTtl(long wordingCacheTtl) {
+        this.wordingCacheTtl = wordingCacheTtl;
+    }
+
+}
@@ -0,0 +1,33 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.email;
+
+/**
+ * Html and text contents of a rendered mail.
+ */
+public class RenderedEmail {
+
+    private final String htmlContent;
+    private final String plainTextContent;
+
+    public RenderedEmail(final String htmlContent, final String plainTextContent) {
+        this.htmlContent = htmlContent;
+        this.plainTextContent = plainTextContent;
+    }
+
+    public String getHtmlContent() {
+        return htmlContent;
+    }
+
+    public String getPlainTextContent() {
+        return plainTextContent;
+    }
+
+}
@@ -0,0 +1,280 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.geoloc;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.maxmind.db.Reader.FileMode;
+import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.AddressNotFoundException;
+import com.maxmind.geoip2.exception.GeoIp2Exception;
+
+/**
+ * One MaxMind database (.mmdb) shared by all the requests. The file is opened once in
+ * memory mapped mode; every checkDelay milliseconds its path (an engine setting) and its
+ * modification time are checked and a new reader replaces the former one when either changed.
+ * A new database must be deployed by moving the file in place, never by rewriting it.
+ *
+ * The results are cached by network prefix (/24 in IPv4, /48 in IPv6 by default): the
+ * addresses of one prefix nearly always share the same country and city, so a repeat visitor,
+ * or an other visitor of the same network, skips the database lookup. The cache is cleared
+ * when a new database is loaded.
+ */
+public abstract class GeoIpDatabase<T> implements GeoIpDatabaseMBean {
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public static final long DEFAULT_CHECK_DELAY = 60000;
+    public static final int DEFAULT_MAX_CACHE_SIZE = 10000;
+
+    private static final Object NOT_FOUND = new Object();
+
+    private static final class LoadedDatabase {
+        private final String path;
+        private final long lastModified;
+        private final DatabaseReader reader;
+
+        private LoadedDatabase(final String path, final long lastModified, final DatabaseReader reader) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.reader = reader;
+        }
+    }
+
+    private long checkDelay = DEFAULT_CHECK_DELAY;
+    private int ipv4PrefixLength = 24;
+    private int ipv6PrefixLength = 48;
+    private final int maxCacheSize;
+
+    private volatile LoadedDatabase loadedDatabase;
+    private volatile long nextCheckTime;
+    private final Object loadLock = new Object();
+
+    private final Map<Object, Object> cache;
+
+    private final AtomicInteger reloadCount = new AtomicInteger();
+    private final AtomicLong cacheHitCount = new AtomicLong();
+    private final AtomicLong lookupCount = new AtomicLong();
+    private final AtomicLong lookupNanos = new AtomicLong();
+    private final AtomicLong maxLookupNanos = new AtomicLong();
+
+    public GeoIpDatabase() {
+        this(DEFAULT_MAX_CACHE_SIZE);
+    }
+
+    public GeoIpDatabase(final int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+        this.cache = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                return size() > GeoIpDatabase.this.maxCacheSize;
+            }
+        };
+    }
+
+    /**
+     * @return the path of the .mmdb file, read again every checkDelay milliseconds
+     */
+    protected abstract String resolveDatabasePath();
+
+    /**
+     * @return the result of the address, null if the database has no such record
+     */
+    protected abstract T lookup(DatabaseReader reader, InetAddress address) throws IOException, GeoIp2Exception;
+
+    /**
+     * @return the result of the address, from the prefix cache or from the database, null when the address is unknown
+     */
+    @SuppressWarnings("unchecked")
+    public T get(final InetAddress address) throws IOException, GeoIp2Exception {
+        DatabaseReader reader = getReader();
+        Object key = buildPrefixKey(address);
+        Object result;
+        synchronized (cache) {
+            result = cache.get(key);
+        }
+        if (result != null) {
+            cacheHitCount.incrementAndGet();
+            return result == NOT_FOUND ? null : (T) result;
+        }
+
+        long start = System.nanoTime();
+        T value;
+        try {
+            value = lookup(reader, address);
+        } catch (AddressNotFoundException e) {
+            value = null;
+        }
+        recordLookup(System.nanoTime() - start);
+
+        synchronized (cache) {
+            cache.put(key, value == null ? NOT_FOUND : value);
+        }
+        return value;
+    }
+
+    /**
+     * @return the current reader, after a reload when the path or the file changed
+     */
+    public DatabaseReader getReader() throws IOException {
+        LoadedDatabase database = loadedDatabase;
+        if (database != null && System.currentTimeMillis() < nextCheckTime) {
+            return database.reader;
+        }
+        synchronized (loadLock) {
+            database = loadedDatabase;
+            if (database != null && System.currentTimeMillis() < nextCheckTime) {
+                return database.reader;
+            }
+            String path = resolveDatabasePath();
+            File file = new File(path);
+            if (!file.exists()) {
+                if (database != null) {
+                    // KEEP THE LOADED DATABASE UNTIL THE NEW PATH EXISTS
+                    logger.error("GeoIP database " + path + " doesn't exist, keep using " + database.path);
+                    nextCheckTime = System.currentTimeMillis() + checkDelay;
+                    return database.reader;
+                }
+                throw new FileNotFoundException(path);
+            }
+            if (database == null
+                    || !path.equals(database.path)
+                    || file.lastModified() != database.lastModified) {
+                long lastModified = file.lastModified();
+                DatabaseReader reader = new DatabaseReader.Builder(file).fileMode(FileMode.MEMORY_MAPPED).build();
+                loadedDatabase = new LoadedDatabase(path, lastModified, reader);
+                clearCache();
+                reloadCount.incrementAndGet();
+                logger.info("GeoIP database loaded: " + path);
+                if (database != null) {
+                    // THE MAPPED BUFFER STAYS VALID FOR THE LOOKUPS IN PROGRESS, ONLY THE FILE IS CLOSED
+                    try {
+                        database.reader.close();
+                    } catch (IOException e) {
+                        logger.warn("Failed to close GeoIP database " + database.path, e);
+                    }
+                }
+            }
+            nextCheckTime = System.currentTimeMillis() + checkDelay;
+            return loadedDatabase.reader;
+        }
+    }
+
+    /**
+     * Checks the path and the file on the next lookup.
+     */
+    public void invalidate() {
+        nextCheckTime = 0;
+    }
+
+    protected Object buildPrefixKey(final InetAddress address) {
+        byte[] bytes = address.getAddress();
+        int prefixLength = bytes.length == 4 ? ipv4PrefixLength : ipv6PrefixLength;
+        int byteCount = (prefixLength + 7) / 8;
+        StringBuilder key = new StringBuilder(byteCount * 4);
+        for (int i = 0; i < byteCount && i < bytes.length; i++) {
+            int value = bytes[i] & 0xFF;
+            if (i == byteCount - 1 && prefixLength % 8 != 0) {
+                value = value & (0xFF << (8 - prefixLength % 8));
+            }
+            key.append(value).append('.');
+        }
+        key.append('/').append(prefixLength);
+        return key.toString();
+    }
+
+    private void recordLookup(final long nanos) {
+        lookupCount.incrementAndGet();
+        lookupNanos.addAndGet(nanos);
+        long max = maxLookupNanos.get();
+        while (nanos > max && !maxLookupNanos.compareAndSet(max, nanos)) {
+            max = maxLookupNanos.get();
+        }
+    }
+
+    public String getDatabasePath() {
+        LoadedDatabase database = loadedDatabase;
+        return database != null ? database.path : null;
+    }
+
+    public long getDatabaseLastModified() {
+        LoadedDatabase database = loadedDatabase;
+        return database != null ? database.lastModified : 0;
+    }
+
+    public int getReloadCount() {
+        return reloadCount.get();
+    }
+
+    public int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    public long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+
+    public long getLookupCount() {
+        return lookupCount.get();
+    }
+
+    public long getAverageLookupNanos() {
+        long count = lookupCount.get();
+        return count == 0 ? 0 : lookupNanos.get() / count;
+    }
+
+    public long getMaxLookupNanos() {
+        return maxLookupNanos.get();
+    }
+
+    public void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public void clearStatistics() {
+        cacheHitCount.set(0);
+        lookupCount.set(0);
+        lookupNanos.set(0);
+        maxLookupNanos.set(0);
+    }
+
+    public void setCheckDelay(long checkDelay) {
+        this.checkDelay = checkDelay;
+    }
+
+    public void setIpv4PrefixLength(int ipv4PrefixLength) {
+        this.ipv4PrefixLength = ipv4PrefixLength;
+    }
+
+    public void setIpv6PrefixLength(int ipv6PrefixLength) {
+        this.ipv6PrefixLength = ipv6PrefixLength;
+    }
+
+}
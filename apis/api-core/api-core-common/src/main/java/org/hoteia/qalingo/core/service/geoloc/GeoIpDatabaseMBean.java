@@ -0,0 +1,42 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.geoloc;
+
+/**
+ * JMX view of a MaxMind database : loaded file, prefix cache and lookup latency.
+ */
+public interface GeoIpDatabaseMBean {
+
+    String getDatabasePath();
+
+    long getDatabaseLastModified();
+
+    int getReloadCount();
+
+    int getCacheSize();
+
+    int getMaxCacheSize();
+
+    long getCacheHitCount();
+
+    long getLookupCount();
+
+    /**
+     * @return the mean time of a lookup in the MaxMind database, cache hits excluded
+     */
+    long getAverageLookupNanos();
+
+    long getMaxLookupNanos();
+
+    void clearCache();
+
+    void clearStatistics();
+
+}
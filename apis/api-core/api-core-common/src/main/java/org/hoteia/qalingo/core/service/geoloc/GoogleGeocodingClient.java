@@ -0,0 +1,289 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.geoloc;
+
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.hoteia.qalingo.core.Constants;
+import org.hoteia.qalingo.core.service.EngineSettingService;
+import org.hoteia.qalingo.core.web.bean.geoloc.json.GoogleGeoCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Client of the Google geocoding API shared by the application :
+ * - one pooled HttpClient, the connections to maps.googleapis.com are kept alive
+ * - a token bucket keeps the calls under the API rate : a call of a request thread doesn't wait
+ *   for a token longer than maxRateLimitWait (none by default), a call of a batch waits up to
+ *   batchRateLimitWait
+ * - the API key and the over quota flag (engine settings) are read once per settingsCheckDelay;
+ *   an OVER_QUERY_LIMIT answer stops the calls for a day, in this JVM and in the others
+ *   through the engine setting
+ * The base url can be changed, to run against a local stub.
+ */
+@Component("googleGeocodingClient")
+public class GoogleGeocodingClient {
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public static final String DEFAULT_BASE_URL = "https://maps.googleapis.com/maps/api/geocode/json";
+
+    public static final String STATUS_OK = "OK";
+    public static final String STATUS_ZERO_RESULTS = "ZERO_RESULTS";
+    public static final String STATUS_OVER_QUERY_LIMIT = "OVER_QUERY_LIMIT";
+
+    @Autowired
+    protected EngineSettingService engineSettingService;
+
+    private String baseUrl = DEFAULT_BASE_URL;
+    private int maxConnections = 10;
+    private int connectionTimeout = 5000;
+    private int socketTimeout = 10000;
+    private double permitsPerSecond = 10;
+    private int burst = 10;
+    private long maxRateLimitWait = 0;
+    private long batchRateLimitWait = 10000;
+    private long settingsCheckDelay = 60000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private HttpClient httpClient;
+    private TokenBucketRateLimiter rateLimiter;
+
+    private volatile String apiKey;
+    private volatile boolean overQuota;
+    private volatile long overQuotaUntil;
+    private volatile long nextSettingsCheckTime;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        HttpParams params = new BasicHttpParams();
+        ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnections));
+        ConnManagerParams.setTimeout(params, connectionTimeout);
+        HttpConnectionParams.setConnectionTimeout(params, connectionTimeout);
+        HttpConnectionParams.setSoTimeout(params, socketTimeout);
+
+        httpClient = new DefaultHttpClient(new ThreadSafeClientConnManager(params, schemeRegistry), params);
+        rateLimiter = new TokenBucketRateLimiter(permitsPerSecond, burst);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (httpClient != null) {
+            httpClient.getConnectionManager().shutdown();
+        }
+    }
+
+    public GoogleGeoCode geocodeAddress(final String formatedAddress) {
+        return geocodeAddress(formatedAddress, maxRateLimitWait);
+    }
+
+    /**
+     * Geocoding of an address for a batch, which waits for the rate limit instead of skipping the address.
+     */
+    public GoogleGeoCode batchGeocodeAddress(final String formatedAddress) {
+        return geocodeAddress(formatedAddress, batchRateLimitWait);
+    }
+
+    public GoogleGeoCode geocodeLatitudeLongitude(final String latitude, final String longitude) {
+        String paramLatLong = latitude.trim() + "," + longitude.trim();
+        return geocode("latlng=" + encode(paramLatLong), paramLatLong, maxRateLimitWait);
+    }
+
+    protected GoogleGeoCode geocodeAddress(final String formatedAddress, final long rateLimitWait) {
+        // THE SPACES OF THE FORMATED ADDRESS ARE ALREADY '+'
+        return geocode("address=" + encode(formatedAddress.replace('+', ' ')), formatedAddress, rateLimitWait);
+    }
+
+    /**
+     * @return the answer of the API, or null when the API is over quota, has no key, is too
+     * busy for the rate limit within rateLimitWait milliseconds, or fails
+     */
+    protected GoogleGeoCode geocode(final String query, final String label, final long rateLimitWait) {
+        if (isOverQuota()) {
+            logger.warn("Google Geolocation API still over Quota! We can't use geolocation for: " + label);
+            rejectedCount.incrementAndGet();
+            return null;
+        }
+        String key = apiKey;
+        if (StringUtils.isEmpty(key)) {
+            logger.error("Google Geolocation API Key is mandatory!");
+            rejectedCount.incrementAndGet();
+            return null;
+        }
+        try {
+            if (!rateLimiter.tryAcquire(rateLimitWait)) {
+                logger.warn("Google Geolocation API rate limit reached, skip geolocation for: " + label);
+                rejectedCount.incrementAndGet();
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        requestCount.incrementAndGet();
+        HttpGet httpGet = new HttpGet(baseUrl + "?" + query + "&key=" + encode(key));
+        HttpEntity entity = null;
+        try {
+            HttpResponse httpResponse = httpClient.execute(httpGet);
+            entity = httpResponse.getEntity();
+            if (entity == null) {
+                errorCount.incrementAndGet();
+                return null;
+            }
+            InputStream content = entity.getContent();
+            GoogleGeoCode geoCode = objectMapper.readValue(content, GoogleGeoCode.class);
+            if (STATUS_OVER_QUERY_LIMIT.equals(geoCode.getStatus())) {
+                logger.error("API Geoloc returns message OVER_QUERY_LIMIT: " + geoCode.getErrorMessage());
+                flagOverQuota();
+            }
+            return geoCode;
+
+        } catch (Exception e) {
+            errorCount.incrementAndGet();
+            httpGet.abort();
+            logger.error("Google Geolocation API call failed for: " + label, e);
+            return null;
+
+        } finally {
+            if (entity != null) {
+                try {
+                    // RELEASES THE CONNECTION TO THE POOL
+                    entity.consumeContent();
+                } catch (Exception e) {
+                    logger.debug("Failed to release the connection", e);
+                }
+            }
+        }
+    }
+
+    public boolean isOverQuota() {
+        long now = System.currentTimeMillis();
+        if (now >= nextSettingsCheckTime) {
+            refreshSettings(now);
+        }
+        return overQuota || now < overQuotaUntil;
+    }
+
+    protected synchronized void refreshSettings(final long now) {
+        if (now < nextSettingsCheckTime) {
+            return;
+        }
+        try {
+            apiKey = engineSettingService.getGoogleGeolocationApiKey();
+            overQuota = engineSettingService.isGoogleGeolocationApiStillOverQuotas(new Date(now));
+        } catch (Exception e) {
+            logger.error("Failed to read the Google Geolocation API settings", e);
+        }
+        nextSettingsCheckTime = now + settingsCheckDelay;
+    }
+
+    protected void flagOverQuota() {
+        overQuotaUntil = System.currentTimeMillis() + Constants.MILLISECONDS_IN_A_DAY.longValue();
+        try {
+            engineSettingService.flagSettingGoogleGeolocationApiOverQuota();
+        } catch (Exception e) {
+            logger.error("Failed to flag the Google Geolocation API over quota", e);
+        }
+    }
+
+    private static String encode(final String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public void setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public void setConnectionTimeout(int connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    public void setPermitsPerSecond(double permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+    }
+
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    public void setMaxRateLimitWait(long maxRateLimitWait) {
+        this.maxRateLimitWait = maxRateLimitWait;
+    }
+
+    public void setBatchRateLimitWait(long batchRateLimitWait) {
+        this.batchRateLimitWait = batchRateLimitWait;
+    }
+
+    public void setSettingsCheckDelay(long settingsCheckDelay) {
+        this.settingsCheckDelay = settingsCheckDelay;
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.geoloc;
+
+import java.util.BitSet;
+
+/**
+ * Bloom filter of strings : mightContain() never answers false for an added string, and
+ * answers true for an absent one with the false positive rate the filter was sized for.
+ * Used to skip the database lookup of keys which were never stored.
+ */
+public class StringBloomFilter {
+
+    private final BitSet bits;
+    private final int bitCount;
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions number of strings the filter is sized for
+     * @param falsePositiveRate wanted rate of false positives at expectedInsertions
+     */
+    public StringBloomFilter(final int expectedInsertions, final double falsePositiveRate) {
+        int insertions = Math.max(expectedInsertions, 1);
+        this.bitCount = (int) Math.max(64, Math.ceil(-insertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+        this.hashCount = (int) Math.max(1, Math.round((double) bitCount / insertions * Math.log(2)));
+        this.bits = new BitSet(bitCount);
+    }
+
+    public synchronized void add(final String value) {
+        int hash1 = value.hashCode();
+        int hash2 = secondHash(value);
+        for (int i = 0; i < hashCount; i++) {
+            bits.set(index(hash1 + i * hash2));
+        }
+    }
+
+    public synchronized boolean mightContain(final String value) {
+        int hash1 = value.hashCode();
+        int hash2 = secondHash(value);
+        for (int i = 0; i < hashCount; i++) {
+            if (!bits.get(index(hash1 + i * hash2))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    private int index(final int hash) {
+        return (hash & Integer.MAX_VALUE) % bitCount;
+    }
+
+    /**
+     * FNV-1a, independent from String.hashCode().
+     */
+    private static int secondHash(final String value) {
+        int hash = 0x811C9DC5;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash | 1;
+    }
+
+}
@@ -0,0 +1,71 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.geoloc;
+
+/**
+ * Token bucket : permitsPerSecond tokens are added every second up to burst tokens, a call
+ * takes one token or waits for the next one. Shared by all the threads calling a quota
+ * limited API, so the API sees at most permitsPerSecond calls per second after a burst.
+ */
+public class TokenBucketRateLimiter {
+
+    private final double permitsPerNano;
+    private final double burst;
+
+    private double availablePermits;
+    private long lastRefillTime;
+
+    public TokenBucketRateLimiter(final double permitsPerSecond, final int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("permitsPerSecond and burst must be positive");
+        }
+        this.permitsPerNano = permitsPerSecond / 1000000000D;
+        this.burst = burst;
+        this.availablePermits = burst;
+        this.lastRefillTime = System.nanoTime();
+    }
+
+    /**
+     * Takes a token, waiting at most timeoutMillis for it.
+     *
+     * @return false when no token was available in time
+     */
+    public boolean tryAcquire(final long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        synchronized (this) {
+            while (true) {
+                refill();
+                if (availablePermits >= 1) {
+                    availablePermits -= 1;
+                    return true;
+                }
+                long waitNanos = (long) Math.ceil((1 - availablePermits) / permitsPerNano);
+                long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos < waitNanos) {
+                    return false;
+                }
+                long waitMillis = waitNanos / 1000000L;
+                wait(waitMillis, (int) (waitNanos % 1000000L));
+            }
+        }
+    }
+
+    public synchronized double getAvailablePermits() {
+        refill();
+        return availablePermits;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        availablePermits = Math.min(burst, availablePermits + (now - lastRefillTime) * permitsPerNano);
+        lastRefillTime = now;
+    }
+
+}
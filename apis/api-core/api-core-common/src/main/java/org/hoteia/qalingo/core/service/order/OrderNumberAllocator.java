@@ -0,0 +1,180 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.order;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hoteia.qalingo.core.service.OrderNumberService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hi/lo allocation of the order numbers : each node reserves a block of numbers with one
+ * UPDATE of the OrderNumber row, then hands them out from memory with an atomic counter.
+ *
+ * The numbers are unique across the nodes and increasing on a node, but not gapless : the
+ * numbers left in a block are lost when the node stops, and two nodes interleave their blocks.
+ * With order.number.per.market.area, each market area which has its own OrderNumber row gets
+ * its own sequence; the others use the shared row (MARKET_AREA_ID null). The numbers of a
+ * market area sequence are prefixed by the market area id ("2-5001") : the sequences start
+ * wherever their row says and overlap, while ORDER_NUM is unique.
+ */
+@Component("orderNumberAllocator")
+public class OrderNumberAllocator {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final Long SHARED_SEQUENCE_KEY = new Long(-1);
+
+    static final String MARKET_AREA_SEPARATOR = "-";
+
+    @Autowired
+    protected OrderNumberService orderNumberService;
+
+    @Value("${order.number.block.size:50}")
+    protected int blockSize;
+
+    @Value("${order.number.per.market.area:false}")
+    protected boolean perMarketArea;
+
+    private final ConcurrentMap<Long, Sequence> sequences = new ConcurrentHashMap<Long, Sequence>();
+
+    private final AtomicLong allocatedCount = new AtomicLong();
+    private final AtomicLong reservedBlockCount = new AtomicLong();
+
+    /**
+     * Numbers of a reserved block : next is the next number to hand out, last the last one.
+     */
+    static final class Block {
+        private final AtomicInteger next;
+        private final int last;
+
+        Block(final int first, final int last) {
+            this.next = new AtomicInteger(first);
+            this.last = last;
+        }
+
+        /**
+         * @return the next number, or -1 when the block is exhausted
+         */
+        int take() {
+            int number = next.getAndIncrement();
+            return number <= last ? number : -1;
+        }
+    }
+
+    /**
+     * Sequence of one OrderNumber row on this node.
+     */
+    final class Sequence {
+        private final Long marketAreaId;
+        private volatile Block block = new Block(0, -1);
+
+        Sequence(final Long marketAreaId) {
+            this.marketAreaId = marketAreaId;
+        }
+
+        boolean isShared() {
+            return marketAreaId == null;
+        }
+
+        /**
+         * @return the next number, or null when the OrderNumber row doesn't exist
+         */
+        Integer next() {
+            int number = block.take();
+            while (number < 0) {
+                synchronized (this) {
+                    number = block.take();
+                    if (number >= 0) {
+                        break;
+                    }
+                    // THE FIRST THREAD RESERVES THE NEXT BLOCK, THE OTHERS WAIT AND TAKE FROM IT
+                    Integer last = orderNumberService.reserveOrderNumbers(marketAreaId, blockSize);
+                    if (last == null) {
+                        return null;
+                    }
+                    reservedBlockCount.incrementAndGet();
+                    block = new Block(last.intValue() - blockSize + 1, last.intValue());
+                }
+                number = block.take();
+            }
+            return number;
+        }
+    }
+
+    /**
+     * @param marketAreaId the market area of the order, used with order.number.per.market.area
+     */
+    public String nextOrderNumber(final Long marketAreaId) {
+        Integer number = null;
+        String prefix = "";
+        if (perMarketArea && marketAreaId != null) {
+            Sequence sequence = getSequence(marketAreaId);
+            number = sequence.next();
+            if (number != null && !sequence.isShared()) {
+                prefix = marketAreaId + MARKET_AREA_SEPARATOR;
+            } else if (number == null) {
+                // NO SEQUENCE FOR THIS MARKET AREA : THE SHARED ONE IS USED FROM NOW
+                if (sequences.remove(marketAreaId) != null) {
+                    logger.warn("No OrderNumber row for the market area " + marketAreaId + ", the shared order number sequence is used");
+                }
+                sequences.putIfAbsent(marketAreaId, getSequence(SHARED_SEQUENCE_KEY));
+            }
+        }
+        if (number == null) {
+            number = getSequence(SHARED_SEQUENCE_KEY).next();
+        }
+        if (number == null) {
+            throw new IllegalStateException("No OrderNumber row for the shared order number sequence");
+        }
+        allocatedCount.incrementAndGet();
+        return prefix + number;
+    }
+
+    public String nextOrderNumber() {
+        return nextOrderNumber(null);
+    }
+
+    private Sequence getSequence(final Long key) {
+        Sequence sequence = sequences.get(key);
+        if (sequence == null) {
+            Sequence newSequence = new Sequence(SHARED_SEQUENCE_KEY.equals(key) ? null : key);
+            sequence = sequences.putIfAbsent(key, newSequence);
+            if (sequence == null) {
+                sequence = newSequence;
+            }
+        }
+        return sequence;
+    }
+
+    public long getAllocatedCount() {
+        return allocatedCount.get();
+    }
+
+    public long getReservedBlockCount() {
+        return reservedBlockCount.get();
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public void setPerMarketArea(boolean perMarketArea) {
+        this.perMarketArea = perMarketArea;
+    }
+
+}
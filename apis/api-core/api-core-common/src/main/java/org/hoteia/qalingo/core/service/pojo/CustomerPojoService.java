@@ -9,10 +9,12 @@
  */
 package org.hoteia.qalingo.core.service.pojo;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
 import org.dozer.Mapper;
+import org.hoteia.qalingo.core.dao.KeysetPage;
 import org.hoteia.qalingo.core.domain.Customer;
 import org.hoteia.qalingo.core.domain.CustomerMarketArea;
 import org.hoteia.qalingo.core.domain.CustomerWishlist;
@@ -34,6 +36,8 @@ public class CustomerPojoService {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    private static final int EXPORT_PAGE_SIZE = 100;
+
     @Autowired
     private Mapper dozerBeanMapper;
     
@@ -44,9 +48,20 @@ public class CustomerPojoService {
     private CustomerService customerService;
 
     public List<CustomerPojo> getAllCustomers() {
-        List<Customer> customers = customerService.findCustomers();
-        logger.debug("Found {} customers", customers.size());
-        return PojoUtil.mapAll(dozerBeanMapper, customers, CustomerPojo.class);
+        // READ BY PAGES : THE JOINS OF THE FETCH PLAN ONLY DUPLICATE THE ROWS OF A PAGE
+        List<CustomerPojo> customerPojos = new ArrayList<CustomerPojo>();
+        KeysetPage<CustomerPojo> customerPage = null;
+        do {
+            customerPage = getCustomerPage(customerPage != null ? customerPage.getLastId() : null, EXPORT_PAGE_SIZE);
+            customerPojos.addAll(customerPage.getItems());
+        } while (!customerPage.isLast());
+        logger.debug("Found {} customers", customerPojos.size());
+        return customerPojos;
+    }
+
+    public KeysetPage<CustomerPojo> getCustomerPage(final Long afterId, final int pageSize) {
+        KeysetPage<Customer> customerPage = customerService.findCustomerPage(afterId, pageSize);
+        return customerPage.withItems(PojoUtil.mapAll(dozerBeanMapper, customerPage.getItems(), CustomerPojo.class));
     }
 
     public CustomerPojo getCustomerById(final String id) {
@@ -0,0 +1,64 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.session;
+
+import java.io.Serializable;
+
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+
+import org.hoteia.qalingo.core.domain.AbstractEngineSession;
+import org.hoteia.qalingo.core.domain.EngineBoSession;
+import org.hoteia.qalingo.core.domain.EngineEcoSession;
+
+/**
+ * Http session attribute which writes the pending snapshot of its engine session when the
+ * http session ends (invalidation or timeout), without a listener declared in the web.xml.
+ * The references are transient : a replicated http session relies on the write-behind delay.
+ */
+public class EngineSessionFlushBinding implements HttpSessionBindingListener, Serializable {
+
+    /**
+     * Generated UID
+     */
+    private static final long serialVersionUID = -2406829171046617442L;
+
+    public static final String ECO_ATTRIBUTE_NAME = "ENGINE_ECO_SESSION_FLUSH_BINDING";
+    public static final String BO_ATTRIBUTE_NAME = "ENGINE_BO_SESSION_FLUSH_BINDING";
+
+    private final transient EngineSessionWriteBehindStore engineSessionWriteBehindStore;
+    private final transient AbstractEngineSession engineSession;
+
+    public EngineSessionFlushBinding(final EngineSessionWriteBehindStore engineSessionWriteBehindStore, final AbstractEngineSession engineSession) {
+        this.engineSessionWriteBehindStore = engineSessionWriteBehindStore;
+        this.engineSession = engineSession;
+    }
+
+    public boolean isBoundTo(final AbstractEngineSession engineSession) {
+        return this.engineSession == engineSession;
+    }
+
+    public void valueBound(HttpSessionBindingEvent event) {
+    }
+
+    public void valueUnbound(HttpSessionBindingEvent event) {
+        if (engineSessionWriteBehindStore == null) {
+            return;
+        }
+        if (engineSession instanceof EngineEcoSession) {
+            engineSessionWriteBehindStore.write((EngineEcoSession) engineSession);
+            engineSessionWriteBehindStore.flush((EngineEcoSession) engineSession);
+        } else if (engineSession instanceof EngineBoSession) {
+            engineSessionWriteBehindStore.write((EngineBoSession) engineSession);
+            engineSessionWriteBehindStore.flush((EngineBoSession) engineSession);
+        }
+    }
+
+}
@@ -0,0 +1,240 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.session;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.hoteia.qalingo.core.domain.AbstractEngineSession;
+import org.hoteia.qalingo.core.domain.EngineBoSession;
+import org.hoteia.qalingo.core.domain.EngineEcoSession;
+import org.hoteia.qalingo.core.service.EngineSessionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Write-behind of the engine sessions kept in the http sessions. A session whose persistent
+ * columns did not change since the last write costs nothing. Otherwise a snapshot of the
+ * columns is queued, the snapshots of a session are coalesced and written after the
+ * write-behind delay, or when the http session ends : one UPDATE and one transaction per
+ * session.
+ *
+ * The carts are not written here : their items need the ids generated by a merge, see
+ * EngineSessionService.updateAndSynchronizeEngineEcoSession. This merge writes the columns
+ * too, and discards the pending snapshot of the session, older than the merged values.
+ */
+@Component("engineSessionWriteBehindStore")
+public class EngineSessionWriteBehindStore {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    protected EngineSessionService engineSessionService;
+
+    @Value("${engine.session.write.behind.delay:5000}")
+    protected long writeBehindDelay;
+
+    private final Map<String, EngineSessionState> pendingStates = new LinkedHashMap<String, EngineSessionState>();
+
+    private boolean flushScheduled;
+
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "engine-session-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+
+    /**
+     * Immutable copy of the columns of a session row, taken in the request thread.
+     */
+    static final class EngineSessionState {
+        private final boolean eco;
+        private final Long id;
+        private final String jSessionId;
+        private final Long customerId;
+        private final Date dateUpdate;
+
+        EngineSessionState(final boolean eco, final Long id, final String jSessionId, final Long customerId) {
+            this.eco = eco;
+            this.id = id;
+            this.jSessionId = jSessionId;
+            this.customerId = customerId;
+            this.dateUpdate = new Date();
+        }
+
+        String getKey() {
+            return (eco ? "ECO_" : "BO_") + id;
+        }
+    }
+
+    public void write(final EngineEcoSession engineEcoSession) {
+        if (!isWritable(engineEcoSession)) {
+            return;
+        }
+        Long customerId = engineEcoSession.getCurrentCustomer() != null ? engineEcoSession.getCurrentCustomer().getId() : null;
+        engineEcoSession.clearDirty(AbstractEngineSession.DIRTY_STATE);
+        queue(new EngineSessionState(true, engineEcoSession.getId(), engineEcoSession.getjSessionId(), customerId));
+    }
+
+    public void write(final EngineBoSession engineBoSession) {
+        if (!isWritable(engineBoSession)) {
+            return;
+        }
+        engineBoSession.clearDirty(AbstractEngineSession.DIRTY_STATE);
+        queue(new EngineSessionState(false, engineBoSession.getId(), engineBoSession.getjSessionId(), null));
+    }
+
+    /**
+     * Writes now the pending snapshot of this session, at the end of the http session.
+     */
+    public void flush(final EngineEcoSession engineEcoSession) {
+        flush("ECO_" + engineEcoSession.getId());
+    }
+
+    public void flush(final EngineBoSession engineBoSession) {
+        flush("BO_" + engineBoSession.getId());
+    }
+
+    /**
+     * Drops the pending snapshot of this session, replaced by a synchronous merge.
+     */
+    public void discard(final EngineEcoSession engineEcoSession) {
+        discard("ECO_" + engineEcoSession.getId());
+    }
+
+    public void discard(final EngineBoSession engineBoSession) {
+        discard("BO_" + engineBoSession.getId());
+    }
+
+    private void discard(final String key) {
+        synchronized (pendingStates) {
+            pendingStates.remove(key);
+        }
+    }
+
+    private void flush(final String key) {
+        EngineSessionState state;
+        synchronized (pendingStates) {
+            state = pendingStates.remove(key);
+        }
+        if (state != null) {
+            writeState(state);
+        }
+    }
+
+    /**
+     * Writes the pending snapshots now.
+     */
+    public void flush() {
+        final List<EngineSessionState> states;
+        synchronized (pendingStates) {
+            flushScheduled = false;
+            if (pendingStates.isEmpty()) {
+                return;
+            }
+            states = new ArrayList<EngineSessionState>(pendingStates.values());
+            pendingStates.clear();
+        }
+        for (EngineSessionState state : states) {
+            writeState(state);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushExecutor.shutdown();
+        flush();
+    }
+
+    /**
+     * A session not yet stored gets its row (and its id) from the synchronous save of RequestUtil.
+     */
+    private boolean isWritable(final AbstractEngineSession engineSession) {
+        if (engineSession == null
+                || !engineSession.isDirty(AbstractEngineSession.DIRTY_STATE)) {
+            skippedCount.incrementAndGet();
+            return false;
+        }
+        return engineSession instanceof EngineEcoSession ? ((EngineEcoSession) engineSession).getId() != null
+                                                         : ((EngineBoSession) engineSession).getId() != null;
+    }
+
+    private void queue(final EngineSessionState state) {
+        queuedCount.incrementAndGet();
+        synchronized (pendingStates) {
+            // THE LAST SNAPSHOT OF A SESSION REPLACES THE PENDING ONE
+            pendingStates.put(state.getKey(), state);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        flushExecutor.schedule(new Runnable() {
+            public void run() {
+                flush();
+            }
+        }, writeBehindDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private void writeState(final EngineSessionState state) {
+        try {
+            if (state.eco) {
+                engineSessionService.updateEngineEcoSessionState(state.id, state.jSessionId, state.customerId, state.dateUpdate);
+            } else {
+                engineSessionService.updateEngineBoSessionState(state.id, state.jSessionId, state.dateUpdate);
+            }
+            writeCount.incrementAndGet();
+        } catch (Exception e) {
+            logger.error("Engine session write-behind failed for " + state.getKey(), e);
+        }
+    }
+
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    public int getPendingCount() {
+        synchronized (pendingStates) {
+            return pendingStates.size();
+        }
+    }
+
+    public void setWriteBehindDelay(long writeBehindDelay) {
+        this.writeBehindDelay = writeBehindDelay;
+    }
+
+}
@@ -32,8 +32,8 @@ public class CoreUtil {
     public static String replaceSpaceAndUnderscore(String string) {
         String stringToReturn = string;
         if (StringUtils.isNotEmpty(stringToReturn)) {
-            stringToReturn = stringToReturn.replaceAll(" ", "-");
-            stringToReturn = stringToReturn.replaceAll("_", "-");
+            stringToReturn = stringToReturn.replace(' ', '-');
+            stringToReturn = stringToReturn.replace('_', '-');
 
             stringToReturn = cleanDash(stringToReturn);
 
@@ -55,7 +55,7 @@ public class CoreUtil {
     
     public static String cleanDash(String stringToReturn) {
         // SPECIFIC DASH
-        stringToReturn = stringToReturn.replaceAll("–", "-");
+        stringToReturn = stringToReturn.replace("–", "-");
 
         while (stringToReturn.contains("--")) {
             stringToReturn = stringToReturn.replaceAll("--", "-");
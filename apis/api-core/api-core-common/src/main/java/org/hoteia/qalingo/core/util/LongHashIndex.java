@@ -0,0 +1,114 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.util;
+
+/**
+ * Hash table of values by primitive long key (open addressing, linear probing) : no boxing
+ * and no entry object, a lookup reads two arrays. Filled once, then read only : the index
+ * must be published to the other threads through a volatile or final field.
+ */
+public final class LongHashIndex<V> {
+
+    /**
+     * Key of the values which can not be indexed.
+     */
+    public static final long NO_KEY = -1L;
+
+    private static final long MAX_PACKED_ID = 0xFFFFFFFFL;
+
+    private final long[] keys;
+    private final Object[] values;
+    private final int mask;
+    private int size;
+
+    public LongHashIndex(final int expectedSize) {
+        int capacity = 4;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Two ids in one key : NO_KEY when an id is null, negative or beyond 32 bits.
+     */
+    public static long pack(final Long highId, final Long lowId) {
+        if (highId == null
+                || lowId == null
+                || highId.longValue() < 0 || highId.longValue() > MAX_PACKED_ID
+                || lowId.longValue() < 0 || lowId.longValue() > MAX_PACKED_ID) {
+            return NO_KEY;
+        }
+        return (highId.longValue() << 32) | lowId.longValue();
+    }
+
+    /**
+     * One id as a key : NO_KEY when the id is null or negative.
+     */
+    public static long key(final Long id) {
+        if (id == null
+                || id.longValue() < 0) {
+            return NO_KEY;
+        }
+        return id.longValue();
+    }
+
+    /**
+     * @return false when the key is already indexed : the first value is kept
+     */
+    public boolean put(final long key, final V value) {
+        if (key == NO_KEY
+                || value == null) {
+            throw new IllegalArgumentException("Key and value are mandatory");
+        }
+        if (size * 2 >= keys.length) {
+            throw new IllegalStateException("Index full: " + size + " values");
+        }
+        int slot = slot(key);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(final long key) {
+        if (key == NO_KEY) {
+            return null;
+        }
+        int slot = slot(key);
+        Object value;
+        while ((value = values[slot]) != null) {
+            if (keys[slot] == key) {
+                return (V) value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int slot(final long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+}
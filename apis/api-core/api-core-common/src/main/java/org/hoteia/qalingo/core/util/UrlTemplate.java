@@ -0,0 +1,101 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Url pattern split once into literal segments and parameters : "{name}" or "{name:regex}",
+ * and "**" for the "slug" parameter. A parameter without value is rendered as written in the
+ * pattern. Immutable, the rendering appends to a StringBuilder without regex.
+ */
+public final class UrlTemplate {
+
+    public static final String SLUG_PARAMETER = "slug";
+
+    private static final String SLUG_WILDCARD = "**";
+
+    private final String pattern;
+    private final String[] segments;
+    private final String[] parameterNames;
+
+    private UrlTemplate(final String pattern, final List<String> segments, final List<String> parameterNames) {
+        this.pattern = pattern;
+        this.segments = segments.toArray(new String[segments.size()]);
+        this.parameterNames = parameterNames.toArray(new String[parameterNames.size()]);
+    }
+
+    /**
+     * The segments alternate : literal, parameter, literal... A parameter segment holds the
+     * text of the pattern, written when the parameter has no value.
+     */
+    public static UrlTemplate compile(final String pattern) {
+        final List<String> segments = new ArrayList<String>();
+        final List<String> parameterNames = new ArrayList<String>();
+        int literalStart = 0;
+        int i = 0;
+        while (i < pattern.length()) {
+            int parameterEnd = -1;
+            String parameterName = null;
+            if (pattern.charAt(i) == '{') {
+                int end = pattern.indexOf('}', i + 1);
+                int nested = pattern.indexOf('{', i + 1);
+                if (end > i + 1
+                        && (nested < 0 || nested > end)) {
+                    int colon = pattern.indexOf(':', i + 1);
+                    // "{name:}" IS NOT A PARAMETER
+                    if (colon < 0 || colon > end) {
+                        parameterName = pattern.substring(i + 1, end);
+                        parameterEnd = end + 1;
+                    } else if (colon > i + 1 && colon < end - 1) {
+                        parameterName = pattern.substring(i + 1, colon);
+                        parameterEnd = end + 1;
+                    }
+                }
+            } else if (pattern.startsWith(SLUG_WILDCARD, i)) {
+                parameterName = SLUG_PARAMETER;
+                parameterEnd = i + SLUG_WILDCARD.length();
+            }
+            if (parameterName == null) {
+                i++;
+                continue;
+            }
+            segments.add(pattern.substring(literalStart, i));
+            segments.add(pattern.substring(i, parameterEnd));
+            parameterNames.add(parameterName);
+            literalStart = parameterEnd;
+            i = parameterEnd;
+        }
+        segments.add(pattern.substring(literalStart));
+        return new UrlTemplate(pattern, segments, parameterNames);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public void appendTo(final StringBuilder url, final Map<String, String> parameters) {
+        url.append(segments[0]);
+        for (int i = 0; i < parameterNames.length; i++) {
+            String value = parameters != null ? parameters.get(parameterNames[i]) : null;
+            url.append(value != null ? value : segments[2 * i + 1]);
+            url.append(segments[2 * i + 2]);
+        }
+    }
+
+    public String render(final Map<String, String> parameters) {
+        StringBuilder url = new StringBuilder(pattern.length() + 32);
+        appendTo(url, parameters);
+        return url.toString();
+    }
+
+}
@@ -0,0 +1,418 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.web.mvc.factory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.Hibernate;
+import org.hibernate.proxy.HibernateProxy;
+import org.hoteia.qalingo.core.domain.AbstractCatalogCategory;
+import org.hoteia.qalingo.core.domain.CatalogCategoryVirtual;
+import org.hoteia.qalingo.core.domain.ProductAssociationLink;
+import org.hoteia.qalingo.core.domain.ProductMarketing;
+import org.hoteia.qalingo.core.domain.ProductSku;
+import org.hoteia.qalingo.core.fetchplan.FetchPlan;
+import org.hoteia.qalingo.core.service.CatalogCategoryService;
+import org.hoteia.qalingo.core.service.ProductService;
+import org.hoteia.qalingo.core.service.catalog.CatalogCategoryTree;
+import org.hoteia.qalingo.core.service.catalog.CatalogCategoryTreeSnapshot;
+
+/**
+ * Identity map of the entities of one category render. The sub categories, the product skus
+ * and the product marketings of a category tree are collected first, then loaded with one IN
+ * query per type and per level : the view beans are then built without query. An entity not
+ * preloaded is loaded alone, as before.
+ * 
+ * With the category trees, the sub categories and the product skus of a virtual category, and
+ * their counts, are read in its tree, already sorted, instead of its lazy collections.
+ * 
+ * One instance per render, not thread safe.
+ */
+public class CatalogViewBeanLoader {
+
+    private static final int MAX_IDS_BY_QUERY = 500;
+
+    private final ProductService productService;
+    private final CatalogCategoryService catalogCategoryService;
+    private final CatalogCategoryTreeSnapshot catalogCategoryTreeSnapshot;
+    private final int maxDepth;
+    private final int maxProductSkus;
+
+    private final Map<Long, CatalogCategoryVirtual> virtualCategories = new HashMap<Long, CatalogCategoryVirtual>();
+    private final Map<Long, ProductSku> productSkus = new HashMap<Long, ProductSku>();
+    private final Map<Long, ProductMarketing> productMarketings = new HashMap<Long, ProductMarketing>();
+
+    private int queryCount;
+
+    /**
+     * @param maxDepth levels of sub categories built under a category
+     * @param maxProductSkus product skus built by category
+     */
+    public CatalogViewBeanLoader(final ProductService productService, final CatalogCategoryService catalogCategoryService, final int maxDepth,
+            final int maxProductSkus) {
+        this(productService, catalogCategoryService, null, maxDepth, maxProductSkus);
+    }
+
+    /**
+     * @param catalogCategoryTreeSnapshot the category trees, null to read the lazy collections
+     */
+    public CatalogViewBeanLoader(final ProductService productService, final CatalogCategoryService catalogCategoryService,
+            final CatalogCategoryTreeSnapshot catalogCategoryTreeSnapshot, final int maxDepth, final int maxProductSkus) {
+        this.productService = productService;
+        this.catalogCategoryService = catalogCategoryService;
+        this.catalogCategoryTreeSnapshot = catalogCategoryTreeSnapshot;
+        this.maxDepth = maxDepth;
+        this.maxProductSkus = maxProductSkus;
+    }
+
+    /**
+     * Loads the sub categories of the tree level by level, up to the max depth, then their
+     * product skus, their product marketings, the other skus and the cross selling marketings.
+     */
+    public void preload(final AbstractCatalogCategory catalogCategory) {
+        if (catalogCategory == null) {
+            return;
+        }
+        final FetchPlan fetchPlan = catalogCategory.getFetchPlan();
+        final List<AbstractCatalogCategory> categories = new ArrayList<AbstractCatalogCategory>();
+        categories.add(catalogCategory);
+
+        List<AbstractCatalogCategory> level = new ArrayList<AbstractCatalogCategory>();
+        level.add(catalogCategory);
+        for (int depth = 0; depth < maxDepth && !level.isEmpty(); depth++) {
+            Set<Long> subCategoryIds = new LinkedHashSet<Long>();
+            for (AbstractCatalogCategory category : level) {
+                subCategoryIds.addAll(getSubCategoryIds(category));
+            }
+            loadVirtualCategories(subCategoryIds, fetchPlan);
+            level = new ArrayList<AbstractCatalogCategory>();
+            for (Long subCategoryId : subCategoryIds) {
+                CatalogCategoryVirtual subCategory = virtualCategories.get(subCategoryId);
+                if (subCategory != null) {
+                    level.add(subCategory);
+                }
+            }
+            categories.addAll(level);
+        }
+
+        Set<Long> productSkuIds = new LinkedHashSet<Long>();
+        for (AbstractCatalogCategory category : categories) {
+            productSkuIds.addAll(getProductSkuIds(category));
+        }
+        loadProductSkus(productSkuIds);
+
+        Set<Long> productMarketingIds = new LinkedHashSet<Long>();
+        for (Long productSkuId : productSkuIds) {
+            ProductSku productSku = productSkus.get(productSkuId);
+            if (productSku != null && productSku.getProductMarketing() != null) {
+                productMarketingIds.add(getId(productSku.getProductMarketing()));
+            }
+        }
+        loadProductMarketings(productMarketingIds);
+
+        // THE OTHER SKUS AND THE CROSS SELLING OF THE MARKETINGS
+        Set<Long> otherProductSkuIds = new LinkedHashSet<Long>();
+        Set<Long> associatedProductMarketingIds = new LinkedHashSet<Long>();
+        for (Long productMarketingId : productMarketingIds) {
+            ProductMarketing productMarketing = productMarketings.get(productMarketingId);
+            if (productMarketing == null) {
+                continue;
+            }
+            if (productMarketing.getProductSkus() != null
+                    && Hibernate.isInitialized(productMarketing.getProductSkus())) {
+                for (ProductSku productSku : productMarketing.getProductSkus()) {
+                    otherProductSkuIds.add(getId(productSku));
+                }
+            }
+            if (productMarketing.getProductAssociationLinks() != null
+                    && Hibernate.isInitialized(productMarketing.getProductAssociationLinks())) {
+                for (ProductAssociationLink productAssociationLink : productMarketing.getProductAssociationLinks()) {
+                    ProductSku productSku = productAssociationLink.getProductSku();
+                    if (productSku != null && productSku.getProductMarketing() != null) {
+                        associatedProductMarketingIds.add(getId(productSku.getProductMarketing()));
+                    }
+                }
+            }
+        }
+        loadProductSkus(otherProductSkuIds);
+        loadProductMarketings(associatedProductMarketingIds);
+    }
+
+    public CatalogCategoryVirtual getVirtualCategory(final CatalogCategoryVirtual catalogCategory, final FetchPlan fetchPlan) {
+        Long id = getId(catalogCategory);
+        CatalogCategoryVirtual loadedCatalogCategory = virtualCategories.get(id);
+        if (loadedCatalogCategory == null
+                && !virtualCategories.containsKey(id)) {
+            queryCount++;
+            loadedCatalogCategory = catalogCategoryService.getVirtualCatalogCategoryById(id, fetchPlan);
+            virtualCategories.put(id, loadedCatalogCategory);
+        }
+        return loadedCatalogCategory;
+    }
+
+    public ProductSku getProductSku(final ProductSku productSku) {
+        Long id = getId(productSku);
+        ProductSku loadedProductSku = productSkus.get(id);
+        if (loadedProductSku == null
+                && !productSkus.containsKey(id)) {
+            queryCount++;
+            loadedProductSku = productService.getProductSkuByCode(productSku.getCode());
+            productSkus.put(id, loadedProductSku);
+        }
+        return loadedProductSku;
+    }
+
+    public ProductMarketing getProductMarketing(final ProductMarketing productMarketing) {
+        Long id = getId(productMarketing);
+        ProductMarketing loadedProductMarketing = productMarketings.get(id);
+        if (loadedProductMarketing == null
+                && !productMarketings.containsKey(id)) {
+            queryCount++;
+            loadedProductMarketing = productService.getProductMarketingByCode(productMarketing.getCode());
+            productMarketings.put(id, loadedProductMarketing);
+        }
+        return loadedProductMarketing;
+    }
+
+    /**
+     * The sub categories built under a category : none beyond the max depth.
+     */
+    public List<AbstractCatalogCategory> getSubCategories(final AbstractCatalogCategory catalogCategory, final int depth) {
+        if (depth >= maxDepth) {
+            return new ArrayList<AbstractCatalogCategory>();
+        }
+        final CatalogCategoryTree tree = getTree(catalogCategory);
+        if (tree != null) {
+            List<Long> subCategoryIds = getSubCategoryIds(catalogCategory);
+            loadVirtualCategories(subCategoryIds, catalogCategory.getFetchPlan());
+            List<AbstractCatalogCategory> subCategories = new ArrayList<AbstractCatalogCategory>(subCategoryIds.size());
+            for (Long subCategoryId : subCategoryIds) {
+                CatalogCategoryVirtual subCategory = virtualCategories.get(subCategoryId);
+                if (subCategory != null) {
+                    subCategories.add(subCategory);
+                }
+            }
+            return subCategories;
+        }
+        List<AbstractCatalogCategory> subCategories = getSubCategories(catalogCategory);
+        return subCategories != null ? subCategories : new ArrayList<AbstractCatalogCategory>();
+    }
+
+    /**
+     * The product skus built for a category : the first max product skus.
+     */
+    public List<ProductSku> getProductSkus(final AbstractCatalogCategory catalogCategory) {
+        if (getTree(catalogCategory) != null) {
+            List<Long> productSkuIds = getProductSkuIds(catalogCategory);
+            loadProductSkus(productSkuIds);
+            List<ProductSku> sortedProductSkus = new ArrayList<ProductSku>(productSkuIds.size());
+            for (Long productSkuId : productSkuIds) {
+                ProductSku productSku = productSkus.get(productSkuId);
+                if (productSku != null) {
+                    sortedProductSkus.add(productSku);
+                }
+            }
+            return sortedProductSkus;
+        }
+        final List<ProductSku> sortedProductSkus = catalogCategory.getSortedProductSkus();
+        if (sortedProductSkus == null) {
+            return new ArrayList<ProductSku>();
+        }
+        if (sortedProductSkus.size() > maxProductSkus) {
+            return new ArrayList<ProductSku>(sortedProductSkus.subList(0, maxProductSkus));
+        }
+        return sortedProductSkus;
+    }
+
+    /**
+     * @return the number of sub categories, null when the sub categories are not loaded
+     */
+    public Integer countSubCategories(final AbstractCatalogCategory catalogCategory) {
+        final CatalogCategoryTree tree = getTree(catalogCategory);
+        if (tree != null) {
+            return tree.getChildCount(tree.indexOf(getId(catalogCategory)));
+        }
+        List<AbstractCatalogCategory> subCategories = getSubCategories(catalogCategory);
+        return subCategories != null ? subCategories.size() : null;
+    }
+
+    /**
+     * @return the number of product skus, null when the product skus are not loaded
+     */
+    public Integer countProductSkus(final AbstractCatalogCategory catalogCategory) {
+        final CatalogCategoryTree tree = getTree(catalogCategory);
+        if (tree != null) {
+            return tree.getProductSkuCount(tree.indexOf(getId(catalogCategory)));
+        }
+        List<ProductSku> sortedProductSkus = catalogCategory.getSortedProductSkus();
+        return sortedProductSkus != null ? sortedProductSkus.size() : null;
+    }
+
+    /**
+     * @return the number of product marketings of the product skus, null when the product skus are not loaded
+     */
+    public Integer countProductMarketings(final AbstractCatalogCategory catalogCategory) {
+        final CatalogCategoryTree tree = getTree(catalogCategory);
+        if (tree != null) {
+            return tree.getProductMarketingCount(tree.indexOf(getId(catalogCategory)));
+        }
+        List<ProductMarketing> sortedProductMarketings = catalogCategory.getSortedProductMarketings();
+        return sortedProductMarketings != null ? sortedProductMarketings.size() : null;
+    }
+
+    /**
+     * Queries run by the loader since its creation.
+     */
+    public int getQueryCount() {
+        return queryCount;
+    }
+
+    /**
+     * The tree of a virtual category, null for a master category or without the trees.
+     */
+    private CatalogCategoryTree getTree(final AbstractCatalogCategory catalogCategory) {
+        if (catalogCategoryTreeSnapshot == null
+                || !(catalogCategory instanceof CatalogCategoryVirtual)) {
+            return null;
+        }
+        return catalogCategoryTreeSnapshot.getTreeOfCategory(getId(catalogCategory));
+    }
+
+    /**
+     * The ids of the virtual sub categories, sorted by ranking.
+     */
+    private List<Long> getSubCategoryIds(final AbstractCatalogCategory catalogCategory) {
+        final List<Long> subCategoryIds = new ArrayList<Long>();
+        final CatalogCategoryTree tree = getTree(catalogCategory);
+        if (tree != null) {
+            for (long subCategoryId : tree.getChildIds(tree.indexOf(getId(catalogCategory)))) {
+                subCategoryIds.add(subCategoryId);
+            }
+            return subCategoryIds;
+        }
+        List<AbstractCatalogCategory> subCategories = getSubCategories(catalogCategory);
+        if (subCategories != null) {
+            for (AbstractCatalogCategory subCategory : subCategories) {
+                if (subCategory instanceof CatalogCategoryVirtual) {
+                    subCategoryIds.add(getId(subCategory));
+                }
+            }
+        }
+        return subCategoryIds;
+    }
+
+    /**
+     * The ids of the first max product skus, sorted by ranking.
+     */
+    private List<Long> getProductSkuIds(final AbstractCatalogCategory catalogCategory) {
+        final List<Long> productSkuIds = new ArrayList<Long>();
+        final CatalogCategoryTree tree = getTree(catalogCategory);
+        if (tree != null) {
+            long[] treeProductSkuIds = tree.getProductSkuIds(tree.indexOf(getId(catalogCategory)));
+            for (int i = 0; i < treeProductSkuIds.length && i < maxProductSkus; i++) {
+                productSkuIds.add(treeProductSkuIds[i]);
+            }
+            return productSkuIds;
+        }
+        for (ProductSku productSku : getProductSkus(catalogCategory)) {
+            productSkuIds.add(getId(productSku));
+        }
+        return productSkuIds;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<AbstractCatalogCategory> getSubCategories(final AbstractCatalogCategory catalogCategory) {
+        return catalogCategory.getSortedChildCatalogCategories();
+    }
+
+    private void loadVirtualCategories(final Collection<Long> ids, final FetchPlan fetchPlan) {
+        for (List<Long> chunk : chunks(ids, virtualCategories)) {
+            queryCount++;
+            for (CatalogCategoryVirtual catalogCategory : catalogCategoryService.findVirtualCategoriesByIds(chunk, fetchPlan)) {
+                virtualCategories.put(catalogCategory.getId(), catalogCategory);
+            }
+        }
+    }
+
+    private void loadProductSkus(final Collection<Long> ids) {
+        for (List<Long> chunk : chunks(ids, productSkus)) {
+            queryCount++;
+            for (ProductSku productSku : productService.findProductSkusByIds(chunk)) {
+                productSkus.put(productSku.getId(), productSku);
+            }
+        }
+    }
+
+    private void loadProductMarketings(final Collection<Long> ids) {
+        for (List<Long> chunk : chunks(ids, productMarketings)) {
+            queryCount++;
+            for (ProductMarketing productMarketing : productService.findProductMarketingsByIds(chunk)) {
+                productMarketings.put(productMarketing.getId(), productMarketing);
+            }
+        }
+    }
+
+    /**
+     * The ids not loaded yet, by lists of MAX_IDS_BY_QUERY.
+     */
+    private List<List<Long>> chunks(final Collection<Long> ids, final Map<Long, ?> loaded) {
+        List<List<Long>> chunks = new ArrayList<List<Long>>();
+        List<Long> chunk = new ArrayList<Long>();
+        for (Long id : ids) {
+            if (id == null || loaded.containsKey(id)) {
+                continue;
+            }
+            chunk.add(id);
+            if (chunk.size() == MAX_IDS_BY_QUERY) {
+                chunks.add(chunk);
+                chunk = new ArrayList<Long>();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * The id of an entity, without initializing it when it is a proxy.
+     */
+    private static Long getId(final AbstractCatalogCategory catalogCategory) {
+        if (catalogCategory instanceof HibernateProxy) {
+            return getProxyId(catalogCategory);
+        }
+        return catalogCategory.getId();
+    }
+
+    private static Long getId(final ProductSku productSku) {
+        if (productSku instanceof HibernateProxy) {
+            return getProxyId(productSku);
+        }
+        return productSku.getId();
+    }
+
+    private static Long getId(final ProductMarketing productMarketing) {
+        if (productMarketing instanceof HibernateProxy) {
+            return getProxyId(productMarketing);
+        }
+        return productMarketing.getId();
+    }
+
+    private static Long getProxyId(final Object proxy) {
+        return (Long) ((HibernateProxy) proxy).getHibernateLazyInitializer().getIdentifier();
+    }
+
+}
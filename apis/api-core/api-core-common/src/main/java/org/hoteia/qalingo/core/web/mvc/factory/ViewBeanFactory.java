@@ -98,6 +98,9 @@ import org.hoteia.qalingo.core.service.ProductService;
 import org.hoteia.qalingo.core.service.ReferentialDataService;
 import org.hoteia.qalingo.core.service.RetailerService;
 import org.hoteia.qalingo.core.service.UrlService;
+import org.hoteia.qalingo.core.service.catalog.CatalogCategoryTreeSnapshot;
+import org.hoteia.qalingo.core.service.catalog.ProductSkuPriceSnapshot;
+import org.hoteia.qalingo.core.service.catalog.SnapshotPrice;
 import org.hoteia.qalingo.core.service.openid.OpenProvider;
 import org.hoteia.qalingo.core.web.mvc.viewbean.AssetViewBean;
 import org.hoteia.qalingo.core.web.mvc.viewbean.AttributeDefinitionViewBean;
@@ -156,6 +159,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -200,6 +204,18 @@ public class ViewBeanFactory extends AbstractViewBeanFactory {
     @Autowired
     protected UrlService urlService;
 
+    @Autowired
+    protected ProductSkuPriceSnapshot productSkuPriceSnapshot;
+
+    @Autowired
+    protected CatalogCategoryTreeSnapshot catalogCategoryTreeSnapshot;
+
+    @Value("${catalog.view.max.depth:5}")
+    protected int catalogViewMaxDepth;
+
+    @Value("${catalog.view.max.product.skus:500}")
+    protected int catalogViewMaxProductSkus;
+
     /**
      * 
      */
@@ -1422,18 +1438,49 @@ public class ViewBeanFactory extends AbstractViewBeanFactory {
      * 
      */
     public CatalogCategoryViewBean buildViewBeanVirtualCatalogCategory(final RequestData requestData, final CatalogCategoryVirtual catalogCategory) throws Exception {
-        final CatalogCategoryViewBean catalogCategoryViewBean = buildViewBeanCatalogCategory(requestData, (AbstractCatalogCategory) catalogCategory);
+        final CatalogViewBeanLoader loader = createCatalogViewBeanLoader();
+        loader.preload(catalogCategory);
+        return buildViewBeanVirtualCatalogCategory(requestData, catalogCategory, loader, 0);
+    }
+    
+    protected CatalogCategoryViewBean buildViewBeanVirtualCatalogCategory(final RequestData requestData, final CatalogCategoryVirtual catalogCategory, 
+                                                                          final CatalogViewBeanLoader loader, final int depth) throws Exception {
+        final CatalogCategoryViewBean catalogCategoryViewBean = buildViewBeanCatalogCategory(requestData, (AbstractCatalogCategory) catalogCategory, loader, depth);
         if (catalogCategory != null && catalogCategory.getCategoryMaster() != null
                 && Hibernate.isInitialized(catalogCategory.getCategoryMaster())) {
-            catalogCategoryViewBean.setMasterCategory(buildViewBeanCatalogCategory(requestData, (AbstractCatalogCategory) catalogCategory.getCategoryMaster()));
+            catalogCategoryViewBean.setMasterCategory(buildViewBeanCatalogCategory(requestData, (AbstractCatalogCategory) catalogCategory.getCategoryMaster(), loader));
         }
         return catalogCategoryViewBean;
     }
     
+    /**
+     * A loader for one category render, with the limits of the recursion.
+     */
+    protected CatalogViewBeanLoader createCatalogViewBeanLoader() {
+        return new CatalogViewBeanLoader(productService, catalogCategoryService, catalogCategoryTreeSnapshot, catalogViewMaxDepth, catalogViewMaxProductSkus);
+    }
+    
     /**
      * 
      */
     protected CatalogCategoryViewBean buildViewBeanCatalogCategory(final RequestData requestData, final AbstractCatalogCategory catalogCategory) throws Exception {
+        return buildViewBeanCatalogCategory(requestData, catalogCategory, createCatalogViewBeanLoader());
+    }
+    
+    /**
+     * Builds the category as the root of a render : its tree is preloaded first.
+     */
+    protected CatalogCategoryViewBean buildViewBeanCatalogCategory(final RequestData requestData, final AbstractCatalogCategory catalogCategory, 
+                                                                   final CatalogViewBeanLoader loader) throws Exception {
+        loader.preload(catalogCategory);
+        return buildViewBeanCatalogCategory(requestData, catalogCategory, loader, 0);
+    }
+    
+    /**
+     * 
+     */
+    protected CatalogCategoryViewBean buildViewBeanCatalogCategory(final RequestData requestData, final AbstractCatalogCategory catalogCategory, 
+                                                                   final CatalogViewBeanLoader loader, final int depth) throws Exception {
         final MarketArea marketArea = requestData.getMarketArea();
         final Localization localization = requestData.getMarketAreaLocalization();
         final String localizationCode = localization.getCode();
@@ -1506,38 +1553,41 @@ public class ViewBeanFactory extends AbstractViewBeanFactory {
             // PARENT CATEGORY
             if (catalogCategory != null && catalogCategory.getParentCatalogCategory() != null
                     && Hibernate.isInitialized(catalogCategory.getParentCatalogCategory())) {
-                catalogCategoryViewBean.setDefaultParentCategory(buildViewBeanCatalogCategory(requestData, (AbstractCatalogCategory) catalogCategory.getParentCatalogCategory()));
+                catalogCategoryViewBean.setDefaultParentCategory(buildViewBeanCatalogCategory(requestData, (AbstractCatalogCategory) catalogCategory.getParentCatalogCategory(), loader));
             }
            
             // SUB CATEGORIES
             List<CatalogCategoryViewBean> subcatalogCategoryVirtualViewBeans = new ArrayList<CatalogCategoryViewBean>();
-            final List<AbstractCatalogCategory> subCategories = catalogCategory.getSortedChildCatalogCategories();
-            if (subCategories != null) {
-                for (Iterator<AbstractCatalogCategory> iteratorSubcatalogCategoryVirtual = subCategories.iterator(); iteratorSubcatalogCategoryVirtual.hasNext();) {
+            final Integer countSubCategories = loader.countSubCategories(catalogCategory);
+            if (countSubCategories != null) {
+                // NO SUB CATEGORY BEYOND THE MAX DEPTH
+                for (Iterator<AbstractCatalogCategory> iteratorSubcatalogCategoryVirtual = loader.getSubCategories(catalogCategory, depth).iterator(); iteratorSubcatalogCategoryVirtual.hasNext();) {
                     final CatalogCategoryVirtual subcatalogCategoryVirtual = (CatalogCategoryVirtual) iteratorSubcatalogCategoryVirtual.next();
-                    final CatalogCategoryVirtual reloadedSubCatalogCategory = catalogCategoryService.getVirtualCatalogCategoryById(subcatalogCategoryVirtual.getId(), catalogCategory.getFetchPlan());
-                    subcatalogCategoryVirtualViewBeans.add(buildViewBeanVirtualCatalogCategory(requestData, reloadedSubCatalogCategory));
+                    final CatalogCategoryVirtual reloadedSubCatalogCategory = loader.getVirtualCategory(subcatalogCategoryVirtual, catalogCategory.getFetchPlan());
+                    subcatalogCategoryVirtualViewBeans.add(buildViewBeanVirtualCatalogCategory(requestData, reloadedSubCatalogCategory, loader, depth + 1));
                 }
-                catalogCategoryViewBean.setCountSubCategories(subCategories.size());
+                catalogCategoryViewBean.setCountSubCategories(countSubCategories);
             }
             catalogCategoryViewBean.setSubCategories(subcatalogCategoryVirtualViewBeans);
 
             // PRODUCTS
             List<ProductMarketingViewBean> productMarketingViewBeans = new ArrayList<ProductMarketingViewBean>();
             List<ProductMarketingViewBean> featuredProductMarketings = new ArrayList<ProductMarketingViewBean>();
-            final List<ProductSku> productSkus = catalogCategory.getSortedProductSkus();
-            if (productSkus != null) {
-                for (Iterator<ProductSku> iteratorProductMarketing = productSkus.iterator(); iteratorProductMarketing.hasNext();) {
+            final Integer countProductSkus = loader.countProductSkus(catalogCategory);
+            if (countProductSkus != null) {
+                // THE FIRST MAX PRODUCT SKUS
+                for (Iterator<ProductSku> iteratorProductMarketing = loader.getProductSkus(catalogCategory).iterator(); iteratorProductMarketing.hasNext();) {
                     final ProductSku productSku = (ProductSku) iteratorProductMarketing.next();
-                    final ProductSku reloadedProductSku = productService.getProductSkuByCode(productSku.getCode());
-                    final ProductMarketing productMarketing = productService.getProductMarketingByCode(reloadedProductSku.getProductMarketing().getCode());
-                    ProductMarketingViewBean productMarketingViewBean = buildViewBeanProductMarketing(requestData, catalogCategory, productMarketing, reloadedProductSku);
+                    final ProductSku reloadedProductSku = loader.getProductSku(productSku);
+                    final ProductMarketing productMarketing = loader.getProductMarketing(reloadedProductSku.getProductMarketing());
+                    ProductMarketingViewBean productMarketingViewBean = buildViewBeanProductMarketing(requestData, catalogCategory, productMarketing, reloadedProductSku, loader);
                     productMarketingViewBeans.add(productMarketingViewBean);
                     if (productMarketing.isFeatured()) {
                         featuredProductMarketings.add(productMarketingViewBean);
                     }
                 }
-                catalogCategoryViewBean.setCountProductMarketings(catalogCategory.getSortedProductMarketings().size());
+                final Integer countProductMarketings = loader.countProductMarketings(catalogCategory);
+                catalogCategoryViewBean.setCountProductMarketings(countProductMarketings != null ? countProductMarketings : 0);
             }
             catalogCategoryViewBean.setProductMarketings(productMarketingViewBeans);
 
@@ -1568,6 +1618,11 @@ public class ViewBeanFactory extends AbstractViewBeanFactory {
      * 
      */
     public ProductMarketingViewBean buildViewBeanProductMarketing(final RequestData requestData, final AbstractCatalogCategory catalogCategory, final ProductMarketing productMarketing, final ProductSku productSku) throws Exception {
+        return buildViewBeanProductMarketing(requestData, catalogCategory, productMarketing, productSku, createCatalogViewBeanLoader());
+    }
+    
+    protected ProductMarketingViewBean buildViewBeanProductMarketing(final RequestData requestData, final AbstractCatalogCategory catalogCategory, final ProductMarketing productMarketing, final ProductSku productSku, 
+                                                                     final CatalogViewBeanLoader loader) throws Exception {
         final ProductMarketingViewBean productMarketingViewBean = buildViewBeanProductMarketing(requestData, productMarketing);
 
         if(productSku != null){
@@ -1587,7 +1642,7 @@ public class ViewBeanFactory extends AbstractViewBeanFactory {
         if (Hibernate.isInitialized(skus) && skus != null) {
             for (Iterator<ProductSku> iterator = skus.iterator(); iterator.hasNext();) {
                 final ProductSku productSkuIt = (ProductSku) iterator.next();
-                final ProductSku reloadedProductSku = productService.getProductSkuByCode(productSkuIt.getCode());
+                final ProductSku reloadedProductSku = loader.getProductSku(productSkuIt);
                 productMarketingViewBean.getProductSkus().add(buildViewBeanProductSku(requestData, catalogCategory, productMarketing, reloadedProductSku));
             }
         }
@@ -1597,7 +1652,7 @@ public class ViewBeanFactory extends AbstractViewBeanFactory {
             for (Iterator<ProductAssociationLink> iterator = productAssociationLinks.iterator(); iterator.hasNext();) {
                 final ProductAssociationLink productAssociationLink = (ProductAssociationLink) iterator.next();
                 if (productAssociationLink.getType().equals(ProductAssociationLinkType.CROSS_SELLING)) {
-                    final ProductMarketing reloadedAssociatedProductMarketing = productService.getProductMarketingByCode(productAssociationLink.getProductSku().getProductMarketing().getCode());
+                    final ProductMarketing reloadedAssociatedProductMarketing = loader.getProductMarketing(productAssociationLink.getProductSku().getProductMarketing());
                     productMarketingViewBean.getProductAssociationLinks().add(buildViewBeanProductAssociationLink(requestData, catalogCategory, reloadedAssociatedProductMarketing));
                 }
             }
@@ -1795,13 +1850,26 @@ public class ViewBeanFactory extends AbstractViewBeanFactory {
             productSkuViewBean.setDateUpdate(dateFormat.format(productMarketing.getDateUpdate()));
         }
         
-        final ProductSkuPrice productSkuPrice = productSku.getPrice(marketArea.getId(), retailer.getId());
-        if(productSkuPrice != null){
-            productSkuViewBean.setCatalogPrice(productSkuPrice.getCatalogPrice().toString());
-            productSkuViewBean.setSalePrice(productSkuPrice.getSalePrice().toString());
-            productSkuViewBean.setPriceWithCurrencySign(productSkuPrice.getPriceWithStandardCurrencySign());
+        if(Hibernate.isInitialized(productSku.getPrices())){
+            final ProductSkuPrice productSkuPrice = productSku.getPrice(marketArea.getId(), retailer.getId());
+            if(productSkuPrice != null){
+                productSkuViewBean.setCatalogPrice(productSkuPrice.getCatalogPrice().toString());
+                productSkuViewBean.setSalePrice(productSkuPrice.getSalePrice().toString());
+                productSkuViewBean.setPriceWithCurrencySign(productSkuPrice.getPriceWithStandardCurrencySign());
+            } else {
+                productSkuViewBean.setPriceWithCurrencySign("NA");
+            }
         } else {
-            productSkuViewBean.setPriceWithCurrencySign("NA");
+            // PRICES NOT FETCHED (LISTING) : READ FROM THE SNAPSHOT, WITHOUT LOADING THE COLLECTION
+            final SnapshotPrice snapshotPrice = productSkuPriceSnapshot.getPrice(productSku.getId(), marketArea.getId(), retailer.getId());
+            if(snapshotPrice != null
+                    && snapshotPrice.getCatalogPrice() != null){
+                productSkuViewBean.setCatalogPrice(snapshotPrice.getCatalogPrice().toString());
+                productSkuViewBean.setSalePrice(snapshotPrice.getSalePrice().toString());
+                productSkuViewBean.setPriceWithCurrencySign(snapshotPrice.getPriceWithStandardCurrencySign());
+            } else {
+                productSkuViewBean.setPriceWithCurrencySign("NA");
+            }
         }
         
         // ATTRIBUTES
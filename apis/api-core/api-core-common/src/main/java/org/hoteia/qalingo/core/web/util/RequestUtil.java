@@ -21,6 +21,7 @@ import java.util.Locale;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 
 import org.apache.commons.lang.BooleanUtils;
 import org.apache.commons.lang.StringUtils;
@@ -67,6 +68,8 @@ import org.hoteia.qalingo.core.service.ProductService;
 import org.hoteia.qalingo.core.service.ReferentialDataService;
 import org.hoteia.qalingo.core.service.RetailerService;
 import org.hoteia.qalingo.core.service.UserService;
+import org.hoteia.qalingo.core.service.session.EngineSessionFlushBinding;
+import org.hoteia.qalingo.core.service.session.EngineSessionWriteBehindStore;
 import org.hoteia.qalingo.core.web.bean.clickstream.ClickstreamRequest;
 import org.hoteia.qalingo.core.web.bean.clickstream.ClickstreamSession;
 import org.slf4j.Logger;
@@ -133,6 +136,9 @@ public class RequestUtil {
     @Autowired
     protected EngineSessionService engineSessionService;
     
+    @Autowired
+    protected EngineSessionWriteBehindStore engineSessionWriteBehindStore;
+    
     @Autowired
     protected CartService cartService;
     
@@ -950,6 +956,8 @@ public class RequestUtil {
      */
     public EngineEcoSession updateCurrentEcoSession(final HttpServletRequest request, EngineEcoSession engineEcoSession) throws Exception {
         setCurrentEcoSession(request, engineEcoSession);
+        // WRITE-BEHIND : NOTHING IS WRITTEN WHEN NO PERSISTENT FIELD CHANGED
+        engineSessionWriteBehindStore.write(engineEcoSession);
         return engineEcoSession;
     }
 
@@ -957,7 +965,9 @@ public class RequestUtil {
      * 
      */
     public void setCurrentEcoSession(final HttpServletRequest request, final EngineEcoSession engineEcoSession) throws Exception {
-        request.getSession().setAttribute(Constants.ENGINE_ECO_SESSION_OBJECT, engineEcoSession);
+        final HttpSession session = request.getSession();
+        session.setAttribute(Constants.ENGINE_ECO_SESSION_OBJECT, engineEcoSession);
+        bindEngineSessionFlush(session, EngineSessionFlushBinding.ECO_ATTRIBUTE_NAME, engineEcoSession);
     }
 
     
@@ -974,13 +984,28 @@ public class RequestUtil {
      */
     public void updateCurrentBoSession(final HttpServletRequest request, final EngineBoSession engineBoSession) throws Exception {
         setCurrentBoSession(request, engineBoSession);
+        // WRITE-BEHIND : NOTHING IS WRITTEN WHEN NO PERSISTENT FIELD CHANGED
+        engineSessionWriteBehindStore.write(engineBoSession);
     }
 
     /**
      * 
      */
     public void setCurrentBoSession(final HttpServletRequest request, final EngineBoSession engineBoSession) throws Exception {
-        request.getSession().setAttribute(Constants.ENGINE_BO_SESSION_OBJECT, engineBoSession);
+        final HttpSession session = request.getSession();
+        session.setAttribute(Constants.ENGINE_BO_SESSION_OBJECT, engineBoSession);
+        bindEngineSessionFlush(session, EngineSessionFlushBinding.BO_ATTRIBUTE_NAME, engineBoSession);
+    }
+
+    /**
+     * The pending write of the engine session is flushed when the http session ends.
+     */
+    protected void bindEngineSessionFlush(final HttpSession session, final String attributeName, final AbstractEngineSession engineSession) {
+        Object binding = session.getAttribute(attributeName);
+        if (!(binding instanceof EngineSessionFlushBinding)
+                || !((EngineSessionFlushBinding) binding).isBoundTo(engineSession)) {
+            session.setAttribute(attributeName, new EngineSessionFlushBinding(engineSessionWriteBehindStore, engineSession));
+        }
     }
 
     /**
@@ -1632,7 +1657,7 @@ public class RequestUtil {
         
         engineEcoSession = updateCurrentEcoSession(request, engineEcoSession);
         
-        engineEcoSession = engineSessionService.saveOrUpdateEngineEcoSession(engineEcoSession);
+        engineEcoSession = engineSessionService.updateAndSynchronizeEngineEcoSession(engineEcoSession);
         
         return engineEcoSession;
     }
@@ -1665,13 +1690,9 @@ public class RequestUtil {
             // FIND LATITUDE/LONGITUDE BY CITY/COUNTRY
             GeolocDataCity geolocDataCity = geolocData.getCity();
             GeolocDataCountry country = geolocData.getCountry();
-            GeolocCity geolocCity = geolocService.getGeolocCityByCityAndCountry(geolocDataCity.getName(), country.getName());
-            if (geolocCity != null) {
-                geolocData.setLatitude(geolocCity.getLatitude());
-                geolocData.setLongitude(geolocCity.getLongitude());
-            } else {
-                // LATITUDE/LONGITUDE DOESN'T EXIST - WE USE GOOGLE GEOLOC TO FOUND IT
-                geolocCity = geolocService.geolocByCityAndCountry(geolocDataCity.getName(), country.getName());
+            if (geolocDataCity != null && country != null) {
+                // LATITUDE/LONGITUDE ARE STORED, OR ASKED TO GOOGLE GEOLOC THE FIRST TIME
+                GeolocCity geolocCity = geolocService.geolocCityWithCache(geolocDataCity.getName(), country.getName());
                 if (geolocCity != null) {
                     geolocData.setLatitude(geolocCity.getLatitude());
                     geolocData.setLongitude(geolocCity.getLongitude());
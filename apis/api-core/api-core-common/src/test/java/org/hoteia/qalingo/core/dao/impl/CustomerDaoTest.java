@@ -9,11 +9,18 @@
  */
 package org.hoteia.qalingo.core.dao.impl;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import org.hoteia.qalingo.core.dao.CustomerDao;
+import org.hoteia.qalingo.core.dao.KeysetPage;
+import org.hoteia.qalingo.core.domain.Customer;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 public class CustomerDaoTest extends AbstractDaoTestBase {
@@ -25,6 +32,46 @@ public class CustomerDaoTest extends AbstractDaoTestBase {
 	public void testEmpty() {
 	}
 	
+	@Test
+	@Transactional
+	public void testFindCustomerPage() {
+		KeysetPage<Customer> customerPage = customerDao.findCustomerPage(null, 4);
+		assertEquals(4, customerPage.getItems().size());
+		assertEquals(new Long(1), customerPage.getItems().get(0).getId());
+		assertEquals(new Long(4), customerPage.getLastId());
+		assertFalse(customerPage.isLast());
+
+		customerPage = customerDao.findCustomerPage(customerPage.getLastId(), 4);
+		assertEquals(2, customerPage.getItems().size());
+		assertEquals(new Long(5), customerPage.getItems().get(0).getId());
+		assertEquals(new Long(6), customerPage.getLastId());
+		assertTrue(customerPage.isLast());
+
+		customerPage = customerDao.findCustomerPage(customerPage.getLastId(), 4);
+		assertTrue(customerPage.getItems().isEmpty());
+		assertTrue(customerPage.isLast());
+		
+		assertEquals(6, customerDao.countCustomers());
+	}
+	
+	@Test
+	@Transactional
+	public void testFindCustomerPageSizeIsBounded() {
+		// AT LEAST ONE CUSTOMER PER PAGE : THE CLIENTS MOVE FORWARD
+		KeysetPage<Customer> customerPage = customerDao.findCustomerPage(null, 0);
+		assertEquals(1, customerPage.getItems().size());
+		assertEquals(new Long(1), customerPage.getLastId());
+		assertFalse(customerPage.isLast());
+
+		customerPage = customerDao.findCustomerPage(customerPage.getLastId(), -5);
+		assertEquals(1, customerPage.getItems().size());
+		assertEquals(new Long(2), customerPage.getLastId());
+
+		customerPage = customerDao.findCustomerPage(null, Integer.MAX_VALUE);
+		assertEquals(6, customerPage.getItems().size());
+		assertTrue(customerPage.isLast());
+	}
+	
 //	@Test
 //	public void testFindByExampleWithDefaultValue() {
 //		Customer criteria = new Customer();
@@ -0,0 +1,66 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.hoteia.qalingo.core.dao.EmailDao;
+import org.hoteia.qalingo.core.domain.Email;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+public class EmailDaoTest extends AbstractDaoTestBase {
+
+	@Autowired
+	private EmailDao emailDao;
+
+	@Test
+	@Transactional
+	public void testClaimEmailsForSync() throws Exception {
+		Date now = new Date();
+		// 1 EXCLUDED, 3 IN ERROR SINCE THE RETRY DATE, 4 OUT OF TRIES, 6 SENT
+		List<Email> emails = emailDao.claimEmailsForSync(10, now, now, Arrays.asList(new Long(1)));
+		assertEquals(Arrays.asList(new Long(2), new Long(5)), ids(emails));
+
+		// CLAIMED : SENDING
+		emails = emailDao.claimEmailsForSync(10, new Date(0), now, Collections.<Long> emptyList());
+		assertEquals(Arrays.asList(new Long(1)), ids(emails));
+	}
+
+	@Test
+	@Transactional
+	public void testUpdateEmailsError() throws Exception {
+		assertEquals(2, emailDao.updateEmailsError(Arrays.asList(new Long(1), new Long(5)), new IllegalStateException("SMTP server down")));
+		// PENDING 1 AND SENDING 5 IN ERROR, NOT CLAIMED BEFORE THE RETRY DATE
+		assertEquals(new Long(4), emailDao.countEmailsForSync());
+		List<Email> emails = emailDao.claimEmailsForSync(10, new Date(0), new Date(System.currentTimeMillis() - 60000), Collections.<Long> emptyList());
+		assertEquals(Arrays.asList(new Long(2)), ids(emails));
+		assertEquals(0, emailDao.updateEmailsError(new ArrayList<Long>(), new IllegalStateException()));
+	}
+
+	private List<Long> ids(final List<Email> emails) {
+		List<Long> ids = new ArrayList<Long>();
+		for (Email email : emails) {
+			ids.add(email.getId());
+		}
+		return ids;
+	}
+
+}
@@ -0,0 +1,52 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.hoteia.qalingo.core.dao.KeysetPage;
+import org.hoteia.qalingo.core.dao.ProductDao;
+import org.hoteia.qalingo.core.domain.ProductSku;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+public class ProductDaoTest extends AbstractDaoTestBase {
+
+	@Autowired
+	private ProductDao productDao;
+
+	@Test
+	@Transactional
+	public void testFindProductSkuPageByText() {
+		// THE TEXT MATCHES THE CODE, THE NAME OR THE DESCRIPTION
+		KeysetPage<ProductSku> productSkuPage = productDao.findProductSkuPageByText("Blue", null, 2);
+		assertEquals(2, productSkuPage.getItems().size());
+		assertEquals(new Long(1), productSkuPage.getItems().get(0).getId());
+		assertEquals(new Long(3), productSkuPage.getLastId());
+		assertFalse(productSkuPage.isLast());
+
+		productSkuPage = productDao.findProductSkuPageByText("Blue", productSkuPage.getLastId(), 2);
+		assertEquals(1, productSkuPage.getItems().size());
+		assertEquals(new Long(5), productSkuPage.getLastId());
+		assertTrue(productSkuPage.isLast());
+
+		assertEquals(3, productDao.countProductSkusByText("Blue"));
+		assertEquals(2, productDao.countProductSkusByText("SHIRT"));
+		assertEquals(1, productDao.countProductSkusByText("Shoes"));
+		assertEquals(0, productDao.countProductSkusByText("coat"));
+	}
+
+}
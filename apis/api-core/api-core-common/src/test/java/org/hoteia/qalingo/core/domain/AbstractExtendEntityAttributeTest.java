@@ -0,0 +1,193 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AbstractExtendEntity Test : the indexed attribute lookup gives the values of the list
+ * lookup, follows the changes of the attributes, and its cost on a category page.
+ */
+public class AbstractExtendEntityAttributeTest {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final int PRODUCT_COUNT = 200;
+    private static final int WARMUP_ITERATIONS = 50;
+    private static final int ITERATIONS = 200;
+
+    private static final String[] LOCALIZATION_CODES = { "en", "fr", "de", "es" };
+    private static final Long[] MARKET_AREA_IDS = { new Long("1"), new Long("2"), new Long("3") };
+
+    private AttributeDefinition nameDefinition;
+    private AttributeDefinition descriptionDefinition;
+    private AttributeDefinition weightDefinition;
+    private AttributeDefinition salableDefinition;
+
+    private List<ProductSku> productSkus;
+    private long attributeId;
+
+    @Before
+    public void setUp() {
+        nameDefinition = buildAttributeDefinition("I18N_NAME", true);
+        descriptionDefinition = buildAttributeDefinition("I18N_DESCRIPTION", true);
+        weightDefinition = buildAttributeDefinition("WEIGHT", true);
+        salableDefinition = buildAttributeDefinition("IS_SALABLE", false);
+
+        productSkus = new ArrayList<ProductSku>();
+        for (int i = 0; i < PRODUCT_COUNT; i++) {
+            ProductSku productSku = new ProductSku();
+            productSku.setCode("SKU_" + i);
+            Set<ProductSkuAttribute> attributes = new HashSet<ProductSkuAttribute>();
+            for (String localizationCode : LOCALIZATION_CODES) {
+                attributes.add(buildAttribute(nameDefinition, null, localizationCode, "Name " + i + " " + localizationCode));
+                attributes.add(buildAttribute(descriptionDefinition, null, localizationCode, "Description " + i + " " + localizationCode));
+            }
+            attributes.add(buildAttribute(weightDefinition, null, null, "" + i));
+            for (Long marketAreaId : MARKET_AREA_IDS) {
+                attributes.add(buildAttribute(salableDefinition, marketAreaId, null, "" + (i % 2 == 0)));
+            }
+            productSku.setAttributes(attributes);
+            productSkus.add(productSku);
+        }
+    }
+
+    @Test
+    public void testIndexedLookupGivesTheListLookupValues() {
+        String[] codes = { "I18N_NAME", "i18n_name", "I18N_DESCRIPTION", "WEIGHT", "IS_SALABLE", "UNKNOWN" };
+        Long[] marketAreaIds = { null, new Long("1"), new Long("3"), new Long("9") };
+        String[] localizationCodes = { null, "", "en", "fr", "it" };
+        for (ProductSku productSku : productSkus) {
+            for (String code : codes) {
+                for (Long marketAreaId : marketAreaIds) {
+                    for (String localizationCode : localizationCodes) {
+                        assertSame(code + " " + marketAreaId + " " + localizationCode,
+                                   getAttributeFromLists(productSku, code, marketAreaId, localizationCode),
+                                   productSku.getAttribute(code, marketAreaId, localizationCode));
+                    }
+                }
+            }
+        }
+        assertEquals("Name 7 fr", productSkus.get(7).getAttribute("I18N_NAME", "fr").getValue());
+        assertEquals("false", productSkus.get(7).getAttribute("IS_SALABLE", new Long("2")).getValue());
+        assertNull(productSkus.get(7).getAttribute("I18N_NAME"));
+    }
+
+    @Test
+    public void testIndexFollowsTheAttributes() {
+        ProductSku productSku = productSkus.get(0);
+        assertNull(productSku.getAttribute("I18N_NAME", "it"));
+
+        productSku.getAttributes().add(buildAttribute(nameDefinition, null, "it", "Nome"));
+        assertEquals("Nome", productSku.getAttribute("I18N_NAME", "it").getValue());
+
+        Set<ProductSkuAttribute> attributes = new HashSet<ProductSkuAttribute>();
+        attributes.add(buildAttribute(weightDefinition, null, null, "42"));
+        productSku.setAttributes(attributes);
+        assertEquals("42", productSku.getAttribute("WEIGHT").getValue());
+        assertNull(productSku.getAttribute("I18N_NAME", "it"));
+
+        // A CHANGE IN PLACE NEEDS A RESET
+        ProductSkuAttribute attribute = attributes.iterator().next();
+        attribute.setLocalizationCode("fr");
+        productSku.resetAttributeIndex();
+        assertNull(productSku.getAttribute("WEIGHT", "en"));
+        assertEquals("42", productSku.getAttribute("WEIGHT", "fr").getValue());
+
+        productSku.setAttributes(null);
+        assertNull(productSku.getAttribute("WEIGHT"));
+    }
+
+    @Test
+    public void testCategoryPageBenchmark() {
+        long listTime = 0;
+        long indexTime = 0;
+        int lookups = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+            long start = System.nanoTime();
+            for (ProductSku productSku : productSkus) {
+                renderFromLists(productSku);
+            }
+            long listElapsed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (ProductSku productSku : productSkus) {
+                render(productSku);
+            }
+            long indexElapsed = System.nanoTime() - start;
+
+            if (i >= WARMUP_ITERATIONS) {
+                listTime += listElapsed;
+                indexTime += indexElapsed;
+                lookups += PRODUCT_COUNT * 4;
+            }
+        }
+        logger.info("Attribute lookup on a page of " + PRODUCT_COUNT + " products: lists " + (listTime / lookups) + " ns/op, index "
+                + (indexTime / lookups) + " ns/op");
+    }
+
+    private void render(final ProductSku productSku) {
+        productSku.getAttribute("I18N_NAME", new Long("1"), "fr");
+        productSku.getAttribute("I18N_DESCRIPTION", new Long("1"), "fr");
+        productSku.getAttribute("WEIGHT", new Long("1"), "fr");
+        productSku.getAttribute("IS_SALABLE", new Long("1"), "fr");
+    }
+
+    private void renderFromLists(final ProductSku productSku) {
+        getAttributeFromLists(productSku, "I18N_NAME", new Long("1"), "fr");
+        getAttributeFromLists(productSku, "I18N_DESCRIPTION", new Long("1"), "fr");
+        getAttributeFromLists(productSku, "WEIGHT", new Long("1"), "fr");
+        getAttributeFromLists(productSku, "IS_SALABLE", new Long("1"), "fr");
+    }
+
+    /**
+     * The lookup without the index : market area value, then global value.
+     */
+    private AbstractAttribute getAttributeFromLists(final ProductSku productSku, final String code, final Long marketAreaId, final String localizationCode) {
+        AbstractAttribute marketAreaAttribute = productSku.getAttribute(productSku.getMarketAreaAttributes(marketAreaId), code, marketAreaId, localizationCode);
+        if (marketAreaAttribute != null) {
+            return marketAreaAttribute;
+        }
+        return productSku.getAttribute(productSku.getGlobalAttributes(), code, marketAreaId, localizationCode);
+    }
+
+    private AttributeDefinition buildAttributeDefinition(final String code, final boolean global) {
+        AttributeDefinition attributeDefinition = new AttributeDefinition();
+        attributeDefinition.setCode(code);
+        attributeDefinition.setAttributeType(AttributeDefinition.ATTRIBUTE_TYPE_SHORT_STRING);
+        attributeDefinition.setGlobal(global);
+        return attributeDefinition;
+    }
+
+    private ProductSkuAttribute buildAttribute(final AttributeDefinition attributeDefinition, final Long marketAreaId, final String localizationCode,
+            final String value) {
+        ProductSkuAttribute attribute = new ProductSkuAttribute();
+        // THE ID TELLS THE ATTRIBUTES APART IN THE SET
+        attribute.setId(++attributeId);
+        attribute.setAttributeDefinition(attributeDefinition);
+        attribute.setMarketAreaId(marketAreaId);
+        attribute.setLocalizationCode(localizationCode);
+        attribute.setShortStringValue(value);
+        return attribute;
+    }
+
+}
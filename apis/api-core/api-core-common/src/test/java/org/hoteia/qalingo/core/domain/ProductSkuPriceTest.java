@@ -0,0 +1,166 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hoteia.qalingo.core.util.LongHashIndex;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ProductSku Test : price lookup by market area and retailer, the index follows the changes
+ * of the set, and the cost of a cart total.
+ */
+public class ProductSkuPriceTest {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 10000;
+    private static final int LOOKUPS = 100;
+
+    private ProductSku productSku;
+    private long id;
+
+    @Before
+    public void setUp() {
+        productSku = new ProductSku();
+        Set<ProductSkuPrice> prices = new HashSet<ProductSkuPrice>();
+        for (long marketAreaId = 1; marketAreaId <= 10; marketAreaId++) {
+            for (long retailerId = 1; retailerId <= 5; retailerId++) {
+                prices.add(buildPrice(marketAreaId, retailerId, new BigDecimal(marketAreaId * 100 + retailerId)));
+            }
+        }
+        productSku.setPrices(prices);
+    }
+
+    @Test
+    public void testPriceLookup() {
+        for (long marketAreaId = 1; marketAreaId <= 10; marketAreaId++) {
+            for (long retailerId = 1; retailerId <= 5; retailerId++) {
+                ProductSkuPrice price = productSku.getPrice(new Long(marketAreaId), new Long(retailerId));
+                assertSame(scan(productSku.getPrices(), marketAreaId, retailerId), price);
+                assertEquals(new BigDecimal(marketAreaId * 100 + retailerId), price.getCatalogPrice());
+            }
+        }
+        assertNull(productSku.getPrice(new Long("11"), new Long("1")));
+        assertNull(productSku.getPrice(new Long("1"), null));
+
+        // AN ID BEYOND 32 BITS : THE PRICES ARE SCANNED
+        long bigId = 1L << 40;
+        productSku.getPrices().add(buildPrice(bigId, 1, new BigDecimal("42")));
+        assertEquals(new BigDecimal("42"), productSku.getPrice(new Long(bigId), new Long("1")).getCatalogPrice());
+        assertEquals(new BigDecimal("101"), productSku.getPrice(new Long("1"), new Long("1")).getCatalogPrice());
+    }
+
+    @Test
+    public void testIndexFollowsTheSet() {
+        assertNull(productSku.getPrice(new Long("1"), new Long("6")));
+        productSku.getPrices().add(buildPrice(1, 6, new BigDecimal("7")));
+        assertEquals(new BigDecimal("7"), productSku.getPrice(new Long("1"), new Long("6")).getCatalogPrice());
+
+        Set<ProductSkuPrice> prices = new HashSet<ProductSkuPrice>();
+        prices.add(buildPrice(2, 2, new BigDecimal("8")));
+        productSku.setPrices(prices);
+        assertNull(productSku.getPrice(new Long("1"), new Long("6")));
+        assertEquals(new BigDecimal("8"), productSku.getPrice(new Long("2"), new Long("2")).getCatalogPrice());
+
+        // A CHANGE IN PLACE NEEDS A RESET
+        prices.iterator().next().setRetailerId(new Long("3"));
+        productSku.resetPriceIndex();
+        assertNull(productSku.getPrice(new Long("2"), new Long("2")));
+        assertEquals(new BigDecimal("8"), productSku.getPrice(new Long("2"), new Long("3")).getCatalogPrice());
+
+        productSku.setPrices(null);
+        assertNull(productSku.getPrice(new Long("2"), new Long("3")));
+    }
+
+    @Test
+    public void testLongHashIndex() {
+        LongHashIndex<String> index = new LongHashIndex<String>(1000);
+        for (long i = 0; i < 1000; i++) {
+            index.put(LongHashIndex.pack(new Long(i % 7), new Long(i)), "V" + i);
+        }
+        assertEquals(1000, index.size());
+        for (long i = 0; i < 1000; i++) {
+            assertEquals("V" + i, index.get(LongHashIndex.pack(new Long(i % 7), new Long(i))));
+        }
+        assertNull(index.get(LongHashIndex.pack(new Long("8"), new Long("1"))));
+        assertEquals(LongHashIndex.NO_KEY, LongHashIndex.pack(new Long(1L << 32), new Long("1")));
+        assertEquals(LongHashIndex.NO_KEY, LongHashIndex.pack(null, new Long("1")));
+    }
+
+    @Test
+    public void testCartTotalBenchmark() {
+        Long marketAreaId = new Long("7");
+        Long retailerId = new Long("3");
+        long scanTime = 0;
+        long indexTime = 0;
+        int found = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+            long start = System.nanoTime();
+            for (int j = 0; j < LOOKUPS; j++) {
+                if (scan(productSku.getPrices(), marketAreaId.longValue(), retailerId.longValue()) != null) {
+                    found++;
+                }
+            }
+            long scanElapsed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int j = 0; j < LOOKUPS; j++) {
+                if (productSku.getPrice(marketAreaId, retailerId) != null) {
+                    found++;
+                }
+            }
+            long indexElapsed = System.nanoTime() - start;
+
+            if (i >= WARMUP_ITERATIONS) {
+                scanTime += scanElapsed;
+                indexTime += indexElapsed;
+            }
+        }
+        assertEquals((WARMUP_ITERATIONS + ITERATIONS) * LOOKUPS * 2, found);
+        logger.info("Price lookup among " + productSku.getPrices().size() + " prices: scan " + (scanTime / (ITERATIONS * LOOKUPS)) + " ns/op, index "
+                + (indexTime / (ITERATIONS * LOOKUPS)) + " ns/op");
+    }
+
+    /**
+     * The lookup without the index.
+     */
+    private ProductSkuPrice scan(final Set<ProductSkuPrice> prices, final long marketAreaId, final long retailerId) {
+        for (ProductSkuPrice productSkuPrice : prices) {
+            if (productSkuPrice.getMarketAreaId().longValue() == marketAreaId
+                    && productSkuPrice.getRetailerId().longValue() == retailerId) {
+                return productSkuPrice;
+            }
+        }
+        return null;
+    }
+
+    private ProductSkuPrice buildPrice(final long marketAreaId, final long retailerId, final BigDecimal catalogPrice) {
+        ProductSkuPrice productSkuPrice = new ProductSkuPrice();
+        // THE ID TELLS THE PRICES APART IN THE SET
+        productSkuPrice.setId(++id);
+        productSkuPrice.setMarketAreaId(marketAreaId);
+        productSkuPrice.setRetailerId(retailerId);
+        productSkuPrice.setCatalogPrice(catalogPrice);
+        return productSkuPrice;
+    }
+
+}
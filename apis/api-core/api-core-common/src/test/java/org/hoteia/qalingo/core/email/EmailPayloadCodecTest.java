@@ -0,0 +1,133 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.email;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hoteia.qalingo.core.util.impl.MimeMessagePreparatorImpl;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * EmailPayloadCodec Test : round trip of the payloads, shared bodies, rows serialized by Java
+ * before the format, and the size against the Java serialization.
+ */
+public class EmailPayloadCodecTest {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        MimeMessagePreparatorImpl mimeMessagePreparator = buildMimeMessagePreparator("Customer \u00e9t\u00e9");
+        mimeMessagePreparator.setCc(null);
+        byte[] data = EmailPayloadCodec.encode(mimeMessagePreparator, null, null);
+        assertFalse(EmailPayloadCodec.isJavaSerialization(data));
+
+        MimeMessagePreparatorImpl decoded = EmailPayloadCodec.decode(new ByteArrayInputStream(data), null);
+        assertSame(mimeMessagePreparator, decoded);
+        assertNull(decoded.getCc());
+    }
+
+    @Test
+    public void testSharedBodies() throws Exception {
+        MimeMessagePreparatorImpl mimeMessagePreparator = buildMimeMessagePreparator("Customer");
+        final Map<String, String> bodies = new HashMap<String, String>();
+        String htmlBodyHash = EmailPayloadCodec.hash(mimeMessagePreparator.getHtmlContent());
+        bodies.put(htmlBodyHash, EmailPayloadCodec.decodeBody(new ByteArrayInputStream(EmailPayloadCodec.encodeBody(mimeMessagePreparator.getHtmlContent()))));
+        assertEquals(40, htmlBodyHash.length());
+
+        byte[] inlineData = EmailPayloadCodec.encode(mimeMessagePreparator, null, null);
+        byte[] referenceData = EmailPayloadCodec.encode(mimeMessagePreparator, htmlBodyHash, null);
+        assertTrue(referenceData.length < inlineData.length);
+
+        MimeMessagePreparatorImpl decoded = EmailPayloadCodec.decode(new ByteArrayInputStream(referenceData), new EmailPayloadCodec.EmailBodyResolver() {
+            public String getBody(String hash) throws IOException {
+                return bodies.get(hash);
+            }
+        });
+        assertSame(mimeMessagePreparator, decoded);
+    }
+
+    @Test
+    public void testJavaSerializedRows() throws Exception {
+        MimeMessagePreparatorImpl mimeMessagePreparator = buildMimeMessagePreparator("Customer");
+        byte[] serializedData = serialize(mimeMessagePreparator);
+        assertTrue(EmailPayloadCodec.isJavaSerialization(serializedData));
+        assertSame(mimeMessagePreparator, EmailPayloadCodec.decode(new ByteArrayInputStream(serializedData), null));
+
+        Exception exception = new IllegalStateException("SMTP down");
+        String stackTrace = EmailPayloadCodec.decodeException(new ByteArrayInputStream(serialize(exception)));
+        assertTrue(stackTrace.startsWith("java.lang.IllegalStateException: SMTP down"));
+        assertEquals(stackTrace, EmailPayloadCodec.decodeException(new ByteArrayInputStream(EmailPayloadCodec.encodeException(exception))));
+    }
+
+    @Test
+    public void testSize() throws Exception {
+        MimeMessagePreparatorImpl mimeMessagePreparator = buildMimeMessagePreparator("Customer");
+        int serializedSize = serialize(mimeMessagePreparator).length;
+        int size = EmailPayloadCodec.encode(mimeMessagePreparator, null, null).length;
+        logger.info("Email payload: " + size + " bytes, Java serialization: " + serializedSize + " bytes");
+        assertTrue(size * 3 < serializedSize);
+    }
+
+    private MimeMessagePreparatorImpl buildMimeMessagePreparator(final String name) {
+        MimeMessagePreparatorImpl mimeMessagePreparator = new MimeMessagePreparatorImpl();
+        mimeMessagePreparator.setFrom("contact@hoteia.com");
+        mimeMessagePreparator.setFromName("Qalingo");
+        mimeMessagePreparator.setTo("customer@hoteia.com");
+        mimeMessagePreparator.setCc("cc@hoteia.com");
+        mimeMessagePreparator.setReplyTo("contact@hoteia.com");
+        mimeMessagePreparator.setSubject("Your shopping cart, " + name);
+        mimeMessagePreparator.setMirroringActivated(true);
+        mimeMessagePreparator.setMirroringFilePath("/mirroring/abandoned_shopping_cart/1.html");
+        StringBuilder html = new StringBuilder("<html><body><p>Hello " + name + "</p>");
+        for (int i = 0; i < 200; i++) {
+            html.append("<tr><td class=\"product\">Product ").append(i).append("</td><td class=\"price\">12.50 EUR</td></tr>");
+        }
+        mimeMessagePreparator.setHtmlContent(html.append("</body></html>").toString());
+        mimeMessagePreparator.setPlainTextContent("Hello " + name + ", your shopping cart is waiting for you.");
+        return mimeMessagePreparator;
+    }
+
+    private byte[] serialize(final Serializable object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(object);
+        oos.close();
+        return bos.toByteArray();
+    }
+
+    private void assertSame(final MimeMessagePreparatorImpl expected, final MimeMessagePreparatorImpl actual) {
+        assertEquals(expected.getFrom(), actual.getFrom());
+        assertEquals(expected.getFromName(), actual.getFromName());
+        assertEquals(expected.getTo(), actual.getTo());
+        assertEquals(expected.getCc(), actual.getCc());
+        assertEquals(expected.getReplyTo(), actual.getReplyTo());
+        assertEquals(expected.getSubject(), actual.getSubject());
+        assertEquals(expected.getUnsubscribeUrlOrEmail(), actual.getUnsubscribeUrlOrEmail());
+        assertEquals(expected.isMirroringActivated(), actual.isMirroringActivated());
+        assertEquals(expected.getMirroringFilePath(), actual.getMirroringFilePath());
+        assertEquals(expected.getHtmlContent(), actual.getHtmlContent());
+        assertEquals(expected.getPlainTextContent(), actual.getPlainTextContent());
+    }
+
+}
@@ -0,0 +1,221 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.lang.StringUtils;
+import org.hoteia.qalingo.core.RequestConstants;
+import org.hoteia.qalingo.core.domain.CatalogCategoryVirtual;
+import org.hoteia.qalingo.core.domain.Localization;
+import org.hoteia.qalingo.core.domain.Market;
+import org.hoteia.qalingo.core.domain.MarketArea;
+import org.hoteia.qalingo.core.domain.MarketPlace;
+import org.hoteia.qalingo.core.domain.ProductMarketing;
+import org.hoteia.qalingo.core.domain.ProductSku;
+import org.hoteia.qalingo.core.domain.Retailer;
+import org.hoteia.qalingo.core.domain.enumtype.FoUrls;
+import org.hoteia.qalingo.core.i18n.message.CoreMessageSource;
+import org.hoteia.qalingo.core.pojo.RequestData;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * UrlService Test : the compiled url patterns render as the regex replacements did, the seo
+ * prefix is cached by context, and a benchmark of generateUrl.
+ */
+public class UrlServiceTest {
+
+    private static final int WARMUP_ITERATIONS = 100000;
+    private static final int ITERATIONS = 100000;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private UrlService urlService;
+    private RequestData requestData;
+    private int seoMessageCount;
+
+    @Before
+    public void setUp() {
+        urlService = new UrlService();
+        urlService.coreMessageSource = new CoreMessageSource() {
+            @Override
+            public String getSpecificMessage(String universe, String scope, String key, Locale locale) {
+                seoMessageCount++;
+                return "Boutique en ligne";
+            }
+        };
+
+        requestData = new RequestData("/fo");
+        requestData.setMarketPlace(buildMarketPlace());
+        Market market = new Market();
+        market.setCode("EUROPE");
+        requestData.setMarket(market);
+        MarketArea marketArea = new MarketArea();
+        marketArea.setCode("FRA");
+        requestData.setMarketArea(marketArea);
+        requestData.setMarketAreaLocalization(buildLocalization("fr"));
+        Retailer retailer = new Retailer();
+        retailer.setCode("RETAILER_1");
+        requestData.setMarketAreaRetailer(retailer);
+    }
+
+    @Test
+    public void testTemplatesRenderAsTheRegexReplacements() {
+        Map<String, String> urlParams = new HashMap<String, String>();
+        urlParams.put(RequestConstants.URL_PATTERN_CATEGORY_CODE, "category-1");
+        urlParams.put(RequestConstants.URL_PATTERN_PRODUCT_MARKETING_CODE, "marketing-1");
+        urlParams.put(RequestConstants.URL_PATTERN_PRODUCT_SKU_CODE, "sku-1");
+        urlParams.put(RequestConstants.URL_PATTERN_STORE_CODE, "store-1");
+        urlParams.put(RequestConstants.URL_PATTERN_RETAILER_CODE, "retailer-1");
+        Map<String, String> getParams = new LinkedHashMap<String, String>();
+        getParams.put("page", "2");
+        getParams.put("sort", "price");
+
+        for (FoUrls url : FoUrls.values()) {
+            String pattern = url.getUrlWithoutWildcard();
+            assertEquals(url.name(), regexHandleUrlParameters("/fo/prefix" + pattern, urlParams, getParams),
+                    urlService.buildUrl("/fo/prefix", pattern, urlParams, getParams));
+            assertEquals(url.name(), regexHandleUrlParameters("/fo" + pattern, null, null), urlService.buildUrl("/fo", pattern, null, null));
+        }
+        // A PARAMETER WITHOUT VALUE IS KEPT, THE SLUG, NOT A PARAMETER
+        Map<String, String> slugParams = new HashMap<String, String>();
+        slugParams.put("slug", "my-slug");
+        for (String pattern : new String[] { "/**/a-{code:[0-9]+}-{code}.html", "/{a{b}}/{:x}/{name:}/{}", "/plain" }) {
+            assertEquals(pattern, regexHandleUrlParameters("/fo" + pattern, slugParams, null), urlService.buildUrl("/fo", pattern, slugParams, null));
+            assertEquals(pattern, regexHandleUrlParameters(pattern, slugParams, getParams), urlService.handleUrlParameters(pattern, slugParams, getParams));
+        }
+    }
+
+    @Test
+    public void testSeoPrefixIsCachedByContext() {
+        ProductMarketing productMarketing = buildProductMarketing();
+        String url = urlService.generateUrl(FoUrls.PRODUCT_DETAILS, requestData, buildCategory(), productMarketing, productMarketing.getDefaultProductSku());
+        assertEquals("/fo/marketplace/europe/fra/fr/retailer_1/boutique-en-ligne/velo-de-route/velo-1/product-details-route-pm-velo-1-sku-velo-1-rouge.html", url);
+        assertEquals(1, seoMessageCount);
+
+        urlService.generateUrl(FoUrls.HOME, requestData);
+        assertEquals(1, seoMessageCount);
+
+        requestData.setMarketAreaLocalization(buildLocalization("en"));
+        assertEquals("/fo/marketplace/europe/fra/en/retailer_1/boutique-en-ligne/home.html", urlService.generateUrl(FoUrls.HOME, requestData));
+        assertEquals(2, seoMessageCount);
+
+        urlService.clearUrlCaches();
+        urlService.generateUrl(FoUrls.HOME, requestData);
+        assertEquals(3, seoMessageCount);
+    }
+
+    @Test
+    public void testGenerateUrlBenchmark() {
+        ProductMarketing productMarketing = buildProductMarketing();
+        Object[] params = new Object[] { buildCategory(), productMarketing, productMarketing.getDefaultProductSku() };
+        Map<String, String> urlParams = new HashMap<String, String>();
+        urlParams.put(RequestConstants.URL_PATTERN_CATEGORY_CODE, "route");
+        urlParams.put(RequestConstants.URL_PATTERN_PRODUCT_MARKETING_CODE, "velo-1");
+        urlParams.put(RequestConstants.URL_PATTERN_PRODUCT_SKU_CODE, "velo-1-rouge");
+        String prefixUrl = "/fo/marketplace/europe/fra/fr/retailer_1/boutique-en-ligne/velo-de-route/velo-1";
+        String pattern = FoUrls.PRODUCT_DETAILS.getUrlWithoutWildcard();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            regexHandleUrlParameters(prefixUrl + pattern, urlParams, null);
+            urlService.buildUrl(prefixUrl, pattern, urlParams, null);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            regexHandleUrlParameters(prefixUrl + pattern, urlParams, null);
+        }
+        long regexRenderTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            urlService.buildUrl(prefixUrl, pattern, urlParams, null);
+        }
+        long templateRenderTime = System.nanoTime() - start;
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            urlService.generateUrl(FoUrls.PRODUCT_DETAILS, requestData, params);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            urlService.generateUrl(FoUrls.PRODUCT_DETAILS, requestData, params);
+        }
+        long templateTime = System.nanoTime() - start;
+
+        logger.info("generateUrl: " + (templateTime / ITERATIONS) + " ns/op, rendering with regex: " + (regexRenderTime / ITERATIONS)
+                + " ns/op, with the template: " + (templateRenderTime / ITERATIONS) + " ns/op");
+    }
+
+    /**
+     * The rendering before the templates.
+     */
+    private String regexHandleUrlParameters(String url, Map<String, String> urlParams, Map<String, String> getParams) {
+        if (StringUtils.isNotEmpty(url)) {
+            if (urlParams != null) {
+                for (Entry<String, String> entry : urlParams.entrySet()) {
+                    String key = String.format("\\{%s(:[^\\}]+)?\\}", entry.getKey());
+                    if (StringUtils.equals(entry.getKey(), "slug")) {
+                        key = "\\*\\*";
+                    }
+                    if (entry.getValue() != null) {
+                        url = url.replaceAll(key, entry.getValue());
+                    }
+                }
+            }
+            String queryString = "";
+            if (getParams != null) {
+                for (Entry<String, String> entry : getParams.entrySet()) {
+                    queryString += "&" + entry.getKey() + "=" + entry.getValue();
+                }
+            }
+            return url + queryString.replaceFirst("&", "?");
+        }
+        return url;
+    }
+
+    private MarketPlace buildMarketPlace() {
+        MarketPlace marketPlace = new MarketPlace();
+        marketPlace.setCode("MARKETPLACE");
+        return marketPlace;
+    }
+
+    private Localization buildLocalization(final String language) {
+        Localization localization = new Localization();
+        localization.setCode(language);
+        localization.setLanguage(language);
+        return localization;
+    }
+
+    private CatalogCategoryVirtual buildCategory() {
+        CatalogCategoryVirtual category = new CatalogCategoryVirtual();
+        category.setCode("ROUTE");
+        category.setName("Velo de route");
+        return category;
+    }
+
+    private ProductMarketing buildProductMarketing() {
+        ProductMarketing productMarketing = new ProductMarketing();
+        productMarketing.setCode("VELO_1");
+        productMarketing.setName("Velo 1");
+        ProductSku productSku = new ProductSku();
+        productSku.setCode("VELO_1_ROUGE");
+        productSku.setName("Velo rouge");
+        productSku.setDefault(true);
+        productMarketing.getProductSkus().add(productSku);
+        return productMarketing;
+    }
+
+}
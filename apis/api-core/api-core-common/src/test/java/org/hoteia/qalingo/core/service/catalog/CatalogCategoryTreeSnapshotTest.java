@@ -0,0 +1,199 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.catalog;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hoteia.qalingo.core.service.CatalogCategoryService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+/**
+ * CatalogCategoryTreeSnapshot Test : sorted children, breadcrumb, product sku membership,
+ * default category, counts and the rebuild after an invalidation, once committed.
+ */
+public class CatalogCategoryTreeSnapshotTest {
+
+    private static final Long CATALOG_1 = new Long("1");
+    private static final Long CATALOG_2 = new Long("2");
+
+    private CatalogCategoryTreeSnapshot snapshot;
+
+    private final List<Object[]> categoryRows = new ArrayList<Object[]>();
+    private final List<Object[]> productSkuRows = new ArrayList<Object[]>();
+
+    @Before
+    public void setUp() {
+        // CATALOG 1 : A (B BEFORE A), A > D, C, E (BY RANKING, NO RANKING LAST), E > F
+        addCategory(1, CATALOG_1, null, 2, false);
+        addCategory(2, CATALOG_1, null, 1, false);
+        addCategory(3, CATALOG_1, 1L, 2, false);
+        addCategory(4, CATALOG_1, 1L, 1, true);
+        addCategory(5, CATALOG_1, 1L, null, false);
+        addCategory(6, CATALOG_1, 5L, 1, false);
+        // CATALOG 2
+        addCategory(10, CATALOG_2, null, 1, true);
+
+        // PRODUCT SKUS 100 AND 101 : SAME PRODUCT MARKETING
+        addProductSku(3, 100, 2, true);
+        addProductSku(4, 100, 1, false);
+        addProductSku(10, 100, 1, false);
+        addProductSku(3, 101, 1, false);
+        addProductSku(3, 102, 3, false, 1002);
+
+        snapshot = new CatalogCategoryTreeSnapshot();
+        snapshot.setRefreshDelay(60000);
+        snapshot.setRebuildDelay(10);
+        ReflectionTestUtils.setField(snapshot, "catalogCategoryService", new CatalogCategoryService() {
+            @Override
+            public List<Object[]> findVirtualCategoryTreeRows() {
+                return new ArrayList<Object[]>(categoryRows);
+            }
+
+            @Override
+            public List<Object[]> findVirtualCategoryProductSkuRows() {
+                return new ArrayList<Object[]>(productSkuRows);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        snapshot.shutdown();
+    }
+
+    @Test
+    public void testTree() {
+        CatalogCategoryTree tree = snapshot.getTree(CATALOG_1);
+        assertNotNull(tree);
+        assertEquals(6, tree.size());
+        assertSame(tree, snapshot.getTreeOfCategory(new Long("6")));
+        assertNull(snapshot.getTreeOfCategory(new Long("99")));
+
+        assertArrayEquals(new long[] { 2, 1 }, ids(tree, tree.getRootIndexes()));
+        assertArrayEquals(new long[] { 4, 3, 5 }, tree.getChildIds(tree.indexOf(new Long("1"))));
+        assertArrayEquals(new long[] { 1, 5, 6 }, ids(tree, tree.getPathIndexes(tree.indexOfCode("CATEGORY_6"))));
+
+        int category3 = tree.indexOf(new Long("3"));
+        assertArrayEquals(new long[] { 101, 100, 102 }, tree.getProductSkuIds(category3));
+        assertEquals(3, tree.getProductSkuCount(category3));
+        assertEquals(2, tree.getProductMarketingCount(category3));
+        assertEquals(3, tree.getChildCount(tree.indexOf(new Long("1"))));
+        assertEquals(0, tree.getChildCount(category3));
+        assertEquals(0, tree.getProductSkuCount(tree.indexOf(new Long("5"))));
+        assertTrue(tree.containsProductSku(category3, new Long("100")));
+        assertFalse(tree.containsProductSku(tree.indexOf(new Long("5")), new Long("100")));
+        assertTrue(tree.isDefaultCategoryOf(category3, new Long("100")));
+        assertFalse(tree.isDefaultCategoryOf(tree.indexOf(new Long("4")), new Long("100")));
+        assertArrayEquals(new long[] { 3, 4 }, ids(tree, tree.getProductSkuCategoryIndexes(new Long("100"))));
+        assertEquals(0, tree.getProductSkuCategoryIndexes(new Long("999")).length);
+    }
+
+    @Test
+    public void testDefaultCategoryId() {
+        // THE LAST DEFAULT CATEGORY IN THE ID ORDER, ALL CATALOGS
+        assertEquals(new Long("10"), snapshot.getDefaultCategoryId(new Long("100")));
+        // NO DEFAULT CATEGORY : THE FIRST ONE
+        assertEquals(new Long("3"), snapshot.getDefaultCategoryId(new Long("101")));
+        assertNull(snapshot.getDefaultCategoryId(new Long("999")));
+    }
+
+    @Test
+    public void testInvalidationRebuildsTheTrees() throws Exception {
+        CatalogCategoryTree tree = snapshot.getTree(CATALOG_1);
+        assertEquals(1, snapshot.getLoadCount());
+
+        addCategory(7, CATALOG_1, 2L, 1, false);
+        snapshot.invalidate();
+        snapshot.invalidate();
+        // THE CURRENT TREE IS READ UNTIL THE REBUILD
+        assertSame(tree, snapshot.getTree(CATALOG_1));
+        for (int i = 0; i < 500 && snapshot.getLoadCount() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, snapshot.getLoadCount());
+        assertEquals(2, snapshot.getInvalidationCount());
+
+        CatalogCategoryTree rebuiltTree = snapshot.getTree(CATALOG_1);
+        assertEquals(7, rebuiltTree.size());
+        assertArrayEquals(new long[] { 7 }, rebuiltTree.getChildIds(rebuiltTree.indexOf(new Long("2"))));
+        assertEquals(6, tree.size());
+    }
+
+    @Test
+    public void testInvalidationWaitsForTheCommit() throws Exception {
+        snapshot.getTree(CATALOG_1);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            addCategory(7, CATALOG_1, 2L, 1, false);
+            snapshot.invalidate();
+            Thread.sleep(100);
+            assertEquals(1, snapshot.getLoadCount());
+
+            TransactionSynchronizationUtils.triggerAfterCommit();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        for (int i = 0; i < 500 && snapshot.getLoadCount() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, snapshot.getLoadCount());
+        assertEquals(7, snapshot.getTree(CATALOG_1).size());
+    }
+
+    @Test
+    public void testInvalidationIsDroppedOnRollback() throws Exception {
+        snapshot.getTree(CATALOG_1);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            snapshot.invalidate();
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        Thread.sleep(100);
+        assertEquals(1, snapshot.getLoadCount());
+    }
+
+    private void addCategory(final long id, final Long catalogId, final Long parentId, final Integer ranking, final boolean isDefault) {
+        categoryRows.add(new Object[] { new Long(id), "CATEGORY_" + id, catalogId, parentId, ranking, Boolean.valueOf(isDefault) });
+    }
+
+    private void addProductSku(final long categoryId, final long productSkuId, final Integer ranking, final boolean isDefaultCategory) {
+        addProductSku(categoryId, productSkuId, ranking, isDefaultCategory, 1000);
+    }
+
+    private void addProductSku(final long categoryId, final long productSkuId, final Integer ranking, final boolean isDefaultCategory, final long productMarketingId) {
+        productSkuRows.add(new Object[] { new Long(categoryId), new Long(productSkuId), ranking, Boolean.valueOf(isDefaultCategory), new Long(productMarketingId) });
+    }
+
+    private long[] ids(final CatalogCategoryTree tree, final int[] indexes) {
+        long[] ids = new long[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            ids[i] = tree.getCategoryId(indexes[i]);
+        }
+        return ids;
+    }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hoteia.qalingo.core.domain.CurrencyReferential;
+import org.hoteia.qalingo.core.service.CurrencyReferentialService;
+import org.hoteia.qalingo.core.service.ProductService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+/**
+ * ProductSkuPriceSnapshot Test : load by pages of price rows, lookups, refresh and the
+ * rebuild after an invalidation, once committed.
+ */
+public class ProductSkuPriceSnapshotTest {
+
+    private ProductSkuPriceSnapshot snapshot;
+    private CurrencyReferential euro;
+
+    private final List<Object[]> rows = new ArrayList<Object[]>();
+    private final List<Long> requestedAfterIds = new ArrayList<Long>();
+
+    @Before
+    public void setUp() {
+        euro = new CurrencyReferential();
+        euro.setId(new Long("1"));
+        euro.setCode("EUR");
+
+        long id = 0;
+        for (long productSkuId = 1; productSkuId <= 25; productSkuId++) {
+            for (long marketAreaId = 1; marketAreaId <= 2; marketAreaId++) {
+                rows.add(new Object[] { new Long(++id), new Long(productSkuId), new Long(marketAreaId), new Long("1"),
+                        new BigDecimal(productSkuId * 10 + marketAreaId), new Long("1") });
+            }
+        }
+
+        snapshot = new ProductSkuPriceSnapshot();
+        snapshot.setPageSize(20);
+        snapshot.setRefreshDelay(60000);
+        snapshot.setRebuildDelay(10);
+        ReflectionTestUtils.setField(snapshot, "productService", new ProductService() {
+            @Override
+            public List<Object[]> findProductSkuPriceRows(Long afterId, int pageSize) {
+                requestedAfterIds.add(afterId);
+                List<Object[]> page = new ArrayList<Object[]>();
+                for (Object[] row : rows) {
+                    if ((afterId == null || (Long) row[0] > afterId)
+                            && page.size() < pageSize) {
+                        page.add(row);
+                    }
+                }
+                return page;
+            }
+        });
+        ReflectionTestUtils.setField(snapshot, "currencyReferentialService", new CurrencyReferentialService() {
+            @Override
+            public List<CurrencyReferential> findCurrencyReferentials(Object... params) {
+                List<CurrencyReferential> currencies = new ArrayList<CurrencyReferential>();
+                currencies.add(euro);
+                return currencies;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        snapshot.shutdown();
+    }
+
+    @Test
+    public void testLoadedByPagesOnFirstLookup() {
+        assertEquals(0, snapshot.getSize());
+        SnapshotPrice price = snapshot.getPrice(new Long("12"), new Long("2"), new Long("1"));
+        assertEquals(new BigDecimal("122"), price.getCatalogPrice());
+        assertEquals(new BigDecimal("122"), price.getSalePrice());
+        assertSame(euro, price.getCurrency());
+        assertEquals(50, snapshot.getSize());
+        assertEquals(1, snapshot.getLoadCount());
+        // 50 ROWS BY PAGES OF 20
+        assertEquals(3, requestedAfterIds.size());
+        assertNull(requestedAfterIds.get(0));
+        assertEquals(new Long("20"), requestedAfterIds.get(1));
+        assertEquals(new Long("40"), requestedAfterIds.get(2));
+
+        assertNull(snapshot.getPrice(new Long("12"), new Long("3"), new Long("1")));
+        assertNull(snapshot.getPrice(new Long("99"), new Long("1"), new Long("1")));
+        assertNull(snapshot.getPrice(null, new Long("1"), new Long("1")));
+        assertEquals(1, snapshot.getLoadCount());
+    }
+
+    @Test
+    public void testRefresh() {
+        assertEquals(new BigDecimal("11"), snapshot.getPrice(new Long("1"), new Long("1"), new Long("1")).getCatalogPrice());
+        rows.set(0, new Object[] { new Long("1"), new Long("1"), new Long("1"), new Long("1"), new BigDecimal("9"), new Long("1") });
+        assertEquals(new BigDecimal("11"), snapshot.getPrice(new Long("1"), new Long("1"), new Long("1")).getCatalogPrice());
+        snapshot.refresh();
+        assertEquals(new BigDecimal("9"), snapshot.getPrice(new Long("1"), new Long("1"), new Long("1")).getCatalogPrice());
+        assertEquals(2, snapshot.getLoadCount());
+    }
+
+    @Test
+    public void testInvalidationRebuildsAfterTheCommit() throws Exception {
+        assertEquals(new BigDecimal("11"), snapshot.getPrice(new Long("1"), new Long("1"), new Long("1")).getCatalogPrice());
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            rows.set(0, new Object[] { new Long("1"), new Long("1"), new Long("1"), new Long("1"), new BigDecimal("9"), new Long("1") });
+            snapshot.invalidate();
+            snapshot.invalidate();
+            Thread.sleep(100);
+            assertEquals(1, snapshot.getLoadCount());
+
+            TransactionSynchronizationUtils.triggerAfterCommit();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        for (int i = 0; i < 500 && snapshot.getLoadCount() < 2; i++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        // THE INVALIDATIONS SHARE ONE REBUILD
+        assertEquals(2, snapshot.getLoadCount());
+        assertEquals(2, snapshot.getInvalidationCount());
+        assertEquals(new BigDecimal("9"), snapshot.getPrice(new Long("1"), new Long("1"), new Long("1")).getCatalogPrice());
+    }
+
+}
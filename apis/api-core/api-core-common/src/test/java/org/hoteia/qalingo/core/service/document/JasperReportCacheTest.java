@@ -0,0 +1,113 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.jasperreports.engine.JREmptyDataSource;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperFillManager;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JasperReportCache Test : one compilation by template and modification date, and the
+ * pre-compiled .jasper loaded instead of compiling.
+ */
+public class JasperReportCacheTest {
+
+    private static final String JRXML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<jasperReport xmlns=\"http://jasperreports.sourceforge.net/jasperreports\""
+            + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+            + " xsi:schemaLocation=\"http://jasperreports.sourceforge.net/jasperreports http://jasperreports.sourceforge.net/xsd/jasperreport.xsd\""
+            + " name=\"test\" pageWidth=\"595\" pageHeight=\"842\" columnWidth=\"555\" leftMargin=\"20\" rightMargin=\"20\" topMargin=\"20\" bottomMargin=\"20\">\n"
+            + "<parameter name=\"orderNum\" class=\"java.lang.String\"/>\n"
+            + "<title><band height=\"30\"><textField><reportElement x=\"0\" y=\"0\" width=\"200\" height=\"20\"/>"
+            + "<textFieldExpression><![CDATA[\"Order \" + $P{orderNum}]]></textFieldExpression></textField></band></title>\n"
+            + "</jasperReport>\n";
+
+    private File folder;
+    private JasperReportCache jasperReportCache;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("jasper", "");
+        folder.delete();
+        folder.mkdirs();
+        jasperReportCache = new JasperReportCache();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : folder.listFiles()) {
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    @Test
+    public void testReportIsCompiledOnce() throws Exception {
+        String jrxml = writeJrxml("invoice.jrxml");
+        JasperReport jasperReport = jasperReportCache.getReport(jrxml);
+        assertSame(jasperReport, jasperReportCache.getReport(jrxml));
+        assertEquals(1, jasperReportCache.getCompileCount(jrxml));
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("orderNum", "42");
+        JasperPrint jasperPrint = JasperFillManager.fillReport(jasperReport, parameters, new JREmptyDataSource());
+        assertEquals(1, jasperPrint.getPages().size());
+
+        // THE TEMPLATE CHANGED
+        new File(jrxml).setLastModified(new File(jrxml).lastModified() + 2000);
+        assertNotSame(jasperReport, jasperReportCache.getReport(jrxml));
+        assertEquals(2, jasperReportCache.getCompileCount(jrxml));
+    }
+
+    @Test
+    public void testPrecompiledReportIsLoaded() throws Exception {
+        String jrxml = writeJrxml("order-confirmation.jrxml");
+        File jasperFile = new File(folder, "order-confirmation.jasper");
+        JasperCompileManager.compileReportToFile(jrxml, jasperFile.getPath());
+        jasperFile.setLastModified(new File(jrxml).lastModified() + 2000);
+
+        jasperReportCache.getReport(jrxml);
+        assertEquals(0, jasperReportCache.getCompileCount(jrxml));
+        assertEquals(1, jasperReportCache.getLoadCount(jrxml));
+
+        jasperReportCache.recordFill(jrxml, 3000000);
+        assertTrue(jasperReportCache.getTemplateTimings()[0].contains("load=1, fill=1/3ms"));
+    }
+
+    private String writeJrxml(final String name) throws IOException {
+        File file = new File(folder, name);
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(JRXML.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+        return file.getPath();
+    }
+
+}
@@ -0,0 +1,350 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.email;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hoteia.qalingo.core.service.EmailService;
+import org.hoteia.qalingo.core.util.impl.MimeMessagePreparatorImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * EmailDispatcher Test : a burst of notifications sent in a few batches over a local SMTP
+ * stub, rejected recipients retried in the next dispatch and SMTP server down.
+ */
+public class EmailDispatcherTest {
+
+    private SmtpStub smtpStub;
+    private EmailDispatcher emailDispatcher;
+    private JavaMailSenderImpl mailSender;
+
+    private final List<Long> pendingEmailIds = Collections.synchronizedList(new ArrayList<Long>());
+    private final Map<Long, String> recipients = new ConcurrentHashMap<Long, String>();
+    private final List<Long> sentEmailIds = Collections.synchronizedList(new ArrayList<Long>());
+    private final Map<Long, Exception> errorEmails = new ConcurrentHashMap<Long, Exception>();
+    private final Map<Long, Date> errorDates = new ConcurrentHashMap<Long, Date>();
+    private final Map<Long, Integer> claimCounts = new ConcurrentHashMap<Long, Integer>();
+
+    @Before
+    public void setUp() throws Exception {
+        smtpStub = new SmtpStub();
+        smtpStub.start();
+
+        mailSender = new JavaMailSenderImpl();
+        mailSender.setHost("127.0.0.1");
+        mailSender.setPort(smtpStub.getPort());
+        Properties javaMailProperties = new Properties();
+        javaMailProperties.setProperty("mail.smtp.timeout", "5000");
+        javaMailProperties.setProperty("mail.smtp.connectiontimeout", "5000");
+        mailSender.setJavaMailProperties(javaMailProperties);
+
+        emailDispatcher = newEmailDispatcher(new EmailDispatcher());
+    }
+
+    private EmailDispatcher newEmailDispatcher(final EmailDispatcher emailDispatcher) {
+        emailDispatcher.setBatchSize(100);
+        emailDispatcher.setThreads(4);
+        emailDispatcher.setCoalesceDelay(50);
+        emailDispatcher.setPollDelay(3600000);
+        ReflectionTestUtils.setField(emailDispatcher, "staleDelay", 600000L);
+        ReflectionTestUtils.setField(emailDispatcher, "mailSender", mailSender);
+        ReflectionTestUtils.setField(emailDispatcher, "emailService", new EmailService() {
+            @Override
+            public Map<Long, MimeMessagePreparatorImpl> claimEmailsForSync(int maxResults, Date staleBefore, Date retryBefore, Collection<Long> excludedEmailIds) {
+                Map<Long, MimeMessagePreparatorImpl> mimeMessagePreparators = new LinkedHashMap<Long, MimeMessagePreparatorImpl>();
+                synchronized (pendingEmailIds) {
+                    while (!pendingEmailIds.isEmpty() && mimeMessagePreparators.size() < maxResults) {
+                        Long emailId = pendingEmailIds.remove(0);
+                        mimeMessagePreparators.put(emailId, buildMimeMessagePreparator(recipients.get(emailId)));
+                    }
+                    for (Map.Entry<Long, Date> entry : new TreeMap<Long, Date>(errorDates).entrySet()) {
+                        if (mimeMessagePreparators.size() < maxResults
+                                && entry.getValue().before(retryBefore)
+                                && !excludedEmailIds.contains(entry.getKey())) {
+                            errorDates.remove(entry.getKey());
+                            mimeMessagePreparators.put(entry.getKey(), buildMimeMessagePreparator(recipients.get(entry.getKey())));
+                        }
+                    }
+                }
+                for (Long emailId : mimeMessagePreparators.keySet()) {
+                    Integer claimCount = claimCounts.get(emailId);
+                    claimCounts.put(emailId, claimCount != null ? claimCount + 1 : 1);
+                }
+                return mimeMessagePreparators;
+            }
+
+            @Override
+            public void markEmailsSended(List<Long> emailIds) {
+                sentEmailIds.addAll(emailIds);
+            }
+
+            @Override
+            public void markEmailsError(Map<Long, Exception> exceptions) {
+                errorEmails.putAll(exceptions);
+                for (Long emailId : exceptions.keySet()) {
+                    errorDates.put(emailId, new Date());
+                }
+            }
+
+            @Override
+            public long countEmailsForSync() {
+                return pendingEmailIds.size();
+            }
+        });
+        return emailDispatcher;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        emailDispatcher.shutdown();
+        smtpStub.stop();
+    }
+
+    @Test
+    public void testBurstIsSentInBatches() throws Exception {
+        queueEmails(250, null);
+        for (int i = 0; i < 1000; i++) {
+            emailDispatcher.signal();
+        }
+        waitForDispatch(250);
+
+        assertEquals(250, sentEmailIds.size());
+        assertEquals(250, smtpStub.getMessageCount());
+        assertTrue(errorEmails.isEmpty());
+        // 1000 NOTIFICATIONS, ONE DISPATCH OF 3 BATCHES
+        assertEquals(1000, emailDispatcher.getSignalCount());
+        assertEquals(1, emailDispatcher.getDispatchCount());
+        assertEquals(3, emailDispatcher.getBatchCount());
+        // ONE SMTP CONNECTION PER SENDER THREAD AND PER BATCH
+        assertTrue("Connections: " + smtpStub.getConnectionCount(), smtpStub.getConnectionCount() <= 3 * 4);
+        assertEquals(0, emailDispatcher.getQueueDepth());
+        assertTrue(emailDispatcher.getSendRate() > 0);
+    }
+
+    @Test
+    public void testRejectedRecipientIsInError() throws Exception {
+        queueEmails(10, new Long(3));
+        emailDispatcher.dispatch();
+
+        assertEquals(9, sentEmailIds.size());
+        assertEquals(1, errorEmails.size());
+        assertTrue(errorEmails.containsKey(new Long(3)));
+        assertEquals(9, smtpStub.getMessageCount());
+        assertEquals(1, emailDispatcher.getErrorCount());
+    }
+
+    @Test
+    public void testSmtpServerDown() throws Exception {
+        smtpStub.stop();
+        queueEmails(5, null);
+        emailDispatcher.dispatch();
+
+        assertEquals(0, sentEmailIds.size());
+        assertEquals(5, errorEmails.size());
+    }
+
+    @Test
+    public void testEmailInErrorIsRetriedInTheNextDispatch() throws Exception {
+        emailDispatcher.setBatchSize(2);
+        emailDispatcher.setRetryDelay(0);
+        queueEmails(6, new Long(3));
+        emailDispatcher.dispatch();
+
+        // THE FULL BATCHES DO NOT CLAIM THE FAILED EMAIL AGAIN
+        assertEquals(5, sentEmailIds.size());
+        assertEquals(new Integer(1), claimCounts.get(new Long(3)));
+        assertEquals(3, emailDispatcher.getBatchCount());
+
+        Thread.sleep(10);
+        emailDispatcher.dispatch();
+        assertEquals(new Integer(2), claimCounts.get(new Long(3)));
+        assertEquals(5, sentEmailIds.size());
+    }
+
+    @Test
+    public void testSmtpServerDownStopsTheDispatch() throws Exception {
+        smtpStub.stop();
+        emailDispatcher.setBatchSize(2);
+        emailDispatcher.setRetryDelay(0);
+        queueEmails(6, null);
+        emailDispatcher.dispatch();
+
+        // ONE BATCH TRIED, THE OTHER EMAILS WAIT FOR THE NEXT POLL
+        assertEquals(1, emailDispatcher.getBatchCount());
+        assertEquals(2, errorEmails.size());
+        assertEquals(4, pendingEmailIds.size());
+    }
+
+    @Test
+    public void testFailedSenderPutsItsChunkInError() throws Exception {
+        emailDispatcher.shutdown();
+        emailDispatcher = newEmailDispatcher(new EmailDispatcher() {
+            @Override
+            protected Map<Long, Exception> sendChunk(List<Long> emailIds, List<MimeMessagePreparatorImpl> chunk) {
+                if (emailIds.contains(new Long(4))) {
+                    throw new IllegalStateException("Sender failed");
+                }
+                return super.sendChunk(emailIds, chunk);
+            }
+        });
+        // 10 EMAILS, 4 THREADS : CHUNKS OF 3, THE SECOND ONE FAILS
+        queueEmails(10, null);
+        emailDispatcher.dispatch();
+
+        assertEquals(7, sentEmailIds.size());
+        assertEquals(3, errorEmails.size());
+        for (long emailId = 4; emailId <= 6; emailId++) {
+            assertTrue(errorEmails.get(emailId) instanceof IllegalStateException);
+            assertFalse(sentEmailIds.contains(emailId));
+        }
+        assertEquals(7, smtpStub.getMessageCount());
+        assertEquals(3, emailDispatcher.getErrorCount());
+    }
+
+    private void queueEmails(final int count, final Long rejectedEmailId) {
+        for (long emailId = 1; emailId <= count; emailId++) {
+            recipients.put(emailId, new Long(emailId).equals(rejectedEmailId) ? "reject@hoteia.com" : "customer" + emailId + "@hoteia.com");
+            pendingEmailIds.add(emailId);
+        }
+    }
+
+    private void waitForDispatch(final int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 20000;
+        while (sentEmailIds.size() + errorEmails.size() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        // THE METRICS ARE SET AT THE END OF THE DISPATCH
+        Thread.sleep(100);
+    }
+
+    private MimeMessagePreparatorImpl buildMimeMessagePreparator(final String to) {
+        MimeMessagePreparatorImpl mimeMessagePreparator = new MimeMessagePreparatorImpl();
+        mimeMessagePreparator.setFrom("contact@hoteia.com");
+        mimeMessagePreparator.setFromName("Qalingo");
+        mimeMessagePreparator.setTo(to);
+        mimeMessagePreparator.setSubject("Your order");
+        mimeMessagePreparator.setHtmlContent("<p>Thank you</p>");
+        mimeMessagePreparator.setPlainTextContent("Thank you");
+        return mimeMessagePreparator;
+    }
+
+    /**
+     * Minimal SMTP server : accepts everything but the recipients named reject.
+     */
+    static class SmtpStub implements Runnable {
+
+        private ServerSocket serverSocket;
+        private final AtomicInteger connectionCount = new AtomicInteger();
+        private final AtomicInteger messageCount = new AtomicInteger();
+
+        void start() throws IOException {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            Thread thread = new Thread(this, "smtp-stub");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() throws IOException {
+            serverSocket.close();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        int getConnectionCount() {
+            return connectionCount.get();
+        }
+
+        int getMessageCount() {
+            return messageCount.get();
+        }
+
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    connectionCount.incrementAndGet();
+                    Thread thread = new Thread(new Runnable() {
+                        public void run() {
+                            handle(socket);
+                        }
+                    }, "smtp-stub-session");
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    // CLOSED
+                }
+            }
+        }
+
+        private void handle(final Socket socket) {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                OutputStream out = socket.getOutputStream();
+                reply(out, "220 localhost SMTP stub");
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String command = line.toUpperCase();
+                    if (command.startsWith("EHLO") || command.startsWith("HELO")) {
+                        reply(out, "250 localhost");
+                    } else if (command.startsWith("RCPT") && command.contains("REJECT")) {
+                        reply(out, "550 No such user");
+                    } else if (command.startsWith("DATA")) {
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        while ((line = reader.readLine()) != null && !line.equals(".")) {
+                        }
+                        messageCount.incrementAndGet();
+                        reply(out, "250 OK");
+                    } else if (command.startsWith("QUIT")) {
+                        reply(out, "221 Bye");
+                        break;
+                    } else {
+                        reply(out, "250 OK");
+                    }
+                }
+                socket.close();
+            } catch (IOException e) {
+                // CLIENT GONE
+            }
+        }
+
+        private void reply(final OutputStream out, final String line) throws IOException {
+            out.write((line + "\r\n").getBytes("US-ASCII"));
+            out.flush();
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.email;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.resource.loader.StringResourceLoader;
+import org.apache.velocity.runtime.resource.util.StringResourceRepository;
+import org.hoteia.qalingo.core.i18n.message.CoreMessageSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * EmailTemplateEngine Test : templates parsed once, wording shared by the mails and
+ * campaign rendering with a context per recipient.
+ */
+public class EmailTemplateEngineTest {
+
+    private static final String VELOCITY_PATH = "/default/email/";
+
+    private EmailTemplateEngine emailTemplateEngine;
+    private int wordingLoadCount;
+
+    @Before
+    public void setUp() throws Exception {
+        VelocityEngine velocityEngine = new VelocityEngine();
+        velocityEngine.setProperty("resource.loader", "string");
+        velocityEngine.setProperty("string.resource.loader.class", StringResourceLoader.class.getName());
+        velocityEngine.init();
+        StringResourceRepository repository = StringResourceLoader.getRepository();
+        repository.putStringResource(VELOCITY_PATH + "abandoned-shopping-cart-html-content.vm",
+                "<p>${wording.get('email.hello')} ${customer}</p>#set($seen = ${customer})<p>${currentDate}</p>");
+        repository.putStringResource(VELOCITY_PATH + "abandoned-shopping-cart-text-content.vm",
+                "${wording.get('email.hello')} ${customer} #if($seen)${seen}#end");
+
+        emailTemplateEngine = new EmailTemplateEngine();
+        emailTemplateEngine.setTemplateCacheEnabled(true);
+        emailTemplateEngine.setWordingCacheTtl(60000);
+        ReflectionTestUtils.setField(emailTemplateEngine, "velocityEngine", velocityEngine);
+        ReflectionTestUtils.setField(emailTemplateEngine, "coreMessageSource", new CoreMessageSource() {
+            @Override
+            public Map<String, String> loadWording(String pattern, Locale locale) {
+                wordingLoadCount++;
+                Map<String, String> wording = new HashMap<String, String>();
+                wording.put("email.hello", Locale.FRENCH.equals(locale) ? "Bonjour" : "Hello");
+                return wording;
+            }
+        });
+    }
+
+    @Test
+    public void testRenderParsesTheTemplatesOnce() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            Map<String, Object> model = new HashMap<String, Object>();
+            emailTemplateEngine.initModel(model, Locale.FRENCH);
+            model.put("customer", "Customer " + i);
+            RenderedEmail renderedEmail = emailTemplateEngine.render(VELOCITY_PATH, "abandoned-shopping-cart", model);
+            assertEquals("Bonjour Customer " + i + " Customer " + i, renderedEmail.getPlainTextContent());
+        }
+        assertEquals(2, emailTemplateEngine.getTemplateLoadCount());
+        assertEquals(2, emailTemplateEngine.getTemplateCacheSize());
+        assertEquals(3, emailTemplateEngine.getRenderCount());
+        assertEquals(1, wordingLoadCount);
+    }
+
+    @Test
+    public void testRenderAllRecipients() throws Exception {
+        List<Map<String, Object>> recipientModels = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 100; i++) {
+            Map<String, Object> recipientModel = new HashMap<String, Object>();
+            if (i % 2 == 0) {
+                recipientModel.put("customer", "Customer " + i);
+            }
+            recipientModels.add(recipientModel);
+        }
+        Map<String, Object> sharedModel = new HashMap<String, Object>();
+        sharedModel.put("customer", "Customer");
+        List<RenderedEmail> renderedEmails = emailTemplateEngine.renderAll(VELOCITY_PATH, "abandoned-shopping-cart", Locale.ENGLISH, sharedModel, recipientModels);
+        assertEquals(100, renderedEmails.size());
+        assertEquals("<p>Hello Customer 0</p><p>" + emailTemplateEngine.getCurrentDate(Locale.ENGLISH) + "</p>", renderedEmails.get(0).getHtmlContent());
+        assertEquals("Hello Customer 98 Customer 98", renderedEmails.get(98).getPlainTextContent());
+        // THE SHARED VALUE, AND NOTHING LEFT BY THE PREVIOUS RECIPIENT
+        assertEquals("Hello Customer Customer", renderedEmails.get(99).getPlainTextContent());
+        assertEquals(1, wordingLoadCount);
+    }
+
+    @Test
+    public void testWordingIsShared() {
+        Map<String, String> wording = emailTemplateEngine.getWording(Locale.FRENCH);
+        assertSame(wording, emailTemplateEngine.getWording(Locale.FRENCH));
+        try {
+            wording.put("email.hello", "Salut");
+            fail("The wording is shared by the mails");
+        } catch (UnsupportedOperationException e) {
+        }
+        emailTemplateEngine.setWordingCacheTtl(-1);
+        emailTemplateEngine.getWording(Locale.FRENCH);
+        assertEquals(2, wordingLoadCount);
+    }
+
+}
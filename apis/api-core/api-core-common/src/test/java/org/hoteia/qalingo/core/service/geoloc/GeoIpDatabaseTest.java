@@ -0,0 +1,122 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.geoloc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.net.InetAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.AddressNotFoundException;
+
+/**
+ * GeoIpDatabase Test : prefix cache, unknown addresses and latency counters, on a lookup
+ * which answers the first three bytes of the address instead of a MaxMind file.
+ */
+public class GeoIpDatabaseTest {
+
+    private GeoIpDatabase<String> database;
+
+    @Before
+    public void setUp() {
+        database = new GeoIpDatabase<String>(2) {
+            @Override
+            protected String resolveDatabasePath() {
+                return "/nonexistent/GeoLite2-Country.mmdb";
+            }
+
+            @Override
+            public DatabaseReader getReader() {
+                return null;
+            }
+
+            @Override
+            protected String lookup(DatabaseReader reader, InetAddress address) throws AddressNotFoundException {
+                byte[] bytes = address.getAddress();
+                if (bytes[0] == 10) {
+                    throw new AddressNotFoundException(address.getHostAddress());
+                }
+                return (bytes[0] & 0xFF) + "." + (bytes[1] & 0xFF) + "." + (bytes[2] & 0xFF);
+            }
+        };
+    }
+
+    @Test
+    public void testSamePrefixSkipsTheLookup() throws Exception {
+        assertEquals("81.56.12", database.get(InetAddress.getByName("81.56.12.3")));
+        assertEquals("81.56.12", database.get(InetAddress.getByName("81.56.12.200")));
+        assertEquals("81.56.13", database.get(InetAddress.getByName("81.56.13.3")));
+
+        assertEquals(2, database.getLookupCount());
+        assertEquals(1, database.getCacheHitCount());
+        assertEquals(2, database.getCacheSize());
+    }
+
+    @Test
+    public void testUnknownAddressesAreCached() throws Exception {
+        assertNull(database.get(InetAddress.getByName("10.0.0.1")));
+        assertNull(database.get(InetAddress.getByName("10.0.0.2")));
+        assertEquals(1, database.getLookupCount());
+        assertEquals(1, database.getCacheHitCount());
+    }
+
+    @Test
+    public void testCacheIsBounded() throws Exception {
+        database.get(InetAddress.getByName("81.56.1.1"));
+        database.get(InetAddress.getByName("81.56.2.1"));
+        database.get(InetAddress.getByName("81.56.1.1"));
+        database.get(InetAddress.getByName("81.56.3.1"));
+        assertEquals(2, database.getCacheSize());
+
+        // THE LEAST RECENTLY USED PREFIX IS EVICTED
+        database.get(InetAddress.getByName("81.56.1.1"));
+        assertEquals(3, database.getLookupCount());
+        database.get(InetAddress.getByName("81.56.2.1"));
+        assertEquals(4, database.getLookupCount());
+    }
+
+    @Test
+    public void testIpv6Prefix() throws Exception {
+        database.setIpv6PrefixLength(48);
+        assertEquals(database.buildPrefixKey(InetAddress.getByName("2a01:e35:8a2b::1")),
+                     database.buildPrefixKey(InetAddress.getByName("2a01:e35:8a2b:ffff::2")));
+        database.setIpv4PrefixLength(20);
+        assertEquals(database.buildPrefixKey(InetAddress.getByName("81.56.16.1")),
+                     database.buildPrefixKey(InetAddress.getByName("81.56.31.1")));
+    }
+
+    @Test
+    public void testMissingDatabaseFile() throws Exception {
+        GeoIpDatabase<String> missingDatabase = new GeoIpDatabase<String>() {
+            @Override
+            protected String resolveDatabasePath() {
+                return "/nonexistent/GeoLite2-Country.mmdb";
+            }
+
+            @Override
+            protected String lookup(DatabaseReader reader, InetAddress address) {
+                return null;
+            }
+        };
+        try {
+            missingDatabase.get(InetAddress.getByName("81.56.12.3"));
+            fail();
+        } catch (FileNotFoundException e) {
+            assertEquals(0, missingDatabase.getReloadCount());
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.geoloc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hoteia.qalingo.core.dao.GeolocDao;
+import org.hoteia.qalingo.core.domain.GeolocAddress;
+import org.hoteia.qalingo.core.domain.GeolocCity;
+import org.hoteia.qalingo.core.service.GeolocService;
+import org.hoteia.qalingo.core.web.bean.geoloc.json.GoogleGeoCode;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * GeolocService Test : the rows stored by an other node since the load of the existence
+ * filters are read before Google, and only the batch waits for the rate limit.
+ */
+public class GeolocServiceTest {
+
+    private GeolocService geolocService;
+
+    private final Map<String, GeolocCity> cities = new HashMap<String, GeolocCity>();
+    private final Map<String, GeolocAddress> addresses = new HashMap<String, GeolocAddress>();
+    private final List<Long> rateLimitWaits = new ArrayList<Long>();
+
+    @Before
+    public void setUp() {
+        GeolocDao geolocDao = new GeolocDao() {
+            @Override
+            public GeolocCity getGeolocCityByCityAndCountry(String city, String country, Object... params) {
+                return cities.get(city + "," + country);
+            }
+
+            @Override
+            public List<String> findGeolocCityKeys() {
+                return new ArrayList<String>(cities.keySet());
+            }
+
+            @Override
+            public GeolocCity saveOrUpdateGeolocCity(GeolocCity geolocCity) {
+                cities.put(geolocCity.getCity() + "," + geolocCity.getCountry(), geolocCity);
+                return geolocCity;
+            }
+
+            @Override
+            public GeolocAddress getGeolocAddressByFormatedAddress(String formatedAddress, Object... params) {
+                return addresses.get(formatedAddress);
+            }
+
+            @Override
+            public List<GeolocAddress> findGeolocAddressesByFormatedAddresses(List<String> formatedAddresses, Object... params) {
+                List<GeolocAddress> geolocAddresses = new ArrayList<GeolocAddress>();
+                for (String formatedAddress : formatedAddresses) {
+                    if (addresses.containsKey(formatedAddress)) {
+                        geolocAddresses.add(addresses.get(formatedAddress));
+                    }
+                }
+                return geolocAddresses;
+            }
+
+            @Override
+            public List<String> findGeolocAddressFormatedAddresses() {
+                return new ArrayList<String>(addresses.keySet());
+            }
+
+            @Override
+            public GeolocAddress saveOrUpdateGeolocAddress(GeolocAddress geolocAddress) {
+                addresses.put(geolocAddress.getFormatedAddress(), geolocAddress);
+                return geolocAddress;
+            }
+        };
+
+        GoogleGeocodingClient googleGeocodingClient = new GoogleGeocodingClient() {
+            @Override
+            public boolean isOverQuota() {
+                return false;
+            }
+
+            @Override
+            protected GoogleGeoCode geocodeAddress(String formatedAddress, long rateLimitWait) {
+                rateLimitWaits.add(rateLimitWait);
+                GoogleGeoCode geoCode = new GoogleGeoCode();
+                geoCode.setStatus(STATUS_ZERO_RESULTS);
+                return geoCode;
+            }
+        };
+        googleGeocodingClient.setMaxRateLimitWait(0);
+        googleGeocodingClient.setBatchRateLimitWait(10000);
+
+        geolocService = new GeolocService();
+        ReflectionTestUtils.setField(geolocService, "geolocDao", geolocDao);
+        ReflectionTestUtils.setField(geolocService, "googleGeocodingClient", googleGeocodingClient);
+    }
+
+    @Test
+    public void testCityStoredByAnOtherNodeIsReadBeforeGoogle() {
+        // LOADS THE EMPTY EXISTENCE FILTERS
+        assertNotNull(geolocService.geolocCityWithCache("Lyon", "FR"));
+        assertEquals(1, rateLimitWaits.size());
+
+        GeolocCity paris = new GeolocCity();
+        paris.setCity("Paris");
+        paris.setCountry("FR");
+        cities.put("Paris,FR", paris);
+
+        assertSame(paris, geolocService.geolocCityWithCache("Paris", "FR"));
+        assertEquals(1, rateLimitWaits.size());
+    }
+
+    @Test
+    public void testAddressStoredByAnOtherNodeIsReadBeforeGoogle() {
+        assertNotNull(geolocService.geolocAddressWithCache("1 rue de Rivoli", "75001", "Paris", "FR"));
+        assertEquals(Collections.singletonList(new Long(0)), rateLimitWaits);
+
+        GeolocAddress stored = new GeolocAddress();
+        stored.setFormatedAddress(geolocService.encodeGoogleAddress("2 rue de Rivoli", "75001", "Paris", "FR"));
+        addresses.put(stored.getFormatedAddress(), stored);
+
+        assertSame(stored, geolocService.geolocAddressWithCache("2 rue de Rivoli", "75001", "Paris", "FR"));
+        assertEquals(1, rateLimitWaits.size());
+    }
+
+    @Test
+    public void testOnlyTheBatchWaitsForTheRateLimit() {
+        GeolocAddress address = new GeolocAddress();
+        address.setAddress("3 rue de Rivoli");
+        address.setPostalCode("75001");
+        address.setCity("Paris");
+        address.setCountry("FR");
+
+        Map<String, GeolocAddress> geolocAddresses = geolocService.geolocAddressesWithCache(Collections.singletonList(address));
+
+        assertEquals(1, geolocAddresses.size());
+        assertEquals(Collections.singletonList(new Long(10000)), rateLimitWaits);
+    }
+
+}
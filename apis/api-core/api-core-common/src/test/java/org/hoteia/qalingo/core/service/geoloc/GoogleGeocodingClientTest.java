@@ -0,0 +1,183 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.geoloc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hoteia.qalingo.core.service.EngineSettingService;
+import org.hoteia.qalingo.core.web.bean.geoloc.json.GoogleGeoCode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * GoogleGeocodingClient Test : calls to a local stub of the geocoding API, over quota
+ * answer, rate limit and the bloom filter used for the existence checks.
+ */
+public class GoogleGeocodingClientTest {
+
+    private static final String OK_ANSWER = "{\"status\":\"OK\",\"results\":[{\"formatted_address\":\"Paris, France\","
+            + "\"geometry\":{\"location\":{\"lat\":\"48.856614\",\"lng\":\"2.3522219\"}}}]}";
+    private static final String OVER_QUERY_LIMIT_ANSWER = "{\"status\":\"OVER_QUERY_LIMIT\",\"results\":[]}";
+
+    private HttpServer server;
+    private GoogleGeocodingClient client;
+
+    private volatile String answer = OK_ANSWER;
+    private volatile String lastQuery;
+    private final AtomicInteger callCount = new AtomicInteger();
+    private final AtomicInteger overQuotaFlagCount = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/geocode/json", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                callCount.incrementAndGet();
+                lastQuery = exchange.getRequestURI().getRawQuery();
+                byte[] body = answer.getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(body);
+                outputStream.close();
+            }
+        });
+        server.start();
+
+        client = new GoogleGeocodingClient();
+        client.setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/geocode/json");
+        ReflectionTestUtils.setField(client, "engineSettingService", new EngineSettingService() {
+            @Override
+            public String getGoogleGeolocationApiKey() {
+                return "TEST_KEY";
+            }
+
+            @Override
+            public boolean isGoogleGeolocationApiStillOverQuotas(Date newDate) {
+                return false;
+            }
+
+            @Override
+            public void flagSettingGoogleGeolocationApiOverQuota() {
+                overQuotaFlagCount.incrementAndGet();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        client.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testGeocodeAddress() throws Exception {
+        client.setMaxRateLimitWait(10000);
+        client.init();
+        GoogleGeoCode geoCode = client.geocodeAddress("10+rue+de+Rivoli,75001,Paris,FR");
+        assertNotNull(geoCode);
+        assertEquals(GoogleGeocodingClient.STATUS_OK, geoCode.getStatus());
+        assertEquals("48.856614", geoCode.getLatitude());
+        assertEquals("2.3522219", geoCode.getLongitude());
+        assertEquals("address=10+rue+de+Rivoli%2C75001%2CParis%2CFR&key=TEST_KEY", lastQuery);
+
+        // THE POOLED CONNECTION IS RELEASED AFTER EACH CALL
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(client.geocodeLatitudeLongitude("48.856614", "2.3522219"));
+        }
+        assertEquals(21, callCount.get());
+        assertEquals(21, client.getRequestCount());
+    }
+
+    @Test
+    public void testOverQueryLimitStopsTheCalls() throws Exception {
+        client.init();
+        answer = OVER_QUERY_LIMIT_ANSWER;
+        GoogleGeoCode geoCode = client.geocodeAddress("Paris,FR");
+        assertEquals(GoogleGeocodingClient.STATUS_OVER_QUERY_LIMIT, geoCode.getStatus());
+        assertEquals(1, overQuotaFlagCount.get());
+        assertTrue(client.isOverQuota());
+
+        answer = OK_ANSWER;
+        assertNull(client.geocodeAddress("Lyon,FR"));
+        assertEquals(1, callCount.get());
+        assertEquals(1, client.getRejectedCount());
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        client.setPermitsPerSecond(1);
+        client.setBurst(2);
+        client.setMaxRateLimitWait(0);
+        client.init();
+        assertNotNull(client.geocodeAddress("Paris,FR"));
+        assertNotNull(client.geocodeAddress("Lyon,FR"));
+        assertNull(client.geocodeAddress("Nice,FR"));
+        assertEquals(2, callCount.get());
+        assertEquals(1, client.getRejectedCount());
+    }
+
+    @Test
+    public void testOnlyTheBatchWaitsForTheRateLimit() throws Exception {
+        client.setPermitsPerSecond(1);
+        client.setBurst(1);
+        client.init();
+        assertNotNull(client.geocodeAddress("Paris,FR"));
+        long start = System.currentTimeMillis();
+        assertNull(client.geocodeAddress("Lyon,FR"));
+        assertTrue(System.currentTimeMillis() - start < 100);
+        assertNotNull(client.batchGeocodeAddress("Lyon,FR"));
+        assertEquals(2, callCount.get());
+        assertEquals(1, client.getRejectedCount());
+    }
+
+    @Test
+    public void testTokenBucketRefill() throws Exception {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(20, 1);
+        assertTrue(rateLimiter.tryAcquire(0));
+        assertFalse(rateLimiter.tryAcquire(0));
+        assertTrue(rateLimiter.tryAcquire(1000));
+    }
+
+    @Test
+    public void testBloomFilter() {
+        StringBloomFilter filter = new StringBloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.add("address_" + i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain("address_" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 1000; i < 11000; i++) {
+            if (filter.mightContain("address_" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 300);
+    }
+
+}
@@ -0,0 +1,285 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.order;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hoteia.qalingo.core.service.OrderNumberService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * OrderNumberAllocator Test : unique numbers under concurrent checkouts, sequences per market
+ * area, and the throughput against the previous compare-and-set loop on the OrderNumber row.
+ * The OrderNumber table lives in an H2 database, one connection per reservation.
+ */
+public class OrderNumberAllocatorTest {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final String URL = "jdbc:h2:mem:order_number;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000";
+
+    private static final int THREADS = 8;
+    private static final int ORDERS_PER_THREAD = 500;
+
+    private Connection keepAliveConnection;
+    private OrderNumberAllocator allocator;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.h2.Driver");
+        keepAliveConnection = DriverManager.getConnection(URL, "sa", "");
+        Statement statement = keepAliveConnection.createStatement();
+        statement.execute("DROP TABLE IF EXISTS TECO_ORDER_NUMBER");
+        statement.execute("CREATE TABLE TECO_ORDER_NUMBER (ID BIGINT AUTO_INCREMENT PRIMARY KEY, LAST_ORDER_NUMBER INT, VERSION INT DEFAULT 1, MARKET_AREA_ID BIGINT)");
+        statement.execute("INSERT INTO TECO_ORDER_NUMBER (LAST_ORDER_NUMBER, MARKET_AREA_ID) VALUES (1000, NULL)");
+        statement.execute("INSERT INTO TECO_ORDER_NUMBER (LAST_ORDER_NUMBER, MARKET_AREA_ID) VALUES (5000, 2)");
+        statement.close();
+
+        allocator = newAllocator(50);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        keepAliveConnection.close();
+    }
+
+    @Test
+    public void testConcurrentNumbersAreUnique() throws Exception {
+        List<List<Integer>> numbersByThread = allocate(allocator, null);
+        Set<Integer> numbers = new HashSet<Integer>();
+        for (List<Integer> threadNumbers : numbersByThread) {
+            for (int i = 0; i < threadNumbers.size(); i++) {
+                assertTrue("Duplicate order number " + threadNumbers.get(i), numbers.add(threadNumbers.get(i)));
+                if (i > 0) {
+                    // INCREASING ON A NODE
+                    assertTrue(threadNumbers.get(i) > threadNumbers.get(i - 1));
+                }
+            }
+        }
+        assertEquals(THREADS * ORDERS_PER_THREAD, numbers.size());
+        assertEquals(THREADS * ORDERS_PER_THREAD, allocator.getAllocatedCount());
+        assertEquals(THREADS * ORDERS_PER_THREAD / 50, allocator.getReservedBlockCount());
+        assertEquals(new Integer(1000 + THREADS * ORDERS_PER_THREAD), readLastOrderNumber(null));
+    }
+
+    @Test
+    public void testTwoNodesShareTheSequence() throws Exception {
+        OrderNumberAllocator otherNode = newAllocator(10);
+        Set<String> numbers = new HashSet<String>();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(numbers.add(allocator.nextOrderNumber()));
+            assertTrue(numbers.add(otherNode.nextOrderNumber()));
+        }
+        assertEquals(200, numbers.size());
+        assertEquals(new Integer(1000 + 2 * 50 + 10 * 10), readLastOrderNumber(null));
+    }
+
+    @Test
+    public void testSequencePerMarketArea() throws Exception {
+        allocator.setPerMarketArea(true);
+        assertEquals("2-5001", allocator.nextOrderNumber(new Long(2)));
+        assertEquals("2-5002", allocator.nextOrderNumber(new Long(2)));
+        // NO ROW FOR THE MARKET AREA 3 : SHARED SEQUENCE
+        assertEquals("1001", allocator.nextOrderNumber(new Long(3)));
+        assertEquals("1002", allocator.nextOrderNumber(new Long(3)));
+        assertEquals("1003", allocator.nextOrderNumber(null));
+
+        allocator.setPerMarketArea(false);
+        assertEquals("1004", allocator.nextOrderNumber(new Long(2)));
+    }
+
+    @Test
+    public void testNumbersNeverCollideAcrossMarketAreas() throws Exception {
+        // THE ROWS OF THE MARKET AREAS 2 AND 4 START AT THE SAME NUMBER AS THE SHARED ONE
+        Statement statement = keepAliveConnection.createStatement();
+        statement.execute("UPDATE TECO_ORDER_NUMBER SET LAST_ORDER_NUMBER = 1000 WHERE MARKET_AREA_ID = 2");
+        statement.execute("INSERT INTO TECO_ORDER_NUMBER (LAST_ORDER_NUMBER, MARKET_AREA_ID) VALUES (1000, 4)");
+        statement.close();
+        allocator.setPerMarketArea(true);
+
+        Set<String> numbers = new HashSet<String>();
+        Long[] marketAreaIds = new Long[] { null, new Long(2), new Long(3), new Long(4) };
+        for (int i = 0; i < 200; i++) {
+            for (Long marketAreaId : marketAreaIds) {
+                String orderNumber = allocator.nextOrderNumber(marketAreaId);
+                assertTrue("Duplicate order number " + orderNumber, numbers.add(orderNumber));
+            }
+        }
+        assertEquals(800, numbers.size());
+        assertTrue(numbers.contains("2-1001"));
+        assertTrue(numbers.contains("4-1001"));
+        assertTrue(numbers.contains("1001"));
+    }
+
+    @Test
+    public void testThroughputAgainstCompareAndSetLoop() throws Exception {
+        // WARM UP
+        allocate(newAllocator(50), null);
+        compareAndSetLoop();
+
+        long start = System.nanoTime();
+        allocate(allocator, null);
+        long blockTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int retryCount = compareAndSetLoop();
+        long compareAndSetTime = System.nanoTime() - start;
+
+        int orderCount = THREADS * ORDERS_PER_THREAD;
+        logger.info("Order numbers, " + THREADS + " threads : block allocation " + (orderCount * 1000000000L / blockTime)
+                + " orders/s, compare-and-set loop " + (orderCount * 1000000000L / compareAndSetTime) + " orders/s (" + retryCount + " retries)");
+    }
+
+    private OrderNumberAllocator newAllocator(final int blockSize) {
+        OrderNumberAllocator orderNumberAllocator = new OrderNumberAllocator();
+        orderNumberAllocator.setBlockSize(blockSize);
+        ReflectionTestUtils.setField(orderNumberAllocator, "orderNumberService", new OrderNumberService() {
+            @Override
+            public Integer reserveOrderNumbers(Long marketAreaId, int count) {
+                try {
+                    return reserve(marketAreaId, count);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        return orderNumberAllocator;
+    }
+
+    private List<List<Integer>> allocate(final OrderNumberAllocator orderNumberAllocator, final Long marketAreaId) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<Integer>>> futures = new ArrayList<Future<List<Integer>>>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executorService.submit(new Callable<List<Integer>>() {
+                    public List<Integer> call() throws Exception {
+                        List<Integer> numbers = new ArrayList<Integer>();
+                        for (int j = 0; j < ORDERS_PER_THREAD; j++) {
+                            numbers.add(Integer.valueOf(orderNumberAllocator.nextOrderNumber(marketAreaId)));
+                        }
+                        return numbers;
+                    }
+                }));
+            }
+            List<List<Integer>> numbersByThread = new ArrayList<List<Integer>>();
+            for (Future<List<Integer>> future : futures) {
+                numbersByThread.add(future.get());
+            }
+            return numbersByThread;
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Same statements as OrderCustomerDao.reserveOrderNumbers, in one transaction.
+     */
+    private Integer reserve(final Long marketAreaId, final int count) throws SQLException {
+        String restriction = marketAreaId == null ? "MARKET_AREA_ID IS NULL" : "MARKET_AREA_ID = " + marketAreaId;
+        Connection connection = DriverManager.getConnection(URL, "sa", "");
+        try {
+            connection.setAutoCommit(false);
+            Statement statement = connection.createStatement();
+            int rowCount = statement.executeUpdate("UPDATE TECO_ORDER_NUMBER SET LAST_ORDER_NUMBER = LAST_ORDER_NUMBER + " + count + " WHERE " + restriction);
+            Integer last = null;
+            if (rowCount > 0) {
+                ResultSet resultSet = statement.executeQuery("SELECT LAST_ORDER_NUMBER FROM TECO_ORDER_NUMBER WHERE " + restriction);
+                resultSet.next();
+                last = resultSet.getInt(1);
+            }
+            connection.commit();
+            return last;
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * The previous allocation : read the last number, then UPDATE ... WHERE LAST_ORDER_NUMBER = previous
+     * and start again when another checkout took the number.
+     */
+    private int compareAndSetLoop() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executorService.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        int retryCount = 0;
+                        for (int j = 0; j < ORDERS_PER_THREAD; j++) {
+                            while (!compareAndSet()) {
+                                retryCount++;
+                            }
+                        }
+                        return retryCount;
+                    }
+                }));
+            }
+            int retryCount = 0;
+            for (Future<Integer> future : futures) {
+                retryCount += future.get();
+            }
+            return retryCount;
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private boolean compareAndSet() throws SQLException {
+        Connection connection = DriverManager.getConnection(URL, "sa", "");
+        try {
+            connection.setAutoCommit(false);
+            Statement statement = connection.createStatement();
+            ResultSet resultSet = statement.executeQuery("SELECT LAST_ORDER_NUMBER FROM TECO_ORDER_NUMBER WHERE MARKET_AREA_ID IS NULL");
+            resultSet.next();
+            int previous = resultSet.getInt(1);
+            PreparedStatement update = connection.prepareStatement("UPDATE TECO_ORDER_NUMBER SET LAST_ORDER_NUMBER = ? WHERE LAST_ORDER_NUMBER = ? AND MARKET_AREA_ID IS NULL");
+            update.setInt(1, previous + 1);
+            update.setInt(2, previous);
+            int rowCount = update.executeUpdate();
+            connection.commit();
+            return rowCount == 1;
+        } finally {
+            connection.close();
+        }
+    }
+
+    private Integer readLastOrderNumber(final Long marketAreaId) throws SQLException {
+        Statement statement = keepAliveConnection.createStatement();
+        ResultSet resultSet = statement.executeQuery("SELECT LAST_ORDER_NUMBER FROM TECO_ORDER_NUMBER WHERE "
+                + (marketAreaId == null ? "MARKET_AREA_ID IS NULL" : "MARKET_AREA_ID = " + marketAreaId));
+        resultSet.next();
+        Integer last = resultSet.getInt(1);
+        statement.close();
+        return last;
+    }
+
+}
@@ -0,0 +1,165 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.service.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.hoteia.qalingo.core.dao.EngineSessionDao;
+import org.hoteia.qalingo.core.domain.AbstractEngineSession;
+import org.hoteia.qalingo.core.domain.Customer;
+import org.hoteia.qalingo.core.domain.EngineEcoSession;
+import org.hoteia.qalingo.core.service.EngineSessionService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * EngineSessionWriteBehindStore Test : dirty tracking, coalesced writes of the session
+ * columns, the merge skipped when nothing changed and the pending snapshot dropped by a merge.
+ */
+public class EngineSessionWriteBehindStoreTest {
+
+    private EngineSessionWriteBehindStore store;
+    private EngineSessionService engineSessionService;
+
+    private final List<String> stateWrites = new ArrayList<String>();
+    private int mergeCount;
+
+    @Before
+    public void setUp() {
+        engineSessionService = new EngineSessionService() {
+            @Override
+            public boolean updateEngineEcoSessionState(Long engineSessionId, String jSessionId, Long customerId, Date dateUpdate) {
+                stateWrites.add(engineSessionId + ":" + jSessionId + ":" + customerId);
+                return true;
+            }
+        };
+        ReflectionTestUtils.setField(engineSessionService, "engineSessionDao", new EngineSessionDao() {
+            @Override
+            public EngineEcoSession saveOrUpdateEngineEcoSession(EngineEcoSession engineSession) {
+                mergeCount++;
+                EngineEcoSession mergedEngineSession = new EngineEcoSession();
+                mergedEngineSession.setId(engineSession.getId() != null ? engineSession.getId() : new Long("42"));
+                mergedEngineSession.setVersion(engineSession.getVersion() + 1);
+                mergedEngineSession.setEngineSessionGuid("GUID");
+                mergedEngineSession.setCarts(engineSession.getCarts());
+                return mergedEngineSession;
+            }
+        });
+
+        store = new EngineSessionWriteBehindStore();
+        store.setWriteBehindDelay(60000);
+        ReflectionTestUtils.setField(store, "engineSessionService", engineSessionService);
+        ReflectionTestUtils.setField(engineSessionService, "engineSessionWriteBehindStore", store);
+    }
+
+    @After
+    public void tearDown() {
+        store.shutdown();
+    }
+
+    @Test
+    public void testUnchangedSessionIsNotWritten() {
+        EngineEcoSession engineEcoSession = buildStoredSession();
+        store.write(engineEcoSession);
+        engineEcoSession.setjSessionId("JSESSION_1");
+        store.write(engineEcoSession);
+        store.flush();
+        assertTrue(stateWrites.isEmpty());
+        assertEquals(2, store.getSkippedCount());
+    }
+
+    @Test
+    public void testWritesAreCoalesced() {
+        EngineEcoSession engineEcoSession = buildStoredSession();
+        engineEcoSession.setjSessionId("JSESSION_2");
+        store.write(engineEcoSession);
+        assertFalse(engineEcoSession.isDirty());
+
+        Customer customer = new Customer();
+        customer.setId(new Long("7"));
+        engineEcoSession.setCurrentCustomer(customer);
+        engineEcoSession.setjSessionId("JSESSION_3");
+        store.write(engineEcoSession);
+        assertEquals(1, store.getPendingCount());
+
+        store.flush(engineEcoSession);
+        assertEquals(1, stateWrites.size());
+        assertEquals("1:JSESSION_3:7", stateWrites.get(0));
+        assertEquals(0, store.getPendingCount());
+    }
+
+    @Test
+    public void testSessionNotStoredIsLeftToTheSynchronousSave() {
+        EngineEcoSession engineEcoSession = new EngineEcoSession();
+        engineEcoSession.setjSessionId("JSESSION_1");
+        store.write(engineEcoSession);
+        assertEquals(0, store.getPendingCount());
+        assertTrue(engineEcoSession.isDirty(AbstractEngineSession.DIRTY_STATE));
+    }
+
+    @Test
+    public void testMergeOnlyWhenDirty() throws Exception {
+        EngineEcoSession engineEcoSession = new EngineEcoSession();
+        engineEcoSession.setjSessionId("JSESSION_1");
+        engineEcoSession.setTheme("theme");
+        assertSame(engineEcoSession, engineSessionService.updateAndSynchronizeEngineEcoSession(engineEcoSession));
+        assertEquals(1, mergeCount);
+        assertEquals(new Long("42"), engineEcoSession.getId());
+        assertEquals("GUID", engineEcoSession.getEngineSessionGuid());
+        // TRANSIENT VALUES ARE KEPT WITHOUT A RELOAD
+        assertEquals("theme", engineEcoSession.getTheme());
+        assertFalse(engineEcoSession.isDirty());
+
+        engineSessionService.updateAndSynchronizeEngineEcoSession(engineEcoSession);
+        assertEquals(1, mergeCount);
+
+        engineEcoSession.markDirty(AbstractEngineSession.DIRTY_CARTS);
+        engineSessionService.updateAndSynchronizeEngineEcoSession(engineEcoSession);
+        assertEquals(2, mergeCount);
+        assertEquals(2, engineEcoSession.getVersion());
+    }
+
+    @Test
+    public void testMergeDropsThePendingSnapshot() throws Exception {
+        EngineEcoSession engineEcoSession = buildStoredSession();
+        // SNAPSHOT QUEUED BEFORE THE LOGIN, WITHOUT CUSTOMER
+        engineEcoSession.setjSessionId("JSESSION_2");
+        store.write(engineEcoSession);
+        assertEquals(1, store.getPendingCount());
+
+        Customer customer = new Customer();
+        customer.setId(new Long("7"));
+        engineEcoSession.setCurrentCustomer(customer);
+        engineSessionService.updateAndSynchronizeEngineEcoSession(engineEcoSession);
+        assertEquals(1, mergeCount);
+        assertEquals(0, store.getPendingCount());
+
+        store.flush();
+        assertTrue(stateWrites.isEmpty());
+    }
+
+    private EngineEcoSession buildStoredSession() {
+        EngineEcoSession engineEcoSession = new EngineEcoSession();
+        engineEcoSession.setId(new Long("1"));
+        engineEcoSession.setjSessionId("JSESSION_1");
+        engineEcoSession.clearDirty(AbstractEngineSession.DIRTY_STATE | AbstractEngineSession.DIRTY_CARTS);
+        return engineEcoSession;
+    }
+
+}
@@ -0,0 +1,259 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.web.mvc.factory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.hoteia.qalingo.core.domain.AbstractCatalogCategory;
+import org.hoteia.qalingo.core.domain.CatalogCategoryVirtual;
+import org.hoteia.qalingo.core.domain.CatalogCategoryVirtualProductSkuRel;
+import org.hoteia.qalingo.core.domain.ProductMarketing;
+import org.hoteia.qalingo.core.domain.ProductSku;
+import org.hoteia.qalingo.core.service.CatalogCategoryService;
+import org.hoteia.qalingo.core.service.ProductService;
+import org.hoteia.qalingo.core.service.catalog.CatalogCategoryTreeSnapshot;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * CatalogViewBeanLoader Test : a category with 20 sub categories and 300 product skus is
+ * loaded with a constant number of queries, with or without the category trees, and the
+ * limits of the recursion.
+ */
+public class CatalogViewBeanLoaderTest {
+
+    private static final int SUB_CATEGORIES = 20;
+    private static final int PRODUCT_SKUS_BY_SUB_CATEGORY = 15;
+
+    private final Map<Long, CatalogCategoryVirtual> categories = new HashMap<Long, CatalogCategoryVirtual>();
+    private final Map<Long, ProductSku> productSkus = new HashMap<Long, ProductSku>();
+    private final Map<Long, ProductMarketing> productMarketings = new HashMap<Long, ProductMarketing>();
+
+    private ProductService productService;
+    private CatalogCategoryService catalogCategoryService;
+
+    private CatalogCategoryVirtual root;
+    private int bulkQueryCount;
+    private int singleQueryCount;
+    private long id;
+
+    @Before
+    public void setUp() {
+        root = buildCategory(0);
+        for (int i = 1; i <= SUB_CATEGORIES; i++) {
+            CatalogCategoryVirtual subCategory = buildCategory(i);
+            root.getCatalogCategories().add(subCategory);
+            for (int j = 0; j < PRODUCT_SKUS_BY_SUB_CATEGORY; j++) {
+                ProductSku productSku = buildProductSku(j);
+                CatalogCategoryVirtualProductSkuRel rel = new CatalogCategoryVirtualProductSkuRel(subCategory, productSku);
+                rel.setRanking(j);
+                subCategory.getCatalogCategoryProductSkuRels().add(rel);
+            }
+        }
+
+        productService = new ProductService() {
+            @Override
+            public List<ProductSku> findProductSkusByIds(List<Long> productSkuIds, Object... params) {
+                bulkQueryCount++;
+                List<ProductSku> result = new ArrayList<ProductSku>();
+                for (Long productSkuId : productSkuIds) {
+                    result.add(productSkus.get(productSkuId));
+                }
+                return result;
+            }
+
+            @Override
+            public List<ProductMarketing> findProductMarketingsByIds(List<Long> productMarketingIds, Object... params) {
+                bulkQueryCount++;
+                List<ProductMarketing> result = new ArrayList<ProductMarketing>();
+                for (Long productMarketingId : productMarketingIds) {
+                    result.add(productMarketings.get(productMarketingId));
+                }
+                return result;
+            }
+
+            @Override
+            public ProductSku getProductSkuByCode(String skuCode, Object... params) {
+                singleQueryCount++;
+                for (ProductSku productSku : productSkus.values()) {
+                    if (productSku.getCode().equals(skuCode)) {
+                        return productSku;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public ProductMarketing getProductMarketingByCode(String productMarketingCode, Object... params) {
+                singleQueryCount++;
+                for (ProductMarketing productMarketing : productMarketings.values()) {
+                    if (productMarketing.getCode().equals(productMarketingCode)) {
+                        return productMarketing;
+                    }
+                }
+                return null;
+            }
+        };
+        catalogCategoryService = new CatalogCategoryService() {
+            @Override
+            public List<CatalogCategoryVirtual> findVirtualCategoriesByIds(List<Long> catalogCategoryIds, Object... params) {
+                bulkQueryCount++;
+                List<CatalogCategoryVirtual> result = new ArrayList<CatalogCategoryVirtual>();
+                for (Long catalogCategoryId : catalogCategoryIds) {
+                    result.add(categories.get(catalogCategoryId));
+                }
+                return result;
+            }
+
+            @Override
+            public CatalogCategoryVirtual getVirtualCatalogCategoryById(Long catalogCategoryId, Object... params) {
+                singleQueryCount++;
+                return categories.get(catalogCategoryId);
+            }
+
+            @Override
+            public List<Object[]> findVirtualCategoryTreeRows() {
+                List<Object[]> rows = new ArrayList<Object[]>();
+                for (CatalogCategoryVirtual catalogCategory : categories.values()) {
+                    Long parentId = catalogCategory == root ? null : root.getId();
+                    rows.add(new Object[] { catalogCategory.getId(), catalogCategory.getCode(), new Long(1), parentId, catalogCategory.getRanking(), Boolean.FALSE });
+                }
+                return rows;
+            }
+
+            @Override
+            public List<Object[]> findVirtualCategoryProductSkuRows() {
+                List<Object[]> rows = new ArrayList<Object[]>();
+                for (CatalogCategoryVirtual catalogCategory : categories.values()) {
+                    for (CatalogCategoryVirtualProductSkuRel rel : catalogCategory.getCatalogCategoryProductSkuRels()) {
+                        rows.add(new Object[] { catalogCategory.getId(), rel.getProductSku().getId(), rel.getRanking(), Boolean.FALSE });
+                    }
+                }
+                return rows;
+            }
+        };
+    }
+
+    @Test
+    public void testCategoryRenderWithConstantQueries() {
+        CatalogViewBeanLoader loader = new CatalogViewBeanLoader(productService, catalogCategoryService, 5, 500);
+        loader.preload(root);
+        int renderedProductSkus = render(loader, root, 0);
+
+        assertEquals(SUB_CATEGORIES * PRODUCT_SKUS_BY_SUB_CATEGORY, renderedProductSkus);
+        // SUB CATEGORIES, PRODUCT SKUS, PRODUCT MARKETINGS
+        assertEquals(3, bulkQueryCount);
+        assertEquals(0, singleQueryCount);
+        assertEquals(3, loader.getQueryCount());
+    }
+
+    @Test
+    public void testCategoryRenderWithTheTrees() {
+        CatalogCategoryTreeSnapshot catalogCategoryTreeSnapshot = new CatalogCategoryTreeSnapshot();
+        ReflectionTestUtils.setField(catalogCategoryTreeSnapshot, "catalogCategoryService", catalogCategoryService);
+        catalogCategoryTreeSnapshot.refresh();
+        // THE LAZY COLLECTIONS ARE NOT READ
+        for (CatalogCategoryVirtual catalogCategory : categories.values()) {
+            catalogCategory.setCatalogCategories(null);
+            catalogCategory.setCatalogCategoryProductSkuRels(null);
+        }
+        try {
+            CatalogViewBeanLoader loader = new CatalogViewBeanLoader(productService, catalogCategoryService, catalogCategoryTreeSnapshot, 5, 500);
+            loader.preload(root);
+            assertEquals(SUB_CATEGORIES * PRODUCT_SKUS_BY_SUB_CATEGORY, render(loader, root, 0));
+            assertEquals(3, bulkQueryCount);
+            assertEquals(0, singleQueryCount);
+
+            List<AbstractCatalogCategory> subCategories = loader.getSubCategories(root, 0);
+            assertEquals(SUB_CATEGORIES, subCategories.size());
+            assertEquals(Integer.valueOf(1), subCategories.get(0).getRanking());
+            assertEquals(Integer.valueOf(SUB_CATEGORIES), subCategories.get(SUB_CATEGORIES - 1).getRanking());
+        } finally {
+            catalogCategoryTreeSnapshot.shutdown();
+        }
+    }
+
+    @Test
+    public void testLimits() {
+        CatalogViewBeanLoader loader = new CatalogViewBeanLoader(productService, catalogCategoryService, 0, 500);
+        loader.preload(root);
+        assertEquals(0, render(loader, root, 0));
+        assertEquals(0, bulkQueryCount);
+
+        loader = new CatalogViewBeanLoader(productService, catalogCategoryService, 1, 10);
+        loader.preload(root);
+        assertEquals(SUB_CATEGORIES * 10, render(loader, root, 0));
+        assertEquals(0, singleQueryCount);
+    }
+
+    @Test
+    public void testNotPreloadedIsLoadedAlone() {
+        CatalogViewBeanLoader loader = new CatalogViewBeanLoader(productService, catalogCategoryService, 5, 500);
+        ProductSku productSku = productSkus.values().iterator().next();
+        assertSame(productSku, loader.getProductSku(productSku));
+        assertSame(productSku, loader.getProductSku(productSku));
+        assertEquals(1, singleQueryCount);
+    }
+
+    /**
+     * Walks the tree as ViewBeanFactory.buildViewBeanCatalogCategory.
+     */
+    private int render(final CatalogViewBeanLoader loader, final AbstractCatalogCategory catalogCategory, final int depth) {
+        int renderedProductSkus = 0;
+        for (AbstractCatalogCategory subCategory : loader.getSubCategories(catalogCategory, depth)) {
+            renderedProductSkus += render(loader, loader.getVirtualCategory((CatalogCategoryVirtual) subCategory, null), depth + 1);
+        }
+        for (ProductSku productSku : loader.getProductSkus(catalogCategory)) {
+            ProductSku reloadedProductSku = loader.getProductSku(productSku);
+            ProductMarketing productMarketing = loader.getProductMarketing(reloadedProductSku.getProductMarketing());
+            for (ProductSku productSkuIt : productMarketing.getProductSkus()) {
+                loader.getProductSku(productSkuIt);
+            }
+            renderedProductSkus++;
+        }
+        return renderedProductSkus;
+    }
+
+    private CatalogCategoryVirtual buildCategory(final int ranking) {
+        CatalogCategoryVirtual catalogCategory = new CatalogCategoryVirtual();
+        catalogCategory.setId(++id);
+        catalogCategory.setCode("CATEGORY_" + id);
+        catalogCategory.setRanking(ranking);
+        catalogCategory.setCatalogCategories(new HashSet<CatalogCategoryVirtual>());
+        catalogCategory.setCatalogCategoryProductSkuRels(new HashSet<CatalogCategoryVirtualProductSkuRel>());
+        categories.put(catalogCategory.getId(), catalogCategory);
+        return catalogCategory;
+    }
+
+    private ProductSku buildProductSku(final int ranking) {
+        ProductMarketing productMarketing = new ProductMarketing();
+        productMarketing.setId(++id);
+        productMarketing.setCode("MARKETING_" + id);
+        productMarketings.put(productMarketing.getId(), productMarketing);
+
+        ProductSku productSku = new ProductSku();
+        productSku.setId(++id);
+        productSku.setCode("SKU_" + id);
+        productSku.setRanking(ranking);
+        productSku.setProductMarketing(productMarketing);
+        productMarketing.getProductSkus().add(productSku);
+        productSkus.put(productSku.getId(), productSku);
+        return productSku;
+    }
+
+}
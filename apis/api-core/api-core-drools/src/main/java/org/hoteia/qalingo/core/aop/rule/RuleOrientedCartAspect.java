@@ -16,6 +16,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.JoinPoint.StaticPart;
+import org.hoteia.qalingo.core.domain.Cart;
 import org.hoteia.qalingo.core.domain.EngineEcoSession;
 import org.hoteia.qalingo.core.rule.util.RuleUtil;
 import org.hoteia.qalingo.core.web.util.RequestUtil;
@@ -48,6 +49,12 @@ public class RuleOrientedCartAspect {
             try {
                 EngineEcoSession engineEcoSession = (EngineEcoSession) result;
                 objects.add(engineEcoSession);
+                // THE CART AND ITS ITEMS ARE FACTS TOO : THE RULES JOIN ON THEM INSTEAD OF WALKING THE SESSION
+                Cart cart = engineEcoSession.getCart();
+                if (cart != null) {
+                    objects.add(cart);
+                    objects.addAll(cart.getCartItems());
+                }
             } catch (Exception e) {
                 logger.error("Failed to load EngineEcoSession from Request", e);
             }
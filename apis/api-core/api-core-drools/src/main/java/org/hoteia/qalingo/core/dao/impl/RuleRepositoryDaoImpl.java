@@ -48,7 +48,7 @@ public class RuleRepositoryDaoImpl extends AbstractGenericDao implements RuleRep
 	
 	public List<RuleRepository> findActiveRuleRepositories() {
 		Session session = (Session) em.getDelegate();
-		String sql = "FROM RuleRepository WHERE active = 1 AND startDate <= :currentDate AND endDate >= :currentDate";
+		String sql = "SELECT DISTINCT ruleRepository FROM RuleRepository ruleRepository LEFT JOIN FETCH ruleRepository.rules WHERE ruleRepository.active = 1 AND ruleRepository.startDate <= :currentDate AND ruleRepository.endDate >= :currentDate";
 		Query query = session.createQuery(sql);
 		query.setDate("currentDate", new Date());
 		List<RuleRepository> ruleRepositories = (List<RuleRepository>) query.list();
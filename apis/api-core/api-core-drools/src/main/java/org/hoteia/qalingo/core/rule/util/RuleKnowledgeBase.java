@@ -0,0 +1,69 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.rule.util;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.drools.KnowledgeBase;
+import org.drools.runtime.StatelessKnowledgeSession;
+
+/**
+ * Compiled set of the active rule repositories. A RuleKnowledgeBase is never modified once
+ * built : a change of the rules compiles a new one which replaces it as a whole, so the
+ * sessions opened on the former one keep a consistent rule set.
+ */
+public final class RuleKnowledgeBase {
+
+    private final KnowledgeBase knowledgeBase;
+    private final String version;
+    private final List<String> ruleRepositoryCodes;
+    private final Date dateCompile;
+
+    public RuleKnowledgeBase(final KnowledgeBase knowledgeBase, final String version, final List<String> ruleRepositoryCodes) {
+        this.knowledgeBase = knowledgeBase;
+        this.version = version;
+        this.ruleRepositoryCodes = Collections.unmodifiableList(ruleRepositoryCodes);
+        this.dateCompile = new Date();
+    }
+
+    /**
+     * @return a new stateless session : one per evaluation, nothing is kept between two calls
+     */
+    public StatelessKnowledgeSession newStatelessSession() {
+        return knowledgeBase.newStatelessKnowledgeSession();
+    }
+
+    public KnowledgeBase getKnowledgeBase() {
+        return knowledgeBase;
+    }
+
+    /**
+     * @return the content hash of the compiled rules
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public List<String> getRuleRepositoryCodes() {
+        return ruleRepositoryCodes;
+    }
+
+    public Date getDateCompile() {
+        return new Date(dateCompile.getTime());
+    }
+
+    @Override
+    public String toString() {
+        return "RuleKnowledgeBase [version=" + version + ", ruleRepositoryCodes=" + ruleRepositoryCodes + ", dateCompile=" + dateCompile + "]";
+    }
+
+}
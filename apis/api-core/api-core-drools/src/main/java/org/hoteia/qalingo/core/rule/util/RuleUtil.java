@@ -14,5 +14,9 @@ import java.util.List;
 public interface RuleUtil {
 
 	void handleRuleSession(List<Object> objects);
+
+	RuleKnowledgeBase getRuleKnowledgeBase();
+
+	void invalidateRuleKnowledgeBase();
 	
 }
\ No newline at end of file
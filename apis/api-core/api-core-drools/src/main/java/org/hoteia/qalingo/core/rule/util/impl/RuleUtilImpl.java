@@ -11,27 +11,34 @@ package org.hoteia.qalingo.core.rule.util.impl;
 
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.Collection;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
 import org.drools.builder.KnowledgeBuilder;
 import org.drools.builder.KnowledgeBuilderError;
 import org.drools.builder.KnowledgeBuilderErrors;
 import org.drools.builder.KnowledgeBuilderFactory;
 import org.drools.builder.ResourceType;
-import org.drools.definition.KnowledgePackage;
 import org.drools.io.Resource;
 import org.drools.io.ResourceFactory;
-import org.drools.runtime.StatefulKnowledgeSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import org.hoteia.qalingo.core.domain.AbstractRuleReferential;
 import org.hoteia.qalingo.core.domain.RuleRepository;
+import org.hoteia.qalingo.core.rule.util.RuleKnowledgeBase;
 import org.hoteia.qalingo.core.rule.util.RuleUtil;
 import org.hoteia.qalingo.core.service.RuleRepositoryService;
 
@@ -40,6 +47,12 @@ import org.hoteia.qalingo.core.service.RuleRepositoryService;
  * <a href="RuleUtilImpl.java.html"><i>View Source</i></a>
  * </p>
  *
+ * The active rule repositories are compiled once in a RuleKnowledgeBase, versioned by the
+ * hash of their DRL. Every checkDelay milliseconds the active repositories are read again
+ * (a BO user may have edited them, or their validity dates may have changed) and the
+ * knowledge base is recompiled, then swapped, only when the hash differs. Each evaluation
+ * runs in its own stateless session, the facts never outlive the call.
+ *
  * @author Denis Gosset <a href="http://www.hoteia.com"><i>Hoteia.com</i></a>
  * 
  */
@@ -49,49 +62,141 @@ public class RuleUtilImpl implements RuleUtil {
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 	
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final char[] HEXADECIMAL = "0123456789abcdef".toCharArray();
+
 	@Autowired
 	protected RuleRepositoryService ruleRepositoryService;
 
-	@Autowired
-	protected StatefulKnowledgeSession ksession;
+	@Value("${rule.knowledge.base.check.delay:60000}")
+	protected long checkDelay;
+
+	private final ReentrantLock reloadLock = new ReentrantLock();
+
+	private volatile RuleKnowledgeBase ruleKnowledgeBase;
+
+	private volatile long nextCheckTime;
+
+	private String failedVersion;
 
 	public void handleRuleSession(List<Object> objects){
     	try {
-//    		StatefulKnowledgeSession ksession = (StatefulKnowledgeSession) ctx.getBean("ksessionQalingo");
+    		getRuleKnowledgeBase().newStatelessSession().execute(objects);
+        		
+		} catch (Exception e) {
+			logger.error("Rule session failed", e);
+		}
+	}
+
+	public RuleKnowledgeBase getRuleKnowledgeBase() {
+		RuleKnowledgeBase currentRuleKnowledgeBase = ruleKnowledgeBase;
+		if(currentRuleKnowledgeBase == null){
+			reloadLock.lock();
+		} else if(System.currentTimeMillis() < nextCheckTime
+				|| !reloadLock.tryLock()){
+			// AN OTHER THREAD IS ALREADY CHECKING THE RULES : KEEP EVALUATING WITH THE CURRENT ONE
+			return currentRuleKnowledgeBase;
+		}
+		try {
+			if(ruleKnowledgeBase == null
+					|| System.currentTimeMillis() >= nextCheckTime){
+				checkRuleKnowledgeBase();
+			}
+			return ruleKnowledgeBase;
+			
+		} finally {
+			reloadLock.unlock();
+		}
+	}
 
-    		KnowledgeBase kbase = ksession.getKnowledgeBase();
-    		KnowledgeBuilder kbuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+	public void invalidateRuleKnowledgeBase() {
+		nextCheckTime = 0;
+	}
 
-    		List<RuleRepository> activeRules = ruleRepositoryService.findActiveRuleRepositories();
+	protected void checkRuleKnowledgeBase() {
+		List<RuleRepository> activeRules = new ArrayList<RuleRepository>(ruleRepositoryService.findActiveRuleRepositories());
+		Collections.sort(activeRules, new Comparator<RuleRepository>() {
+			public int compare(RuleRepository o1, RuleRepository o2) {
+				return o1.getCode().compareTo(o2.getCode());
+			}
+		});
+		String version = buildVersion(activeRules);
+		nextCheckTime = System.currentTimeMillis() + checkDelay;
+		
+		if(ruleKnowledgeBase != null 
+				&& (version.equals(ruleKnowledgeBase.getVersion()) || version.equals(failedVersion))){
+			return;
+		}
+		
+		long start = System.currentTimeMillis();
+		KnowledgeBuilder kbuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+		List<String> ruleRepositoryCodes = new ArrayList<String>();
+		for (Iterator<RuleRepository> iterator = activeRules.iterator(); iterator.hasNext();) {
+			RuleRepository ruleRepository = (RuleRepository) iterator.next();
+			String ruleDRL = ruleRepository.getRuleString().toString();
+			Resource ruleResource = ResourceFactory.newReaderResource((Reader) new StringReader(ruleDRL)); 
+			kbuilder.add(ruleResource, ResourceType.DRL); 
+			ruleRepositoryCodes.add(ruleRepository.getCode());
+		}
 
-    		for (Iterator<RuleRepository> iterator = activeRules.iterator(); iterator.hasNext();) {
-				RuleRepository ruleRepository = (RuleRepository) iterator.next();
-				String ruleDRL = ruleRepository.getRuleString().toString();
-				Resource ruleResource = ResourceFactory.newReaderResource((Reader) new StringReader(ruleDRL)); 
-				kbuilder.add(ruleResource, ResourceType.DRL); 
+		if (kbuilder.hasErrors()) {
+			KnowledgeBuilderErrors errors = kbuilder.getErrors();
+			if(errors != null){
+				for (Iterator<KnowledgeBuilderError> iterator = errors.iterator(); iterator.hasNext();) {
+					KnowledgeBuilderError knowledgeBuilderError = (KnowledgeBuilderError) iterator.next();
+					logger.error(knowledgeBuilderError.getMessage());
+				}
 			}
+			failedVersion = version;
+			if(ruleKnowledgeBase != null){
+				logger.error("Unable to compile the rules version " + version + ", keep evaluating " + ruleKnowledgeBase);
+				return;
+			}
+			// NOTHING COMPILED YET : EVALUATE WITHOUT ANY RULE UNTIL THE RULES ARE FIXED
+			logger.error("Unable to compile the rules version " + version + ", no rule is evaluated");
+			ruleKnowledgeBase = new RuleKnowledgeBase(KnowledgeBaseFactory.newKnowledgeBase(), "", new ArrayList<String>());
+			return;
+        } 
+		
+		KnowledgeBase kbase = KnowledgeBaseFactory.newKnowledgeBase();
+		kbase.addKnowledgePackages(kbuilder.getKnowledgePackages());
+		ruleKnowledgeBase = new RuleKnowledgeBase(kbase, version, ruleRepositoryCodes);
+		failedVersion = null;
+		logger.info("Rules compiled in " + (System.currentTimeMillis() - start) + " ms : " + ruleKnowledgeBase);
+	}
 
-			if (kbuilder.hasErrors()) {
-				KnowledgeBuilderErrors errors = kbuilder.getErrors();
-				if(errors != null){
-					for (Iterator<KnowledgeBuilderError> iterator = errors.iterator(); iterator.hasNext();) {
-						KnowledgeBuilderError knowledgeBuilderError = (KnowledgeBuilderError) iterator.next();
-						logger.error(knowledgeBuilderError.getMessage());
+	/**
+	 * Hash of the rule repositories, ordered by code, and of their rules, ordered by name.
+	 */
+	protected String buildVersion(List<RuleRepository> ruleRepositories) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			for (Iterator<RuleRepository> iterator = ruleRepositories.iterator(); iterator.hasNext();) {
+				RuleRepository ruleRepository = (RuleRepository) iterator.next();
+				digest.update(("repository:" + ruleRepository.getCode() + "\n").getBytes(UTF_8));
+				List<AbstractRuleReferential> rules = new ArrayList<AbstractRuleReferential>(ruleRepository.getRules());
+				Collections.sort(rules, new Comparator<AbstractRuleReferential>() {
+					public int compare(AbstractRuleReferential o1, AbstractRuleReferential o2) {
+						return String.valueOf(o1.getName()).compareTo(String.valueOf(o2.getName()));
 					}
+				});
+				for (Iterator<AbstractRuleReferential> iteratorRule = rules.iterator(); iteratorRule.hasNext();) {
+					AbstractRuleReferential rule = (AbstractRuleReferential) iteratorRule.next();
+					digest.update(("rule:" + rule.getName() + "\n" + rule.getSalience() + "\n" + rule.getCondition() + "\n" + rule.getConsequence() + "\n").getBytes(UTF_8));
 				}
-	            throw new RuntimeException("Unable to compile drl"); 
-	        } 
-			
-    		Collection<KnowledgePackage> pkgs = kbuilder.getKnowledgePackages();
-    		kbase.addKnowledgePackages(pkgs);
-    		for (Iterator<Object> iterator = objects.iterator(); iterator.hasNext();) {
-    			Object object = (Object) iterator.next();
-	    		ksession.insert(object);
 			}
-    		ksession.fireAllRules();
-        		
+			byte[] hash = digest.digest();
+			char[] version = new char[hash.length * 2];
+			for (int i = 0; i < hash.length; i++) {
+				version[i * 2] = HEXADECIMAL[(hash[i] >> 4) & 0x0F];
+				version[i * 2 + 1] = HEXADECIMAL[hash[i] & 0x0F];
+			}
+			return new String(version);
+			
 		} catch (Exception e) {
-			logger.error("UrlParams Filter & HandleUrlParameters failed, e");
+			throw new IllegalStateException("Unable to hash the rules", e);
 		}
 	}
+
 }
@@ -17,6 +17,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import org.hoteia.qalingo.core.dao.RuleRepositoryDao;
 import org.hoteia.qalingo.core.domain.RuleRepository;
+import org.hoteia.qalingo.core.rule.util.RuleUtil;
 import org.hoteia.qalingo.core.service.RuleRepositoryService;
 
 @Service("ruleRepositoryService")
@@ -26,6 +27,9 @@ public class RuleRepositoryServiceImpl implements RuleRepositoryService {
 	@Autowired
 	private RuleRepositoryDao ruleRepositoryDao;
 
+	@Autowired
+	private RuleUtil ruleUtil;
+
 	// RULE CONDITION
 	
 	public RuleRepository getRuleRepositoryByCode(String ruleRepositoryCode) {
@@ -42,10 +46,12 @@ public class RuleRepositoryServiceImpl implements RuleRepositoryService {
 	
 	public void saveRuleRepository(RuleRepository ruleRepository) {
 		ruleRepositoryDao.saveRuleRepository(ruleRepository);
+		ruleUtil.invalidateRuleKnowledgeBase();
 	}
 	
 	public void deleteRuleRepository(RuleRepository ruleRepository) {
 		ruleRepositoryDao.deleteRuleRepository(ruleRepository);
+		ruleUtil.invalidateRuleKnowledgeBase();
 	}
 
 }
@@ -0,0 +1,250 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.rule.util.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
+import org.drools.builder.KnowledgeBuilder;
+import org.drools.builder.KnowledgeBuilderFactory;
+import org.drools.builder.ResourceType;
+import org.drools.io.ResourceFactory;
+import org.drools.runtime.StatefulKnowledgeSession;
+import org.hoteia.qalingo.core.domain.AbstractRuleReferential;
+import org.hoteia.qalingo.core.domain.CartItem;
+import org.hoteia.qalingo.core.domain.RuleRepository;
+import org.hoteia.qalingo.core.rule.util.RuleKnowledgeBase;
+import org.hoteia.qalingo.core.service.RuleRepositoryService;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * RuleUtilImpl Test : compilation once per rules version, hot swap on a change, stateless
+ * evaluations, and promotions per second over a cart of CART_SIZE items against
+ * PROMOTION_COUNT promotion rules, compared with the former compile on every cart event.
+ */
+public class RuleUtilImplTest {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final int CART_SIZE = 20;
+    private static final int PROMOTION_COUNT = 50;
+
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 20000;
+    private static final int RECOMPILE_ITERATIONS = 20;
+
+    private static class PromotionRule extends AbstractRuleReferential {
+
+        private static final long serialVersionUID = 1L;
+
+        private String condition;
+        private String consequence;
+
+        private PromotionRule(Long id, String name, String condition, String consequence) {
+            setId(id);
+            setCode(name);
+            setName(name);
+            setSalience("10");
+            this.condition = condition;
+            this.consequence = consequence;
+        }
+
+        @Override
+        public String getCondition() {
+            return condition;
+        }
+
+        @Override
+        public String getConsequence() {
+            return consequence;
+        }
+    }
+
+    private RuleUtilImpl ruleUtil;
+    private List<RuleRepository> activeRuleRepositories;
+    private int findActiveRuleRepositoriesCount;
+
+    @Before
+    public void setUp() {
+        activeRuleRepositories = new ArrayList<RuleRepository>();
+        activeRuleRepositories.add(buildPromotionRuleRepository());
+
+        ruleUtil = new RuleUtilImpl();
+        ruleUtil.checkDelay = 60000;
+        ruleUtil.ruleRepositoryService = new RuleRepositoryService() {
+            public RuleRepository getRuleRepositoryByCode(String ruleRepositoryCode) {
+                throw new UnsupportedOperationException();
+            }
+            public List<RuleRepository> findRuleRepositories() {
+                throw new UnsupportedOperationException();
+            }
+            public List<RuleRepository> findActiveRuleRepositories() {
+                findActiveRuleRepositoriesCount++;
+                return activeRuleRepositories;
+            }
+            public void saveRuleRepository(RuleRepository ruleRepository) {
+                throw new UnsupportedOperationException();
+            }
+            public void deleteRuleRepository(RuleRepository ruleRepository) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    public void testRulesAreCompiledOnce() {
+        RuleKnowledgeBase ruleKnowledgeBase = ruleUtil.getRuleKnowledgeBase();
+        for (int i = 0; i < 10; i++) {
+            List<String> promotions = evaluate();
+            assertEquals(CART_SIZE / 2, promotions.size());
+        }
+        assertSame(ruleKnowledgeBase, ruleUtil.getRuleKnowledgeBase());
+        assertEquals(1, findActiveRuleRepositoriesCount);
+    }
+
+    @Test
+    public void testChangedRulesAreSwapped() {
+        RuleKnowledgeBase ruleKnowledgeBase = ruleUtil.getRuleKnowledgeBase();
+
+        // SAME CONTENT : CHECKED BUT NOT RECOMPILED
+        activeRuleRepositories.set(0, buildPromotionRuleRepository());
+        ruleUtil.invalidateRuleKnowledgeBase();
+        assertSame(ruleKnowledgeBase, ruleUtil.getRuleKnowledgeBase());
+        assertEquals(2, findActiveRuleRepositoriesCount);
+
+        activeRuleRepositories.get(0).getRules().add(new PromotionRule(new Long(1000), "promotion_every_item",
+                "$item : org.hoteia.qalingo.core.domain.CartItem( )\n$promotions : java.util.ArrayList( )", "$promotions.add(\"EVERY_ITEM\");"));
+        ruleUtil.invalidateRuleKnowledgeBase();
+        RuleKnowledgeBase swappedRuleKnowledgeBase = ruleUtil.getRuleKnowledgeBase();
+        assertNotSame(ruleKnowledgeBase, swappedRuleKnowledgeBase);
+        assertFalse(ruleKnowledgeBase.getVersion().equals(swappedRuleKnowledgeBase.getVersion()));
+        assertEquals(CART_SIZE / 2 + CART_SIZE, evaluate().size());
+    }
+
+    @Test
+    public void testInvalidRulesKeepThePreviousVersion() {
+        RuleKnowledgeBase ruleKnowledgeBase = ruleUtil.getRuleKnowledgeBase();
+
+        activeRuleRepositories.get(0).getRules().add(new PromotionRule(new Long(1000), "promotion_invalid", "$item : UnknownFact( )", ""));
+        ruleUtil.invalidateRuleKnowledgeBase();
+        assertSame(ruleKnowledgeBase, ruleUtil.getRuleKnowledgeBase());
+        assertEquals(CART_SIZE / 2, evaluate().size());
+    }
+
+    @Test
+    public void benchmarkPromotionsPerSecond() {
+        List<Object> facts = buildCartFacts();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            evaluate(facts);
+        }
+        long promotionCount = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            promotionCount += evaluate(facts).size();
+        }
+        long nanos = System.nanoTime() - start;
+
+        logger.info("Precompiled knowledge base, stateless session : " + (nanos / ITERATIONS) + " ns/cart, "
+                + (promotionCount * 1000000000L / nanos) + " promotions/sec");
+
+        long recompilePromotionCount = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < RECOMPILE_ITERATIONS; i++) {
+            recompilePromotionCount += evaluateWithRecompile(facts).size();
+        }
+        long recompileNanos = System.nanoTime() - start;
+
+        logger.info("Compile on every cart event, shared stateful session : " + (recompileNanos / RECOMPILE_ITERATIONS) + " ns/cart, "
+                + (recompilePromotionCount * 1000000000L / recompileNanos) + " promotions/sec");
+    }
+
+    private List<String> evaluate() {
+        return evaluate(buildCartFacts());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> evaluate(List<Object> facts) {
+        ArrayList<String> promotions = (ArrayList<String>) facts.get(facts.size() - 1);
+        promotions.clear();
+        ruleUtil.handleRuleSession(facts);
+        return promotions;
+    }
+
+    /**
+     * What RuleUtilImpl did on every cart event before the precompiled knowledge base.
+     */
+    @SuppressWarnings("unchecked")
+    private List<String> evaluateWithRecompile(List<Object> facts) {
+        ArrayList<String> promotions = (ArrayList<String>) facts.get(facts.size() - 1);
+        promotions.clear();
+        KnowledgeBuilder kbuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+        for (RuleRepository ruleRepository : activeRuleRepositories) {
+            kbuilder.add(ResourceFactory.newReaderResource(new StringReader(ruleRepository.getRuleString())), ResourceType.DRL);
+        }
+        KnowledgeBase kbase = KnowledgeBaseFactory.newKnowledgeBase();
+        kbase.addKnowledgePackages(kbuilder.getKnowledgePackages());
+        StatefulKnowledgeSession ksession = kbase.newStatefulKnowledgeSession();
+        try {
+            for (Object fact : facts) {
+                ksession.insert(fact);
+            }
+            ksession.fireAllRules();
+        } finally {
+            ksession.dispose();
+        }
+        return promotions;
+    }
+
+    private RuleRepository buildPromotionRuleRepository() {
+        Set<AbstractRuleReferential> rules = new HashSet<AbstractRuleReferential>();
+        for (int i = 0; i < PROMOTION_COUNT; i++) {
+            rules.add(new PromotionRule(new Long(i), "promotion_" + i,
+                    "$item : org.hoteia.qalingo.core.domain.CartItem( productSkuCode == \"SKU_" + i + "\", quantity >= 2 )\n$promotions : java.util.ArrayList( )",
+                    "$promotions.add(\"PROMOTION_" + i + "\");"));
+        }
+        RuleRepository ruleRepository = new RuleRepository();
+        ruleRepository.setId(new Long(1));
+        ruleRepository.setCode("PROMOTIONS");
+        ruleRepository.setActive(true);
+        ruleRepository.setRules(rules);
+        return ruleRepository;
+    }
+
+    /**
+     * CART_SIZE items, every other one with a quantity which triggers its promotion, and the
+     * list collecting the applied promotions as the last fact.
+     */
+    private List<Object> buildCartFacts() {
+        List<Object> facts = new ArrayList<Object>();
+        for (int i = 0; i < CART_SIZE; i++) {
+            CartItem cartItem = new CartItem();
+            cartItem.setId(new Long(i));
+            cartItem.setProductSkuCode("SKU_" + i);
+            cartItem.setQuantity(i % 2 == 0 ? 2 : 1);
+            facts.add(cartItem);
+        }
+        facts.add(new ArrayList<String>());
+        return facts;
+    }
+
+}
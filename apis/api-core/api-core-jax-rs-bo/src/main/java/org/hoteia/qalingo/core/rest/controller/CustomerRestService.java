@@ -12,13 +12,16 @@ package org.hoteia.qalingo.core.rest.controller;
 import java.util.List;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 
+import org.hoteia.qalingo.core.dao.KeysetPage;
 import org.hoteia.qalingo.core.pojo.customer.CustomerPojo;
 import org.hoteia.qalingo.core.service.pojo.CustomerPojoService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -37,6 +40,13 @@ public class CustomerRestService {
         return customerService.getAllCustomers();
     }
 
+    @GET
+    @Path("page")
+    @Produces(MediaType.APPLICATION_JSON)
+    public KeysetPage<CustomerPojo> getCustomerPage(@QueryParam("afterId") final Long afterId, @QueryParam("pageSize") @DefaultValue("100") final int pageSize) {
+        return customerService.getCustomerPage(afterId, pageSize);
+    }
+
     @GET
     @Path("{id}")
     @Produces(MediaType.APPLICATION_JSON)
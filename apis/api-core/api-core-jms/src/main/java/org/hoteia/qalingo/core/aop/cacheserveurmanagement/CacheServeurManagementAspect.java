@@ -0,0 +1,88 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.aop.cacheserveurmanagement;
+
+import org.aspectj.lang.JoinPoint;
+import org.hibernate.Hibernate;
+import org.hoteia.qalingo.core.aop.cache.CacheEntityAccessor;
+import org.hoteia.qalingo.core.aop.cache.CacheMethodPlan;
+import org.hoteia.qalingo.core.aop.cache.CacheMethodPlanRegistry;
+import org.hoteia.qalingo.core.domain.AbstractEntity;
+import org.hoteia.qalingo.core.domain.AbstractExtendEntity;
+import org.hoteia.qalingo.core.jms.cacheserveurmanagement.producer.CacheEvictionJms;
+import org.hoteia.qalingo.core.jms.cacheserveurmanagement.producer.CacheServeurManagementMessageProducer;
+import org.hoteia.qalingo.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the cache eviction of the entities saved or deleted by the back office services,
+ * so every node evicts them from its web_cache_* regions.
+ */
+@Component(value = "cacheServeurManagementAspect")
+public class CacheServeurManagementAspect {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private CacheServeurManagementMessageProducer cacheServeurManagementMessageProducer;
+    
+    @Autowired
+    private CacheMethodPlanRegistry cacheMethodPlanRegistry;
+    
+    public void afterReturning(final JoinPoint joinPoint, final Object result) {
+        if(logger.isDebugEnabled()){
+            logger.debug("CacheServeurManagementAspect, afterReturning");
+        }
+        try {
+            if(isEntity(result)){
+                // SAVE OR UPDATE : THE RETURNED ENTITY
+                addEviction(result);
+            } else {
+                // DELETE : THE ENTITY ARGUMENTS
+                Object[] args = joinPoint.getArgs();
+                for (int i = 0; i < args.length; i++) {
+                    if(isEntity(args[i])){
+                        addEviction(args[i]);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.error("CacheServeurManagementAspect Target Object error: " + e);
+        }
+    }
+    
+    protected void addEviction(final Object entity) throws Exception {
+        Class<?> entityClass = Hibernate.getClass(entity);
+        CacheEntityAccessor entityAccessor = cacheMethodPlanRegistry.getEntityAccessor(entityClass);
+        if(!entityAccessor.hasId()){
+            return;
+        }
+        Long entityId = entityAccessor.getId(entity);
+        if(entityId == null){
+            return;
+        }
+        String entityCode = entityAccessor.hasCode() ? entityAccessor.getCode(entity) : null;
+        final CacheEvictionJms cacheEvictionJms = new CacheEvictionJms(entityClass.getName(), entityId, entityCode, CacheMethodPlan.resolveCacheName(entityClass));
+        // THE OTHER NODES RELOAD THE ENTITY : PUBLISHED ONCE THE CHANGE IS COMMITTED
+        TransactionUtil.runAfterCommit(new Runnable() {
+            public void run() {
+                cacheServeurManagementMessageProducer.addEviction(cacheEvictionJms);
+            }
+        });
+    }
+    
+    protected boolean isEntity(final Object object) {
+        return object instanceof AbstractEntity || object instanceof AbstractExtendEntity;
+    }
+    
+}
@@ -10,14 +10,31 @@
 package org.hoteia.qalingo.core.jms.cacheserveurmanagement.listener;
 
 import java.beans.ExceptionListener;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.TextMessage;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hoteia.qalingo.core.aop.cache.EntityCacheEvictor;
+import org.hoteia.qalingo.core.domain.CatalogCategoryVirtual;
+import org.hoteia.qalingo.core.domain.ProductMarketing;
+import org.hoteia.qalingo.core.domain.ProductSku;
+import org.hoteia.qalingo.core.jms.cacheserveurmanagement.producer.CacheEvictionJms;
+import org.hoteia.qalingo.core.jms.cacheserveurmanagement.producer.CacheServeurManagementMessageJms;
+import org.hoteia.qalingo.core.mapper.XmlMapper;
+import org.hoteia.qalingo.core.service.catalog.CatalogCategoryTreeSnapshot;
+import org.hoteia.qalingo.core.service.catalog.ProductSkuPriceSnapshot;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component(value = "cacheServeurManagementQueueListener")
@@ -25,6 +42,30 @@ public class CacheServeurManagementQueueListener implements MessageListener, Exc
 
     protected final Log logger = LogFactory.getLog(getClass());
 
+    private static final int MAX_PROCESSED_MESSAGE_IDS = 1000;
+
+    @Autowired
+    protected XmlMapper xmlMapper;
+
+    @Autowired
+    protected EntityCacheEvictor entityCacheEvictor;
+
+    @Autowired
+    protected CatalogCategoryTreeSnapshot catalogCategoryTreeSnapshot;
+
+    @Autowired
+    protected ProductSkuPriceSnapshot productSkuPriceSnapshot;
+
+    // LAST MESSAGE IDS PROCESSED BY THIS NODE : A REDELIVERED MESSAGE IS DROPPED
+    private final Set<String> processedMessageIds = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_PROCESSED_MESSAGE_IDS;
+        }
+    });
+
     /**
      * Implementation of <code>MessageListener</code>.
      */
@@ -33,12 +74,63 @@ public class CacheServeurManagementQueueListener implements MessageListener, Exc
             if (message instanceof TextMessage) {
                 TextMessage tm = (TextMessage) message;
                 String valueJMSMessage = tm.getText();
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Processed message, value: " + valueJMSMessage);
+                
+                if(StringUtils.isNotEmpty(valueJMSMessage)){
+                    final CacheServeurManagementMessageJms cacheServeurManagementMessageJms = xmlMapper.getXmlMapper().readValue(valueJMSMessage, CacheServeurManagementMessageJms.class);
+                    if(!markAsProcessed(cacheServeurManagementMessageJms.getMessageId())){
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Message already processed, id: " + cacheServeurManagementMessageJms.getMessageId());
+                        }
+                        return;
+                    }
+                    
+                    // EVICT EACH ENTITY, THEN FLUSH EACH DEPENDENT REGION ONCE FOR THE WHOLE MESSAGE
+                    Set<String> cacheNamesToFlush = new LinkedHashSet<String>();
+                    if(cacheServeurManagementMessageJms.getEvictions() != null){
+                        for (CacheEvictionJms cacheEvictionJms : new LinkedHashSet<CacheEvictionJms>(cacheServeurManagementMessageJms.getEvictions())) {
+                            entityCacheEvictor.evictEntity(cacheEvictionJms.getEntityType(), cacheEvictionJms.getEntityId(), cacheEvictionJms.getEntityCode(), cacheEvictionJms.getCacheName());
+                            cacheNamesToFlush.addAll(entityCacheEvictor.getDependentCacheNames(cacheEvictionJms.getCacheName()));
+                            invalidateSnapshots(cacheEvictionJms.getEntityType());
+                        }
+                    }
+                    entityCacheEvictor.flushCaches(cacheNamesToFlush);
+                    
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Processed message, value: " + valueJMSMessage);
+                    }
+                } else {
+                    logger.warn("Cache serveur management: Jms Message is empty");
                 }
             }
         } catch (JMSException e) {
             logger.error(e.getMessage(), e);
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The read-only snapshots built from the changed entities are rebuilt : the back office
+     * edits reach the front office nodes without waiting for the refresh delay.
+     */
+    protected void invalidateSnapshots(final String entityType) {
+        if (CatalogCategoryVirtual.class.getName().equals(entityType)) {
+            catalogCategoryTreeSnapshot.invalidate();
+        } else if (ProductSku.class.getName().equals(entityType)
+                || ProductMarketing.class.getName().equals(entityType)) {
+            productSkuPriceSnapshot.invalidate();
+        }
+    }
+
+    /**
+     * @return false if this node has already processed the message.
+     */
+    protected boolean markAsProcessed(final String messageId) {
+        if (messageId == null) {
+            return true;
+        }
+        synchronized (processedMessageIds) {
+            return processedMessageIds.add(messageId);
         }
     }
 
@@ -47,4 +139,4 @@ public class CacheServeurManagementQueueListener implements MessageListener, Exc
         logger.debug("Exception on queue listener: " + e.getCause() + ":" + e.getLocalizedMessage());
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,115 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.jms.cacheserveurmanagement.producer;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * One entity to evict : entity class name, id, code and cache region.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class CacheEvictionJms {
+
+    private String entityType;
+    private Long entityId;
+    private String entityCode;
+    private String cacheName;
+
+    public CacheEvictionJms() {
+    }
+
+    public CacheEvictionJms(String entityType, Long entityId, String entityCode, String cacheName) {
+        this.entityType = entityType;
+        this.entityId = entityId;
+        this.entityCode = entityCode;
+        this.cacheName = cacheName;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public void setEntityType(String entityType) {
+        this.entityType = entityType;
+    }
+
+    public Long getEntityId() {
+        return entityId;
+    }
+
+    public void setEntityId(Long entityId) {
+        this.entityId = entityId;
+    }
+
+    public String getEntityCode() {
+        return entityCode;
+    }
+
+    public void setEntityCode(String entityCode) {
+        this.entityCode = entityCode;
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public void setCacheName(String cacheName) {
+        this.cacheName = cacheName;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((cacheName == null) ? 0 : cacheName.hashCode());
+        result = prime * result + ((entityCode == null) ? 0 : entityCode.hashCode());
+        result = prime * result + ((entityId == null) ? 0 : entityId.hashCode());
+        result = prime * result + ((entityType == null) ? 0 : entityType.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        CacheEvictionJms other = (CacheEvictionJms) obj;
+        if (cacheName == null) {
+            if (other.cacheName != null)
+                return false;
+        } else if (!cacheName.equals(other.cacheName))
+            return false;
+        if (entityCode == null) {
+            if (other.entityCode != null)
+                return false;
+        } else if (!entityCode.equals(other.entityCode))
+            return false;
+        if (entityId == null) {
+            if (other.entityId != null)
+                return false;
+        } else if (!entityId.equals(other.entityId))
+            return false;
+        if (entityType == null) {
+            if (other.entityType != null)
+                return false;
+        } else if (!entityType.equals(other.entityType))
+            return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheEvictionJms [entityType=" + entityType + ", entityId=" + entityId + ", entityCode=" + entityCode + ", cacheName=" + cacheName + "]";
+    }
+
+}
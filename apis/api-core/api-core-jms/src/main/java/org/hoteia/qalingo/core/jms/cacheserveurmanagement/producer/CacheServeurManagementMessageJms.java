@@ -0,0 +1,43 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.jms.cacheserveurmanagement.producer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hoteia.qalingo.core.jms.cacheserveurmanagement.listener.AbstractMessageJms;
+
+/**
+ * Cache invalidation message : the evictions of a coalesced burst of back office saves.
+ * The message id lets each node drop a message it has already processed.
+ */
+public class CacheServeurManagementMessageJms extends AbstractMessageJms {
+
+    private String messageId;
+
+    private List<CacheEvictionJms> evictions = new ArrayList<CacheEvictionJms>();
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public List<CacheEvictionJms> getEvictions() {
+        return evictions;
+    }
+
+    public void setEvictions(List<CacheEvictionJms> evictions) {
+        this.evictions = evictions;
+    }
+
+}
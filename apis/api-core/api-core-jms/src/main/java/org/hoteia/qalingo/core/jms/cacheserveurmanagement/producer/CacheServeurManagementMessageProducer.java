@@ -10,7 +10,18 @@
 package org.hoteia.qalingo.core.jms.cacheserveurmanagement.producer;
 
 import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.jms.JMSException;
 import javax.jms.Message;
@@ -19,6 +30,9 @@ import javax.jms.TextMessage;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hoteia.qalingo.core.mapper.XmlMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.jms.core.MessageCreator;
 import org.springframework.stereotype.Component;
@@ -31,14 +45,91 @@ public class CacheServeurManagementMessageProducer {
     @Resource(name="cacheServeurManagementJmsTemplate")
     private JmsTemplate jmsTemplate;
 
+    @Autowired
+    protected XmlMapper xmlMapper;
+    
+    @Value("${env.name}")  
+    protected String environmentName;
+    
+    @Value("${env.id}")  
+    protected String environmentId;
+    
+    @Value("${app.name}")  
+    protected String applicationName;
+    
+    @Value("${cache.serveur.management.coalescing.delay}")  
+    protected long coalescingDelay;
+    
+    private final Set<CacheEvictionJms> pendingEvictions = new LinkedHashSet<CacheEvictionJms>();
+    
+    private boolean flushScheduled;
+    
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "cache-serveur-management-flush");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    
+    /**
+     * Queues an eviction. The evictions added during the coalescing delay are deduplicated
+     * and sent as one message, so a burst of back office saves costs one message per burst.
+     */
+    public void addEviction(final CacheEvictionJms cacheEvictionJms) {
+        synchronized (pendingEvictions) {
+            pendingEvictions.add(cacheEvictionJms);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        flushExecutor.schedule(new Runnable() {
+            public void run() {
+                flush();
+            }
+        }, coalescingDelay, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Sends the pending evictions now.
+     */
+    public void flush() {
+        final List<CacheEvictionJms> evictions;
+        synchronized (pendingEvictions) {
+            flushScheduled = false;
+            if (pendingEvictions.isEmpty()) {
+                return;
+            }
+            evictions = new ArrayList<CacheEvictionJms>(pendingEvictions);
+            pendingEvictions.clear();
+        }
+        try {
+            final CacheServeurManagementMessageJms cacheServeurManagementMessageJms = new CacheServeurManagementMessageJms();
+            cacheServeurManagementMessageJms.setEnvironmentName(environmentName);
+            cacheServeurManagementMessageJms.setEnvironmentId(environmentId);
+            cacheServeurManagementMessageJms.setApplicationName(applicationName);
+            cacheServeurManagementMessageJms.setServerName(InetAddress.getLocalHost().getHostName());
+            cacheServeurManagementMessageJms.setServerIp(InetAddress.getLocalHost().getHostAddress());
+            cacheServeurManagementMessageJms.setMessageId(UUID.randomUUID().toString());
+            cacheServeurManagementMessageJms.setEvictions(evictions);
+            
+            generateMessages(cacheServeurManagementMessageJms);
+            
+        } catch (Exception e) {
+            logger.error("Exception during the cache eviction flush", e);
+        }
+    }
+    
     /**
      * Generates JMS messages
      * 
      * @throws UnsupportedEncodingException
      */
-    public void generateMessages() throws JMSException, UnsupportedEncodingException {
+    public void generateMessages(final CacheServeurManagementMessageJms cacheServeurManagementMessageJms) throws JMSException, UnsupportedEncodingException {
         try {
-            final String valueJMSMessage = "message JMS";
+            final String valueJMSMessage = xmlMapper.getXmlMapper().writeValueAsString(cacheServeurManagementMessageJms);
+            
             jmsTemplate.send(new MessageCreator() {
                 public Message createMessage(Session session) throws JMSException {
                     TextMessage message = session.createTextMessage(valueJMSMessage);
@@ -53,4 +144,10 @@ public class CacheServeurManagementMessageProducer {
         }
     }
 
+    @PreDestroy
+    public void destroy() {
+        flushExecutor.shutdownNow();
+        flush();
+    }
+
 }
@@ -20,12 +20,9 @@ import javax.jms.TextMessage;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.hoteia.qalingo.core.domain.OrderCustomer;
-import org.hoteia.qalingo.core.domain.enumtype.OrderDocumentType;
 import org.hoteia.qalingo.core.jms.document.producer.GenerationDocumentMessageJms;
 import org.hoteia.qalingo.core.mapper.XmlMapper;
-import org.hoteia.qalingo.core.service.DocumentService;
-import org.hoteia.qalingo.core.service.OrderCustomerService;
+import org.hoteia.qalingo.core.service.document.DocumentRenderer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -38,10 +35,7 @@ public class DocumentQueueListener implements MessageListener, ExceptionListener
     protected XmlMapper xmlMapper;
     
     @Autowired
-    protected DocumentService documentService;
-    
-    @Autowired
-    protected OrderCustomerService orderCustomerService;
+    protected DocumentRenderer documentRenderer;
     
     /**
      * Implementation of <code>MessageListener</code>.
@@ -55,18 +49,8 @@ public class DocumentQueueListener implements MessageListener, ExceptionListener
                 if(StringUtils.isNotEmpty(valueJMSMessage)){
                     final GenerationDocumentMessageJms documentMessageJms = xmlMapper.getXmlMapper().readValue(valueJMSMessage, GenerationDocumentMessageJms.class);
                     
-                    final OrderCustomer order = orderCustomerService.getOrderById(documentMessageJms.getOrderId());
-                    
-                    if(documentMessageJms.getDocumentType().equals(OrderDocumentType.ORDER_CONFIRMATION.getPropertyKey())){
-                        documentService.generateOrderConfirmation(order);
-                        
-                    } else if(documentMessageJms.getDocumentType().equals(OrderDocumentType.SHIPPING_CONFIRMATION.getPropertyKey())){
-                        documentService.generateShippingConfirmation(order);
-                        
-                    } else if(documentMessageJms.getDocumentType().equals(OrderDocumentType.INVOICE.getPropertyKey())){
-                        documentService.generateInvoice(order);
-                        
-                    }
+                    // RENDERED BEFORE THE ACKNOWLEDGE : A DOCUMENT IS NOT LOST WHEN THE NODE STOPS
+                    documentRenderer.render(documentMessageJms.getOrderId(), documentMessageJms.getDocumentType());
                     
                     if (logger.isDebugEnabled()) {
                         logger.debug("Processed message, value: " + valueJMSMessage);
@@ -0,0 +1,51 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.jms.geoloc.listener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.hoteia.qalingo.core.jms.geoloc.producer.AddressGeolocMessageJms;
+import org.hoteia.qalingo.core.jms.listener.AbstractBatchConsumer;
+
+/**
+ * Consumer of the geoloc queue which geolocates the addresses by batches, with
+ * {@link AddressGeolocQueueListener#processMessages(List)} : the stores of a batch are loaded
+ * together and the addresses go through the geoloc cache and the Google rate limit once.
+ */
+public class AddressGeolocBatchConsumer extends AbstractBatchConsumer {
+
+    private AddressGeolocQueueListener addressGeolocQueueListener;
+
+    public AddressGeolocBatchConsumer() {
+        super("address-geoloc");
+    }
+
+    @Override
+    protected void processBatch(final List<Message> messages) throws JMSException, IOException {
+        List<AddressGeolocMessageJms> addressGeolocMessages = new ArrayList<AddressGeolocMessageJms>(messages.size());
+        for (Message message : messages) {
+            AddressGeolocMessageJms addressGeolocMessageJms = addressGeolocQueueListener.readMessage(message);
+            if (addressGeolocMessageJms != null) {
+                addressGeolocMessages.add(addressGeolocMessageJms);
+            }
+        }
+        addressGeolocQueueListener.processMessages(addressGeolocMessages);
+    }
+
+    public void setAddressGeolocQueueListener(AddressGeolocQueueListener addressGeolocQueueListener) {
+        this.addressGeolocQueueListener = addressGeolocQueueListener;
+    }
+
+}
@@ -12,7 +12,10 @@ package org.hoteia.qalingo.core.jms.geoloc.listener;
 import java.beans.ExceptionListener;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.jms.JMSException;
 import javax.jms.Message;
@@ -39,6 +42,9 @@ import org.springframework.stereotype.Component;
 @Component(value = "addressGeolocQueueListener")
 public class AddressGeolocQueueListener implements MessageListener, ExceptionListener {
 
+    public static final String STORE = "Store";
+    public static final String RETAILER = "Retailer";
+
     protected final Log logger = LogFactory.getLog(getClass());
 
     @Autowired
@@ -61,76 +67,9 @@ public class AddressGeolocQueueListener implements MessageListener, ExceptionLis
      */
     public void onMessage(Message message) {
         try {
-            if (message instanceof TextMessage) {
-                TextMessage tm = (TextMessage) message;
-                String valueJMSMessage = tm.getText();
-                
-                if(StringUtils.isNotEmpty(valueJMSMessage)){
-                    final AddressGeolocMessageJms documentMessageJms = xmlMapper.getXmlMapper().readValue(valueJMSMessage, AddressGeolocMessageJms.class);
-                    
-                    String address = documentMessageJms.getAddress();
-                    String postalCode = documentMessageJms.getPostalCode();
-                    String city = documentMessageJms.getCity();
-                    String countryCode = documentMessageJms.getCountryCode();
-
-                    String formatedAddress = geolocService.encodeGoogleAddress(address, postalCode, city, countryCode);
-
-                    if("Store".equals(documentMessageJms.getObjectType())){
-                        final Store store = retailerService.getStoreById(documentMessageJms.getObjectId());
-                        if(store != null
-                                && StringUtils.isEmpty(store.getLatitude())){
-                            GeolocAddress geolocAddress = geolocService.getGeolocAddressByFormatedAddress(formatedAddress);
-                            if (geolocAddress != null
-                                    && StringUtils.isNotEmpty(geolocAddress.getLatitude())
-                                    && StringUtils.isNotEmpty(geolocAddress.getLongitude())) {
-                                store.setLatitude(geolocAddress.getLatitude());
-                                store.setLongitude(geolocAddress.getLongitude());
-                                retailerService.saveOrUpdateStore(store);
-                            } else {
-                                // LATITUDE/LONGITUDE DOESN'T EXIST - WE USE GOOGLE GEOLOC TO FOUND IT
-                                geolocAddress = geolocService.geolocByAddress(address, postalCode, city, countryCode);
-                                if (geolocAddress != null
-                                        && StringUtils.isNotEmpty(geolocAddress.getLatitude())
-                                        && StringUtils.isNotEmpty(geolocAddress.getLongitude())) {
-                                    store.setLatitude(geolocAddress.getLatitude());
-                                    store.setLongitude(geolocAddress.getLongitude());
-                                    retailerService.saveOrUpdateStore(store);
-                                }
-                            }
-                        }
-                    } else if("Retailer".equals(documentMessageJms.getObjectType())){
-                        final Retailer retailer = retailerService.getRetailerById(documentMessageJms.getObjectId(), new FetchPlan(retailerFetchPlans));
-                        RetailerAddress retailerAddress = retailer.getAddressByValue(address);
-                        if(retailer != null
-                                && retailerAddress != null
-                                && StringUtils.isEmpty(retailerAddress.getLatitude())){
-                            GeolocAddress geolocAddress = geolocService.getGeolocAddressByFormatedAddress(formatedAddress);
-                            if (geolocAddress != null
-                                    && StringUtils.isNotEmpty(geolocAddress.getLatitude())
-                                    && StringUtils.isNotEmpty(geolocAddress.getLongitude())) {
-                                retailerAddress.setLatitude(geolocAddress.getLatitude());
-                                retailerAddress.setLongitude(geolocAddress.getLongitude());
-                                retailerService.saveOrUpdateRetailer(retailer);
-                            } else {
-                                // LATITUDE/LONGITUDE DOESN'T EXIST - WE USE GOOGLE GEOLOC TO FOUND IT
-                                geolocAddress = geolocService.geolocByAddress(address, postalCode, city, countryCode);
-                                if (geolocAddress != null
-                                        && StringUtils.isNotEmpty(geolocAddress.getLatitude())
-                                        && StringUtils.isNotEmpty(geolocAddress.getLongitude())) {
-                                    retailerAddress.setLatitude(geolocAddress.getLatitude());
-                                    retailerAddress.setLongitude(geolocAddress.getLongitude());
-                                    retailerService.saveOrUpdateRetailer(retailer);
-                                }
-                            }
-                        }
-                    }
-                    
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Processed message, value: " + valueJMSMessage);
-                    }
-                } else {
-                    logger.warn("Document generation: Jms Message is empty");
-                }
+            AddressGeolocMessageJms addressGeolocMessageJms = readMessage(message);
+            if (addressGeolocMessageJms != null) {
+                processMessages(Collections.singletonList(addressGeolocMessageJms));
             }
         } catch (JMSException e) {
             logger.error(e.getMessage(), e);
@@ -139,6 +78,106 @@ public class AddressGeolocQueueListener implements MessageListener, ExceptionLis
         }
     }
 
+    /**
+     * @return the geoloc message, or null when the JMS message is not a text message or is empty.
+     */
+    public AddressGeolocMessageJms readMessage(final Message message) throws JMSException, IOException {
+        if (message instanceof TextMessage) {
+            String valueJMSMessage = ((TextMessage) message).getText();
+            if (StringUtils.isNotEmpty(valueJMSMessage)) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Processed message, value: " + valueJMSMessage);
+                }
+                return xmlMapper.getXmlMapper().readValue(valueJMSMessage, AddressGeolocMessageJms.class);
+            }
+            logger.warn("Document generation: Jms Message is empty");
+        }
+        return null;
+    }
+
+    /**
+     * Geolocates a batch of messages. The stores are loaded with one IN query, the addresses
+     * already geolocated are loaded together and only the unknown ones are asked to Google,
+     * once per address. Stores and retailer addresses which have a latitude are skipped.
+     */
+    public void processMessages(final List<AddressGeolocMessageJms> messages) {
+        List<Long> storeIds = new ArrayList<Long>();
+        for (AddressGeolocMessageJms message : messages) {
+            if (STORE.equals(message.getObjectType()) && message.getObjectId() != null) {
+                storeIds.add(message.getObjectId());
+            }
+        }
+        Map<Long, Store> stores = new HashMap<Long, Store>();
+        if (!storeIds.isEmpty()) {
+            for (Store store : retailerService.findStoresByIds(storeIds)) {
+                stores.put(store.getId(), store);
+            }
+        }
+        
+        Map<AddressGeolocMessageJms, Retailer> retailers = new HashMap<AddressGeolocMessageJms, Retailer>();
+        List<AddressGeolocMessageJms> pendingMessages = new ArrayList<AddressGeolocMessageJms>();
+        List<GeolocAddress> addresses = new ArrayList<GeolocAddress>();
+        for (AddressGeolocMessageJms message : messages) {
+            if (STORE.equals(message.getObjectType())) {
+                final Store store = stores.get(message.getObjectId());
+                if (store == null
+                        || StringUtils.isNotEmpty(store.getLatitude())) {
+                    continue;
+                }
+            } else if (RETAILER.equals(message.getObjectType())) {
+                final Retailer retailer = retailerService.getRetailerById(message.getObjectId(), new FetchPlan(retailerFetchPlans));
+                if (retailer == null) {
+                    continue;
+                }
+                RetailerAddress retailerAddress = retailer.getAddressByValue(message.getAddress());
+                if (retailerAddress == null
+                        || StringUtils.isNotEmpty(retailerAddress.getLatitude())) {
+                    continue;
+                }
+                retailers.put(message, retailer);
+            } else {
+                logger.warn("Unknown geoloc object type: " + message.getObjectType());
+                continue;
+            }
+            GeolocAddress address = new GeolocAddress();
+            address.setAddress(message.getAddress());
+            address.setPostalCode(message.getPostalCode());
+            address.setCity(message.getCity());
+            address.setCountry(message.getCountryCode());
+            addresses.add(address);
+            pendingMessages.add(message);
+        }
+        if (pendingMessages.isEmpty()) {
+            return;
+        }
+        
+        Map<String, GeolocAddress> geolocAddresses = geolocService.geolocAddressesWithCache(addresses);
+        for (AddressGeolocMessageJms message : pendingMessages) {
+            String formatedAddress = geolocService.encodeGoogleAddress(message.getAddress(), message.getPostalCode(), message.getCity(), message.getCountryCode());
+            GeolocAddress geolocAddress = geolocAddresses.get(formatedAddress);
+            if (geolocAddress == null
+                    || StringUtils.isEmpty(geolocAddress.getLatitude())
+                    || StringUtils.isEmpty(geolocAddress.getLongitude())) {
+                continue;
+            }
+            if (STORE.equals(message.getObjectType())) {
+                final Store store = stores.get(message.getObjectId());
+                store.setLatitude(geolocAddress.getLatitude());
+                store.setLongitude(geolocAddress.getLongitude());
+                retailerService.saveOrUpdateStore(store);
+            } else {
+                final Retailer retailer = retailers.get(message);
+                RetailerAddress retailerAddress = retailer.getAddressByValue(message.getAddress());
+                retailerAddress.setLatitude(geolocAddress.getLatitude());
+                retailerAddress.setLongitude(geolocAddress.getLongitude());
+                retailerService.saveOrUpdateRetailer(retailer);
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Processed " + messages.size() + " geoloc messages, " + geolocAddresses.size() + " addresses geolocated");
+        }
+    }
+
     @Override
     public void exceptionThrown(Exception e) {
         logger.debug("Exception on queue listener: " + e.getCause() + ":" + e.getLocalizedMessage());
@@ -0,0 +1,63 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.jms.indexing.listener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.hoteia.qalingo.core.jms.indexing.producer.IndexingObjectMessageJms;
+import org.hoteia.qalingo.core.jms.listener.AbstractBatchConsumer;
+import org.hoteia.qalingo.core.solr.service.SolrIndexingResult;
+
+/**
+ * Consumer of the indexing queue which indexes the messages by batches, in one pass with
+ * {@link IndexingObjectQueueListener#processMessages(List)}. When Solr rejects any document
+ * of the batch, the batch is rolled back and its messages are redelivered one per batch : the
+ * indexed documents are committed and only the rejected message is retried, until it goes to
+ * the dead letter queue after the redelivery attempts of the broker.
+ * 
+ * The producer puts the messages of an entity in the same JMSXGroupID, so the broker hands
+ * them to one consumer and an entity is always indexed in order, whatever the concurrency.
+ */
+public class IndexingObjectBatchConsumer extends AbstractBatchConsumer {
+
+    private IndexingObjectQueueListener indexingObjectQueueListener;
+
+    public IndexingObjectBatchConsumer() {
+        super("indexing-object");
+    }
+
+    /**
+     * @throws IllegalStateException when Solr did not index every document of the batch, to roll it back
+     */
+    @Override
+    protected void processBatch(final List<Message> messages) throws JMSException, IOException {
+        List<IndexingObjectMessageJms> indexingObjectMessages = new ArrayList<IndexingObjectMessageJms>(messages.size());
+        for (Message message : messages) {
+            IndexingObjectMessageJms indexingObjectMessageJms = indexingObjectQueueListener.readMessage(message);
+            if (indexingObjectMessageJms != null) {
+                indexingObjectMessages.add(indexingObjectMessageJms);
+            }
+        }
+        SolrIndexingResult result = indexingObjectQueueListener.processMessages(indexingObjectMessages);
+        if (!result.isSuccess()) {
+            throw new IllegalStateException("Solr indexing failed for " + result.getFailedCount() + " documents: " + result.getFailures());
+        }
+    }
+
+    public void setIndexingObjectQueueListener(IndexingObjectQueueListener indexingObjectQueueListener) {
+        this.indexingObjectQueueListener = indexingObjectQueueListener;
+    }
+
+}
@@ -12,8 +12,14 @@ package org.hoteia.qalingo.core.jms.indexing.listener;
 import java.beans.ExceptionListener;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import javax.annotation.PostConstruct;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
@@ -22,7 +28,6 @@ import javax.jms.TextMessage;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.solr.client.solrj.SolrServerException;
 import org.hoteia.qalingo.core.domain.CatalogCategoryVirtual;
 import org.hoteia.qalingo.core.domain.CatalogCategoryVirtual_;
 import org.hoteia.qalingo.core.domain.ProductMarketing;
@@ -39,8 +44,12 @@ import org.hoteia.qalingo.core.mapper.XmlMapper;
 import org.hoteia.qalingo.core.service.CatalogCategoryService;
 import org.hoteia.qalingo.core.service.ProductService;
 import org.hoteia.qalingo.core.service.RetailerService;
+import org.hoteia.qalingo.core.solr.bean.ProductMarketingSolr;
+import org.hoteia.qalingo.core.solr.bean.ProductSkuSolr;
+import org.hoteia.qalingo.core.solr.bean.StoreSolr;
 import org.hoteia.qalingo.core.solr.service.ProductMarketingSolrService;
 import org.hoteia.qalingo.core.solr.service.ProductSkuSolrService;
+import org.hoteia.qalingo.core.solr.service.SolrIndexingResult;
 import org.hoteia.qalingo.core.solr.service.StoreSolrService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -48,6 +57,10 @@ import org.springframework.stereotype.Component;
 @Component(value = "indexingObjectQueueListener")
 public class IndexingObjectQueueListener implements MessageListener, ExceptionListener {
 
+    public static final String PRODUCT_MARKETING = "ProductMarketing";
+    public static final String PRODUCT_SKU = "ProductSku";
+    public static final String STORE = "Store";
+
     protected final Log logger = LogFactory.getLog(getClass());
 
     @Autowired
@@ -76,7 +89,11 @@ public class IndexingObjectQueueListener implements MessageListener, ExceptionLi
     protected List<SpecificFetchMode> productSkuFetchPlans = new ArrayList<SpecificFetchMode>();
     protected List<SpecificFetchMode> storeFetchPlans = new ArrayList<SpecificFetchMode>();
 
-    public IndexingObjectQueueListener() {
+    /**
+     * The JPA metamodel is only filled once the EntityManagerFactory is started, after the injection of the services.
+     */
+    @PostConstruct
+    public void initFetchPlans() {
         categoryFetchPlans.add(new SpecificFetchMode(CatalogCategoryVirtual_.catalog.getName()));
         categoryFetchPlans.add(new SpecificFetchMode(CatalogCategoryVirtual_.catalogCategories.getName()));
         categoryFetchPlans.add(new SpecificFetchMode(CatalogCategoryVirtual_.parentCatalogCategory.getName()));
@@ -108,55 +125,9 @@ public class IndexingObjectQueueListener implements MessageListener, ExceptionLi
      */
     public void onMessage(Message message) {
         try {
-            if (message instanceof TextMessage) {
-                TextMessage tm = (TextMessage) message;
-                String valueJMSMessage = tm.getText();
-                
-                if(StringUtils.isNotEmpty(valueJMSMessage)){
-                    final IndexingObjectMessageJms documentMessageJms = xmlMapper.getXmlMapper().readValue(valueJMSMessage, IndexingObjectMessageJms.class);
-                    Long objectId = documentMessageJms.getObjectId();
-
-                    if("ProductMarketing".equals(documentMessageJms.getObjectType())){
-                        final ProductMarketing productMarketing = productService.getProductMarketingById(objectId, new FetchPlan(productMarketingFetchPlans));
-                        if(productMarketing != null){
-                            ProductSku productSku = productMarketing.getDefaultProductSku();
-                            if(productSku != null){
-                                List<CatalogCategoryVirtual> catalogCategories = catalogCategoryService.findVirtualCategoriesByProductSkuId(productSku.getId(), new FetchPlan(categoryFetchPlans)); 
-                                try {
-                                    productMarketingSolrService.addOrUpdateProductMarketing(productMarketing, catalogCategories, null, null);
-                                } catch (SolrServerException e) {
-                                    logger.error("Processed message to indexing failed, value: " + valueJMSMessage);
-                                }
-                            }
-                        }
-                    } else if("ProductSku".equals(documentMessageJms.getObjectType())){
-                        final ProductSku productSku = productService.getProductSkuById(objectId, new FetchPlan(productSkuFetchPlans));
-                        if(productSku != null){
-                            List<CatalogCategoryVirtual> catalogCategories = catalogCategoryService.findVirtualCategoriesByProductSkuId(productSku.getId(), new FetchPlan(categoryFetchPlans)); 
-                            try {
-                                productSkuSolrService.addOrUpdateProductSku(productSku, catalogCategories, null, null);
-                            } catch (SolrServerException e) {
-                                logger.error("Processed message to indexing failed, value: " + valueJMSMessage);
-                            }
-                        }
-                        
-                    } else if("Store".equals(documentMessageJms.getObjectType())){
-                        final Store store = retailerService.getStoreById(objectId, new FetchPlan(storeFetchPlans));
-                        if(store != null){
-                            try {
-                                storeSolrService.addOrUpdateStore(store);
-                            } catch (SolrServerException e) {
-                                logger.error("Processed message to indexing failed, value: " + valueJMSMessage);
-                            }
-                        }
-                    }
-                    
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Processed message, value: " + valueJMSMessage);
-                    }
-                } else {
-                    logger.warn("Document generation: Jms Message is empty");
-                }
+            IndexingObjectMessageJms indexingObjectMessageJms = readMessage(message);
+            if (indexingObjectMessageJms != null) {
+                processMessages(Collections.singletonList(indexingObjectMessageJms));
             }
         } catch (JMSException e) {
             logger.error(e.getMessage(), e);
@@ -165,6 +136,113 @@ public class IndexingObjectQueueListener implements MessageListener, ExceptionLi
         }
     }
 
+    /**
+     * @return the indexing message, or null when the JMS message is not a text message or is empty.
+     */
+    public IndexingObjectMessageJms readMessage(final Message message) throws JMSException, IOException {
+        if (message instanceof TextMessage) {
+            String valueJMSMessage = ((TextMessage) message).getText();
+            if (StringUtils.isNotEmpty(valueJMSMessage)) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Processed message, value: " + valueJMSMessage);
+                }
+                return xmlMapper.getXmlMapper().readValue(valueJMSMessage, IndexingObjectMessageJms.class);
+            }
+            logger.warn("Document generation: Jms Message is empty");
+        }
+        return null;
+    }
+
+    /**
+     * Indexes a batch of messages. The messages are deduplicated by object type and id, each type
+     * is loaded with one IN query (plus one for the virtual categories of the skus) and sent to
+     * Solr as one batch. Entities deleted since the message was sent are skipped.
+     */
+    public SolrIndexingResult processMessages(final List<IndexingObjectMessageJms> messages) {
+        Map<String, Set<Long>> objectIdsByType = new LinkedHashMap<String, Set<Long>>();
+        for (IndexingObjectMessageJms message : messages) {
+            if (message.getObjectType() == null || message.getObjectId() == null) {
+                continue;
+            }
+            Set<Long> objectIds = objectIdsByType.get(message.getObjectType());
+            if (objectIds == null) {
+                objectIds = new LinkedHashSet<Long>();
+                objectIdsByType.put(message.getObjectType(), objectIds);
+            }
+            objectIds.add(message.getObjectId());
+        }
+
+        SolrIndexingResult result = new SolrIndexingResult();
+        for (Map.Entry<String, Set<Long>> entry : objectIdsByType.entrySet()) {
+            List<Long> objectIds = new ArrayList<Long>(entry.getValue());
+            if (PRODUCT_MARKETING.equals(entry.getKey())) {
+                result.addAll(indexProductMarketings(objectIds));
+            } else if (PRODUCT_SKU.equals(entry.getKey())) {
+                result.addAll(indexProductSkus(objectIds));
+            } else if (STORE.equals(entry.getKey())) {
+                result.addAll(indexStores(objectIds));
+            } else {
+                logger.warn("Unknown indexing object type: " + entry.getKey());
+            }
+        }
+        if (!result.isSuccess()) {
+            logger.error("Processed messages to indexing failed: " + result.getFailures());
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Processed " + messages.size() + " indexing messages: " + result);
+        }
+        return result;
+    }
+
+    protected SolrIndexingResult indexProductMarketings(final List<Long> productMarketingIds) {
+        List<ProductMarketing> productMarketings = productService.findProductMarketingsByIds(productMarketingIds, new FetchPlan(productMarketingFetchPlans));
+        List<Long> productSkuIds = new ArrayList<Long>();
+        for (ProductMarketing productMarketing : productMarketings) {
+            ProductSku productSku = productMarketing.getDefaultProductSku();
+            if (productSku != null) {
+                productSkuIds.add(productSku.getId());
+            }
+        }
+        Map<Long, List<CatalogCategoryVirtual>> catalogCategories = catalogCategoryService.findVirtualCategoriesByProductSkuIds(productSkuIds, new FetchPlan(categoryFetchPlans));
+
+        List<ProductMarketingSolr> productMarketingSolrs = new ArrayList<ProductMarketingSolr>();
+        for (ProductMarketing productMarketing : productMarketings) {
+            ProductSku productSku = productMarketing.getDefaultProductSku();
+            if (productSku != null) {
+                productMarketingSolrs.add(productMarketingSolrService.buildProductMarketingSolr(productMarketing, getCatalogCategories(catalogCategories, productSku), null, null));
+            }
+        }
+        return productMarketingSolrService.addOrUpdateProductMarketings(productMarketingSolrs);
+    }
+
+    protected SolrIndexingResult indexProductSkus(final List<Long> productSkuIds) {
+        List<ProductSku> productSkus = productService.findProductSkusByIds(productSkuIds, new FetchPlan(productSkuFetchPlans));
+        Map<Long, List<CatalogCategoryVirtual>> catalogCategories = catalogCategoryService.findVirtualCategoriesByProductSkuIds(productSkuIds, new FetchPlan(categoryFetchPlans));
+
+        List<ProductSkuSolr> productSkuSolrs = new ArrayList<ProductSkuSolr>();
+        for (ProductSku productSku : productSkus) {
+            productSkuSolrs.add(productSkuSolrService.buildProductSkuSolr(productSku, getCatalogCategories(catalogCategories, productSku), null, null));
+        }
+        return productSkuSolrService.addOrUpdateProductSkus(productSkuSolrs);
+    }
+
+    protected SolrIndexingResult indexStores(final List<Long> storeIds) {
+        List<Store> stores = retailerService.findStoresByIds(storeIds, new FetchPlan(storeFetchPlans));
+        List<StoreSolr> storeSolrs = new ArrayList<StoreSolr>();
+        for (Store store : stores) {
+            storeSolrs.add(storeSolrService.buildStoreSolr(store));
+        }
+        return storeSolrService.addOrUpdateStores(storeSolrs);
+    }
+
+    private List<CatalogCategoryVirtual> getCatalogCategories(final Map<Long, List<CatalogCategoryVirtual>> catalogCategories, final ProductSku productSku) {
+        List<CatalogCategoryVirtual> productSkuCatalogCategories = catalogCategories.get(productSku.getId());
+        if (productSkuCatalogCategories == null) {
+            return new ArrayList<CatalogCategoryVirtual>();
+        }
+        return productSkuCatalogCategories;
+    }
+
     @Override
     public void exceptionThrown(Exception e) {
         logger.debug("Exception on queue listener: " + e.getCause() + ":" + e.getLocalizedMessage());
@@ -28,6 +28,8 @@ import org.springframework.stereotype.Component;
 @Component(value = "indexingObjectMessageProducer")
 public class IndexingObjectMessageProducer {
 
+    public static final String GROUP_ID_PROPERTY = "JMSXGroupID";
+
     protected final Log logger = LogFactory.getLog(getClass());
 
     @Resource(name="indexingObjectJmsTemplate")
@@ -48,6 +50,8 @@ public class IndexingObjectMessageProducer {
             jmsTemplate.send(new MessageCreator() {
                 public Message createMessage(Session session) throws JMSException {
                     TextMessage message = session.createTextMessage(valueJMSMessage);
+                    // SAME GROUP, SAME CONSUMER : THE MESSAGES OF AN ENTITY ARE INDEXED IN ORDER WHATEVER THE CONCURRENCY
+                    message.setStringProperty(GROUP_ID_PROPERTY, indexingObjectMessageJms.getObjectType() + "_" + indexingObjectMessageJms.getObjectId());
                     if (logger.isDebugEnabled()) {
                         logger.info("Sending JMS message: " + valueJMSMessage);
                     }
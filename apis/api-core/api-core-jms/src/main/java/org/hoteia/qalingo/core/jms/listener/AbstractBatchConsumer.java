@@ -0,0 +1,235 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.jms.listener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Consumer of a queue by batches. Each consumer thread owns a transacted session : it waits
+ * for a message, collects the messages received during the coalescing window (up to the batch
+ * size), hands them to {@link #processBatch(List)} and commits the session. When the batch
+ * fails the session is rolled back and the broker redelivers the messages. A redelivered
+ * message is processed alone, in its own transaction : the good messages of a failed batch are
+ * committed one by one and only the failing message goes to the dead letter queue after the
+ * redelivery attempts of the broker.
+ */
+public abstract class AbstractBatchConsumer {
+
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private ConnectionFactory connectionFactory;
+    private String destinationName;
+
+    private int concurrentConsumers = 1;
+    private int batchSize = 100;
+    private long coalescingWindow = 500;
+    private long receiveTimeout = 1000;
+    private long recoveryInterval = 5000;
+
+    private Connection connection;
+    private final List<Thread> consumerThreads = new ArrayList<Thread>();
+    private volatile boolean running;
+
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong messageCount = new AtomicLong();
+    private final AtomicLong failedBatchCount = new AtomicLong();
+    private final AtomicLong redeliveredMessageCount = new AtomicLong();
+
+    private final String name;
+
+    protected AbstractBatchConsumer(final String name) {
+        this.name = name;
+    }
+
+    public synchronized void start() throws JMSException {
+        if (running) {
+            return;
+        }
+        connection = connectionFactory.createConnection();
+        connection.start();
+        running = true;
+        for (int i = 0; i < concurrentConsumers; i++) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    consume();
+                }
+            }, name + "-consumer-" + i);
+            thread.setDaemon(true);
+            consumerThreads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the consumers. The batch in progress is committed, the messages not yet received stay in the queue.
+     */
+    public synchronized void shutdown() {
+        running = false;
+        for (Thread thread : consumerThreads) {
+            try {
+                thread.join(receiveTimeout + coalescingWindow + 5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        consumerThreads.clear();
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (JMSException e) {
+                logger.warn(name + " consumer connection close failed: " + e.getMessage());
+            }
+            connection = null;
+        }
+    }
+
+    protected void consume() {
+        while (running) {
+            Session session = null;
+            try {
+                session = connection.createSession(true, Session.SESSION_TRANSACTED);
+                MessageConsumer consumer = session.createConsumer(session.createQueue(destinationName));
+                while (running) {
+                    List<Message> messages = receiveBatch(consumer);
+                    if (messages.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        processBatch(messages);
+                        session.commit();
+                        batchCount.incrementAndGet();
+                        messageCount.addAndGet(messages.size());
+                    } catch (Exception e) {
+                        failedBatchCount.incrementAndGet();
+                        logger.error(name + " batch of " + messages.size() + " messages failed, rolled back", e);
+                        session.rollback();
+                    }
+                }
+            } catch (JMSException e) {
+                if (running) {
+                    logger.error(name + " consumer failed, recovery in " + recoveryInterval + "ms", e);
+                    sleep(recoveryInterval);
+                }
+            } finally {
+                if (session != null) {
+                    try {
+                        session.close();
+                    } catch (JMSException e) {
+                        logger.debug(name + " consumer session close failed: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the messages received during the coalescing window which starts with the first message, the
+     * first message alone when it is redelivered, or an empty list.
+     */
+    protected List<Message> receiveBatch(final MessageConsumer consumer) throws JMSException {
+        List<Message> messages = new ArrayList<Message>();
+        Message message = consumer.receive(receiveTimeout);
+        if (message == null) {
+            return messages;
+        }
+        messages.add(message);
+        if (message.getJMSRedelivered()) {
+            // RETRY THE MESSAGES OF A FAILED BATCH ONE BY ONE, SO ONE BAD MESSAGE DOES NOT HOLD BACK THE OTHERS
+            redeliveredMessageCount.incrementAndGet();
+            return messages;
+        }
+        long deadline = System.currentTimeMillis() + coalescingWindow;
+        while (messages.size() < batchSize) {
+            long remaining = deadline - System.currentTimeMillis();
+            message = remaining > 0 ? consumer.receive(remaining) : consumer.receiveNoWait();
+            if (message == null) {
+                break;
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Processes the messages of a batch : an exception rolls the whole batch back, its messages are then
+     * redelivered and processed one per batch.
+     */
+    protected abstract void processBatch(List<Message> messages) throws Exception;
+
+    private void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getMessageCount() {
+        return messageCount.get();
+    }
+
+    public long getFailedBatchCount() {
+        return failedBatchCount.get();
+    }
+
+    public long getRedeliveredMessageCount() {
+        return redeliveredMessageCount.get();
+    }
+
+    public void setConnectionFactory(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    public void setDestinationName(String destinationName) {
+        this.destinationName = destinationName;
+    }
+
+    public void setConcurrentConsumers(int concurrentConsumers) {
+        this.concurrentConsumers = concurrentConsumers;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setCoalescingWindow(long coalescingWindow) {
+        this.coalescingWindow = coalescingWindow;
+    }
+
+    public void setReceiveTimeout(long receiveTimeout) {
+        this.receiveTimeout = receiveTimeout;
+    }
+
+    public void setRecoveryInterval(long recoveryInterval) {
+        this.recoveryInterval = recoveryInterval;
+    }
+
+}
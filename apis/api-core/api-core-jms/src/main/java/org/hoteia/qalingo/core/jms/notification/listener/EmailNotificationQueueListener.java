@@ -11,7 +11,6 @@ package org.hoteia.qalingo.core.jms.notification.listener;
 
 import java.beans.ExceptionListener;
 import java.io.IOException;
-import java.util.Date;
 
 import javax.jms.JMSException;
 import javax.jms.Message;
@@ -21,19 +20,12 @@ import javax.jms.TextMessage;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.springframework.batch.core.Job;
-import org.springframework.batch.core.JobParameters;
-import org.springframework.batch.core.JobParametersBuilder;
-import org.springframework.batch.core.JobParametersInvalidException;
-import org.springframework.batch.core.launch.JobLauncher;
-import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
-import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
-import org.springframework.batch.core.repository.JobRestartException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.hoteia.qalingo.core.jms.notification.producer.EmailNotificationMessageJms;
 import org.hoteia.qalingo.core.mapper.XmlMapper;
+import org.hoteia.qalingo.core.service.email.EmailDispatcher;
 
 @Component(value = "emailNotificationMessageListener")
 public class EmailNotificationQueueListener implements MessageListener, ExceptionListener {
@@ -41,10 +33,7 @@ public class EmailNotificationQueueListener implements MessageListener, Exceptio
     protected final Log logger = LogFactory.getLog(getClass());
 
     @Autowired
-    protected JobLauncher jobLauncher;
-    
-    @Autowired
-    protected Job emailSyncJob;
+    protected EmailDispatcher emailDispatcher;
     
     @Autowired
     protected XmlMapper xmlMapper;
@@ -65,15 +54,11 @@ public class EmailNotificationQueueListener implements MessageListener, Exceptio
                 if(StringUtils.isNotEmpty(valueJMSMessage)){
                     final EmailNotificationMessageJms emailnotificationMessageJms = xmlMapper.getXmlMapper().readValue(valueJMSMessage, EmailNotificationMessageJms.class);
                     
-                    // TRIGGER A BATCH TO PROCESS THE EMAIL
+                    // THE NOTIFICATIONS OF A BURST ARE COALESCED IN ONE DISPATCH
                     if (logger.isDebugEnabled()) {
-                        logger.debug("Trigger a new job for a new email, type: " + emailnotificationMessageJms.getEmailType());
+                        logger.debug("Signal the email dispatcher for a new email, type: " + emailnotificationMessageJms.getEmailType());
                     }
-
-                    JobParametersBuilder jobParametersBuilder = new JobParametersBuilder();
-                    jobParametersBuilder.addDate("date", new Date());
-                    JobParameters params = jobParametersBuilder.toJobParameters();
-                    jobLauncher.run(emailSyncJob, params);
+                    emailDispatcher.signal();
                 }
             }
             
@@ -81,14 +66,6 @@ public class EmailNotificationQueueListener implements MessageListener, Exceptio
             logger.error(e.getMessage(), e);
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
-        } catch (JobExecutionAlreadyRunningException e) {
-            logger.error(e.getMessage(), e);
-        } catch (JobRestartException e) {
-            logger.error(e.getMessage(), e);
-        } catch (JobInstanceAlreadyCompleteException e) {
-            logger.error(e.getMessage(), e);
-        } catch (JobParametersInvalidException e) {
-            logger.error(e.getMessage(), e);
         }
     }
 
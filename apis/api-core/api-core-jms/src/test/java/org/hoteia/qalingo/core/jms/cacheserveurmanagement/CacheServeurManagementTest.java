@@ -0,0 +1,219 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.jms.cacheserveurmanagement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Message;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.hoteia.qalingo.core.aop.cache.CacheKey;
+import org.hoteia.qalingo.core.aop.cache.EntityCacheEvictor;
+import org.hoteia.qalingo.core.domain.CatalogCategoryVirtual;
+import org.hoteia.qalingo.core.domain.ProductMarketing;
+import org.hoteia.qalingo.core.jms.cacheserveurmanagement.listener.CacheServeurManagementQueueListener;
+import org.hoteia.qalingo.core.jms.cacheserveurmanagement.producer.CacheEvictionJms;
+import org.hoteia.qalingo.core.jms.cacheserveurmanagement.producer.CacheServeurManagementMessageJms;
+import org.hoteia.qalingo.core.jms.cacheserveurmanagement.producer.CacheServeurManagementMessageProducer;
+import org.hoteia.qalingo.core.mapper.XmlMapper;
+import org.hoteia.qalingo.core.service.catalog.CatalogCategoryTreeSnapshot;
+import org.hoteia.qalingo.core.service.catalog.ProductSkuPriceSnapshot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.ehcache.EhCacheCacheManager;
+import org.springframework.jms.connection.SingleConnectionFactory;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Cache invalidation over an embedded broker : two nodes subscribed to the topic,
+ * a burst of evictions coalesced in one message, and a redelivered message dropped.
+ */
+public class CacheServeurManagementTest {
+
+    private static final String TOPIC_NAME = "cache_serveur_management_topic";
+    private static final String HTML_CACHE_NAME = "web_cache_html";
+    private static final String ENTITY_TYPE = ProductMarketing.class.getName();
+
+    private SingleConnectionFactory connectionFactory;
+    private CacheServeurManagementMessageProducer producer;
+    private Node firstNode;
+    private Node secondNode;
+
+    private static class CountingListener extends CacheServeurManagementQueueListener {
+        private final Semaphore processedMessages = new Semaphore(0);
+
+        @Override
+        public void onMessage(Message message) {
+            super.onMessage(message);
+            processedMessages.release();
+        }
+    }
+
+    private class Node {
+        private final CacheManager cacheManager;
+        private final CountingListener listener = new CountingListener();
+        private final CatalogCategoryTreeSnapshot catalogCategoryTreeSnapshot = new CatalogCategoryTreeSnapshot();
+        private final ProductSkuPriceSnapshot productSkuPriceSnapshot = new ProductSkuPriceSnapshot();
+        private final DefaultMessageListenerContainer container = new DefaultMessageListenerContainer();
+
+        private Node(final String name) {
+            Configuration configuration = new Configuration();
+            configuration.setName(name);
+            configuration.addCache(new CacheConfiguration(ProductMarketing.CACHE_NAME, 100));
+            configuration.addCache(new CacheConfiguration(ProductMarketing.CACHE_NAME + "_link_code_id", 100));
+            configuration.addCache(new CacheConfiguration(ProductMarketing.CACHE_NAME + "_misc", 100));
+            configuration.addCache(new CacheConfiguration(HTML_CACHE_NAME, 100));
+            cacheManager = new CacheManager(configuration);
+
+            EntityCacheEvictor entityCacheEvictor = new EntityCacheEvictor();
+            ReflectionTestUtils.setField(entityCacheEvictor, "ehCacheCacheManager", new EhCacheCacheManager(cacheManager));
+            ReflectionTestUtils.setField(entityCacheEvictor, "htmlCacheName", HTML_CACHE_NAME);
+            ReflectionTestUtils.setField(listener, "xmlMapper", new XmlMapper());
+            ReflectionTestUtils.setField(listener, "entityCacheEvictor", entityCacheEvictor);
+            ReflectionTestUtils.setField(listener, "catalogCategoryTreeSnapshot", catalogCategoryTreeSnapshot);
+            ReflectionTestUtils.setField(listener, "productSkuPriceSnapshot", productSkuPriceSnapshot);
+
+            container.setConnectionFactory(new ActiveMQConnectionFactory("vm://cacheServeurManagementTest?broker.persistent=false&broker.useJmx=false"));
+            container.setPubSubDomain(true);
+            container.setDestinationName(TOPIC_NAME);
+            container.setMessageListener(listener);
+            container.afterPropertiesSet();
+            container.start();
+        }
+
+        private void waitForSubscription() throws InterruptedException {
+            // A NON DURABLE SUBSCRIBER ONLY RECEIVES THE MESSAGES SENT AFTER ITS SUBSCRIPTION
+            long timeout = System.currentTimeMillis() + 10000;
+            while (!container.isRegisteredWithDestination() && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertTrue(container.isRegisteredWithDestination());
+        }
+
+        private void fillCaches() {
+            cacheManager.getCache(ProductMarketing.CACHE_NAME).put(new Element(CacheKey.forEntity(ENTITY_TYPE, new Long("1")), "PRODUCT_1"));
+            cacheManager.getCache(ProductMarketing.CACHE_NAME).put(new Element(CacheKey.forEntity(ENTITY_TYPE, new Long("2")), "PRODUCT_2"));
+            cacheManager.getCache(ProductMarketing.CACHE_NAME + "_link_code_id").put(new Element(CacheKey.forEntity(ENTITY_TYPE, "PRODUCT_1"), new Long("1")));
+            cacheManager.getCache(ProductMarketing.CACHE_NAME + "_misc").put(new Element("findProductMarketings", "LIST"));
+            cacheManager.getCache(HTML_CACHE_NAME).put(new Element("/home.html", "<html/>"));
+        }
+
+        private Cache getCache(final String cacheName) {
+            return cacheManager.getCache(cacheName);
+        }
+
+        private void waitForMessages(final int count) throws InterruptedException {
+            assertTrue(listener.processedMessages.tryAcquire(count, 10, TimeUnit.SECONDS));
+        }
+
+        private void shutdown() {
+            catalogCategoryTreeSnapshot.shutdown();
+            productSkuPriceSnapshot.shutdown();
+            container.shutdown();
+            cacheManager.shutdown();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        connectionFactory = new SingleConnectionFactory(new ActiveMQConnectionFactory("vm://cacheServeurManagementTest?broker.persistent=false&broker.useJmx=false"));
+
+        firstNode = new Node("firstNode");
+        secondNode = new Node("secondNode");
+        firstNode.waitForSubscription();
+        secondNode.waitForSubscription();
+
+        JmsTemplate jmsTemplate = new JmsTemplate(connectionFactory);
+        jmsTemplate.setPubSubDomain(true);
+        jmsTemplate.setDefaultDestinationName(TOPIC_NAME);
+
+        producer = new CacheServeurManagementMessageProducer();
+        ReflectionTestUtils.setField(producer, "jmsTemplate", jmsTemplate);
+        ReflectionTestUtils.setField(producer, "xmlMapper", new XmlMapper());
+        ReflectionTestUtils.setField(producer, "coalescingDelay", 100L);
+    }
+
+    @After
+    public void tearDown() {
+        producer.destroy();
+        firstNode.shutdown();
+        secondNode.shutdown();
+        connectionFactory.destroy();
+    }
+
+    @Test
+    public void testBurstIsCoalescedAndEvictedOnEveryNode() throws Exception {
+        firstNode.fillCaches();
+        secondNode.fillCaches();
+
+        for (int i = 0; i < 10; i++) {
+            producer.addEviction(new CacheEvictionJms(ENTITY_TYPE, new Long("1"), "PRODUCT_1", ProductMarketing.CACHE_NAME));
+        }
+
+        for (Node node : new Node[] { firstNode, secondNode }) {
+            node.waitForMessages(1);
+            assertNull(node.getCache(ProductMarketing.CACHE_NAME).get(CacheKey.forEntity(ENTITY_TYPE, new Long("1"))));
+            assertNotNull(node.getCache(ProductMarketing.CACHE_NAME).get(CacheKey.forEntity(ENTITY_TYPE, new Long("2"))));
+            assertNull(node.getCache(ProductMarketing.CACHE_NAME + "_link_code_id").get(CacheKey.forEntity(ENTITY_TYPE, "PRODUCT_1")));
+            assertEquals(0, node.getCache(ProductMarketing.CACHE_NAME + "_misc").getSize());
+            assertEquals(0, node.getCache(HTML_CACHE_NAME).getSize());
+        }
+
+        // THE BURST WAS SENT AS ONE MESSAGE
+        Thread.sleep(300);
+        assertFalse(firstNode.listener.processedMessages.tryAcquire());
+    }
+
+    @Test
+    public void testEvictionsInvalidateTheSnapshots() throws Exception {
+        producer.addEviction(new CacheEvictionJms(ENTITY_TYPE, new Long("1"), "PRODUCT_1", ProductMarketing.CACHE_NAME));
+        producer.addEviction(new CacheEvictionJms(CatalogCategoryVirtual.class.getName(), new Long("3"), "CATEGORY_3", CatalogCategoryVirtual.CACHE_NAME));
+
+        for (Node node : new Node[] { firstNode, secondNode }) {
+            node.waitForMessages(1);
+            assertEquals(1, node.catalogCategoryTreeSnapshot.getInvalidationCount());
+            assertEquals(1, node.productSkuPriceSnapshot.getInvalidationCount());
+        }
+    }
+
+    @Test
+    public void testRedeliveredMessageIsDropped() throws Exception {
+        CacheServeurManagementMessageJms message = new CacheServeurManagementMessageJms();
+        message.setMessageId("MESSAGE_1");
+        message.getEvictions().add(new CacheEvictionJms(ENTITY_TYPE, new Long("1"), "PRODUCT_1", ProductMarketing.CACHE_NAME));
+
+        firstNode.fillCaches();
+        producer.generateMessages(message);
+        firstNode.waitForMessages(1);
+        assertNull(firstNode.getCache(ProductMarketing.CACHE_NAME).get(CacheKey.forEntity(ENTITY_TYPE, new Long("1"))));
+
+        firstNode.fillCaches();
+        producer.generateMessages(message);
+        firstNode.waitForMessages(1);
+        assertNotNull(firstNode.getCache(ProductMarketing.CACHE_NAME).get(CacheKey.forEntity(ENTITY_TYPE, new Long("1"))));
+    }
+
+}
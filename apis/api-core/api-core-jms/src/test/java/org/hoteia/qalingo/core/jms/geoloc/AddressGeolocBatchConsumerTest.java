@@ -0,0 +1,114 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.jms.geoloc;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jms.Message;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.hoteia.qalingo.core.jms.geoloc.listener.AddressGeolocBatchConsumer;
+import org.hoteia.qalingo.core.jms.geoloc.listener.AddressGeolocQueueListener;
+import org.hoteia.qalingo.core.jms.geoloc.producer.AddressGeolocMessageJms;
+import org.hoteia.qalingo.core.jms.geoloc.producer.AddressGeolocMessageProducer;
+import org.hoteia.qalingo.core.mapper.XmlMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.jms.connection.SingleConnectionFactory;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Geoloc queue over an embedded broker : the messages sent together reach the listener as
+ * one batch.
+ */
+public class AddressGeolocBatchConsumerTest {
+
+    private static final String QUEUE_NAME = "geoloc_trigger_queue";
+    private static final String BROKER_URL = "vm://addressGeolocBatchConsumerTest?broker.persistent=false&broker.useJmx=false";
+
+    private SingleConnectionFactory connectionFactory;
+    private AddressGeolocMessageProducer producer;
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+    private AddressGeolocBatchConsumer consumer;
+
+    @Before
+    public void setUp() throws Exception {
+        connectionFactory = new SingleConnectionFactory(new ActiveMQConnectionFactory(BROKER_URL));
+        JmsTemplate jmsTemplate = new JmsTemplate(connectionFactory);
+        jmsTemplate.setDefaultDestinationName(QUEUE_NAME);
+        producer = new AddressGeolocMessageProducer();
+        ReflectionTestUtils.setField(producer, "jmsTemplate", jmsTemplate);
+        ReflectionTestUtils.setField(producer, "xmlMapper", new XmlMapper());
+    }
+
+    @After
+    public void tearDown() {
+        if (consumer != null) {
+            consumer.shutdown();
+        }
+        connectionFactory.destroy();
+    }
+
+    @Test
+    public void testMessagesAreGeolocatedByBatches() throws Exception {
+        for (long storeId = 1; storeId <= 5; storeId++) {
+            AddressGeolocMessageJms message = new AddressGeolocMessageJms();
+            message.setObjectType(AddressGeolocQueueListener.STORE);
+            message.setObjectId(new Long(storeId));
+            message.setAddress(storeId + " rue de Rivoli");
+            producer.generateMessages(message);
+        }
+
+        // The listener is mocked : its constructor needs the JPA metamodel, not available here
+        final XmlMapper xmlMapper = new XmlMapper();
+        AddressGeolocQueueListener listener = mock(AddressGeolocQueueListener.class);
+        when(listener.readMessage(any(Message.class))).thenAnswer(new Answer<AddressGeolocMessageJms>() {
+            public AddressGeolocMessageJms answer(InvocationOnMock invocation) throws Throwable {
+                TextMessage message = (TextMessage) invocation.getArguments()[0];
+                return xmlMapper.getXmlMapper().readValue(message.getText(), AddressGeolocMessageJms.class);
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                batchSizes.add(((List<?>) invocation.getArguments()[0]).size());
+                return null;
+            }
+        }).when(listener).processMessages(anyListOf(AddressGeolocMessageJms.class));
+        consumer = new AddressGeolocBatchConsumer();
+        consumer.setConnectionFactory(new ActiveMQConnectionFactory(BROKER_URL));
+        consumer.setDestinationName(QUEUE_NAME);
+        consumer.setAddressGeolocQueueListener(listener);
+        consumer.setCoalescingWindow(1000);
+        consumer.setReceiveTimeout(100);
+        consumer.start();
+
+        long timeout = System.currentTimeMillis() + 10000;
+        while (consumer.getMessageCount() < 5 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(5, consumer.getMessageCount());
+        assertEquals(Collections.singletonList(5), batchSizes);
+    }
+
+}
@@ -0,0 +1,255 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.jms.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Message;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.RedeliveryPolicy;
+import org.hoteia.qalingo.core.jms.indexing.listener.IndexingObjectBatchConsumer;
+import org.hoteia.qalingo.core.jms.indexing.listener.IndexingObjectQueueListener;
+import org.hoteia.qalingo.core.jms.indexing.producer.IndexingObjectMessageJms;
+import org.hoteia.qalingo.core.jms.indexing.producer.IndexingObjectMessageProducer;
+import org.hoteia.qalingo.core.mapper.XmlMapper;
+import org.hoteia.qalingo.core.solr.service.SolrIndexingResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jms.connection.SingleConnectionFactory;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Indexing queue over an embedded broker : a burst of saves coalesced in one indexing per
+ * entity, the messages of an entity kept on one consumer, and a failed batch redelivered one
+ * message per batch.
+ */
+public class IndexingObjectBatchConsumerTest {
+
+    private static final String QUEUE_NAME = "indexing_object_trigger_queue";
+    private static final String BROKER_URL = "vm://indexingObjectBatchConsumerTest?broker.persistent=false&broker.useJmx=false";
+
+    private SingleConnectionFactory connectionFactory;
+    private IndexingObjectMessageProducer producer;
+    private RecordingListener listener;
+    private IndexingObjectBatchConsumer consumer;
+    private ActiveMQConnectionFactory consumerConnectionFactory;
+
+    /**
+     * Records the indexed ids instead of loading the entities and calling Solr.
+     */
+    private static class RecordingListener extends IndexingObjectQueueListener {
+        private final List<Long> indexedProductMarketingIds = Collections.synchronizedList(new ArrayList<Long>());
+        private final Map<Long, List<String>> consumerThreadsByStoreId = Collections.synchronizedMap(new HashMap<Long, List<String>>());
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger solrFailures = new AtomicInteger();
+        private final Set<Long> rejectedProductMarketingIds = Collections.synchronizedSet(new HashSet<Long>());
+
+        @Override
+        protected SolrIndexingResult indexProductMarketings(List<Long> productMarketingIds) {
+            if (failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("Database unavailable");
+            }
+            if (solrFailures.getAndDecrement() > 0) {
+                SolrIndexingResult result = new SolrIndexingResult();
+                for (Long productMarketingId : productMarketingIds) {
+                    result.addFailure(productMarketingId, new IOException("Solr unreachable"));
+                }
+                return result;
+            }
+            SolrIndexingResult result = new SolrIndexingResult();
+            for (Long productMarketingId : productMarketingIds) {
+                if (rejectedProductMarketingIds.contains(productMarketingId)) {
+                    result.addFailure(productMarketingId, new IOException("Document rejected"));
+                } else {
+                    indexedProductMarketingIds.add(productMarketingId);
+                    result.addIndexed(productMarketingId);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        protected SolrIndexingResult indexStores(List<Long> storeIds) {
+            for (Long storeId : storeIds) {
+                synchronized (consumerThreadsByStoreId) {
+                    List<String> consumerThreads = consumerThreadsByStoreId.get(storeId);
+                    if (consumerThreads == null) {
+                        consumerThreads = new ArrayList<String>();
+                        consumerThreadsByStoreId.put(storeId, consumerThreads);
+                    }
+                    consumerThreads.add(Thread.currentThread().getName());
+                }
+            }
+            return indexed(storeIds);
+        }
+
+        private SolrIndexingResult indexed(List<Long> ids) {
+            SolrIndexingResult result = new SolrIndexingResult();
+            for (Long id : ids) {
+                result.addIndexed(id);
+            }
+            return result;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        connectionFactory = new SingleConnectionFactory(new ActiveMQConnectionFactory(BROKER_URL));
+
+        JmsTemplate jmsTemplate = new JmsTemplate(connectionFactory);
+        jmsTemplate.setDefaultDestinationName(QUEUE_NAME);
+        producer = new IndexingObjectMessageProducer();
+        ReflectionTestUtils.setField(producer, "jmsTemplate", jmsTemplate);
+        ReflectionTestUtils.setField(producer, "xmlMapper", new XmlMapper());
+
+        listener = new RecordingListener();
+        ReflectionTestUtils.setField(listener, "xmlMapper", new XmlMapper());
+
+        consumerConnectionFactory = new ActiveMQConnectionFactory(BROKER_URL);
+    }
+
+    @After
+    public void tearDown() {
+        if (consumer != null) {
+            consumer.shutdown();
+        }
+        connectionFactory.destroy();
+    }
+
+    @Test
+    public void testBurstOfSavesIsIndexedOnce() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            send(IndexingObjectQueueListener.PRODUCT_MARKETING, new Long("1"));
+        }
+        send(IndexingObjectQueueListener.PRODUCT_MARKETING, new Long("2"));
+
+        startConsumer(1, 1000);
+        waitForMessages(11);
+
+        assertEquals(1, consumer.getBatchCount());
+        assertEquals(2, listener.indexedProductMarketingIds.size());
+        assertTrue(listener.indexedProductMarketingIds.contains(new Long("1")));
+        assertTrue(listener.indexedProductMarketingIds.contains(new Long("2")));
+    }
+
+    @Test
+    public void testMessagesOfAnEntityStayOnOneConsumer() throws Exception {
+        startConsumer(4, 0);
+        for (int i = 0; i < 5; i++) {
+            for (long storeId = 1; storeId <= 20; storeId++) {
+                send(IndexingObjectQueueListener.STORE, new Long(storeId));
+            }
+        }
+        waitForMessages(100);
+
+        assertEquals(20, listener.consumerThreadsByStoreId.size());
+        for (List<String> consumerThreads : listener.consumerThreadsByStoreId.values()) {
+            for (String consumerThread : consumerThreads) {
+                assertEquals(consumerThreads.get(0), consumerThread);
+            }
+        }
+    }
+
+    @Test
+    public void testFailedBatchIsRedelivered() throws Exception {
+        listener.failures.set(1);
+        send(IndexingObjectQueueListener.PRODUCT_MARKETING, new Long("1"));
+
+        startConsumer(1, 0);
+        waitForMessages(1);
+
+        assertEquals(1, consumer.getFailedBatchCount());
+        assertEquals(Collections.singletonList(new Long("1")), listener.indexedProductMarketingIds);
+    }
+
+    @Test
+    public void testBatchRejectedBySolrIsRolledBack() throws Exception {
+        listener.solrFailures.set(1);
+        send(IndexingObjectQueueListener.PRODUCT_MARKETING, new Long("1"));
+        send(IndexingObjectQueueListener.PRODUCT_MARKETING, new Long("2"));
+
+        startConsumer(1, 1000);
+        waitForMessages(2);
+
+        // THE REJECTED BATCH IS NOT ACKNOWLEDGED : REDELIVERED ONE MESSAGE PER BATCH, THEN INDEXED
+        assertEquals(1, consumer.getFailedBatchCount());
+        assertEquals(2, consumer.getBatchCount());
+        assertEquals(2, consumer.getRedeliveredMessageCount());
+        assertEquals(2, listener.indexedProductMarketingIds.size());
+    }
+
+    @Test
+    public void testRejectedDocumentDoesNotHoldBackTheBatch() throws Exception {
+        RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+        redeliveryPolicy.setInitialRedeliveryDelay(0);
+        redeliveryPolicy.setRedeliveryDelay(0);
+        redeliveryPolicy.setMaximumRedeliveries(2);
+        consumerConnectionFactory.setRedeliveryPolicy(redeliveryPolicy);
+        listener.rejectedProductMarketingIds.add(new Long("2"));
+        send(IndexingObjectQueueListener.PRODUCT_MARKETING, new Long("1"));
+        send(IndexingObjectQueueListener.PRODUCT_MARKETING, new Long("2"));
+        send(IndexingObjectQueueListener.PRODUCT_MARKETING, new Long("3"));
+
+        startConsumer(1, 1000);
+        waitForMessages(2);
+
+        // THE GOOD DOCUMENTS ARE COMMITTED ONE BY ONE, THE REJECTED ONE GOES ALONE TO THE DEAD LETTER QUEUE
+        JmsTemplate jmsTemplate = new JmsTemplate(connectionFactory);
+        jmsTemplate.setReceiveTimeout(10000);
+        Message deadLetter = jmsTemplate.receive("ActiveMQ.DLQ");
+        IndexingObjectMessageJms rejectedMessage = listener.readMessage(deadLetter);
+        assertEquals(new Long("2"), rejectedMessage.getObjectId());
+        assertEquals(2, consumer.getMessageCount());
+        assertEquals(3, consumer.getFailedBatchCount());
+        assertTrue(listener.indexedProductMarketingIds.contains(new Long("1")));
+        assertTrue(listener.indexedProductMarketingIds.contains(new Long("3")));
+    }
+
+    private void send(final String objectType, final Long objectId) throws Exception {
+        IndexingObjectMessageJms message = new IndexingObjectMessageJms();
+        message.setObjectType(objectType);
+        message.setObjectId(objectId);
+        producer.generateMessages(message);
+    }
+
+    private void startConsumer(final int concurrentConsumers, final long coalescingWindow) throws Exception {
+        consumer = new IndexingObjectBatchConsumer();
+        consumer.setConnectionFactory(consumerConnectionFactory);
+        consumer.setDestinationName(QUEUE_NAME);
+        consumer.setIndexingObjectQueueListener(listener);
+        consumer.setConcurrentConsumers(concurrentConsumers);
+        consumer.setCoalescingWindow(coalescingWindow);
+        consumer.setReceiveTimeout(100);
+        consumer.start();
+    }
+
+    private void waitForMessages(final long count) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10000;
+        while (consumer.getMessageCount() < count && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, consumer.getMessageCount());
+    }
+
+}
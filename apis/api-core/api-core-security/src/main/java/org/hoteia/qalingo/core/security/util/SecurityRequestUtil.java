@@ -11,6 +11,7 @@ package org.hoteia.qalingo.core.security.util;
 
 import javax.servlet.http.HttpServletRequest;
 
+import org.hoteia.qalingo.core.domain.AbstractEngineSession;
 import org.hoteia.qalingo.core.domain.Customer;
 import org.hoteia.qalingo.core.domain.EngineBoSession;
 import org.hoteia.qalingo.core.domain.EngineEcoSession;
@@ -63,6 +64,7 @@ public class SecurityRequestUtil {
 			engineEcoSessionWithTransientValues.getCart().setCustomerId(customer.getId());
 			engineEcoSessionWithTransientValues.getCart().setBillingAddressId(customer.getDefaultBillingAddressId());
 			engineEcoSessionWithTransientValues.getCart().setShippingAddressId(customer.getDefaultShippingAddressId());
+			engineEcoSessionWithTransientValues.markDirty(AbstractEngineSession.DIRTY_CARTS);
 			engineSessionService.updateAndSynchronizeEngineEcoSession(engineEcoSessionWithTransientValues);
 		} catch (Exception e) {
 			logger.error("", e);
@@ -81,7 +83,7 @@ public class SecurityRequestUtil {
 		
 			EngineBoSession engineBoSession = requestUtil.getCurrentBoSession(request);
 			engineBoSession.setCurrentUser(user);
-			engineSessionService.saveOrUpdateEngineBoSession(engineBoSession);
+			engineSessionService.updateAndSynchronizeEngineBoSession(engineBoSession);
 			
 		} catch (Exception e) {
 			logger.error("", e);
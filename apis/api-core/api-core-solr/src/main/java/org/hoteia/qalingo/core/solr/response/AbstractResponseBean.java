@@ -0,0 +1,61 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.solr.response;
+
+/**
+ * Pagination of a search response : the window returned and the total number of matches.
+ */
+public abstract class AbstractResponseBean {
+
+    private long numFound;
+    private int start;
+    private int rows;
+    private boolean truncated;
+
+    public long getNumFound() {
+        return numFound;
+    }
+
+    public void setNumFound(long numFound) {
+        this.numFound = numFound;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public void setStart(int start) {
+        this.start = start;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public void setRows(int rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * @return true when a search method without start/rows dropped the documents after the first page
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(boolean truncated) {
+        this.truncated = truncated;
+    }
+
+    public boolean hasNextPage() {
+        return start + rows < numFound;
+    }
+
+}
@@ -15,7 +15,7 @@ import java.util.List;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.hoteia.qalingo.core.solr.bean.ProductMarketingSolr;
 
-public class ProductMarketingResponseBean {
+public class ProductMarketingResponseBean extends AbstractResponseBean {
 
     public static final String PRODUCT_MARKETING_SEARCH_FIELD_CODE            = "code";
     public static final String PRODUCT_MARKETING_SEARCH_FIELD_CATEGORIES_CODE = "catalogCategories";
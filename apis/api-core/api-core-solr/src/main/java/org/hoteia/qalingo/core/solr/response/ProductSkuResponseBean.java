@@ -15,7 +15,7 @@ import java.util.List;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.hoteia.qalingo.core.solr.bean.ProductSkuSolr;
 
-public class ProductSkuResponseBean {
+public class ProductSkuResponseBean extends AbstractResponseBean {
 
     public static final String PRODUCT_SKU_SEARCH_FIELD_TAG_CODE        = "tagCode";
     
@@ -0,0 +1,53 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.solr.response;
+
+import java.util.List;
+
+import org.springframework.beans.support.PagedListHolder;
+import org.springframework.beans.support.SortDefinition;
+
+/**
+ * PagedListHolder of one page of a search : the source holds the rows returned by Solr,
+ * the page and the page count come from the start, rows and numFound of the response.
+ * A sort applies to the rows of the page only.
+ */
+public class SolrPagedListHolder<E> extends PagedListHolder<E> {
+
+    /**
+     * Generated UID
+     */
+    private static final long serialVersionUID = 4317580418613562391L;
+
+    private final int nrOfElements;
+
+    public SolrPagedListHolder(final List<E> pageItems, final AbstractResponseBean responseBean, final SortDefinition sort) {
+        super(pageItems);
+        this.nrOfElements = (int) Math.min(responseBean.getNumFound(), Integer.MAX_VALUE);
+        int rows = responseBean.getRows() > 0 ? responseBean.getRows() : DEFAULT_PAGE_SIZE;
+        setPageSize(rows);
+        if (sort != null) {
+            setSort(sort);
+            resort();
+        }
+        setPage(responseBean.getStart() / rows);
+    }
+
+    @Override
+    public int getNrOfElements() {
+        return nrOfElements;
+    }
+
+    @Override
+    public List<E> getPageList() {
+        return getSource();
+    }
+
+}
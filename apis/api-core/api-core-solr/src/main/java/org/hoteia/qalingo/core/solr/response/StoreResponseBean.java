@@ -15,7 +15,7 @@ import java.util.List;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.hoteia.qalingo.core.solr.bean.StoreSolr;
 
-public class StoreResponseBean {
+public class StoreResponseBean extends AbstractResponseBean {
 
     public static final String STORE_DEFAULT_SEARCH_FIELD   = "text";
     public static final String STORE_DEFAULT_FACET_FIELD    = "city";
@@ -9,11 +9,181 @@
  */
 package org.hoteia.qalingo.core.solr.service;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrRequest.METHOD;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.hoteia.qalingo.core.solr.response.AbstractResponseBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
 public abstract class AbstractSolrService {
 
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
     // SEARCH PAGINATION
     public static final String SEARCH_FACET_FIELD_LIST = "facetFieldList";
     public static final String SEARCH_TEXT = "searchText";
-    public static final String ROWS_DEFAULT_VALUE = "10000000";
 
-}
\ No newline at end of file
+    /**
+     * Rows returned by the search methods without start/rows : the first page only, the total
+     * is given by the numFound of the response bean, which is flagged truncated when more
+     * documents match.
+     */
+    public static final int ROWS_DEFAULT_VALUE = 1000;
+    public static final int START_DEFAULT_VALUE = 0;
+    public static final int ROWS_MAX_VALUE = 1000;
+    public static final int STREAM_ROWS_DEFAULT_VALUE = 500;
+
+    public static final String UNIQUE_KEY_FIELD = "id";
+
+    @Value("${solr.indexing.batch.size}")
+    protected int indexingBatchSize;
+
+    @Value("${solr.indexing.queue.capacity}")
+    protected int indexingQueueCapacity;
+
+    @Value("${solr.indexing.commit.within}")
+    protected int indexingCommitWithin;
+
+    @Value("${solr.indexing.soft.commit.documents}")
+    protected int indexingSoftCommitDocuments;
+
+    @Value("${solr.indexing.flush.interval}")
+    protected long indexingFlushInterval;
+
+    @Value("${solr.indexing.submit.timeout}")
+    protected long indexingSubmitTimeout;
+
+    private final List<SolrBatchIndexer> indexers = new ArrayList<SolrBatchIndexer>();
+
+    protected SolrBatchIndexer buildIndexer(final String name, final SolrServer solrServer) {
+        SolrBatchIndexer indexer = new SolrBatchIndexer(name, solrServer, indexingBatchSize, indexingQueueCapacity, indexingCommitWithin, 
+                                                        indexingSoftCommitDocuments, indexingFlushInterval, indexingSubmitTimeout);
+        indexer.start();
+        indexers.add(indexer);
+        return indexer;
+    }
+
+    /**
+     * Waits for the documents queued by the addOrUpdate methods to be written, and sends
+     * a hard commit if asked : call it at the end of an import.
+     * 
+     * @throws SolrServerException when queued documents could not be indexed
+     */
+    public void flushIndexing(final boolean hardCommit) throws SolrServerException, IOException {
+        for (SolrBatchIndexer indexer : indexers) {
+            indexer.flush(hardCommit);
+        }
+    }
+
+    @PreDestroy
+    public void shutdownIndexers() {
+        for (SolrBatchIndexer indexer : indexers) {
+            indexer.shutdown();
+        }
+    }
+
+    protected String buildSearchQuery(final String searchBy, final String searchText) {
+        if (StringUtils.isEmpty(searchBy)) {
+            throw new IllegalArgumentException("SearchBy field can not be Empty or Blank");
+        }
+        if (StringUtils.isEmpty(searchText)) {
+            return searchBy + ":*";
+        }
+        return searchBy + ":" + searchText + "*";
+    }
+
+    protected void setPagination(final SolrQuery solrQuery, final int start, final int rows) {
+        if (start < 0) {
+            throw new IllegalArgumentException("Start can not be negative");
+        }
+        if (rows < 0 || rows > ROWS_MAX_VALUE) {
+            throw new IllegalArgumentException("Rows must be between 0 and " + ROWS_MAX_VALUE);
+        }
+        solrQuery.setStart(start);
+        solrQuery.setRows(rows);
+    }
+
+    protected void setPagination(final AbstractResponseBean responseBean, final QueryResponse response, final SolrQuery solrQuery) {
+        SolrDocumentList results = response.getResults();
+        responseBean.setNumFound(results != null ? results.getNumFound() : 0);
+        responseBean.setStart(solrQuery.getStart() != null ? solrQuery.getStart() : START_DEFAULT_VALUE);
+        responseBean.setRows(solrQuery.getRows() != null ? solrQuery.getRows() : 0);
+    }
+
+    /**
+     * Response of a search method without start/rows, which only returns the first
+     * ROWS_DEFAULT_VALUE documents : when more documents match, the response bean is flagged
+     * truncated and a warning is logged. To read every document, use the paged or stream methods.
+     */
+    protected <T extends AbstractResponseBean> T checkTruncation(final T responseBean, final String searchName) {
+        if (responseBean.hasNextPage()) {
+            responseBean.setTruncated(true);
+            logger.warn(searchName + " without start/rows returned " + responseBean.getRows() + " of " + responseBean.getNumFound() 
+                    + " documents, use the paged or stream method");
+        }
+        return responseBean;
+    }
+
+    /**
+     * Reads every document matching the query, page after page, and hands them one by one
+     * to the handler : the memory held is one page, whatever the number of matches.
+     *
+     * Deep paging with start/rows makes Solr collect start + rows documents for each page,
+     * and this Solr version has no cursorMark : the pages are read in id order, each page
+     * filtered on the ids greater than the last one read.
+     *
+     * @return the number of documents handled.
+     */
+    protected <T> long streamBeans(final SolrServer solrServer, final SolrQuery solrQuery, final Class<T> beanClass, 
+                                   final SolrResultHandler<T> handler) throws SolrServerException, IOException {
+        SolrQuery pageQuery = solrQuery.getCopy();
+        pageQuery.setFacet(false);
+        pageQuery.setStart(START_DEFAULT_VALUE);
+        pageQuery.setRows(STREAM_ROWS_DEFAULT_VALUE);
+        pageQuery.setSortField(UNIQUE_KEY_FIELD, SolrQuery.ORDER.asc);
+
+        DocumentObjectBinder binder = solrServer.getBinder();
+        String lastIdFilterQuery = null;
+        long count = 0;
+        while (true) {
+            SolrQuery query = pageQuery;
+            if (lastIdFilterQuery != null) {
+                query = pageQuery.getCopy();
+                query.addFilterQuery(lastIdFilterQuery);
+            }
+            SolrRequest request = new QueryRequest(query, METHOD.POST);
+            QueryResponse response = new QueryResponse(solrServer.request(request), solrServer);
+            SolrDocumentList results = response.getResults();
+            if (results == null || results.isEmpty()) {
+                return count;
+            }
+            Object lastId = null;
+            for (SolrDocument document : results) {
+                handler.handle(binder.getBean(beanClass, document));
+                lastId = document.getFieldValue(UNIQUE_KEY_FIELD);
+                count++;
+            }
+            if (results.size() < STREAM_ROWS_DEFAULT_VALUE) {
+                return count;
+            }
+            lastIdFilterQuery = UNIQUE_KEY_FIELD + ":{" + lastId + " TO *]";
+        }
+    }
+
+}
@@ -10,8 +10,11 @@
 package org.hoteia.qalingo.core.solr.service;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
+import javax.annotation.PostConstruct;
+
 import org.apache.commons.lang.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrRequest;
@@ -39,8 +42,30 @@ public class CatalogCategorySolrService extends AbstractSolrService {
 	
     @Autowired
     public SolrServer catalogCategorySolrServer;
+
+    protected SolrBatchIndexer catalogCategoryIndexer;
     
-	public void addOrUpdateCatalogCategory(final CatalogCategoryMaster catalogCategoryMaster, final MarketArea marketArea) throws SolrServerException, IOException {
+    @PostConstruct
+    public void initIndexer() {
+        catalogCategoryIndexer = buildIndexer("catalog-category", catalogCategorySolrServer);
+    }
+
+    /**
+     * Queues the document of the catalog category for the batched writer : it is searchable after
+     * the commitWithin delay, not when the method returns.
+     */
+    public void addOrUpdateCatalogCategory(final CatalogCategoryMaster catalogCategoryMaster, final MarketArea marketArea) throws SolrServerException, IOException {
+        catalogCategoryIndexer.submit(buildCatalogCategorySolr(catalogCategoryMaster, marketArea));
+    }
+
+    /**
+     * Indexes the documents now, by batches, with the result of each document.
+     */
+    public SolrIndexingResult addOrUpdateCatalogCategories(final Collection<CatalogCategorySolr> catalogCategorySolrs) {
+        return catalogCategoryIndexer.index(catalogCategorySolrs);
+    }
+
+    public CatalogCategorySolr buildCatalogCategorySolr(final CatalogCategoryMaster catalogCategoryMaster, final MarketArea marketArea) {
         if (catalogCategoryMaster.getId() == null) {
             throw new IllegalArgumentException("Id cannot be blank or null.");
         }
@@ -55,15 +80,16 @@ public class CatalogCategorySolrService extends AbstractSolrService {
         categorySolr.setDateUpdate(catalogCategoryMaster.getDateUpdate());
         categorySolr.setName(catalogCategoryMaster.getName());
 
-        catalogCategorySolrServer.addBean(categorySolr);
-        catalogCategorySolrServer.commit();
-        
-        logger.debug("Fields has been added sucessfully ");
+        return categorySolr;
     }
 
-	public CatalogCategoryResponseBean searchCatalogCategory(String searchBy,String searchText, String facetField) throws SolrServerException, IOException {
+    public CatalogCategoryResponseBean searchCatalogCategory(String searchBy,String searchText, String facetField) throws SolrServerException, IOException {
+        return checkTruncation(searchCatalogCategory(searchBy, searchText, facetField, START_DEFAULT_VALUE, ROWS_DEFAULT_VALUE), "searchCatalogCategory");
+    }
+
+    public CatalogCategoryResponseBean searchCatalogCategory(String searchBy,String searchText, String facetField, final int start, final int rows) throws SolrServerException, IOException {
         SolrQuery solrQuery = new SolrQuery();
-        solrQuery.setParam("rows", ROWS_DEFAULT_VALUE);
+        setPagination(solrQuery, start, rows);
         
         if (StringUtils.isEmpty(searchBy)) {
             throw new IllegalArgumentException("SearchBy field can not be Empty or Blank!");
@@ -99,12 +125,18 @@ public class CatalogCategorySolrService extends AbstractSolrService {
             catalogCategoryResponseBean.setCatalogCategorySolrFacetFieldList(solrFacetFieldList);
         }
         
+        setPagination(catalogCategoryResponseBean, response, solrQuery);
+        
         return catalogCategoryResponseBean;
     }
 
     public CatalogCategoryResponseBean searchCatalogCategory() throws SolrServerException, IOException {
+        return checkTruncation(searchCatalogCategory(START_DEFAULT_VALUE, ROWS_DEFAULT_VALUE), "searchCatalogCategory");
+    }
+
+    public CatalogCategoryResponseBean searchCatalogCategory(final int start, final int rows) throws SolrServerException, IOException {
         SolrQuery solrQuery = new SolrQuery();
-        solrQuery.setParam("rows", ROWS_DEFAULT_VALUE);
+        setPagination(solrQuery, start, rows);
         
         solrQuery.setQuery("*");
         solrQuery.setFacet(true);
@@ -126,7 +158,19 @@ public class CatalogCategorySolrService extends AbstractSolrService {
         CatalogCategoryResponseBean catalogCategoryResponseBean = new CatalogCategoryResponseBean();
         catalogCategoryResponseBean.setCatalogCategorySolrList(solrList);
         catalogCategoryResponseBean.setCatalogCategorySolrFacetFieldList(solrFacetFieldList);
+        setPagination(catalogCategoryResponseBean, response, solrQuery);
         return catalogCategoryResponseBean;
     }
 
+    /**
+     * Streams every catalog category matching the search to the handler, for the exports.
+     * 
+     * @return the number of catalog categorys handled.
+     */
+    public long streamCatalogCategory(final String searchBy, final String searchText, final SolrResultHandler<CatalogCategorySolr> handler) throws SolrServerException, IOException {
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery(buildSearchQuery(searchBy, searchText));
+        return streamBeans(catalogCategorySolrServer, solrQuery, CatalogCategorySolr.class, handler);
+    }
+
 }
\ No newline at end of file
@@ -10,8 +10,11 @@
 package org.hoteia.qalingo.core.solr.service;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
+import javax.annotation.PostConstruct;
+
 import org.apache.commons.lang.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrRequest;
@@ -39,8 +42,30 @@ public class CustomerSolrService extends AbstractSolrService {
 	
     @Autowired
     public SolrServer customerSolrServer;
+
+    protected SolrBatchIndexer customerIndexer;
     
+    @PostConstruct
+    public void initIndexer() {
+        customerIndexer = buildIndexer("customer", customerSolrServer);
+    }
+
+    /**
+     * Queues the document of the customer for the batched writer : it is searchable after
+     * the commitWithin delay, not when the method returns.
+     */
     public void addOrUpdateCustomer(final Customer customer, final MarketArea marketArea) throws SolrServerException, IOException, IllegalArgumentException {
+        customerIndexer.submit(buildCustomerSolr(customer, marketArea));
+    }
+
+    /**
+     * Indexes the documents now, by batches, with the result of each document.
+     */
+    public SolrIndexingResult addOrUpdateCustomers(final Collection<CustomerSolr> customerSolrs) {
+        return customerIndexer.index(customerSolrs);
+    }
+
+    public CustomerSolr buildCustomerSolr(final Customer customer, final MarketArea marketArea) {
         if (customer.getId() == null) {
             throw new IllegalArgumentException("Id  cannot be blank or null.");
         }
@@ -54,13 +79,16 @@ public class CustomerSolrService extends AbstractSolrService {
         customerSolr.setEmail(customer.getEmail());
         customerSolr.setGender(customer.getGender());
         customerSolr.setTitle(customer.getTitle());
-        customerSolrServer.addBean(customerSolr);
-        customerSolrServer.commit();
+        return customerSolr;
     }
 	
     public CustomerResponseBean searchCustomer(String searchBy, String searchText, String facetField) throws IllegalArgumentException, SolrServerException, IOException {
+        return checkTruncation(searchCustomer(searchBy, searchText, facetField, START_DEFAULT_VALUE, ROWS_DEFAULT_VALUE), "searchCustomer");
+    }
+
+    public CustomerResponseBean searchCustomer(String searchBy, String searchText, String facetField, final int start, final int rows) throws IllegalArgumentException, SolrServerException, IOException {
         SolrQuery solrQuery = new SolrQuery();
-        solrQuery.setParam("rows", ROWS_DEFAULT_VALUE);
+        setPagination(solrQuery, start, rows);
         
         if (StringUtils.isEmpty(searchBy)) {
             throw new IllegalArgumentException("SearchBy field can not be Empty or Blank!");
@@ -95,12 +123,17 @@ public class CustomerSolrService extends AbstractSolrService {
             List<FacetField> solrFacetFieldList = response.getFacetFields();
             customerResponseBean.setCustomerSolrFacetFieldList(solrFacetFieldList);
         }
+        setPagination(customerResponseBean, response, solrQuery);
         return customerResponseBean;
     }
 	
     public CustomerResponseBean searchCustomer() throws IllegalArgumentException, SolrServerException, IOException {
+        return checkTruncation(searchCustomer(START_DEFAULT_VALUE, ROWS_DEFAULT_VALUE), "searchCustomer");
+    }
+
+    public CustomerResponseBean searchCustomer(final int start, final int rows) throws IllegalArgumentException, SolrServerException, IOException {
         SolrQuery solrQuery = new SolrQuery();
-        solrQuery.setParam("rows", ROWS_DEFAULT_VALUE);
+        setPagination(solrQuery, start, rows);
         
         solrQuery.setQuery("*");
         solrQuery.setFacet(true);
@@ -122,7 +155,19 @@ public class CustomerSolrService extends AbstractSolrService {
         CustomerResponseBean customerResponseBean = new CustomerResponseBean();
         customerResponseBean.setCustomerSolrList(solrList);
         customerResponseBean.setCustomerSolrFacetFieldList(solrFacetFieldList);
+        setPagination(customerResponseBean, response, solrQuery);
         return customerResponseBean;
     }
 
+    /**
+     * Streams every customer matching the search to the handler, for the exports.
+     * 
+     * @return the number of customers handled.
+     */
+    public long streamCustomer(final String searchBy, final String searchText, final SolrResultHandler<CustomerSolr> handler) throws SolrServerException, IOException {
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery(buildSearchQuery(searchBy, searchText));
+        return streamBeans(customerSolrServer, solrQuery, CustomerSolr.class, handler);
+    }
+
 }
\ No newline at end of file
@@ -10,11 +10,14 @@
 package org.hoteia.qalingo.core.solr.service;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import javax.annotation.PostConstruct;
+
 import org.apache.commons.lang.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrRequest;
@@ -46,11 +49,33 @@ public class ProductMarketingSolrService extends AbstractSolrService {
 	
     @Autowired
     public SolrServer productMarketingSolrServer;
+
+    protected SolrBatchIndexer productMarketingIndexer;
     
     @Autowired
     protected ProductService productService;
     
+    @PostConstruct
+    public void initIndexer() {
+        productMarketingIndexer = buildIndexer("product-marketing", productMarketingSolrServer);
+    }
+
+    /**
+     * Queues the document of the product marketing for the batched writer : it is searchable after
+     * the commitWithin delay, not when the method returns.
+     */
     public void addOrUpdateProductMarketing(final ProductMarketing productMarketing, final List<CatalogCategoryVirtual> catalogCategories, final MarketArea marketArea, final Retailer retailer) throws SolrServerException, IOException {
+        productMarketingIndexer.submit(buildProductMarketingSolr(productMarketing, catalogCategories, marketArea, retailer));
+    }
+
+    /**
+     * Indexes the documents now, by batches, with the result of each document.
+     */
+    public SolrIndexingResult addOrUpdateProductMarketings(final Collection<ProductMarketingSolr> productMarketingSolrs) {
+        return productMarketingIndexer.index(productMarketingSolrs);
+    }
+
+    public ProductMarketingSolr buildProductMarketingSolr(final ProductMarketing productMarketing, final List<CatalogCategoryVirtual> catalogCategories, final MarketArea marketArea, final Retailer retailer) {
         if (productMarketing.getId() == null) {
             throw new IllegalArgumentException("Id  cannot be blank or null.");
         }
@@ -88,8 +113,7 @@ public class ProductMarketingSolrService extends AbstractSolrService {
             }
         }
         
-        productMarketingSolrServer.addBean(productSolr);
-        productMarketingSolrServer.commit();
+        return productSolr;
     }
 
     public ProductMarketingResponseBean searchProductMarketing(String searchBy, String searchText, String facetField) throws SolrServerException, IOException {
@@ -102,17 +126,33 @@ public class ProductMarketingSolrService extends AbstractSolrService {
 
     public ProductMarketingResponseBean searchProductMarketing(final String searchBy, final String searchText, final String facetField, 
                                                                final BigDecimal priceStart, final BigDecimal priceEnd, final List<String> catalogCategories) throws SolrServerException, IOException {
-        String searchQuery = null;
-        if (StringUtils.isEmpty(searchBy)) {
-            throw new IllegalArgumentException("SearchBy field can not be Empty or Blank");
-        }
+        return checkTruncation(searchProductMarketing(searchBy, searchText, facetField, priceStart, priceEnd, catalogCategories, START_DEFAULT_VALUE, ROWS_DEFAULT_VALUE), "searchProductMarketing");
+    }
 
-        if (StringUtils.isEmpty(searchText)) {
-            searchQuery = searchBy + ":*";
-        } else {
-            searchQuery = searchBy + ":" + searchText + "*";
+    public ProductMarketingResponseBean searchProductMarketing(final String searchBy, final String searchText, final String facetField, 
+                                                               final BigDecimal priceStart, final BigDecimal priceEnd, final List<String> catalogCategories,
+                                                               final int start, final int rows) throws SolrServerException, IOException {
+        String searchQuery = buildSearchQuery(searchBy, searchText);
+        List<String> filterQueries = buildFilterQueries(priceStart, priceEnd, catalogCategories);
+        return searchProductMarketing(searchQuery, facetField, priceStart, priceEnd, filterQueries, start, rows);
+    }
+
+    /**
+     * Streams every product marketing matching the search to the handler, for the exports.
+     * 
+     * @return the number of product marketings handled.
+     */
+    public long streamProductMarketing(final String searchBy, final String searchText, final List<String> catalogCategories, 
+                                       final SolrResultHandler<ProductMarketingSolr> handler) throws SolrServerException, IOException {
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery(buildSearchQuery(searchBy, searchText));
+        for (String filterQuery : buildFilterQueries(null, null, catalogCategories)) {
+            solrQuery.addFilterQuery(filterQuery);
         }
+        return streamBeans(productMarketingSolrServer, solrQuery, ProductMarketingSolr.class, handler);
+    }
 
+    protected List<String> buildFilterQueries(final BigDecimal priceStart, final BigDecimal priceEnd, final List<String> catalogCategories) {
         List<String> filterQueries = new ArrayList<String>();
         if(priceStart != null && priceEnd != null){
             String fq = String.format("price:[%1$,.0f TO %2$,.0f]", priceStart.doubleValue(), priceEnd.doubleValue());
@@ -131,15 +171,20 @@ public class ProductMarketingSolrService extends AbstractSolrService {
             fq.append(")");
             filterQueries.add(fq.toString());
         }
-        
-        return searchProductMarketing(searchQuery, facetField, priceStart, priceEnd, filterQueries);
+        return filterQueries;
     }
 
     public ProductMarketingResponseBean searchProductMarketing(final String searchQuery, final String facetField, 
                                                                final BigDecimal priceStart, final BigDecimal priceEnd, 
                                                                final List<String> filterQueries) throws SolrServerException, IOException {
+        return checkTruncation(searchProductMarketing(searchQuery, facetField, priceStart, priceEnd, filterQueries, START_DEFAULT_VALUE, ROWS_DEFAULT_VALUE), "searchProductMarketing");
+    }
+
+    public ProductMarketingResponseBean searchProductMarketing(final String searchQuery, final String facetField, 
+                                                               final BigDecimal priceStart, final BigDecimal priceEnd, 
+                                                               final List<String> filterQueries, final int start, final int rows) throws SolrServerException, IOException {
     	SolrQuery solrQuery = new SolrQuery();
-    	solrQuery.setParam("rows", ROWS_DEFAULT_VALUE);
+    	setPagination(solrQuery, start, rows);
 
         solrQuery.setQuery(searchQuery);
 
@@ -165,6 +210,7 @@ public class ProductMarketingSolrService extends AbstractSolrService {
         List<ProductMarketingSolr> solrList = response.getBeans(ProductMarketingSolr.class);
         ProductMarketingResponseBean productMarketingResponseBean = new ProductMarketingResponseBean();
         productMarketingResponseBean.setProductMarketingSolrList(solrList);
+        setPagination(productMarketingResponseBean, response, solrQuery);
 
         if (StringUtils.isNotEmpty(facetField)) {
             List<FacetField> solrFacetFieldList = response.getFacetFields();
@@ -174,8 +220,12 @@ public class ProductMarketingSolrService extends AbstractSolrService {
     }
 
     public ProductMarketingResponseBean searchProductMarketing() throws SolrServerException, IOException {
+        return checkTruncation(searchProductMarketing(START_DEFAULT_VALUE, ROWS_DEFAULT_VALUE), "searchProductMarketing");
+    }
+
+    public ProductMarketingResponseBean searchProductMarketing(final int start, final int rows) throws SolrServerException, IOException {
         SolrQuery solrQuery = new SolrQuery();
-        solrQuery.setParam("rows", ROWS_DEFAULT_VALUE);
+        setPagination(solrQuery, start, rows);
         solrQuery.setQuery("*");
         solrQuery.setFacet(true);
         solrQuery.setFacetMinCount(1);
@@ -196,6 +246,7 @@ public class ProductMarketingSolrService extends AbstractSolrService {
         ProductMarketingResponseBean productMarketingResponseBean = new ProductMarketingResponseBean();
         productMarketingResponseBean.setProductMarketingSolrList(solrList);
         productMarketingResponseBean.setProductMarketingSolrFacetFieldList(solrFacetFieldList);
+        setPagination(productMarketingResponseBean, response, solrQuery);
         
         return productMarketingResponseBean;
     }
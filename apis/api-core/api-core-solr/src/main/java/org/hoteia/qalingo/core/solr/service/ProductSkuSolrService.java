@@ -10,9 +10,12 @@
 package org.hoteia.qalingo.core.solr.service;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.math.BigDecimal;
 import java.util.List;
 
+import javax.annotation.PostConstruct;
+
 import org.apache.commons.lang.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrRequest;
@@ -44,11 +47,33 @@ public class ProductSkuSolrService extends AbstractSolrService {
 	
     @Autowired
     public SolrServer productSkuSolrServer;
+
+    protected SolrBatchIndexer productSkuIndexer;
     
     @Autowired
     protected ProductService productService;
     
+    @PostConstruct
+    public void initIndexer() {
+        productSkuIndexer = buildIndexer("product-sku", productSkuSolrServer);
+    }
+
+    /**
+     * Queues the document of the product sku for the batched writer : it is searchable after
+     * the commitWithin delay, not when the method returns.
+     */
     public void addOrUpdateProductSku(final ProductSku productSku, final List<CatalogCategoryVirtual> catalogCategories, final MarketArea marketArea, final Retailer retailer) throws SolrServerException, IOException {
+        productSkuIndexer.submit(buildProductSkuSolr(productSku, catalogCategories, marketArea, retailer));
+    }
+
+    /**
+     * Indexes the documents now, by batches, with the result of each document.
+     */
+    public SolrIndexingResult addOrUpdateProductSkus(final Collection<ProductSkuSolr> productSkuSolrs) {
+        return productSkuIndexer.index(productSkuSolrs);
+    }
+
+    public ProductSkuSolr buildProductSkuSolr(final ProductSku productSku, final List<CatalogCategoryVirtual> catalogCategories, final MarketArea marketArea, final Retailer retailer) {
         if (productSku.getId() == null) {
             throw new IllegalArgumentException("Id  cannot be blank or null.");
         }
@@ -76,18 +101,24 @@ public class ProductSkuSolrService extends AbstractSolrService {
             }
         }
         
-        ProductSkuPrice productSkuPrice = productSku.getPrice(marketArea.getId(), retailer.getId());
-        if(productSkuPrice != null){
-            BigDecimal salePrice = productSkuPrice.getSalePrice();
-            productSkuSolr.setPrice(salePrice.toString());
+        if(marketArea != null 
+                && retailer != null){
+            ProductSkuPrice productSkuPrice = productSku.getPrice(marketArea.getId(), retailer.getId());
+            if(productSkuPrice != null){
+                BigDecimal salePrice = productSkuPrice.getSalePrice();
+                productSkuSolr.setPrice(salePrice.toString());
+            }
         }
-        productSkuSolrServer.addBean(productSkuSolr);
-        productSkuSolrServer.commit();
+        return productSkuSolr;
     }
 
     public ProductSkuResponseBean searchProductSku(String searchBy, String searchText, String facetField) throws SolrServerException, IOException {
+        return checkTruncation(searchProductSku(searchBy, searchText, facetField, START_DEFAULT_VALUE, ROWS_DEFAULT_VALUE), "searchProductSku");
+    }
+
+    public ProductSkuResponseBean searchProductSku(String searchBy, String searchText, String facetField, final int start, final int rows) throws SolrServerException, IOException {
         SolrQuery solrQuery = new SolrQuery();
-        solrQuery.setParam("rows", ROWS_DEFAULT_VALUE);
+        setPagination(solrQuery, start, rows);
         
         if (StringUtils.isEmpty(searchBy)) {
             throw new IllegalArgumentException("SearchBy field can not be Empty or Blank!");
@@ -122,12 +153,17 @@ public class ProductSkuSolrService extends AbstractSolrService {
             List<FacetField> solrFacetFieldList = response.getFacetFields();
             productResponseBean.setProductSkuSolrFacetFieldList(solrFacetFieldList);
         }
+        setPagination(productResponseBean, response, solrQuery);
         return productResponseBean;
     }
 
     public ProductSkuResponseBean searchProductSku() throws SolrServerException, IOException {
+        return checkTruncation(searchProductSku(START_DEFAULT_VALUE, ROWS_DEFAULT_VALUE), "searchProductSku");
+    }
+
+    public ProductSkuResponseBean searchProductSku(final int start, final int rows) throws SolrServerException, IOException {
         SolrQuery solrQuery = new SolrQuery();
-        solrQuery.setParam("rows", ROWS_DEFAULT_VALUE);
+        setPagination(solrQuery, start, rows);
         
         solrQuery.setQuery("*");
         solrQuery.setFacet(true);
@@ -151,7 +187,20 @@ public class ProductSkuSolrService extends AbstractSolrService {
         productSkuResponseBean.setProductSkuSolrList(solrList);
         productSkuResponseBean.setProductSkuSolrFacetFieldList(solrFacetFieldList);
         
+        setPagination(productSkuResponseBean, response, solrQuery);
+        
         return productSkuResponseBean;
     }
 
+    /**
+     * Streams every product sku matching the search to the handler, for the exports.
+     * 
+     * @return the number of product skus handled.
+     */
+    public long streamProductSku(final String searchBy, final String searchText, final SolrResultHandler<ProductSkuSolr> handler) throws SolrServerException, IOException {
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery(buildSearchQuery(searchBy, searchText));
+        return streamBeans(productSkuSolrServer, solrQuery, ProductSkuSolr.class, handler);
+    }
+
 }
@@ -0,0 +1,324 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.solr.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Batched writer of one Solr core, in place of an addBean() plus a hard commit() per document.
+ *
+ * Documents are sent with add(documents, commitWithin) by batches of batchSize : Solr makes
+ * them visible with a soft commit at most commitWithin ms later, or as soon as softCommitDocuments
+ * documents are written since the last commit. A hard commit is only sent by flush(true),
+ * at the end of an import.
+ *
+ * submit() puts the document in a bounded queue drained by a writer thread, which sends a
+ * batch when it is full or flushInterval ms after its first document. When Solr is slow the
+ * queue fills up and submit() blocks, up to submitTimeout ms : this is the back-pressure on
+ * the producers. index() writes synchronously and returns the result of each document.
+ *
+ * The documents the writer thread could not write are kept, up to queueCapacity : flush()
+ * sends them again and throws a SolrServerException for the ones still not indexed, so the
+ * caller of an import knows what is missing. When Solr can't be reached the batch is not
+ * retried one document by one.
+ */
+public class SolrBatchIndexer {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final String name;
+    private final SolrServer solrServer;
+    private final DocumentObjectBinder binder;
+
+    private final int batchSize;
+    private final int commitWithinMillis;
+    private final int softCommitDocuments;
+    private final long flushIntervalMillis;
+    private final long submitTimeoutMillis;
+
+    private final BlockingQueue<SolrInputDocument> queue;
+    private final BlockingQueue<SolrInputDocument> failedDocuments;
+    private final AtomicInteger lostDocuments = new AtomicInteger();
+    private final AtomicInteger pendingDocuments = new AtomicInteger();
+    private final Object pendingMonitor = new Object();
+
+    private final Object writeLock = new Object();
+    private int uncommittedDocuments;
+
+    private volatile boolean running;
+    private Thread writerThread;
+
+    public SolrBatchIndexer(final String name, final SolrServer solrServer, final int batchSize, final int queueCapacity, final int commitWithinMillis,
+                            final int softCommitDocuments, final long flushIntervalMillis, final long submitTimeoutMillis) {
+        this.name = name;
+        this.solrServer = solrServer;
+        this.binder = solrServer.getBinder();
+        this.batchSize = batchSize;
+        this.commitWithinMillis = commitWithinMillis;
+        this.softCommitDocuments = softCommitDocuments;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.submitTimeoutMillis = submitTimeoutMillis;
+        this.queue = new ArrayBlockingQueue<SolrInputDocument>(queueCapacity);
+        this.failedDocuments = new LinkedBlockingQueue<SolrInputDocument>(queueCapacity);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                drainQueue();
+            }
+        }, "solr-indexer-" + name);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Writes the documents still queued, then stops the writer thread.
+     */
+    public synchronized void shutdown() {
+        running = false;
+        if (writerThread != null) {
+            try {
+                writerThread.join(submitTimeoutMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writerThread = null;
+        }
+    }
+
+    /**
+     * Queues the bean for the writer thread, blocking while the queue is full.
+     */
+    public void submit(final Object bean) throws IOException {
+        SolrInputDocument document = binder.toSolrInputDocument(bean);
+        pendingDocuments.incrementAndGet();
+        boolean queued = false;
+        try {
+            queued = running && queue.offer(document, submitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the " + name + " indexing queue");
+        } finally {
+            if (!queued) {
+                releasePendingDocuments(1);
+            }
+        }
+        if (!queued) {
+            throw new IOException("The " + name + " indexing queue is full or stopped, document " + document.getFieldValue(AbstractSolrService.UNIQUE_KEY_FIELD) + " is not indexed");
+        }
+    }
+
+    /**
+     * Writes the beans now, by batches, and returns the result of each document.
+     */
+    public SolrIndexingResult index(final Collection<?> beans) {
+        SolrIndexingResult result = new SolrIndexingResult();
+        List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(Math.min(batchSize, beans.size()));
+        for (Object bean : beans) {
+            batch.add(bean instanceof SolrInputDocument ? (SolrInputDocument) bean : binder.toSolrInputDocument(bean));
+            if (batch.size() == batchSize) {
+                result.addAll(write(batch));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            result.addAll(write(batch));
+        }
+        return result;
+    }
+
+    /**
+     * Waits for the queued documents to be written and sends again the ones the writer thread
+     * failed to write, then sends a hard commit if asked.
+     *
+     * @throws SolrServerException when documents queued since the last flush are not indexed
+     */
+    public void flush(final boolean hardCommit) throws SolrServerException, IOException {
+        synchronized (pendingMonitor) {
+            while (pendingDocuments.get() > 0 && running) {
+                try {
+                    pendingMonitor.wait(flushIntervalMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while flushing the " + name + " indexing queue");
+                }
+            }
+        }
+        List<SolrInputDocument> documents = new ArrayList<SolrInputDocument>();
+        failedDocuments.drainTo(documents);
+        SolrIndexingResult result = index(documents);
+        int lostCount = lostDocuments.getAndSet(0);
+        if (hardCommit) {
+            synchronized (writeLock) {
+                solrServer.commit();
+                uncommittedDocuments = 0;
+            }
+        }
+        if (!result.isSuccess() || lostCount > 0) {
+            throw new SolrServerException((result.getFailedCount() + lostCount) + " queued documents not indexed by the " + name + " core : " + result.getFailures());
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public int getPendingDocuments() {
+        return pendingDocuments.get();
+    }
+
+    /**
+     * @return the documents the writer thread failed to write, which the next flush sends again
+     */
+    public int getFailedDocuments() {
+        return failedDocuments.size();
+    }
+
+    protected SolrIndexingResult write(final List<SolrInputDocument> documents) {
+        SolrIndexingResult result = new SolrIndexingResult();
+        synchronized (writeLock) {
+            try {
+                solrServer.add(documents, commitWithinMillis);
+                for (SolrInputDocument document : documents) {
+                    result.addIndexed(document.getFieldValue(AbstractSolrService.UNIQUE_KEY_FIELD));
+                }
+            } catch (Exception batchException) {
+                if (isConnectionFailure(batchException)) {
+                    // EVERY DOCUMENT WOULD FAIL THE SAME WAY
+                    logger.error("Batch of " + documents.size() + " documents not sent, the " + name + " core can't be reached", batchException);
+                    for (SolrInputDocument document : documents) {
+                        result.addFailure(document.getFieldValue(AbstractSolrService.UNIQUE_KEY_FIELD), batchException);
+                    }
+                    return result;
+                }
+                // ONE DOCUMENT BY ONE TO ISOLATE THE REJECTED ONES
+                logger.warn("Batch of " + documents.size() + " documents rejected by the " + name + " core, retrying one by one", batchException);
+                for (SolrInputDocument document : documents) {
+                    Object id = document.getFieldValue(AbstractSolrService.UNIQUE_KEY_FIELD);
+                    try {
+                        solrServer.add(document, commitWithinMillis);
+                        result.addIndexed(id);
+                    } catch (Exception e) {
+                        result.addFailure(id, e);
+                    }
+                }
+            }
+            uncommittedDocuments += result.getIndexedCount();
+            if (softCommitDocuments > 0 && uncommittedDocuments >= softCommitDocuments) {
+                try {
+                    solrServer.commit(false, false, true);
+                    uncommittedDocuments = 0;
+                } catch (Exception e) {
+                    logger.error("Soft commit failed on the " + name + " core", e);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void drainQueue() {
+        List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+        boolean interrupted = false;
+        while (!interrupted && (running || !queue.isEmpty())) {
+            try {
+                SolrInputDocument first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + flushIntervalMillis;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    SolrInputDocument next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                logger.warn("Writer of the " + name + " core interrupted, " + queue.size() + " queued documents are not indexed");
+                interrupted = true;
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    SolrIndexingResult result = write(batch);
+                    if (!result.isSuccess()) {
+                        logger.error(result.getFailedCount() + " documents not indexed by the " + name + " core, kept for the next flush : " + result.getFailures());
+                        keepFailedDocuments(batch, result);
+                    }
+                } finally {
+                    releasePendingDocuments(batch.size());
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * A transport failure, as opposed to a document rejected by Solr.
+     */
+    protected boolean isConnectionFailure(final Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void keepFailedDocuments(final List<SolrInputDocument> batch, final SolrIndexingResult result) {
+        for (SolrInputDocument document : batch) {
+            Object id = document.getFieldValue(AbstractSolrService.UNIQUE_KEY_FIELD);
+            if (result.getFailures().containsKey(id) && !failedDocuments.offer(document)) {
+                lostDocuments.incrementAndGet();
+                logger.error("Too many documents not indexed by the " + name + " core, document " + id + " is lost");
+            }
+        }
+    }
+
+    private void releasePendingDocuments(final int count) {
+        if (pendingDocuments.addAndGet(-count) <= 0) {
+            synchronized (pendingMonitor) {
+                pendingMonitor.notifyAll();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.solr.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of an indexing batch, document by document : the ids indexed and the ids
+ * rejected with the reason, so that callers can report partial failures.
+ */
+public class SolrIndexingResult {
+
+    private final List<Object> indexedIds = new ArrayList<Object>();
+
+    private final Map<Object, String> failures = new LinkedHashMap<Object, String>();
+
+    public void addIndexed(final Object id) {
+        indexedIds.add(id);
+    }
+
+    public void addFailure(final Object id, final Throwable throwable) {
+        failures.put(id, throwable.getClass().getSimpleName() + ": " + throwable.getMessage());
+    }
+
+    public void addAll(final SolrIndexingResult result) {
+        indexedIds.addAll(result.indexedIds);
+        failures.putAll(result.failures);
+    }
+
+    public List<Object> getIndexedIds() {
+        return Collections.unmodifiableList(indexedIds);
+    }
+
+    /**
+     * @return the reason of each failure, by document id.
+     */
+    public Map<Object, String> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    public int getIndexedCount() {
+        return indexedIds.size();
+    }
+
+    public int getFailedCount() {
+        return failures.size();
+    }
+
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "SolrIndexingResult [indexed=" + indexedIds.size() + ", failed=" + failures.size() + "]";
+    }
+
+}
@@ -0,0 +1,21 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.solr.service;
+
+import java.io.IOException;
+
+/**
+ * Receives the documents of a streamed search one by one, see AbstractSolrService.streamBeans.
+ */
+public interface SolrResultHandler<T> {
+
+    void handle(T bean) throws IOException;
+
+}
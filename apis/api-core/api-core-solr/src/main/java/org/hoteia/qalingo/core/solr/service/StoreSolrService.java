@@ -10,8 +10,11 @@
 package org.hoteia.qalingo.core.solr.service;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
+import javax.annotation.PostConstruct;
+
 import org.apache.commons.lang.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrRequest;
@@ -38,8 +41,30 @@ public class StoreSolrService extends AbstractSolrService {
 
     @Autowired
     protected SolrServer storeSolrServer;
+
+    protected SolrBatchIndexer storeIndexer;
     
+    @PostConstruct
+    public void initIndexer() {
+        storeIndexer = buildIndexer("store", storeSolrServer);
+    }
+
+    /**
+     * Queues the document of the store for the batched writer : it is searchable after
+     * the commitWithin delay, not when the method returns.
+     */
     public void addOrUpdateStore(final Store store) throws SolrServerException, IOException {
+        storeIndexer.submit(buildStoreSolr(store));
+    }
+
+    /**
+     * Indexes the documents now, by batches, with the result of each document.
+     */
+    public SolrIndexingResult addOrUpdateStores(final Collection<StoreSolr> storeSolrs) {
+        return storeIndexer.index(storeSolrs);
+    }
+
+    public StoreSolr buildStoreSolr(final Store store) {
         if (store.getId() == null) {
             throw new IllegalArgumentException("Id  cannot be blank or null.");
         }
@@ -54,8 +79,7 @@ public class StoreSolrService extends AbstractSolrService {
         storeSolr.setCountryCode(store.getCountryCode());
         storeSolr.setPostalCode(store.getPostalCode());
         storeSolr.setType(store.getType());
-        storeSolrServer.addBean(storeSolr);
-        storeSolrServer.commit();
+        return storeSolr;
     }
     
     public StoreResponseBean searchStore(String searchBy, String searchText, List<String> facetFields) throws SolrServerException, IOException {
@@ -64,8 +88,13 @@ public class StoreSolrService extends AbstractSolrService {
 
     public StoreResponseBean searchStore(String searchBy, String searchText, List<String> facetFields,
                                          List<String> cities, List<String> countries) throws SolrServerException, IOException {
+        return checkTruncation(searchStore(searchBy, searchText, facetFields, cities, countries, START_DEFAULT_VALUE, ROWS_DEFAULT_VALUE), "searchStore");
+    }
+
+    public StoreResponseBean searchStore(String searchBy, String searchText, List<String> facetFields,
+                                         List<String> cities, List<String> countries, final int start, final int rows) throws SolrServerException, IOException {
         SolrQuery solrQuery = new SolrQuery();
-        solrQuery.setParam("rows", ROWS_DEFAULT_VALUE);
+        setPagination(solrQuery, start, rows);
         
         if (StringUtils.isEmpty(searchBy)) {
             throw new IllegalArgumentException("SearchBy field can not be Empty or Blank!");
@@ -127,12 +156,17 @@ public class StoreSolrService extends AbstractSolrService {
             List<FacetField> solrFacetFieldList = response.getFacetFields();
             storeResponseBean.setStoreSolrFacetFieldList(solrFacetFieldList);
         }
+        setPagination(storeResponseBean, response, solrQuery);
         return storeResponseBean;
     }
 	
     public StoreResponseBean searchStore() throws SolrServerException, IOException {
+        return checkTruncation(searchStore(START_DEFAULT_VALUE, ROWS_DEFAULT_VALUE), "searchStore");
+    }
+
+    public StoreResponseBean searchStore(final int start, final int rows) throws SolrServerException, IOException {
         SolrQuery solrQuery = new SolrQuery();
-        solrQuery.setParam("rows", ROWS_DEFAULT_VALUE);
+        setPagination(solrQuery, start, rows);
         
         solrQuery.setQuery("*");
         solrQuery.setFacet(true);
@@ -153,7 +187,19 @@ public class StoreSolrService extends AbstractSolrService {
         StoreResponseBean storeResponseBean = new StoreResponseBean();
         storeResponseBean.setStoreSolrList(solrList);
         storeResponseBean.setStoreSolrFacetFieldList(solrFacetFieldList);
+        setPagination(storeResponseBean, response, solrQuery);
         return storeResponseBean;
     }
-    
+
+    /**
+     * Streams every store matching the search to the handler, for the exports.
+     * 
+     * @return the number of stores handled.
+     */
+    public long streamStore(final String searchBy, final String searchText, final SolrResultHandler<StoreSolr> handler) throws SolrServerException, IOException {
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery(buildSearchQuery(searchBy, searchText));
+        return streamBeans(storeSolrServer, solrQuery, StoreSolr.class, handler);
+    }
+
 }
\ No newline at end of file
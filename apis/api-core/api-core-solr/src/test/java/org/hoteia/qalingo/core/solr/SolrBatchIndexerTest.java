@@ -0,0 +1,245 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.hoteia.qalingo.core.solr.bean.StoreSolr;
+import org.hoteia.qalingo.core.solr.service.SolrBatchIndexer;
+import org.hoteia.qalingo.core.solr.service.SolrIndexingResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * SolrBatchIndexer Test : queued documents, per document results, back-pressure, queued
+ * documents sent again or reported by flush when Solr is down, and the cost of a commit per
+ * document compared to the batches, on the embedded store core.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/conf/spring/qalingo-core-solr-test.xml" })
+public class SolrBatchIndexerTest {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final long FIRST_ID = 200000;
+    private static final String CODE_PREFIX = "BATCH";
+
+    @Autowired
+    protected SolrServer storeSolrServer;
+
+    private SolrBatchIndexer indexer;
+
+    @Before
+    public void setUp() throws Exception {
+        indexer = new SolrBatchIndexer("store-test", storeSolrServer, 100, 200, 1000, 0, 50, 10000);
+        indexer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        indexer.shutdown();
+        storeSolrServer.deleteByQuery("code:" + CODE_PREFIX + "*");
+        storeSolrServer.commit();
+    }
+
+    @Test
+    public void testSubmittedDocumentsAreWrittenByBatches() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            indexer.submit(buildStoreSolr(i));
+        }
+        indexer.flush(true);
+        assertEquals(0, indexer.getPendingDocuments());
+        assertEquals(1000, countDocuments());
+    }
+
+    @Test
+    public void testPartialFailureIsReportedByDocument() throws Exception {
+        List<Object> documents = new ArrayList<Object>();
+        for (int i = 0; i < 10; i++) {
+            documents.add(buildStoreSolr(i));
+        }
+        SolrInputDocument invalidDocument = new SolrInputDocument();
+        invalidDocument.addField("id", FIRST_ID + 99);
+        invalidDocument.addField("unknown_field", "value");
+        documents.add(5, invalidDocument);
+
+        SolrIndexingResult result = indexer.index(documents);
+        indexer.flush(true);
+
+        assertFalse(result.isSuccess());
+        assertEquals(10, result.getIndexedCount());
+        assertEquals(1, result.getFailedCount());
+        assertTrue(result.getFailures().containsKey(FIRST_ID + 99));
+        assertEquals(10, countDocuments());
+    }
+
+    @Test
+    public void testSubmitBlocksWhileSolrIsSlow() throws Exception {
+        SolrServer slowSolrServer = new SolrServer() {
+            @Override
+            public NamedList<Object> request(SolrRequest request) throws SolrServerException, IOException {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new NamedList<Object>();
+            }
+            @Override
+            public void shutdown() {
+            }
+        };
+        SolrBatchIndexer slowIndexer = new SolrBatchIndexer("store-slow", slowSolrServer, 1, 1, 1000, 0, 10, 100);
+        slowIndexer.start();
+        try {
+            slowIndexer.submit(buildStoreSolr(0));
+            slowIndexer.submit(buildStoreSolr(1));
+            long start = System.currentTimeMillis();
+            try {
+                slowIndexer.submit(buildStoreSolr(2));
+                fail("The queue is full while the first document is written");
+            } catch (IOException e) {
+                assertTrue(System.currentTimeMillis() - start >= 100);
+            }
+        } finally {
+            slowIndexer.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueuedDocumentsAreSentAgainByFlush() throws Exception {
+        DownSolrServer downSolrServer = new DownSolrServer(1);
+        SolrBatchIndexer downIndexer = new SolrBatchIndexer("store-down", downSolrServer, 100, 100, 1000, 0, 200, 1000);
+        downIndexer.start();
+        try {
+            for (int i = 0; i < 3; i++) {
+                downIndexer.submit(buildStoreSolr(i));
+            }
+            while (downIndexer.getFailedDocuments() < 3) {
+                Thread.sleep(10);
+            }
+            // NO RETRY ONE DOCUMENT BY ONE WHEN SOLR CAN'T BE REACHED
+            assertEquals(1, downSolrServer.requestCount.get());
+
+            downIndexer.flush(false);
+            assertEquals(2, downSolrServer.requestCount.get());
+            assertEquals(0, downIndexer.getFailedDocuments());
+        } finally {
+            downIndexer.shutdown();
+        }
+    }
+
+    @Test
+    public void testFlushReportsTheDocumentsNotIndexed() throws Exception {
+        DownSolrServer downSolrServer = new DownSolrServer(Integer.MAX_VALUE);
+        SolrBatchIndexer downIndexer = new SolrBatchIndexer("store-down", downSolrServer, 100, 100, 1000, 0, 200, 1000);
+        downIndexer.start();
+        try {
+            for (int i = 0; i < 3; i++) {
+                downIndexer.submit(buildStoreSolr(i));
+            }
+            try {
+                downIndexer.flush(false);
+                fail("The queued documents are not indexed");
+            } catch (SolrServerException e) {
+                assertTrue(e.getMessage().startsWith("3 queued documents not indexed"));
+            }
+        } finally {
+            downIndexer.shutdown();
+        }
+    }
+
+    @Test
+    public void benchmarkCommitPerDocumentAndBatches() throws Exception {
+        int documents = 200;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < documents; i++) {
+            storeSolrServer.addBean(buildStoreSolr(i));
+            storeSolrServer.commit();
+        }
+        long commitPerDocumentNanos = System.nanoTime() - start;
+
+        storeSolrServer.deleteByQuery("code:" + CODE_PREFIX + "*");
+        storeSolrServer.commit();
+
+        start = System.nanoTime();
+        for (int i = 0; i < documents; i++) {
+            indexer.submit(buildStoreSolr(i));
+        }
+        indexer.flush(true);
+        long batchNanos = System.nanoTime() - start;
+
+        assertEquals(documents, countDocuments());
+        logger.info("addBean and commit per document, " + documents + " documents : " + (commitPerDocumentNanos / 1000000) + " ms");
+        logger.info("Queued batches and one final commit, " + documents + " documents : " + (batchNanos / 1000000) + " ms");
+    }
+
+    /**
+     * Refuses the connection to the first failures requests.
+     */
+    private static class DownSolrServer extends SolrServer {
+        private final int failures;
+        private final AtomicInteger requestCount = new AtomicInteger();
+
+        private DownSolrServer(final int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request) throws SolrServerException, IOException {
+            if (requestCount.incrementAndGet() <= failures) {
+                throw new SolrServerException("IOException occured when talking to server", new ConnectException("Connection refused"));
+            }
+            return new NamedList<Object>();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    private long countDocuments() throws Exception {
+        return storeSolrServer.query(new SolrQuery("code:" + CODE_PREFIX + "*")).getResults().getNumFound();
+    }
+
+    private StoreSolr buildStoreSolr(final int index) {
+        StoreSolr storeSolr = new StoreSolr();
+        storeSolr.setId(FIRST_ID + index);
+        storeSolr.setCode(CODE_PREFIX + "_" + index);
+        storeSolr.setName("Store " + index);
+        storeSolr.setCity("Paris");
+        storeSolr.setCountryCode("FR");
+        return storeSolr;
+    }
+
+}
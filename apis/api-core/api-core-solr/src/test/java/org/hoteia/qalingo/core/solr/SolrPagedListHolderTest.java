@@ -0,0 +1,55 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.hoteia.qalingo.core.solr.response.SolrPagedListHolder;
+import org.hoteia.qalingo.core.solr.response.StoreResponseBean;
+import org.junit.Test;
+import org.springframework.beans.support.MutableSortDefinition;
+import org.springframework.beans.support.PagedListHolder;
+
+/**
+ * SolrPagedListHolder Test : the page count of a search comes from numFound, not from the
+ * rows held.
+ */
+public class SolrPagedListHolderTest {
+
+    @Test
+    public void testPageOfTheResponse() {
+        StoreResponseBean responseBean = new StoreResponseBean();
+        responseBean.setNumFound(2503);
+        responseBean.setStart(1240);
+        responseBean.setRows(20);
+        List<String> rows = Arrays.asList("B", "C", "A");
+
+        PagedListHolder<String> pagedListHolder = new SolrPagedListHolder<String>(rows, responseBean, new MutableSortDefinition("bytes", true, true));
+        assertEquals(62, pagedListHolder.getPage());
+        assertEquals(126, pagedListHolder.getPageCount());
+        assertEquals(2503, pagedListHolder.getNrOfElements());
+        assertEquals(1240, pagedListHolder.getFirstElementOnPage());
+        assertEquals(3, pagedListHolder.getPageList().size());
+        assertFalse(pagedListHolder.isFirstPage());
+        assertFalse(pagedListHolder.isLastPage());
+
+        responseBean.setNumFound(0);
+        responseBean.setStart(0);
+        pagedListHolder = new SolrPagedListHolder<String>(Arrays.<String> asList(), responseBean, null);
+        assertEquals(0, pagedListHolder.getPage());
+        assertTrue(pagedListHolder.getPageList().isEmpty());
+    }
+
+}
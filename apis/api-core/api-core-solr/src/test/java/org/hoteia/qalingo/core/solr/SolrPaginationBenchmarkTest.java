@@ -0,0 +1,172 @@
+/**
+ * Most of the code in the Qalingo project is copyrighted Hoteia and licensed
+ * under the Apache License Version 2.0 (release version 0.8.0)
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *                   Copyright (c) Hoteia, 2012-2014
+ * http://www.hoteia.com - http://twitter.com/hoteia - contact@hoteia.com
+ *
+ */
+package org.hoteia.qalingo.core.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest.METHOD;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.hoteia.qalingo.core.solr.bean.ProductMarketingSolr;
+import org.hoteia.qalingo.core.solr.response.ProductMarketingResponseBean;
+import org.hoteia.qalingo.core.solr.service.ProductMarketingSolrService;
+import org.hoteia.qalingo.core.solr.service.SolrResultHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Solr pagination Test : start/rows pages, numFound, streaming in id order, and the cost of
+ * the former unbounded query (rows=10000000) compared to a page and to the stream, on the
+ * embedded product-marketing core.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/conf/spring/qalingo-core-solr-test.xml" })
+public class SolrPaginationBenchmarkTest {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final long FIRST_ID = 100000;
+    private static final int DOCUMENTS = 5000;
+    private static final int ITERATIONS = 20;
+
+    private static final String SEARCH_BY = "code";
+    private static final String SEARCH_TEXT = "PAGINATION";
+
+    @Autowired
+    protected ProductMarketingSolrService productMarketingSolrService;
+
+    @Autowired
+    protected SolrServer productMarketingSolrServer;
+
+    @Before
+    public void setUp() throws Exception {
+        List<ProductMarketingSolr> productMarketingSolrs = new ArrayList<ProductMarketingSolr>();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            ProductMarketingSolr productMarketingSolr = new ProductMarketingSolr();
+            productMarketingSolr.setId(FIRST_ID + i);
+            productMarketingSolr.setCode(SEARCH_TEXT + "_" + i);
+            productMarketingSolr.setName("Product Marketing " + i);
+            productMarketingSolr.setDescription("Product Marketing description " + i);
+            productMarketingSolrs.add(productMarketingSolr);
+        }
+        productMarketingSolrServer.addBeans(productMarketingSolrs);
+        productMarketingSolrServer.commit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        productMarketingSolrServer.deleteByQuery(SEARCH_BY + ":" + SEARCH_TEXT + "*");
+        productMarketingSolrServer.commit();
+    }
+
+    @Test
+    public void testPages() throws Exception {
+        ProductMarketingResponseBean firstPage = productMarketingSolrService.searchProductMarketing(SEARCH_BY, SEARCH_TEXT, null, null, null, null, 0, 20);
+        ProductMarketingResponseBean secondPage = productMarketingSolrService.searchProductMarketing(SEARCH_BY, SEARCH_TEXT, null, null, null, null, 20, 20);
+
+        assertEquals(DOCUMENTS, firstPage.getNumFound());
+        assertEquals(20, firstPage.getProductMarketingSolrList().size());
+        assertEquals(20, secondPage.getStart());
+        assertTrue(secondPage.hasNextPage());
+        for (ProductMarketingSolr productMarketingSolr : secondPage.getProductMarketingSolrList()) {
+            for (ProductMarketingSolr firstPageProductMarketingSolr : firstPage.getProductMarketingSolrList()) {
+                assertFalse(productMarketingSolr.getId().equals(firstPageProductMarketingSolr.getId()));
+            }
+        }
+
+        ProductMarketingResponseBean lastPage = productMarketingSolrService.searchProductMarketing(SEARCH_BY, SEARCH_TEXT, null, null, null, null, DOCUMENTS - 10, 20);
+        assertEquals(10, lastPage.getProductMarketingSolrList().size());
+        assertFalse(lastPage.hasNextPage());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRowsAreBounded() throws Exception {
+        productMarketingSolrService.searchProductMarketing(SEARCH_BY, SEARCH_TEXT, null, null, null, null, 0, 10000000);
+    }
+
+    @Test
+    public void testStreamInIdOrder() throws Exception {
+        final List<Long> ids = new ArrayList<Long>();
+        long count = productMarketingSolrService.streamProductMarketing(SEARCH_BY, SEARCH_TEXT, null, new SolrResultHandler<ProductMarketingSolr>() {
+            public void handle(ProductMarketingSolr bean) throws IOException {
+                ids.add(bean.getId());
+            }
+        });
+        assertEquals(DOCUMENTS, count);
+        for (int i = 0; i < DOCUMENTS; i++) {
+            assertEquals(new Long(FIRST_ID + i), ids.get(i));
+        }
+    }
+
+    @Test
+    public void benchmarkUnboundedQueryPageAndStream() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            searchUnbounded();
+            productMarketingSolrService.searchProductMarketing(SEARCH_BY, SEARCH_TEXT, null, null, null, null, 0, 20);
+            stream();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertEquals(DOCUMENTS, searchUnbounded());
+        }
+        long unboundedNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            productMarketingSolrService.searchProductMarketing(SEARCH_BY, SEARCH_TEXT, null, null, null, null, 0, 20);
+        }
+        long pageNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertEquals(DOCUMENTS, stream());
+        }
+        long streamNanos = System.nanoTime() - start;
+
+        logger.info("Unbounded query, rows=10000000, " + DOCUMENTS + " documents : " + (unboundedNanos / ITERATIONS / 1000) + " us/op");
+        logger.info("First page, rows=20 : " + (pageNanos / ITERATIONS / 1000) + " us/op");
+        logger.info("Stream, " + DOCUMENTS + " documents by pages of 500 : " + (streamNanos / ITERATIONS / 1000) + " us/op");
+    }
+
+    /**
+     * The query every search method sent before the pagination.
+     */
+    private int searchUnbounded() throws Exception {
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setParam("rows", "10000000");
+        solrQuery.setQuery(SEARCH_BY + ":" + SEARCH_TEXT + "*");
+        QueryResponse response = new QueryResponse(productMarketingSolrServer.request(new QueryRequest(solrQuery, METHOD.POST)), productMarketingSolrServer);
+        return response.getBeans(ProductMarketingSolr.class).size();
+    }
+
+    private long stream() throws Exception {
+        return productMarketingSolrService.streamProductMarketing(SEARCH_BY, SEARCH_TEXT, null, new SolrResultHandler<ProductMarketingSolr>() {
+            public void handle(ProductMarketingSolr bean) throws IOException {
+            }
+        });
+    }
+
+}
@@ -9,12 +9,20 @@
  */
 package org.hoteia.qalingo.core.solr;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
+import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.hoteia.qalingo.core.domain.MarketArea;
 import org.hoteia.qalingo.core.domain.Store;
+import org.hoteia.qalingo.core.solr.bean.StoreSolr;
 import org.hoteia.qalingo.core.solr.response.StoreResponseBean;
 import org.hoteia.qalingo.core.solr.service.StoreSolrService;
 import org.junit.Before;
@@ -38,6 +46,9 @@ public class StoreSolrServiceTest {
     @Autowired
     protected StoreSolrService  storeSolrService;
 
+    @Autowired
+    protected SolrServer storeSolrServer;
+
     protected Store store;
     
     protected StoreResponseBean responseBean;
@@ -158,6 +169,35 @@ public class StoreSolrServiceTest {
         printData();
     }
 
+	/**
+	 * Test case to check: a search without start/rows flags the documents left after the first page
+	 */
+    @Test
+    public void testDefaultRowsSearchIsFlaggedTruncated() throws Exception {
+        List<StoreSolr> storeSolrs = new ArrayList<StoreSolr>();
+        for (int i = 0; i <= StoreSolrService.ROWS_DEFAULT_VALUE; i++) {
+            StoreSolr storeSolr = new StoreSolr();
+            storeSolr.setId(300000L + i);
+            storeSolr.setCode("TRUNCATED_" + i);
+            storeSolr.setName("Store " + i);
+            storeSolrs.add(storeSolr);
+        }
+        assertTrue(storeSolrService.addOrUpdateStores(storeSolrs).isSuccess());
+        storeSolrServer.commit();
+        try {
+            responseBean = storeSolrService.searchStore("code", "TRUNCATED", null);
+            assertTrue(responseBean.isTruncated());
+            assertEquals(StoreSolrService.ROWS_DEFAULT_VALUE + 1, responseBean.getNumFound());
+            assertEquals(StoreSolrService.ROWS_DEFAULT_VALUE, responseBean.getStoreSolrList().size());
+
+            responseBean = storeSolrService.searchStore("code", "TRUNCATED", null, null, null, 0, 10);
+            assertFalse(responseBean.isTruncated());
+        } finally {
+            storeSolrServer.deleteByQuery("code:TRUNCATED*");
+            storeSolrServer.commit();
+        }
+    }
+
     public void printData() {
         if (responseBean != null) {
             logger.debug("---Facets---");
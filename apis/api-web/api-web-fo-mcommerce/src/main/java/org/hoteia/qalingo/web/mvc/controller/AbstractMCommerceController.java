@@ -31,6 +31,8 @@ import org.hoteia.qalingo.core.service.ProductService;
 import org.hoteia.qalingo.core.service.WebManagementService;
 import org.hoteia.qalingo.core.solr.bean.ProductMarketingSolr;
 import org.hoteia.qalingo.core.solr.response.ProductMarketingResponseBean;
+import org.hoteia.qalingo.core.solr.response.SolrPagedListHolder;
+import org.hoteia.qalingo.core.solr.service.AbstractSolrService;
 import org.hoteia.qalingo.core.web.mvc.controller.AbstractFrontofficeQalingoController;
 import org.hoteia.qalingo.core.web.mvc.viewbean.ProductMarketingViewBean;
 import org.hoteia.qalingo.core.web.mvc.viewbean.RecentProductViewBean;
@@ -108,9 +110,18 @@ public abstract class AbstractMCommerceController extends AbstractFrontofficeQal
         }
     }
     
-    protected PagedListHolder<ProductMarketingViewBean> initList(final RequestData requestData, final String sessionKeyPagedListHolder, final ProductMarketingResponseBean productMarketingResponseBean,
-                                                                 PagedListHolder<ProductMarketingViewBean> pagedListHolder, final SearchForm searchForm) throws Exception{
-        int pageSize = searchForm.getPageSize();
+    /**
+     * @return the page size of the search, between 1 and the rows Solr returns at most
+     */
+    protected int getSearchPageSize(final SearchForm searchForm) {
+        return Math.min(Math.max(searchForm.getPageSize(), 1), AbstractSolrService.ROWS_MAX_VALUE);
+    }
+
+    /**
+     * Builds the view beans of the page returned by Solr only : the page count comes from the numFound of the response.
+     */
+    protected PagedListHolder<ProductMarketingViewBean> initList(final RequestData requestData, final ProductMarketingResponseBean productMarketingResponseBean,
+                                                                 final SearchForm searchForm) throws Exception{
         String sortBy = searchForm.getSortBy();
         String order = searchForm.getOrder();
         
@@ -123,11 +134,7 @@ public abstract class AbstractMCommerceController extends AbstractFrontofficeQal
             productMarketingViewBeans.add(productMarketingViewBean);
         }
         
-        pagedListHolder = new PagedListHolder<ProductMarketingViewBean>(productMarketingViewBeans);
-        pagedListHolder.setPageSize(pageSize);
-        pagedListHolder.setSort(new MutableSortDefinition(sortBy, true, Constants.PAGE_ORDER_ASC.equalsIgnoreCase(order)));
-        pagedListHolder.resort();
-//        request.getSession().setAttribute(sessionKeyPagedListHolder, productsViewBeanPagedListHolder);
-        return pagedListHolder;
+        return new SolrPagedListHolder<ProductMarketingViewBean>(productMarketingViewBeans, productMarketingResponseBean, 
+                                                                 new MutableSortDefinition(sortBy, true, Constants.PAGE_ORDER_ASC.equalsIgnoreCase(order)));
     }
 }
\ No newline at end of file
@@ -112,54 +112,41 @@ public class CatalogSearchController extends AbstractMCommerceController {
         
 		String url = requestUtil.getCurrentRequestUrl(request);
 		
-		String sessionKeyPagedListHolder = "Search_ProductMarketing_PagedListHolder_" + request.getSession().getId();
+		String sessionKeySearchForm = "Search_ProductMarketing_SearchForm_" + request.getSession().getId();
         String sessionKeyFacet = "Search_ProductMarketing_Facet_" + request.getSession().getId();
-        int page = searchForm.getPage() - 1;
+        int page = Math.max(searchForm.getPage() - 1, 0);
         String mode = request.getParameter(Constants.PAGE_VIEW_MODE);
         String sortBy = searchForm.getSortBy();
         String order = searchForm.getOrder();
 		
 		try {
-            PagedListHolder<ProductMarketingViewBean> pagedListHolder;
+		    // THE SESSION KEEPS THE CRITERIA OF THE SEARCH, EACH PAGE IS ASKED TO SOLR
+		    SearchForm searchCriteria = searchForm;
 		    if(searchForm.getPage() == 0){
-	            ProductMarketingResponseBean productMarketingResponseBean = null;
-	            if(searchForm.getPrice() != null){
-	                productMarketingResponseBean = productMarketingSolrService.searchProductMarketing(ProductMarketingResponseBean.PRODUCT_MARKETING_DEFAULT_SEARCH_FIELD, 
-	                        searchForm.getText(), ProductMarketingResponseBean.PRODUCT_MARKETING_DEFAULT_FACET_FIELD, searchForm.getPrice().getStartValue(), searchForm.getPrice().getEndValue(), 
-	                        searchForm.getCatalogCategoryList());
-	                productMarketingResponseBean = productMarketingSolrService.searchProductMarketing(ProductMarketingResponseBean.PRODUCT_MARKETING_DEFAULT_SEARCH_FIELD, 
-	                        searchForm.getText(), ProductMarketingResponseBean.PRODUCT_MARKETING_DEFAULT_FACET_FIELD, searchForm.getPrice().getStartValue(), searchForm.getPrice().getEndValue());
-	                
-	            } else {
-	                productMarketingResponseBean = productMarketingSolrService.searchProductMarketing(ProductMarketingResponseBean.PRODUCT_MARKETING_DEFAULT_SEARCH_FIELD, 
-	                                                        searchForm.getText(), ProductMarketingResponseBean.PRODUCT_MARKETING_DEFAULT_FACET_FIELD);
-	            }
-	            
-	            pagedListHolder = initList(requestData, sessionKeyPagedListHolder, productMarketingResponseBean, new PagedListHolder<ProductMarketingViewBean>(), searchForm);
+		        request.getSession().setAttribute(sessionKeySearchForm, searchForm);
+		    } else if(request.getSession().getAttribute(sessionKeySearchForm) != null){
+		        searchCriteria = (SearchForm) request.getSession().getAttribute(sessionKeySearchForm);
+		    }
+		    int pageSize = getSearchPageSize(searchCriteria);
+		    ProductMarketingResponseBean productMarketingResponseBean = searchProductMarketing(searchCriteria, page * pageSize, pageSize);
+		    if(page > 0 && productMarketingResponseBean.getNumFound() <= page * pageSize){
+		        // PAGE AFTER THE LAST ONE : THE LAST PAGE
+		        page = (int) Math.max((productMarketingResponseBean.getNumFound() - 1) / pageSize, 0);
+		        productMarketingResponseBean = searchProductMarketing(searchCriteria, page * pageSize, pageSize);
+		    }
+		    PagedListHolder<ProductMarketingViewBean> pagedListHolder = initList(requestData, productMarketingResponseBean, searchCriteria);
 
+		    if(searchForm.getPage() == 0){
 	            // FACETS
                 List<SearchFacetViewBean> facets = frontofficeViewBeanFactory.buildListViewBeanCatalogSearchFacet(requestData, productMarketingResponseBean);
                 modelAndView.addObject(AbstractSolrService.SEARCH_FACET_FIELD_LIST, facets);
                 request.getSession().setAttribute(sessionKeyFacet, facets);
 
 		    } else {
-		        pagedListHolder = (PagedListHolder<ProductMarketingViewBean>) request.getSession().getAttribute(sessionKeyPagedListHolder);
-		        
 		        // FACETS
                 List<SearchFacetViewBean> facets = (List<SearchFacetViewBean>) request.getSession().getAttribute(sessionKeyFacet);
                 modelAndView.addObject(AbstractSolrService.SEARCH_FACET_FIELD_LIST, facets);
 		    }
-			
-	        int pageCurrent = pagedListHolder.getPage();
-	        if (pageCurrent < page) { 
-	        	for (int i = pageCurrent; i < page; i++) {
-	        		pagedListHolder.nextPage(); 
-				}
-	        } else if (pageCurrent > page) { 
-	        	for (int i = page; i < pageCurrent; i++) {
-		        	pagedListHolder.previousPage(); 
-				}
-	        }
 	        
 			modelAndView.addObject(Constants.PAGINATION_PAGE_URL, url);
 			modelAndView.addObject(Constants.PAGINATION_PAGE_PAGED_LIST_HOLDER, pagedListHolder);
@@ -188,6 +175,15 @@ public class CatalogSearchController extends AbstractMCommerceController {
         return modelAndView;
 	}
 	
+    protected ProductMarketingResponseBean searchProductMarketing(final SearchForm searchForm, final int start, final int rows) throws Exception {
+        if(searchForm.getPrice() != null){
+            return productMarketingSolrService.searchProductMarketing(ProductMarketingResponseBean.PRODUCT_MARKETING_DEFAULT_SEARCH_FIELD, searchForm.getText(), 
+                    ProductMarketingResponseBean.PRODUCT_MARKETING_DEFAULT_FACET_FIELD, searchForm.getPrice().getStartValue(), searchForm.getPrice().getEndValue(), null, start, rows);
+        }
+        return productMarketingSolrService.searchProductMarketing(ProductMarketingResponseBean.PRODUCT_MARKETING_DEFAULT_SEARCH_FIELD, searchForm.getText(), 
+                ProductMarketingResponseBean.PRODUCT_MARKETING_DEFAULT_FACET_FIELD, null, null, null, start, rows);
+    }
+
     protected ModelAndView displaySearch(final HttpServletRequest request, final Model model) throws Exception {
         ModelAndViewThemeDevice modelAndView = new ModelAndViewThemeDevice(getCurrentVelocityPath(request), FoUrls.CATALOG_SEARCH.getVelocityPage());
         final RequestData requestData = requestUtil.getRequestData(request);
@@ -258,6 +254,7 @@ public class CatalogSearchController extends AbstractMCommerceController {
                 productMarketingSolrService.addOrUpdateProductMarketing(productMarketing, catalogCategories, marketArea, retailer);
             }
         }
+        productMarketingSolrService.flushIndexing(true);
 
         return new ModelAndView(new RedirectView(urlService.generateUrl(FoUrls.CATALOG_SEARCH, requestUtil.getRequestData(request))));
     }
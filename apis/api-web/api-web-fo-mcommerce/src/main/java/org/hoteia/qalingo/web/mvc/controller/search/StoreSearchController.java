@@ -34,6 +34,7 @@ import org.hoteia.qalingo.core.pojo.RequestData;
 import org.hoteia.qalingo.core.service.ProductService;
 import org.hoteia.qalingo.core.service.RetailerService;
 import org.hoteia.qalingo.core.solr.bean.StoreSolr;
+import org.hoteia.qalingo.core.solr.response.SolrPagedListHolder;
 import org.hoteia.qalingo.core.solr.response.StoreResponseBean;
 import org.hoteia.qalingo.core.solr.service.AbstractSolrService;
 import org.hoteia.qalingo.core.solr.service.StoreSolrService;
@@ -101,9 +102,9 @@ public class StoreSearchController extends AbstractMCommerceController {
 
 		String url = requestUtil.getCurrentRequestUrl(request);
 		
-		String sessionKeyPagedListHolder = "Search_Store_PagedListHolder_" + request.getSession().getId();
+		String sessionKeySearchForm = "Search_Store_SearchForm_" + request.getSession().getId();
         String sessionKeyFacet = "Search_Store_Facet_" + request.getSession().getId();
-        int page = searchForm.getPage() - 1;
+        int page = Math.max(searchForm.getPage() - 1, 0);
         String mode = request.getParameter(Constants.PAGE_VIEW_MODE);
         String cities = request.getParameter("cities");
         String countries = request.getParameter("countries");
@@ -127,38 +128,39 @@ public class StoreSearchController extends AbstractMCommerceController {
         String order = searchForm.getOrder();
 		
 		try {
-            PagedListHolder<StoreViewBean> pagedListHolder;
+		    // THE SESSION KEEPS THE CRITERIA OF THE SEARCH, EACH PAGE IS ASKED TO SOLR
+		    SearchForm searchCriteria = searchForm;
+		    if(searchForm.getPage() == 0){
+		        request.getSession().setAttribute(sessionKeySearchForm, searchForm);
+		    } else if(request.getSession().getAttribute(sessionKeySearchForm) != null){
+		        searchCriteria = (SearchForm) request.getSession().getAttribute(sessionKeySearchForm);
+		    }
+		    int pageSize = getSearchPageSize(searchCriteria);
+		    List<String> facetFields = Arrays.asList(StoreResponseBean.STORE_DEFAULT_FACET_FIELD,StoreResponseBean.STORE_SECOND_FACET_FIELD);
+		    StoreResponseBean storeResponseBean = storeSolrService.searchStore(StoreResponseBean.STORE_DEFAULT_SEARCH_FIELD, searchCriteria.getText(), facetFields, cityList, countryList, 
+		                                                                       page * pageSize, pageSize);
+		    if(page > 0 && storeResponseBean.getNumFound() <= page * pageSize){
+		        // PAGE AFTER THE LAST ONE : THE LAST PAGE
+		        page = (int) Math.max((storeResponseBean.getNumFound() - 1) / pageSize, 0);
+		        storeResponseBean = storeSolrService.searchStore(StoreResponseBean.STORE_DEFAULT_SEARCH_FIELD, searchCriteria.getText(), facetFields, cityList, countryList, 
+		                                                         page * pageSize, pageSize);
+		    }
+		    PagedListHolder<StoreViewBean> pagedListHolder = initList(requestData, storeResponseBean, searchCriteria);
+
 			if(searchForm.getPage() == 0){
-	            StoreResponseBean storeResponseBean = null;
-	            List<String> facetFields = Arrays.asList(StoreResponseBean.STORE_DEFAULT_FACET_FIELD,StoreResponseBean.STORE_SECOND_FACET_FIELD);
-	            storeResponseBean = storeSolrService.searchStore(StoreResponseBean.STORE_DEFAULT_SEARCH_FIELD, searchForm.getText(), facetFields, cityList,countryList);
-	            StoreResponseBean storeResponBeanNonFilter = storeSolrService.searchStore(StoreResponseBean.STORE_DEFAULT_SEARCH_FIELD, searchForm.getText(), facetFields);
-	            pagedListHolder = initList(requestData, sessionKeyPagedListHolder, storeResponseBean, new PagedListHolder<StoreViewBean>(), searchForm);
-	            
-	            // FACETS
+	            // FACETS : WITHOUT THE CITY AND COUNTRY FILTERS, NO ROW NEEDED
+	            StoreResponseBean storeResponBeanNonFilter = storeSolrService.searchStore(StoreResponseBean.STORE_DEFAULT_SEARCH_FIELD, searchCriteria.getText(), facetFields, 
+	                                                                                      null, null, AbstractSolrService.START_DEFAULT_VALUE, 0);
                 List<SearchFacetViewBean> facets = frontofficeViewBeanFactory.buildListViewBeanStoreSearchFacet(requestData, storeResponBeanNonFilter);
 	            modelAndView.addObject(AbstractSolrService.SEARCH_FACET_FIELD_LIST, facets);
 	            request.getSession().setAttribute(sessionKeyFacet, facets);
 			    
 			} else {
-			    pagedListHolder = (PagedListHolder<StoreViewBean>) request.getSession().getAttribute(sessionKeyPagedListHolder);
-			    
 			    // FACETS
                 List<SearchFacetViewBean> facets = (List<SearchFacetViewBean>) request.getSession().getAttribute(sessionKeyFacet);
                 modelAndView.addObject(AbstractSolrService.SEARCH_FACET_FIELD_LIST, facets);
 			}
 	        
-	        int pageCurrent = pagedListHolder.getPage();
-	        if (pageCurrent < page) { 
-	        	for (int i = pageCurrent; i < page; i++) {
-	        	    pagedListHolder.nextPage(); 
-				}
-	        } else if (pageCurrent > page) { 
-	        	for (int i = page; i < pageCurrent; i++) {
-	        	    pagedListHolder.previousPage(); 
-				}
-	        }
-	        
 			modelAndView.addObject(Constants.PAGINATION_PAGE_URL, url);
 			modelAndView.addObject(Constants.PAGINATION_PAGE_PAGED_LIST_HOLDER, pagedListHolder);
 			modelAndView.addObject(Constants.SEARCH_TEXT, searchForm.getText());
@@ -238,10 +240,10 @@ public class StoreSearchController extends AbstractMCommerceController {
         return formFactory.buildSearchForm(requestData);
     }
 	
-	private PagedListHolder<StoreViewBean> initList(final RequestData requestData, final String sessionKeyPagedListHolder, final StoreResponseBean storeResponseBean,
-			                                        PagedListHolder<StoreViewBean> pagedListHolder, final SearchForm searchForm) throws Exception {
-	    final HttpServletRequest request = requestData.getRequest();
-		int pageSize = searchForm.getPageSize();
+	/**
+	 * Builds the view beans of the page returned by Solr only : the page count comes from the numFound of the response.
+	 */
+	private PagedListHolder<StoreViewBean> initList(final RequestData requestData, final StoreResponseBean storeResponseBean, final SearchForm searchForm) throws Exception {
 		String sortBy = searchForm.getSortBy();
         String order = searchForm.getOrder();
         
@@ -254,12 +256,8 @@ public class StoreSearchController extends AbstractMCommerceController {
             storeViewBeans.add(storeViewBean);
         }
         
-        pagedListHolder = new PagedListHolder<StoreViewBean>(storeViewBeans);
-        pagedListHolder.setPageSize(pageSize);
-        pagedListHolder.setSort(new MutableSortDefinition(sortBy, true, Constants.PAGE_ORDER_ASC.equalsIgnoreCase(order)));
-        pagedListHolder.resort();
-        request.getSession().setAttribute(sessionKeyPagedListHolder, pagedListHolder);
-        return pagedListHolder;
+        return new SolrPagedListHolder<StoreViewBean>(storeViewBeans, storeResponseBean, 
+                                                      new MutableSortDefinition(sortBy, true, Constants.PAGE_ORDER_ASC.equalsIgnoreCase(order)));
 	}
 	
     // TODO : Temporary
@@ -278,6 +276,7 @@ public class StoreSearchController extends AbstractMCommerceController {
                 storeSolrService.addOrUpdateStore(store);
             }
         }
+        storeSolrService.flushIndexing(true);
         return new ModelAndView(new RedirectView(urlService.generateUrl(FoUrls.STORE_SEARCH, requestUtil.getRequestData(request))));
     }
     
@@ -100,11 +100,33 @@ CREATE TABLE `tbo_email` (
   `DATE_UPDATE` datetime DEFAULT NULL,
   `EMAIL_CONTENT` longblob,
   `EXCEPTION_CONTENT` longblob,
+  `HTML_BODY_HASH` varchar(40) DEFAULT NULL,
+  `TEXT_BODY_HASH` varchar(40) DEFAULT NULL,
   `PROCESSED_COUNT` int(11) NOT NULL DEFAULT '0',
   `STATUS` varchar(255) NOT NULL,
   `TYPE` varchar(255) DEFAULT NULL,
   `VERSION` int(11) NOT NULL DEFAULT '1',
-  PRIMARY KEY (`ID`)
+  PRIMARY KEY (`ID`),
+  KEY `IDX_EMAIL_HTML_BODY_HASH` (`HTML_BODY_HASH`),
+  KEY `IDX_EMAIL_TEXT_BODY_HASH` (`TEXT_BODY_HASH`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `tbo_email_body`
+--
+
+DROP TABLE IF EXISTS `tbo_email_body`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `tbo_email_body` (
+  `ID` bigint(20) NOT NULL AUTO_INCREMENT,
+  `HASH` varchar(40) NOT NULL,
+  `CONTENT` longblob,
+  `DATE_CREATE` datetime DEFAULT NULL,
+  `DATE_UPDATE` datetime DEFAULT NULL,
+  PRIMARY KEY (`ID`),
+  UNIQUE KEY `HASH` (`HASH`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
@@ -1816,7 +1838,9 @@ CREATE TABLE `teco_order_number` (
   `ID` bigint(20) NOT NULL AUTO_INCREMENT,
   `LAST_ORDER_NUMBER` int(11) DEFAULT NULL,
   `VERSION` int(11) NOT NULL DEFAULT '1',
-  PRIMARY KEY (`ID`)
+  `MARKET_AREA_ID` bigint(20) DEFAULT NULL,
+  PRIMARY KEY (`ID`),
+  UNIQUE KEY `UK_ORDER_NUMBER_MARKET_AREA` (`MARKET_AREA_ID`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 /*!40101 SET character_set_client = @saved_cs_client */;
 